@@ -0,0 +1,236 @@
+package mobileappdev.assassingame;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends kills, revives, arrests and leaves to the server instead of applying them from the
+ * device. The resolveAction cloud function checks roles, liveness, the assassin's target and the
+ * distance between the players, then updates statuses, citizens_alive and the game result in one
+ * transaction on the game's {@link FirebaseHelper#getStatePath state} and writes back an
+ * {@link Outcome}. Its rules are the ones {@link GameEngine} implements. Joining and starting a
+ * game go the same way, because the database rules keep clients out of the state.
+ *
+ * Requests go to games/&lt;game&gt;/actions/&lt;push id&gt;, which the function deletes once
+ * resolved, and the outcome comes back under games/&lt;game&gt;/outcomes/&lt;push id&gt;. The
+ * database rules only accept requests naming the caller as the actor and let only the function
+ * write outcomes, which it clears when the game starts again. Use from the main thread;
+ * {@link #cancel()} belongs in the owner's onDestroy.
+ */
+public class ActionResolver {
+
+    private static final String TAG = "ActionResolver";
+
+    public static final long OUTCOME_TIMEOUT = 15000; // in msec
+
+    public static final String ACTIONS = "actions";
+    public static final String OUTCOMES = "outcomes";
+    public static final String TYPE = "type";
+    public static final String ACTOR = "actor";
+    public static final String TARGET = "target";
+    public static final String REQUESTED_AT = "requested_at";
+    public static final String ROLES = "roles";
+    public static final String JOIN = "JOIN";
+    public static final String START = "START";
+    public static final String ACCEPTED = "accepted";
+    public static final String REASON = "reason";
+    public static final String DISTANCE = "distance";
+
+    public static class Outcome {
+        private final boolean mAccepted;
+        private final GameEngine.Reason mReason;
+        private final double mDistance;
+
+        Outcome(boolean accepted, GameEngine.Reason reason, double distance) {
+            mAccepted = accepted;
+            mReason = reason;
+            mDistance = distance;
+        }
+
+        public boolean isAccepted() {
+            return mAccepted;
+        }
+
+        public GameEngine.Reason getReason() {
+            return mReason;
+        }
+
+        /**
+         * @return distance between the players in meters as the server saw it, or
+         * {@link Double#NaN} if it wasn't measured
+         */
+        public double getDistance() {
+            return mDistance;
+        }
+    }
+
+    /**
+     * A submitted action whose outcome hasn't arrived yet.
+     */
+    private class Pending implements RealtimeStore.ValueListener, Runnable {
+        final String outcomePath;
+        final TaskCompletionSource<Outcome> source = new TaskCompletionSource<>();
+
+        Pending(String outcomePath) {
+            this.outcomePath = outcomePath;
+        }
+
+        @Override
+        public void onValueChanged(String path, Object value) {
+            if (value == null)
+                return; // not resolved yet
+            if (finish(this)) {
+                source.setResult(toOutcome(value));
+            }
+        }
+
+        @Override
+        public void onCancelled(Exception error) {
+            if (finish(this)) {
+                Log.w(TAG, "Failed to read outcome.", error);
+                source.setException(error);
+            }
+        }
+
+        /**
+         * Timeout; the function failed, gave up or never ran.
+         */
+        @Override
+        public void run() {
+            if (finish(this)) {
+                source.setException(new TimeoutException("No outcome at " + outcomePath));
+            }
+        }
+    }
+
+    private final RealtimeStore mStore;
+    private final String mGameName;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Pending> mPending = new ArrayList<>();
+
+    public ActionResolver(String gameName) {
+        mStore = FirebaseHelper.getStore();
+        mGameName = gameName;
+    }
+
+    public static String getActionsPath(String gameName) {
+        return "games/" + gameName + "/" + ACTIONS;
+    }
+
+    public static String getOutcomesPath(String gameName) {
+        return "games/" + gameName + "/" + OUTCOMES;
+    }
+
+    /**
+     * Queues the action and waits for its outcome.
+     *
+     * @return task resolving to the outcome; fails with a {@link TimeoutException} if none
+     * arrives within {@link #OUTCOME_TIMEOUT}, or a {@link CancellationException} after
+     * {@link #cancel()}
+     */
+    public Task<Outcome> submit(GameEngine.Action action, String actor, String target) {
+        return submit(request(action.toString(), actor, target));
+    }
+
+    /**
+     * Asks to start the game, or its next round, with these roles, and waits like
+     * {@link #submit}. Only the game's admin may, and every player must have joined.
+     */
+    public Task<Outcome> start(String admin, Map<String, GameCharacter> roles) {
+        Map<String, Object> codes = new HashMap<>();
+        for (Map.Entry<String, GameCharacter> entry : roles.entrySet()) {
+            codes.put(entry.getKey(), entry.getValue().getCode());
+        }
+        Map<String, Object> request = request(START, admin, null);
+        request.put(ROLES, codes);
+        return submit(request);
+    }
+
+    /**
+     * Adds the player to the game without waiting; the server decides their role and status from
+     * whether it is running.
+     *
+     * @return the action's push id
+     */
+    public String join(String player) {
+        return send(request(JOIN, player, null));
+    }
+
+    private Task<Outcome> submit(Map<String, Object> request) {
+        String actionId = send(request);
+        Pending pending = new Pending(getOutcomesPath(mGameName) + "/" + actionId);
+        mPending.add(pending);
+        mStore.addValueListener(new RealtimeStore.Query(pending.outcomePath), pending);
+        mHandler.postDelayed(pending, OUTCOME_TIMEOUT);
+        return pending.source.getTask();
+    }
+
+    /**
+     * Queues the action without waiting for the outcome, e.g. a player leaving from onDestroy.
+     *
+     * @return the action's push id
+     */
+    public String send(GameEngine.Action action, String actor, String target) {
+        return send(request(action.toString(), actor, target));
+    }
+
+    private String send(Map<String, Object> request) {
+        String actionId = mStore.push(getActionsPath(mGameName));
+        mStore.setValue(getActionsPath(mGameName) + "/" + actionId, request, null);
+        return actionId;
+    }
+
+    private static Map<String, Object> request(String type, String actor, String target) {
+        Map<String, Object> request = new HashMap<>();
+        request.put(TYPE, type);
+        request.put(ACTOR, actor);
+        if (target != null) {
+            request.put(TARGET, target);
+        }
+        request.put(REQUESTED_AT, RealtimeStore.TIMESTAMP);
+        return request;
+    }
+
+    /**
+     * Stops waiting for every outcome; their tasks fail with a {@link CancellationException}.
+     * The server still resolves the actions.
+     */
+    public void cancel() {
+        for (Pending pending : new ArrayList<>(mPending)) {
+            if (finish(pending)) {
+                pending.source.setException(new CancellationException("Stopped waiting for " + pending.outcomePath));
+            }
+        }
+    }
+
+    /**
+     * @return false if the action was already finished
+     */
+    private boolean finish(Pending pending) {
+        if (!mPending.remove(pending))
+            return false;
+        mStore.removeListener(pending);
+        mHandler.removeCallbacks(pending);
+        return true;
+    }
+
+    private static Outcome toOutcome(Object value) {
+        Map<?, ?> outcome = value instanceof Map ? (Map<?, ?>) value : new HashMap<>();
+        Object reason = outcome.get(REASON);
+        Object distance = outcome.get(DISTANCE);
+        return new Outcome(Boolean.TRUE.equals(outcome.get(ACCEPTED)),
+                GameEngine.Reason.getReasonFrom(reason == null ? null : reason.toString()),
+                distance instanceof Number ? ((Number) distance).doubleValue() : Double.NaN);
+    }
+}
@@ -3,8 +3,6 @@ package mobileappdev.assassingame;
 import android.content.Context;
 import android.os.AsyncTask;
 
-import java.util.Map;
-
 /**
  * @author: Ajit Ku. Sahoo
  * @Date: 4/5/2017
@@ -16,13 +14,10 @@ public class AsyncTaskCancelGame extends AsyncTask<Context, Void, Void> {
         Game gameInstance = Game.getInstance();
         String gameName = gameInstance.getGameName();
 
-        FirebaseHelper.deleteGame(gameName);
-
-        Map<String, Player> name2PlayerMap = gameInstance.getName2PlayerMap();
-        DatabaseHandler databaseHandler = new DatabaseHandler(params[0], gameName);
-        for (String playerName : name2PlayerMap.keySet()) {
-            databaseHandler.deletePlayer(playerName);
-        }
+        FirebaseHelper.deleteGame(gameName, gameInstance.getGameAdmin());
+        FirebaseHelper.releaseGameName(gameName, gameInstance.getGameAdmin());
+        ChatStore.getInstance(params[0]).deleteGame(gameName);
+        DatabaseHandler.getInstance(params[0]).deleteGame(gameName);
 
         return null;
     }
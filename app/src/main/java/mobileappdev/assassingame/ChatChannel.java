@@ -0,0 +1,65 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chat channels of a game. Each one is its own node under games/&lt;game&gt;, so a player only
+ * listens to, and downloads, the channels they are entitled to instead of every message of the
+ * game.
+ *
+ * {@link #canRead} and {@link #canWrite} only decide what the app offers. The server enforces the
+ * same entitlements in cloudfunctions/database.rules.json, from the role and status codes in the
+ * game's {@link FirebaseHelper#getStatePath state}, so a change here needs the same change there.
+ */
+public enum ChatChannel {
+    /** Everybody reads it; only the living write. */
+    GLOBAL("messages", "Everyone"),
+    /** The dead talk among themselves without spoiling the game for the living. */
+    DEAD("messages_dead", "Graveyard"),
+    /** The detective and the doctor, who work for the town together. */
+    TOWN("messages_town", "Town");
+
+    private final String mNode;
+    private final String mTitle;
+
+    ChatChannel(String node, String title) {
+        mNode = node;
+        mTitle = title;
+    }
+
+    public String getPath(String gameName) {
+        return "games/" + gameName + "/" + mNode;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public boolean canRead(GameCharacter role, boolean alive) {
+        switch (this) {
+            case GLOBAL:
+                return true;
+            case DEAD:
+                return !alive;
+            case TOWN:
+                return alive && (role == GameCharacter.DETECTIVE || role == GameCharacter.DOCTOR);
+            default:
+                return false;
+        }
+    }
+
+    public boolean canWrite(GameCharacter role, boolean alive) {
+        return canRead(role, alive) && (this != GLOBAL || alive);
+    }
+
+    public static List<ChatChannel> getReadableChannels(GameCharacter role, boolean alive) {
+        List<ChatChannel> channels = new ArrayList<>();
+        for (ChatChannel channel : values()) {
+            if (channel.canRead(role, alive)) {
+                channels.add(channel);
+            }
+        }
+        return channels;
+    }
+}
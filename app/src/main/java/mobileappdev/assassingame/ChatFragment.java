@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -31,20 +33,26 @@ import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.android.gms.auth.api.Auth;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
 import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
 import com.google.firebase.remoteconfig.FirebaseRemoteConfigSettings;
 import com.google.firebase.storage.FirebaseStorage;
-import com.firebase.ui.database.FirebaseRecyclerAdapter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,6 +73,61 @@ public class ChatFragment extends Fragment {
         }
     }
 
+    private class MessageAdapter extends RecyclerView.Adapter<MessageViewHolder> {
+        @Override
+        public MessageViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new MessageViewHolder(LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_message, parent, false));
+        }
+
+        @Override
+        public void onBindViewHolder(MessageViewHolder viewHolder, int position) {
+            ChatMessage chatMessage = mWindow.get(position);
+            mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+            if (chatMessage.getText() != null) {
+                viewHolder.messageTextView.setText(chatMessage.getText());
+                viewHolder.messageTextView.setVisibility(TextView.VISIBLE);
+            } else {
+
+                viewHolder.messageTextView.setVisibility(TextView.GONE);
+            }
+
+
+            viewHolder.messengerTextView.setText(chatMessage.getName());
+        }
+
+        @Override
+        public int getItemCount() {
+            return mWindow.size();
+        }
+    }
+
+    private final ChildEventListener mLiveListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+            onLiveMessage(toMessage(dataSnapshot));
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+            onLiveMessage(toMessage(dataSnapshot));
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot dataSnapshot) {
+            // limitToLast() reports older messages sliding out of the live page; the window keeps them
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            Log.w(TAG, "Chat listener cancelled", databaseError.toException());
+        }
+    };
+
     private static final String TAG = "ChatFragment";
     public static String MESSAGES_CHILD = "messages";
     private static final int REQUEST_INVITE = 1;
@@ -77,6 +140,10 @@ public class ChatFragment extends Fragment {
     private SharedPreferences mSharedPreferences;
     private GoogleApiClient mGoogleApiClient;
     private static final String MESSAGE_URL = "http://friendlychat.firebase.google.com/message/";
+    private static final int PAGE_SIZE = 30;
+    private static final int WINDOW_SIZE = 150; // messages kept in memory
+    private static final int PREFETCH_DISTANCE = 5; // rows from an edge that trigger the next page
+    private static final long LIVE_STORE_DELAY = 16; // in msec, live messages stored together
 
     private Button mSendButton;
     private RecyclerView mMessageRecyclerView;
@@ -87,10 +154,45 @@ public class ChatFragment extends Fragment {
 
     // Firebase instance variables
     private DatabaseReference mFirebaseDatabaseReference;
-    private FirebaseRecyclerAdapter<ChatMessage, MessageViewHolder>
-    mFirebaseAdapter;
+    private Query mLiveQuery;
+    private ChatStore mStore;
+    private String mGameName;
+    private GameCharacter mRole;
+    private boolean mAlive;
+    private ChatChannel mChannel;
+    private ChatSendQueue mSendQueue;
+    // counts channel openings, so a stored tail that arrives late can tell it's stale
+    private int mOpening;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<ChatMessage> mUnstoredLive = new ArrayList<>();
+    // the stored high-water mark until the first live message shows whether the live page
+    // reaches back to it
+    private String mLiveStartsAfter;
+    // live messages past a gap after the stored ones, held back from the window and the store
+    // until paging forward has filled the gap
+    private boolean mGapBeforeLive;
+    private final List<ChatMessage> mHeldLive = new ArrayList<>();
+    private final Runnable mStoreLive = new Runnable() {
+        @Override
+        public void run() {
+            storeLiveMessages();
+        }
+    };
+    private ChatWindow mWindow;
+    private MessageAdapter mAdapter;
+    private boolean mLoadingOlder;
+    private boolean mLoadingNewer;
     private FirebaseRemoteConfig mFirebaseRemoteConfig;
 
+    private final ChatSendQueue.Listener mSendQueueListener = new ChatSendQueue.Listener() {
+        @Override
+        public void onDropped(List<ChatMessage> messages, Exception error) {
+            if (getActivity() != null) {
+                Toast.makeText(getActivity(), "Couldn't send " + messages.size() + " message(s).", Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -108,8 +210,11 @@ public class ChatFragment extends Fragment {
         mProgressBar = (ProgressBar) chatView.findViewById(R.id.progressBar);
         mMessageRecyclerView = (RecyclerView) chatView.findViewById(R.id.messageRecyclerView);
 
-        MESSAGES_CHILD = "games/" + getActivity().getIntent().getStringExtra("GAME")+ "/messages";
-        Log.d("MSG", "Messages child: " + MESSAGES_CHILD);
+        mGameName = getActivity().getIntent().getStringExtra("GAME");
+        mAlive = getActivity().getIntent().getBooleanExtra("AM_I_ALIVE", true);
+        String role = getActivity().getIntent().getStringExtra("ROLE");
+        mRole = GameCharacter.decode(role, GameCharacter.UNDEFINED);
+        setHasOptionsMenu(ChatChannel.getReadableChannels(mRole, mAlive).size() > 1);
 
         mLinearLayoutManager = new LinearLayoutManager(getActivity());
         mLinearLayoutManager.setStackFromEnd(true);
@@ -139,36 +244,30 @@ public class ChatFragment extends Fragment {
         fetchConfig();
 
         mFirebaseDatabaseReference = FirebaseDatabase.getInstance().getReference();
-        mFirebaseAdapter = new FirebaseRecyclerAdapter<ChatMessage,
-                MessageViewHolder>(
-                ChatMessage.class,
-                R.layout.item_message,
-                MessageViewHolder.class,
-                mFirebaseDatabaseReference.child(MESSAGES_CHILD)) {
-
+        mWindow = new ChatWindow(WINDOW_SIZE);
+        mAdapter = new MessageAdapter();
+        mWindow.setListener(new ChatWindow.Listener() {
             @Override
-            protected void populateViewHolder(MessageViewHolder viewHolder,
-                                              ChatMessage chatMessage, int position) {
-                mProgressBar.setVisibility(ProgressBar.INVISIBLE);
-                if (chatMessage.getText() != null) {
-                    viewHolder.messageTextView.setText(chatMessage.getText());
-                    viewHolder.messageTextView.setVisibility(TextView.VISIBLE);
-                } else {
-
-                    viewHolder.messageTextView.setVisibility(TextView.GONE);
-                }
-
+            public void onInserted(int position, int count) {
+                mAdapter.notifyItemRangeInserted(position, count);
+            }
 
-                viewHolder.messengerTextView.setText(chatMessage.getName());
+            @Override
+            public void onRemoved(int position, int count) {
+                mAdapter.notifyItemRangeRemoved(position, count);
+            }
 
+            @Override
+            public void onChanged(int position) {
+                mAdapter.notifyItemChanged(position);
             }
-        };
+        });
 
-        mFirebaseAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
             public void onItemRangeInserted(int positionStart, int itemCount) {
                 super.onItemRangeInserted(positionStart, itemCount);
-                int friendlyMessageCount = mFirebaseAdapter.getItemCount();
+                int friendlyMessageCount = mAdapter.getItemCount();
                 int lastVisiblePosition =
                         mLinearLayoutManager.findLastCompletelyVisibleItemPosition();
                 // If the recycler view is initially being loaded or the
@@ -182,8 +281,18 @@ public class ChatFragment extends Fragment {
             }
         });
 
+        mMessageRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadPagesNearEdges();
+            }
+        });
+
+        mStore = ChatStore.getInstance(getContext());
+        openChannel(mAlive ? ChatChannel.GLOBAL : ChatChannel.DEAD);
+
         mMessageRecyclerView.setLayoutManager(mLinearLayoutManager);
-        mMessageRecyclerView.setAdapter(mFirebaseAdapter);
+        mMessageRecyclerView.setAdapter(mAdapter);
 
 
 
@@ -232,13 +341,21 @@ public class ChatFragment extends Fragment {
         mSendButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (getActivity().getIntent().getBooleanExtra("AM_I_ALIVE", true)) {
+                if (mChannel.canWrite(mRole, mAlive)) {
                     ChatMessage chatMessage = new
                             ChatMessage(mMessageEditText.getText().toString(),
                             mUsername);
-                    mFirebaseDatabaseReference.child(MESSAGES_CHILD)
-                            .push().setValue(chatMessage);
-                    mMessageEditText.setText("");
+                    switch (mSendQueue.send(chatMessage)) {
+                        case QUEUED:
+                            mMessageEditText.setText("");
+                            break;
+                        case RATE_LIMITED:
+                            Toast.makeText(getActivity(), "Slow down! You're sending messages too fast.", Toast.LENGTH_SHORT).show();
+                            break;
+                        case QUEUE_FULL:
+                            Toast.makeText(getActivity(), "Too many messages waiting to be sent. Try again later.", Toast.LENGTH_SHORT).show();
+                            break;
+                    }
                 }  else {
                     Toast.makeText(getActivity(), "You can't chat when you're dead!", Toast.LENGTH_SHORT).show();
                 }
@@ -247,6 +364,256 @@ public class ChatFragment extends Fragment {
         return chatView;
     }
 
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        super.onCreateOptionsMenu(menu, inflater);
+        for (ChatChannel channel : ChatChannel.getReadableChannels(mRole, mAlive)) {
+            menu.add(Menu.NONE, channel.ordinal(), channel.ordinal(), channel.getTitle());
+        }
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        for (ChatChannel channel : ChatChannel.getReadableChannels(mRole, mAlive)) {
+            if (channel.ordinal() == item.getItemId()) {
+                openChannel(channel);
+                return true;
+            }
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Shows a channel and listens to it alone. Stored history is read off the main thread and
+     * shown first, then the live tail syncs at most the latest page past it. If more was sent
+     * since, the messages in between are paged in like evicted newer ones. Older history is read
+     * a page at a time while scrolling up.
+     */
+    private void openChannel(ChatChannel channel) {
+        if (mLiveQuery != null) {
+            mLiveQuery.removeEventListener(mLiveListener);
+            mLiveQuery = null;
+        }
+        storeLiveMessages();
+        mChannel = channel;
+        MESSAGES_CHILD = channel.getPath(mGameName);
+        Log.d("MSG", "Messages child: " + MESSAGES_CHILD);
+        closeSendQueue();
+        mSendQueue = ChatSendQueue.open(MESSAGES_CHILD);
+        mSendQueue.setListener(mSendQueueListener);
+        getActivity().setTitle(channel.getTitle());
+        mLoadingOlder = false;
+        mLoadingNewer = false;
+        mLiveStartsAfter = null;
+        mGapBeforeLive = false;
+        mHeldLive.clear();
+        mWindow.clear();
+
+        final int opening = ++mOpening;
+        final String channelPath = MESSAGES_CHILD;
+        mStore.loadTail(channelPath, PAGE_SIZE).addOnCompleteListener(new OnCompleteListener<ChatStore.Tail>() {
+            @Override
+            public void onComplete(@NonNull Task<ChatStore.Tail> task) {
+                if (opening != mOpening)
+                    return; // another channel was opened, or the view went away, meanwhile
+                String highWaterMark = null;
+                if (task.isSuccessful()) {
+                    List<ChatMessage> stored = task.getResult().getMessages();
+                    mWindow.addOlderPage(keysOf(stored), stored, true);
+                    highWaterMark = task.getResult().getHighWaterMark();
+                } else {
+                    Log.w(TAG, "Couldn't read stored messages", task.getException());
+                }
+                // startAt() is inclusive, so a live page that reaches back far enough starts with
+                // the high-water mark itself
+                Query messages = mFirebaseDatabaseReference.child(channelPath).orderByKey();
+                if (highWaterMark != null) {
+                    messages = messages.startAt(highWaterMark);
+                }
+                mLiveStartsAfter = highWaterMark;
+                mLiveQuery = messages.limitToLast(PAGE_SIZE);
+                mLiveQuery.addChildEventListener(mLiveListener);
+            }
+        });
+    }
+
+    private static ChatMessage toMessage(DataSnapshot dataSnapshot) {
+        ChatMessage message = dataSnapshot.getValue(ChatMessage.class);
+        message.setId(dataSnapshot.getKey());
+        return message;
+    }
+
+    private void loadPagesNearEdges() {
+        if (mWindow.size() == 0)
+            return;
+        int first = mLinearLayoutManager.findFirstVisibleItemPosition();
+        int last = mLinearLayoutManager.findLastVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION && first <= PREFETCH_DISTANCE
+                && mWindow.hasOlder() && !mLoadingOlder) {
+            loadOlderPage();
+        }
+        if (last != RecyclerView.NO_POSITION && last >= mWindow.size() - 1 - PREFETCH_DISTANCE
+                && mWindow.hasNewer() && !mLoadingNewer) {
+            loadNewerPage();
+        }
+    }
+
+    private void onLiveMessage(ChatMessage message) {
+        if (mLiveStartsAfter != null) {
+            if (!mLiveStartsAfter.equals(message.getId())) {
+                mGapBeforeLive = true;
+                mWindow.markNewerMissing();
+                if (!mLoadingNewer) {
+                    loadNewerPage();
+                }
+            }
+            mLiveStartsAfter = null;
+        }
+        if (mGapBeforeLive) {
+            mHeldLive.add(message);
+            return;
+        }
+        // stored even when the window skips it, which keeps the store contiguous; a burst, such
+        // as the backlog after reconnecting, goes to the store in one transaction
+        if (mUnstoredLive.isEmpty()) {
+            mHandler.postDelayed(mStoreLive, LIVE_STORE_DELAY);
+        }
+        mUnstoredLive.add(message);
+        mWindow.onLiveMessage(message.getId(), message);
+    }
+
+    /**
+     * Stores the buffered live messages of the current channel; runs before it changes.
+     */
+    private void storeLiveMessages() {
+        mHandler.removeCallbacks(mStoreLive);
+        if (mUnstoredLive.isEmpty())
+            return;
+        mStore.putAll(MESSAGES_CHILD, new ArrayList<>(mUnstoredLive));
+        mUnstoredLive.clear();
+    }
+
+    /**
+     * Pages from the store first and from the server once the store has nothing before the
+     * window. A short stored page may just be the end of what is stored, so it reports more.
+     */
+    private void loadOlderPage() {
+        final String oldestKey = mWindow.getOldestKey();
+        final String channelPath = MESSAGES_CHILD;
+        mLoadingOlder = true;
+        mStore.loadBefore(channelPath, oldestKey, PAGE_SIZE).addOnCompleteListener(new OnCompleteListener<List<ChatMessage>>() {
+            @Override
+            public void onComplete(@NonNull Task<List<ChatMessage>> task) {
+                if (!channelPath.equals(MESSAGES_CHILD) || !mLoadingOlder)
+                    return; // another channel was opened meanwhile
+                if (task.isSuccessful() && !task.getResult().isEmpty()) {
+                    mLoadingOlder = false;
+                    mWindow.addOlderPage(keysOf(task.getResult()), task.getResult(), true);
+                    return;
+                }
+                readOlderPage(oldestKey);
+            }
+        });
+    }
+
+    private void readOlderPage(final String oldestKey) {
+        final String channelPath = MESSAGES_CHILD;
+        // endAt() is inclusive, so ask for one extra message and drop the one already shown
+        Query query = mFirebaseDatabaseReference.child(MESSAGES_CHILD)
+                .orderByKey().endAt(oldestKey).limitToLast(PAGE_SIZE + 1);
+        FirebaseHelper.read(query, MESSAGES_CHILD + "/<" + oldestKey, false, FirebaseHelper.DEFAULT_READ_TIMEOUT)
+                .addOnCompleteListener(new OnCompleteListener<DataSnapshot>() {
+                    @Override
+                    public void onComplete(Task<DataSnapshot> task) {
+                        if (!channelPath.equals(MESSAGES_CHILD))
+                            return; // another channel was opened meanwhile
+                        mLoadingOlder = false;
+                        if (!task.isSuccessful()) {
+                            Log.w(TAG, "Couldn't load older messages", task.getException());
+                            return;
+                        }
+                        List<ChatMessage> messages = readPage(task.getResult(), oldestKey);
+                        mStore.putAll(channelPath, messages);
+                        mWindow.addOlderPage(keysOf(messages), messages, messages.size() == PAGE_SIZE);
+                    }
+                });
+    }
+
+    private void loadNewerPage() {
+        final String newestKey = mWindow.getNewestKey();
+        final String channelPath = MESSAGES_CHILD;
+        mLoadingNewer = true;
+        mStore.loadAfter(channelPath, newestKey, PAGE_SIZE).addOnCompleteListener(new OnCompleteListener<List<ChatMessage>>() {
+            @Override
+            public void onComplete(@NonNull Task<List<ChatMessage>> task) {
+                if (!channelPath.equals(MESSAGES_CHILD) || !mLoadingNewer)
+                    return; // another channel was opened meanwhile
+                if (task.isSuccessful() && !task.getResult().isEmpty()) {
+                    mLoadingNewer = false;
+                    mWindow.addNewerPage(keysOf(task.getResult()), task.getResult(), true);
+                    return;
+                }
+                readNewerPage(newestKey);
+            }
+        });
+    }
+
+    private void readNewerPage(final String newestKey) {
+        final String channelPath = MESSAGES_CHILD;
+        Query query = mFirebaseDatabaseReference.child(MESSAGES_CHILD)
+                .orderByKey().startAt(newestKey).limitToFirst(PAGE_SIZE + 1);
+        FirebaseHelper.read(query, MESSAGES_CHILD + "/>" + newestKey, false, FirebaseHelper.DEFAULT_READ_TIMEOUT)
+                .addOnCompleteListener(new OnCompleteListener<DataSnapshot>() {
+                    @Override
+                    public void onComplete(Task<DataSnapshot> task) {
+                        if (!channelPath.equals(MESSAGES_CHILD))
+                            return; // another channel was opened meanwhile
+                        mLoadingNewer = false;
+                        if (!task.isSuccessful()) {
+                            Log.w(TAG, "Couldn't load newer messages", task.getException());
+                            return;
+                        }
+                        List<ChatMessage> messages = readPage(task.getResult(), newestKey);
+                        mStore.putAll(channelPath, messages);
+                        mWindow.addNewerPage(keysOf(messages), messages, messages.size() == PAGE_SIZE);
+                        releaseHeldLive();
+                    }
+                });
+    }
+
+    /**
+     * Once paging forward has reached the end of the channel, everything stored is contiguous
+     * again, so the live messages held back meanwhile go to the window and the store.
+     */
+    private void releaseHeldLive() {
+        if (!mGapBeforeLive || mWindow.hasNewer())
+            return;
+        mGapBeforeLive = false;
+        List<ChatMessage> held = new ArrayList<>(mHeldLive);
+        mHeldLive.clear();
+        for (ChatMessage message : held) {
+            onLiveMessage(message);
+        }
+    }
+
+    private static List<ChatMessage> readPage(DataSnapshot page, String boundaryKey) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (DataSnapshot messageSnapshot : page.getChildren()) {
+            if (!messageSnapshot.getKey().equals(boundaryKey)) {
+                messages.add(toMessage(messageSnapshot));
+            }
+        }
+        return messages;
+    }
+
+    private static List<String> keysOf(List<ChatMessage> messages) {
+        List<String> keys = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            keys.add(message.getId());
+        }
+        return keys;
+    }
+
     // Fetch the config to determine the allowed length of messages.
     public void fetchConfig() {
         long cacheExpiration = 3600; // 1 hour in seconds
@@ -316,6 +683,27 @@ public class ChatFragment extends Fragment {
         super.onResume();
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        closeSendQueue();
+        mOpening++;
+        if (mLiveQuery != null) {
+            mLiveQuery.removeEventListener(mLiveListener);
+            mLiveQuery = null;
+        }
+        storeLiveMessages();
+    }
+
+    private void closeSendQueue() {
+        if (mSendQueue == null)
+            return;
+        Log.d(TAG, "Send queue: " + mSendQueue.getMetrics());
+        mSendQueue.setListener(null);
+        mSendQueue.close();
+        mSendQueue = null;
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
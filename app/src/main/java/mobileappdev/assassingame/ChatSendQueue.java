@@ -0,0 +1,401 @@
+package mobileappdev.assassingame;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outbound chat pipeline for one game's messages. Messages get their push id when queued, so
+ * they keep the order they were sent in, and go out in batches: one multi-path update per batch
+ * and only one batch in flight. While offline the in-flight batch simply doesn't complete, so
+ * later messages wait here and are replayed in order once it does. Batches that fail for network
+ * reasons are retried with backoff; any other failure, e.g. permission denied, would fail again,
+ * so the batch is dropped and reported to the {@link Listener}. Each sender gets a token bucket,
+ * and the queue itself is bounded, so a spammy player is told to slow down instead of flooding
+ * every subscriber.
+ *
+ * Queues are shared per messages node between {@link #open(String)} and {@link #close()}, and
+ * one is let go once it is closed and has nothing left to send.
+ *
+ * Not thread safe; used from the main thread.
+ */
+public class ChatSendQueue {
+
+    private static final String TAG = "ChatSendQueue";
+
+    public static final int BURST = 5; // messages a sender can send back to back
+    public static final long REFILL_INTERVAL = 1000; // in msec, per message after the burst
+    public static final int MAX_BATCH = 20;
+    public static final long BATCH_DELAY = 100; // in msec, to collect rapid messages
+    public static final int MAX_QUEUED = 100;
+    public static final long MIN_RETRY_DELAY = 1000; // in msec
+    public static final long MAX_RETRY_DELAY = 30000; // in msec
+
+    public enum Result {
+        QUEUED, RATE_LIMITED, QUEUE_FULL
+    }
+
+    public interface Listener {
+        void onDropped(List<ChatMessage> messages, Exception error);
+    }
+
+    interface Transport {
+        interface Callback {
+            /**
+             * @param retryable whether the same write may succeed later, e.g. after a
+             * network error
+             */
+            void onComplete(Exception error, boolean retryable);
+        }
+
+        String newKey();
+
+        void write(Map<String, Object> update, Callback callback);
+    }
+
+    interface Scheduler {
+        void schedule(Runnable task, long delay);
+
+        long now();
+    }
+
+    public static class Metrics {
+        private final int mQueueDepth;
+        private final int mMaxQueueDepth;
+        private final int mSent;
+        private final int mRateLimited;
+        private final int mRejected;
+        private final int mFailedWrites;
+        private final int mDropped;
+        private final long mAverageLatency;
+        private final long mMaxLatency;
+
+        Metrics(int queueDepth, int maxQueueDepth, int sent, int rateLimited, int rejected,
+                int failedWrites, int dropped, long averageLatency, long maxLatency) {
+            mQueueDepth = queueDepth;
+            mMaxQueueDepth = maxQueueDepth;
+            mSent = sent;
+            mRateLimited = rateLimited;
+            mRejected = rejected;
+            mFailedWrites = failedWrites;
+            mDropped = dropped;
+            mAverageLatency = averageLatency;
+            mMaxLatency = maxLatency;
+        }
+
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        public int getSent() {
+            return mSent;
+        }
+
+        public int getRateLimited() {
+            return mRateLimited;
+        }
+
+        /**
+         * @return messages turned away because the queue was full
+         */
+        public int getRejected() {
+            return mRejected;
+        }
+
+        public int getFailedWrites() {
+            return mFailedWrites;
+        }
+
+        /**
+         * @return messages given up on after a write failed for good
+         */
+        public int getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * @return msec from queueing a message to the server acknowledging it
+         */
+        public long getAverageLatency() {
+            return mAverageLatency;
+        }
+
+        public long getMaxLatency() {
+            return mMaxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "depth=" + mQueueDepth + " maxDepth=" + mMaxQueueDepth + " sent=" + mSent
+                    + " rateLimited=" + mRateLimited + " rejected=" + mRejected + " failedWrites=" + mFailedWrites
+                    + " dropped=" + mDropped + " avgLatency=" + mAverageLatency + "ms maxLatency=" + mMaxLatency + "ms";
+        }
+    }
+
+    private static class Pending {
+        final String key;
+        final ChatMessage message;
+        final long queuedAt;
+
+        Pending(String key, ChatMessage message, long queuedAt) {
+            this.key = key;
+            this.message = message;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static class TokenBucket {
+        double tokens = BURST;
+        long refilledAt;
+
+        TokenBucket(long now) {
+            refilledAt = now;
+        }
+
+        boolean take(long now) {
+            tokens = Math.min(BURST, tokens + (now - refilledAt) / (double) REFILL_INTERVAL);
+            refilledAt = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    private static final Map<String, ChatSendQueue> sQueues = new HashMap<>();
+
+    private final String mMessagesPath;
+    private final Transport mTransport;
+    private final Scheduler mScheduler;
+    private final LinkedList<Pending> mQueue = new LinkedList<>();
+    private final Map<String, TokenBucket> mBuckets = new HashMap<>();
+    private Listener mListener;
+    private int mOpenCount;
+    private boolean mInFlight;
+    private boolean mFlushScheduled;
+    private long mRetryDelay = MIN_RETRY_DELAY;
+
+    private int mMaxQueueDepth;
+    private int mSent;
+    private int mRateLimited;
+    private int mRejected;
+    private int mFailedWrites;
+    private int mDropped;
+    private long mTotalLatency;
+    private long mMaxLatency;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    ChatSendQueue(String messagesPath, Transport transport, Scheduler scheduler) {
+        mMessagesPath = messagesPath;
+        mTransport = transport;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * @return the queue for a messages node; it outlives screens so queued messages still go
+     * out after the chat is closed. Pair with {@link #close()}.
+     */
+    public static synchronized ChatSendQueue open(String messagesPath) {
+        ChatSendQueue queue = sQueues.get(messagesPath);
+        if (queue == null) {
+            queue = new ChatSendQueue(messagesPath, new FirebaseTransport(messagesPath), new HandlerScheduler());
+            sQueues.put(messagesPath, queue);
+        }
+        queue.mOpenCount++;
+        return queue;
+    }
+
+    /**
+     * The chat showing this queue went away. Queued messages are still sent, but nobody is told
+     * about dropped ones any more.
+     */
+    public void close() {
+        if (mOpenCount > 0 && --mOpenCount == 0) {
+            mListener = null;
+        }
+        releaseIfIdle();
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public Result send(ChatMessage message) {
+        long now = mScheduler.now();
+        TokenBucket bucket = mBuckets.get(message.getName());
+        if (bucket == null) {
+            bucket = new TokenBucket(now);
+            mBuckets.put(message.getName(), bucket);
+        }
+        if (mQueue.size() >= MAX_QUEUED) {
+            mRejected++;
+            return Result.QUEUE_FULL;
+        }
+        if (!bucket.take(now)) {
+            mRateLimited++;
+            return Result.RATE_LIMITED;
+        }
+
+        // push ids embed the time they were made, so assigning them now fixes the order
+        mQueue.add(new Pending(mTransport.newKey(), message, now));
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+        scheduleFlush(BATCH_DELAY);
+        return Result.QUEUED;
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(mQueue.size(), mMaxQueueDepth, mSent, mRateLimited, mRejected, mFailedWrites,
+                mDropped, mSent == 0 ? 0 : mTotalLatency / mSent, mMaxLatency);
+    }
+
+    private void releaseIfIdle() {
+        if (mOpenCount > 0 || mInFlight || !mQueue.isEmpty())
+            return;
+        synchronized (ChatSendQueue.class) {
+            if (sQueues.get(mMessagesPath) == this) {
+                sQueues.remove(mMessagesPath);
+            }
+        }
+    }
+
+    private void scheduleFlush(long delay) {
+        if (mInFlight || mFlushScheduled || mQueue.isEmpty())
+            return;
+        if (mQueue.size() >= MAX_BATCH) {
+            flush();
+            return;
+        }
+        mFlushScheduled = true;
+        mScheduler.schedule(mFlush, delay);
+    }
+
+    private void flush() {
+        if (mInFlight || mQueue.isEmpty())
+            return;
+        final List<Pending> batch = new ArrayList<>(mQueue.subList(0, Math.min(MAX_BATCH, mQueue.size())));
+        Map<String, Object> update = new HashMap<>();
+        for (Pending pending : batch) {
+            Map<String, Object> value = new HashMap<>();
+            value.put("name", pending.message.getName());
+            value.put("text", pending.message.getText());
+            update.put(mMessagesPath + "/" + pending.key, value);
+        }
+
+        mInFlight = true;
+        mTransport.write(update, new Transport.Callback() {
+            @Override
+            public void onComplete(Exception error, boolean retryable) {
+                mInFlight = false;
+                if (error != null) {
+                    mFailedWrites++;
+                }
+                if (error != null && retryable) {
+                    // the batch stays at the head of the queue; rewriting the same keys is harmless
+                    Log.w(TAG, "Chat batch failed, retrying in " + mRetryDelay + "ms", error);
+                    mFlushScheduled = true;
+                    mScheduler.schedule(mFlush, mRetryDelay);
+                    mRetryDelay = Math.min(MAX_RETRY_DELAY, mRetryDelay * 2);
+                    return;
+                }
+
+                mRetryDelay = MIN_RETRY_DELAY;
+                long now = mScheduler.now();
+                List<ChatMessage> dropped = new ArrayList<>();
+                for (Pending pending : batch) {
+                    mQueue.removeFirst();
+                    if (error != null) {
+                        dropped.add(pending.message);
+                        continue;
+                    }
+                    long latency = now - pending.queuedAt;
+                    mTotalLatency += latency;
+                    mMaxLatency = Math.max(mMaxLatency, latency);
+                    mSent++;
+                }
+                if (error != null) {
+                    mDropped += dropped.size();
+                    Log.e(TAG, "Chat batch failed for good, dropped " + dropped.size() + " messages", error);
+                    if (mListener != null) {
+                        mListener.onDropped(dropped, error);
+                    }
+                }
+                scheduleFlush(0);
+                releaseIfIdle();
+            }
+        });
+    }
+
+    private static class FirebaseTransport implements Transport {
+        private final String mMessagesPath;
+
+        FirebaseTransport(String messagesPath) {
+            mMessagesPath = messagesPath;
+        }
+
+        @Override
+        public String newKey() {
+            return FirebaseDatabase.getInstance().getReference(mMessagesPath).push().getKey();
+        }
+
+        @Override
+        public void write(Map<String, Object> update, final Callback callback) {
+            FirebaseDatabase.getInstance().getReference().updateChildren(update, new DatabaseReference.CompletionListener() {
+                @Override
+                public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                    if (databaseError == null) {
+                        callback.onComplete(null, false);
+                    } else {
+                        callback.onComplete(databaseError.toException(), isRetryable(databaseError.getCode()));
+                    }
+                }
+            });
+        }
+
+        private static boolean isRetryable(int code) {
+            switch (code) {
+                case DatabaseError.DISCONNECTED:
+                case DatabaseError.NETWORK_ERROR:
+                case DatabaseError.UNAVAILABLE:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class HandlerScheduler implements Scheduler {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void schedule(Runnable task, long delay) {
+            mHandler.postDelayed(task, delay);
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package mobileappdev.assassingame;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * On-device copy of every chat channel, keyed by message push id, so {@link ChatFragment} can
+ * show history without a download and only sync what was sent after the newest stored message
+ * (the high-water mark). Stored messages are always one contiguous run of a channel, since
+ * they come from the live tail and from pages read next to what is already stored.
+ *
+ * Writes go to a serial background executor. Reads are small indexed queries; the load methods
+ * run them on the same executor, so the main thread never touches the disk and a read sees every
+ * write queued before it.
+ */
+public class ChatStore extends SQLiteOpenHelper {
+
+    private static final String TAG = "ChatStore";
+    private static final int DATABASE_VERSION = 2;
+    private static final String DATABASE_NAME = "chat.db";
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String KEY_CHANNEL = "channel"; // path of the channel's node
+    private static final String KEY_ID = "id";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_TEXT = "text";
+    private static final String KEY_STORED_AT = "stored_at";
+
+    public static final long MAX_IDLE_AGE = 7L * 24 * 60 * 60 * 1000; // in msec, for a whole channel
+    public static final int MAX_MESSAGES_PER_CHANNEL = 1000;
+
+    /**
+     * The stored end of a channel: its newest page and the high-water mark to sync from.
+     */
+    public static class Tail {
+        private final List<ChatMessage> mMessages;
+        private final String mHighWaterMark;
+
+        Tail(List<ChatMessage> messages, String highWaterMark) {
+            mMessages = messages;
+            mHighWaterMark = highWaterMark;
+        }
+
+        /**
+         * @return oldest first
+         */
+        public List<ChatMessage> getMessages() {
+            return mMessages;
+        }
+
+        /**
+         * @return null if nothing is stored
+         */
+        public String getHighWaterMark() {
+            return mHighWaterMark;
+        }
+    }
+
+    private static ChatStore sInstance;
+
+    private final Executor mWriter = Executors.newSingleThreadExecutor();
+
+    private ChatStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * The first call also starts a background compaction.
+     */
+    public static synchronized ChatStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ChatStore(context.getApplicationContext());
+            sInstance.compactInBackground();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + "("
+                + KEY_CHANNEL + " TEXT NOT NULL,"
+                + KEY_ID + " TEXT NOT NULL,"
+                + KEY_NAME + " TEXT,"
+                + KEY_TEXT + " TEXT,"
+                + KEY_STORED_AT + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + KEY_CHANNEL + ", " + KEY_ID + ")"
+                + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // only a cache, so it is simply rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
+        onCreate(db);
+    }
+
+    /**
+     * @return the newest stored push id of the channel, or null if nothing is stored
+     */
+    public String getHighWaterMark(String channel) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT MAX(" + KEY_ID + ") FROM " + TABLE_MESSAGES
+                + " WHERE " + KEY_CHANNEL + " = ?", new String[]{channel});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return up to {@code limit} newest messages, oldest first
+     */
+    public List<ChatMessage> getLatest(String channel, int limit) {
+        return query(channel, null, false, limit);
+    }
+
+    /**
+     * @return up to {@code limit} messages right before {@code id}, oldest first
+     */
+    public List<ChatMessage> getBefore(String channel, String id, int limit) {
+        return query(channel, id, false, limit);
+    }
+
+    /**
+     * @return up to {@code limit} messages right after {@code id}, oldest first
+     */
+    public List<ChatMessage> getAfter(String channel, String id, int limit) {
+        return query(channel, id, true, limit);
+    }
+
+    /**
+     * {@link #getLatest} and {@link #getHighWaterMark} off the main thread.
+     */
+    public Task<Tail> loadTail(final String channel, final int limit) {
+        return load(new Callable<Tail>() {
+            @Override
+            public Tail call() {
+                return new Tail(getLatest(channel, limit), getHighWaterMark(channel));
+            }
+        });
+    }
+
+    /**
+     * {@link #getBefore} off the main thread.
+     */
+    public Task<List<ChatMessage>> loadBefore(final String channel, final String id, final int limit) {
+        return load(new Callable<List<ChatMessage>>() {
+            @Override
+            public List<ChatMessage> call() {
+                return getBefore(channel, id, limit);
+            }
+        });
+    }
+
+    /**
+     * {@link #getAfter} off the main thread.
+     */
+    public Task<List<ChatMessage>> loadAfter(final String channel, final String id, final int limit) {
+        return load(new Callable<List<ChatMessage>>() {
+            @Override
+            public List<ChatMessage> call() {
+                return getAfter(channel, id, limit);
+            }
+        });
+    }
+
+    private <T> Task<T> load(final Callable<T> read) {
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.setResult(read.call());
+                } catch (Exception e) {
+                    source.setException(e);
+                }
+            }
+        });
+        return source.getTask();
+    }
+
+    private List<ChatMessage> query(String channel, String id, boolean after, int limit) {
+        String selection = KEY_CHANNEL + " = ?";
+        String[] selectionArgs = {channel};
+        if (id != null) {
+            selection += " AND " + KEY_ID + (after ? " > ?" : " < ?");
+            selectionArgs = new String[]{channel, id};
+        }
+        Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES,
+                new String[]{KEY_ID, KEY_NAME, KEY_TEXT}, selection, selectionArgs, null, null,
+                KEY_ID + (after ? " ASC" : " DESC"), String.valueOf(limit));
+        List<ChatMessage> messages = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                ChatMessage message = new ChatMessage(cursor.getString(2), cursor.getString(1));
+                message.setId(cursor.getString(0));
+                messages.add(message);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (!after) {
+            Collections.reverse(messages);
+        }
+        return messages;
+    }
+
+    public void put(String channel, ChatMessage message) {
+        putAll(channel, Collections.singletonList(message));
+    }
+
+    /**
+     * Stores or replaces messages, whose ids must be set, in one transaction.
+     */
+    public void putAll(final String channel, final List<ChatMessage> messages) {
+        if (messages.isEmpty())
+            return;
+        final long now = System.currentTimeMillis();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    ContentValues values = new ContentValues();
+                    for (ChatMessage message : messages) {
+                        values.put(KEY_CHANNEL, channel);
+                        values.put(KEY_ID, message.getId());
+                        values.put(KEY_NAME, message.getName());
+                        values.put(KEY_TEXT, message.getText());
+                        values.put(KEY_STORED_AT, now);
+                        db.insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes every channel of the game.
+     */
+    public void deleteGame(String gameName) {
+        final String prefix = "games/" + gameName + "/";
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().delete(TABLE_MESSAGES, "substr(" + KEY_CHANNEL + ", 1, ?) = ?",
+                        new String[]{String.valueOf(prefix.length()), prefix});
+            }
+        });
+    }
+
+    /**
+     * Drops channels nothing was stored for in {@link #MAX_IDLE_AGE} and keeps only the newest
+     * {@link #MAX_MESSAGES_PER_CHANNEL} messages of the others.
+     */
+    public void compactInBackground() {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact(System.currentTimeMillis() - MAX_IDLE_AGE, MAX_MESSAGES_PER_CHANNEL);
+            }
+        });
+    }
+
+    private void compact(long idleBefore, int keepPerChannel) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM " + TABLE_MESSAGES + " WHERE " + KEY_CHANNEL + " IN ("
+                    + "SELECT " + KEY_CHANNEL + " FROM " + TABLE_MESSAGES + " GROUP BY " + KEY_CHANNEL
+                    + " HAVING MAX(" + KEY_STORED_AT + ") < ?)", new Object[]{idleBefore});
+
+            // keeps the stored run contiguous by only cutting from the old end
+            List<String> channels = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT " + KEY_CHANNEL + " FROM " + TABLE_MESSAGES + " GROUP BY " + KEY_CHANNEL
+                    + " HAVING COUNT(*) > ?", new String[]{String.valueOf(keepPerChannel)});
+            try {
+                while (cursor.moveToNext()) {
+                    channels.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (String channel : channels) {
+                db.execSQL("DELETE FROM " + TABLE_MESSAGES + " WHERE " + KEY_CHANNEL + " = ? AND " + KEY_ID + " < ("
+                        + "SELECT " + KEY_ID + " FROM " + TABLE_MESSAGES + " WHERE " + KEY_CHANNEL + " = ?"
+                        + " ORDER BY " + KEY_ID + " DESC LIMIT 1 OFFSET ?)",
+                        new Object[]{channel, channel, keepPerChannel - 1});
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Compaction failed", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
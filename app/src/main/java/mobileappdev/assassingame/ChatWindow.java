@@ -0,0 +1,196 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded, key ordered slice of a game's chat for {@link ChatFragment}. Push ids sort in the
+ * order messages were sent, so the window is a list sorted by key. It grows at the bottom from
+ * the live listener and at either end from pages loaded while scrolling, and never holds more
+ * than {@code maxSize} messages: growing one end evicts from the other, and the evicted side is
+ * then reported by {@link #hasOlder()} or {@link #hasNewer()} so it can be paged back in.
+ *
+ * Pure Java and not thread safe; used from the main thread.
+ */
+public class ChatWindow {
+
+    public interface Listener {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position);
+    }
+
+    private static class Entry {
+        final String key;
+        ChatMessage message;
+
+        Entry(String key, ChatMessage message) {
+            this.key = key;
+            this.message = message;
+        }
+    }
+
+    private final int mMaxSize;
+    private final List<Entry> mEntries = new ArrayList<>();
+    private boolean mHasOlder = true; // unknown until a page comes back short
+    private boolean mHasNewer;
+    private Listener mListener;
+
+    public ChatWindow(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public ChatMessage get(int position) {
+        return mEntries.get(position).message;
+    }
+
+    public String getKey(int position) {
+        return mEntries.get(position).key;
+    }
+
+    public String getOldestKey() {
+        return mEntries.isEmpty() ? null : mEntries.get(0).key;
+    }
+
+    public String getNewestKey() {
+        return mEntries.isEmpty() ? null : mEntries.get(mEntries.size() - 1).key;
+    }
+
+    /**
+     * @return whether messages before the window may exist
+     */
+    public boolean hasOlder() {
+        return mHasOlder;
+    }
+
+    /**
+     * @return whether messages after the window were evicted and must be paged back in
+     */
+    public boolean hasNewer() {
+        return mHasNewer;
+    }
+
+    /**
+     * A message from the live listener, new or edited. While newer messages are paged out the
+     * live tail is not contiguous with the window, so messages past it are left for
+     * {@link #addNewerPage}.
+     */
+    public void onLiveMessage(String key, ChatMessage message) {
+        String newest = getNewestKey();
+        if (mHasNewer && newest != null && key.compareTo(newest) > 0)
+            return;
+        put(key, message);
+        evictOldest();
+    }
+
+    /**
+     * Records that messages after the window exist but haven't been read yet, e.g. because the
+     * live tail starts past them, so they are paged in by {@link #addNewerPage}.
+     */
+    public void markNewerMissing() {
+        mHasNewer = true;
+    }
+
+    /**
+     * Prepends a page read before {@link #getOldestKey()}.
+     *
+     * @param hasMore whether the page was full, i.e. even older messages may exist
+     */
+    public void addOlderPage(List<String> keys, List<ChatMessage> messages, boolean hasMore) {
+        mHasOlder = hasMore;
+        for (int i = 0; i < keys.size(); i++) {
+            put(keys.get(i), messages.get(i));
+        }
+        int excess = mEntries.size() - mMaxSize;
+        if (excess > 0) {
+            int from = mEntries.size() - excess;
+            mEntries.subList(from, mEntries.size()).clear();
+            mHasNewer = true;
+            notifyRemoved(from, excess);
+        }
+    }
+
+    /**
+     * Appends a page read after {@link #getNewestKey()}.
+     *
+     * @param hasMore whether the page was full, i.e. the live tail hasn't been reached yet
+     */
+    public void addNewerPage(List<String> keys, List<ChatMessage> messages, boolean hasMore) {
+        mHasNewer = hasMore;
+        for (int i = 0; i < keys.size(); i++) {
+            put(keys.get(i), messages.get(i));
+        }
+        evictOldest();
+    }
+
+    public void clear() {
+        int size = mEntries.size();
+        mEntries.clear();
+        mHasOlder = true;
+        mHasNewer = false;
+        if (size > 0) {
+            notifyRemoved(0, size);
+        }
+    }
+
+    private void put(String key, ChatMessage message) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            mEntries.get(index).message = message;
+            if (mListener != null) {
+                mListener.onChanged(index);
+            }
+            return;
+        }
+        int insertAt = -index - 1;
+        mEntries.add(insertAt, new Entry(key, message));
+        if (mListener != null) {
+            mListener.onInserted(insertAt, 1);
+        }
+    }
+
+    private void evictOldest() {
+        int excess = mEntries.size() - mMaxSize;
+        if (excess > 0) {
+            mEntries.subList(0, excess).clear();
+            mHasOlder = true;
+            notifyRemoved(0, excess);
+        }
+    }
+
+    private void notifyRemoved(int position, int count) {
+        if (mListener != null) {
+            mListener.onRemoved(position, count);
+        }
+    }
+
+    /**
+     * @return the index of the key, or (-(insertion point) - 1) like Collections.binarySearch
+     */
+    private int indexOf(String key) {
+        int low = 0;
+        int high = mEntries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = mEntries.get(mid).key.compareTo(key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
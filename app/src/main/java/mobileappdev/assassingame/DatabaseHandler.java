@@ -2,179 +2,691 @@ package mobileappdev.assassingame;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.AsyncTask;
 import android.util.Log;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author: Ajit Ku. Sahoo
  * @Date: 3/16/2017
+ *
+ * The app's local game data in one database: games, their players and the events a player saw.
+ * Enums are stored as integer codes, players are keyed and indexed by (game, name) and indexed
+ * by (game, status), and schema changes are applied version by version in {@link #migrate}.
+ * Databases from older versions, one file per game, are imported once and deleted, on a
+ * background thread; a call for a game that is still waiting to be imported imports it first,
+ * so the screens use the load methods, which run on a worker and report back through a task.
+ *
+ * The handler is shared through {@link #getInstance(Context)} and keeps its connection open,
+ * with write-ahead logging so reads don't wait on writes. Bulk writes run in a single
+ * transaction through one compiled statement; reads share a read lock and writes take the write
+ * lock, so a reader never sees half a roster.
  */
 
 public class DatabaseHandler extends SQLiteOpenHelper {
 
+    private static final String TAG = "DatabaseHandler";
+
     // Database Version
     private static final int DATABASE_VERSION = 1;
     // Database Name
-    private static String DATABASE_NAME;
-    // Contacts table name
-    private static final String TABLE_PLAYERS = "players1";
-    // Contacts Table Columns names
-    private static final String KEY_EMAIL_ID = "email_id";
+    private static final String DATABASE_NAME = "assassin_game.db";
+
+    private static final String TABLE_GAMES = "games";
+    private static final String TABLE_PLAYERS = "players";
+    private static final String TABLE_EVENTS = "events";
+
+    private static final String KEY_ID = "_id";
+    private static final String KEY_GAME = "game";
+    private static final String KEY_CREATED_AT = "created_at";
     private static final String KEY_NAME = "name";
-    private static final String KEY_IS_ALIVE = "is_alive";
+    private static final String KEY_EMAIL_ID = "email_id";
     private static final String KEY_CHARACTER = "character";
+    private static final String KEY_STATUS = "status";
     private static final String KEY_INVITATION_STATUS = "invitation_status";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_ACTOR = "actor";
+    private static final String KEY_TARGET = "target";
+    private static final String KEY_TIME = "time";
+
+    private static final String GAME_ID = "(SELECT " + KEY_ID + " FROM " + TABLE_GAMES + " WHERE " + KEY_NAME + " = ?)";
+    private static final String WHERE_GAME = KEY_GAME + " = " + GAME_ID;
+    private static final String WHERE_PLAYER = WHERE_GAME + " AND " + KEY_NAME + " = ?";
+    private static final String WHERE_STATUS = WHERE_GAME + " AND " + KEY_STATUS + " = ?";
+    private static final String INSERT_GAME = "INSERT OR IGNORE INTO " + TABLE_GAMES + " ("
+            + KEY_NAME + ", " + KEY_CREATED_AT + ") VALUES (?, ?)";
+    private static final String INSERT_PLAYER = "INSERT OR REPLACE INTO " + TABLE_PLAYERS + " ("
+            + KEY_GAME + ", " + KEY_NAME + ", " + KEY_EMAIL_ID + ", " + KEY_CHARACTER + ", " + KEY_STATUS + ", "
+            + KEY_INVITATION_STATUS + ") VALUES (" + GAME_ID + ", ?, ?, ?, ?, ?)";
+    private static final String DELETE_PLAYER = "DELETE FROM " + TABLE_PLAYERS + " WHERE " + WHERE_PLAYER;
+
+    // files of the per-game databases this one replaced
+    private static final String LEGACY_TABLE_PLAYERS = "players1";
+    // databases found not to be legacy ones, so they aren't opened again on every start
+    private static final String IMPORT_PREFERENCES = "legacy_imports";
+    private static final String KEY_NOT_LEGACY = "not_legacy";
+
+    private static DatabaseHandler sInstance;
+
+    private final Context mContext;
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    // legacy games not imported yet, and those being imported; guarded by mPendingImports
+    private final Set<String> mPendingImports = new HashSet<>();
+    private final Set<String> mImporting = new HashSet<>();
+
+    private DatabaseHandler(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        setWriteAheadLoggingEnabled(true);
+    }
 
-    public DatabaseHandler(Context context, String gameName) {
-        super(context, gameName, null, DATABASE_VERSION);
-        DATABASE_NAME = gameName;
+    /**
+     * The first call also starts importing the per-game databases of older versions, without
+     * waiting for it.
+     */
+    public static synchronized DatabaseHandler getInstance(Context context) {
+        if (sInstance == null) {
+            final DatabaseHandler handler = new DatabaseHandler(context.getApplicationContext());
+            final List<String> legacyNames = handler.findLegacyDatabases();
+            if (!legacyNames.isEmpty()) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.importLegacyDatabases(legacyNames);
+                    }
+                });
+            }
+            sInstance = handler;
+        }
+        return sInstance;
     }
 
-    public DatabaseHandler(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
-        super(context, name, factory, version);
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.setForeignKeyConstraintsEnabled(true);
     }
 
-    // Creating Tables
     @Override
-    public synchronized void onCreate(SQLiteDatabase db) {
-        String CREATE_PLAYERS_TABLE = "CREATE TABLE " + TABLE_PLAYERS + "("
-                + KEY_NAME + " TEXT PRIMARY KEY,"
-                + KEY_EMAIL_ID + " TEXT,"
-                + KEY_CHARACTER + " TEXT,"
-                + KEY_IS_ALIVE + " INTEGER,"
-                + KEY_INVITATION_STATUS + " TEXT"
-                + ")";
-        db.execSQL(CREATE_PLAYERS_TABLE);
-    }
-
-    // Upgrading database
+    public void onCreate(SQLiteDatabase db) {
+        onUpgrade(db, 0, DATABASE_VERSION);
+    }
+
     @Override
-    public synchronized void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-//         Drop older table if existed
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PLAYERS);
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(db, version);
+        }
+    }
 
-        // Create tables again
-        onCreate(db);
+    /**
+     * Brings the schema from {@code version - 1} to {@code version}. Released versions are never
+     * edited; a change gets a new case and a bumped {@link #DATABASE_VERSION}.
+     */
+    private static void migrate(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 1:
+                db.execSQL("CREATE TABLE " + TABLE_GAMES + "("
+                        + KEY_ID + " INTEGER PRIMARY KEY,"
+                        + KEY_NAME + " TEXT NOT NULL UNIQUE,"
+                        + KEY_CREATED_AT + " INTEGER NOT NULL"
+                        + ")");
+                // the primary key is the (game, name) index; enums are stored as their EnumCodec codes
+                db.execSQL("CREATE TABLE " + TABLE_PLAYERS + "("
+                        + KEY_GAME + " INTEGER NOT NULL REFERENCES " + TABLE_GAMES + "(" + KEY_ID + ") ON DELETE CASCADE,"
+                        + KEY_NAME + " TEXT NOT NULL,"
+                        + KEY_EMAIL_ID + " TEXT,"
+                        + KEY_CHARACTER + " INTEGER NOT NULL,"
+                        + KEY_STATUS + " INTEGER NOT NULL,"
+                        + KEY_INVITATION_STATUS + " INTEGER NOT NULL,"
+                        + "PRIMARY KEY (" + KEY_GAME + ", " + KEY_NAME + ")"
+                        + ")");
+                db.execSQL("CREATE INDEX players_game_status ON " + TABLE_PLAYERS + "(" + KEY_GAME + ", " + KEY_STATUS + ")");
+                db.execSQL("CREATE TABLE " + TABLE_EVENTS + "("
+                        + KEY_ID + " INTEGER PRIMARY KEY,"
+                        + KEY_GAME + " INTEGER NOT NULL REFERENCES " + TABLE_GAMES + "(" + KEY_ID + ") ON DELETE CASCADE,"
+                        + KEY_TYPE + " INTEGER NOT NULL,"
+                        + KEY_ACTOR + " TEXT,"
+                        + KEY_TARGET + " TEXT,"
+                        + KEY_TIME + " INTEGER NOT NULL"
+                        + ")");
+                db.execSQL("CREATE INDEX events_game_time ON " + TABLE_EVENTS + "(" + KEY_GAME + ", " + KEY_TIME + ")");
+                break;
+            default:
+                throw new IllegalStateException("No migration to version " + version);
+        }
     }
 
-    public synchronized void addPlayer(Player player) {
+    public void addPlayer(String gameName, Player player) {
+        addPlayers(gameName, Collections.singletonList(player));
+    }
 
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, player.getName());
-        values.put(KEY_EMAIL_ID, player.getEmailID());
-        values.put(KEY_CHARACTER, player.getGameCharacterType().toString());
-        values.put(KEY_IS_ALIVE, player.isAlive());
-        values.put(KEY_INVITATION_STATUS, player.getInvitationStatus().toString());
+    /**
+     * Inserts or replaces the players in one transaction.
+     */
+    public void addPlayers(String gameName, Collection<Player> players) {
+        awaitImport(gameName);
+        writePlayers(gameName, players, false);
+    }
 
-        // Inserting Row
-        db.insert(TABLE_PLAYERS, null, values);
-        db.close(); // Closing database connection
+    /**
+     * Replaces the whole stored roster of the game with {@code players} in one transaction.
+     */
+    public void replaceRoster(String gameName, Collection<Player> players) {
+        awaitImport(gameName);
+        writePlayers(gameName, players, true);
     }
 
-    public synchronized Player getPlayer(String userName) {
-        SQLiteDatabase db = this.getReadableDatabase();
+    private void writePlayers(String gameName, Collection<Player> players, boolean replaceAll) {
+        mLock.writeLock().lock();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                writePlayers(db, gameName, players, replaceAll);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
 
-        Cursor cursor = db.query(TABLE_PLAYERS,
-                new String[] { KEY_NAME, KEY_EMAIL_ID, KEY_CHARACTER, KEY_IS_ALIVE, KEY_INVITATION_STATUS },
-                KEY_NAME + " = ?",
-                new String[] { userName }, null, null, null, null);
+    private static void writePlayers(SQLiteDatabase db, String gameName, Collection<Player> players,
+                                     boolean replaceAll) {
+        insertGame(db, gameName);
+        if (replaceAll) {
+            db.delete(TABLE_PLAYERS, WHERE_GAME, new String[]{gameName});
+        }
+        SQLiteStatement insert = db.compileStatement(INSERT_PLAYER);
+        try {
+            for (Player player : players) {
+                insert.clearBindings();
+                insert.bindString(1, gameName);
+                insert.bindString(2, player.getName());
+                bind(insert, 3, player.getEmailID());
+                insert.bindLong(4, player.getGameCharacterType().getCode());
+                insert.bindLong(5, (player.isAlive() ? PlayerStatus.ALIVE : PlayerStatus.DEAD).getCode());
+                insert.bindLong(6, player.getInvitationStatus().getCode());
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
 
-        if (cursor != null)
-            cursor.moveToFirst();
+    private static void insertGame(SQLiteDatabase db, String gameName) {
+        SQLiteStatement insert = db.compileStatement(INSERT_GAME);
+        try {
+            insert.bindString(1, gameName);
+            insert.bindLong(2, System.currentTimeMillis());
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
 
-        if (cursor == null) {
-            Log.e("Ajit", "Cursor is null for userName :" + userName);
-            return null;
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Gets each row of a player query. The same {@link Player} is reused for every row, so a
+     * visitor that keeps players must copy them.
+     */
+    public interface RowVisitor {
+        /**
+         * @return false to stop after this row
+         */
+        boolean visit(Player player);
+    }
+
+    // the column order readPlayer expects
+    static final String[] PLAYER_COLUMNS = { KEY_NAME, KEY_EMAIL_ID, KEY_CHARACTER, KEY_STATUS, KEY_INVITATION_STATUS };
+
+    public Player getPlayer(String gameName, String userName) {
+        awaitImport(gameName);
+        mLock.readLock().lock();
+        try {
+            Cursor cursor = getReadableDatabase().query(TABLE_PLAYERS, PLAYER_COLUMNS, WHERE_PLAYER,
+                    new String[] { gameName, userName }, null, null, null, "1");
+            try {
+                if (!cursor.moveToFirst()) {
+                    Log.e(TAG, "No player stored for userName :" + userName);
+                    return null;
+                }
+                return readPlayer(cursor, newPlayer());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mLock.readLock().unlock();
         }
-        Player player = new Player(cursor.getString(1), cursor.getString(0),
-                GameCharacter.getCharacterFrom(cursor.getString(2)),
-                Integer.parseInt(cursor.getString(3)) == 1);
-        cursor.close();
-        return player;
     }
 
-    public synchronized List<Player> getAllPlayers() {
-        List<Player> playerList = new LinkedList<>();
-        // Select All Query
-        String selectQuery = "SELECT  * FROM " + TABLE_PLAYERS;
+    /**
+     * Streams the game's players to {@code visitor} without collecting them.
+     *
+     * @return the number of rows visited
+     */
+    public int forEachPlayer(String gameName, RowVisitor visitor) {
+        return visit(WHERE_GAME, new String[] { gameName }, visitor);
+    }
 
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
+    /**
+     * Streams the game's players with the given status, which only reads the (game, status) index
+     * range.
+     *
+     * @return the number of rows visited
+     */
+    public int forEachPlayer(String gameName, PlayerStatus status, RowVisitor visitor) {
+        return visit(WHERE_STATUS, new String[] { gameName, String.valueOf(status.getCode()) }, visitor);
+    }
 
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-                Player player = new Player(cursor.getString(0), cursor.getString(1),
-                        GameCharacter.getCharacterFrom(cursor.getString(2)),
-                        Integer.parseInt(cursor.getString(3)) == 1,
-                        InvitationStatus.getStatusFrom(cursor.getString(4)));
-                playerList.add(player);
-            } while (cursor.moveToNext());
+    private int visit(String selection, String[] selectionArgs, RowVisitor visitor) {
+        awaitImport(selectionArgs[0]);
+        mLock.readLock().lock();
+        try {
+            Cursor cursor = getReadableDatabase().query(TABLE_PLAYERS, PLAYER_COLUMNS, selection, selectionArgs,
+                    null, null, null);
+            try {
+                return visitPlayers(cursor, newPlayer(), visitor);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mLock.readLock().unlock();
         }
+    }
 
-        cursor.close();
+    public List<Player> getAllPlayers(String gameName) {
+        final List<Player> playerList = new ArrayList<>();
+        forEachPlayer(gameName, new RowVisitor() {
+            @Override
+            public boolean visit(Player player) {
+                playerList.add(copy(player));
+                return true;
+            }
+        });
         return playerList;
     }
 
-    public synchronized Set<String> getAllPlayerNames() {
-        return getAllName2PlayerMap().keySet();
+    public Set<String> getAllPlayerNames(String gameName) {
+        awaitImport(gameName);
+        Set<String> names = new HashSet<>();
+        mLock.readLock().lock();
+        try {
+            Cursor cursor = getReadableDatabase().query(TABLE_PLAYERS, new String[] { KEY_NAME }, WHERE_GAME,
+                    new String[] { gameName }, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    names.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+        return names;
     }
 
-    public synchronized Map<String, Player> getAllName2PlayerMap() {
-        Map<String, Player> nameList = new HashMap<>();
-        String selectQuery = "SELECT  * FROM " + TABLE_PLAYERS;
+    /**
+     * {@link #getAllName2PlayerMap} off the main thread.
+     */
+    public Task<Map<String, Player>> loadName2PlayerMap(final String gameName) {
+        return load(new Callable<Map<String, Player>>() {
+            @Override
+            public Map<String, Player> call() {
+                return getAllName2PlayerMap(gameName);
+            }
+        });
+    }
 
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
+    public Map<String, Player> getAllName2PlayerMap(String gameName) {
+        final Map<String, Player> nameList = new HashMap<>();
+        forEachPlayer(gameName, new RowVisitor() {
+            @Override
+            public boolean visit(Player player) {
+                nameList.put(player.getName(), copy(player));
+                return true;
+            }
+        });
+        return nameList;
+    }
+
+    public int getPlayersCount(String gameName) {
+        return (int) longForQuery("SELECT COUNT(*) FROM " + TABLE_PLAYERS + " WHERE " + WHERE_GAME,
+                new String[] { gameName });
+    }
 
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-                Player player = new Player(cursor.getString(0), cursor.getString(1),
-                        GameCharacter.getCharacterFrom(cursor.getString(2)),
-                        Integer.parseInt(cursor.getString(3)) == 1,
-                        InvitationStatus.getStatusFrom(cursor.getString(4)));
-                nameList.put(cursor.getString(0), player);
-            } while (cursor.moveToNext());
+    public int getPlayersCount(String gameName, PlayerStatus status) {
+        return (int) longForQuery("SELECT COUNT(*) FROM " + TABLE_PLAYERS + " WHERE " + WHERE_STATUS,
+                new String[] { gameName, String.valueOf(status.getCode()) });
+    }
+
+    public boolean hasPlayer(String gameName, String userName) {
+        return longForQuery("SELECT EXISTS (SELECT 1 FROM " + TABLE_PLAYERS + " WHERE " + WHERE_PLAYER + ")",
+                new String[] { gameName, userName }) != 0;
+    }
+
+    private long longForQuery(String query, String[] selectionArgs) {
+        awaitImport(selectionArgs[0]);
+        mLock.readLock().lock();
+        try {
+            return DatabaseUtils.longForQuery(getReadableDatabase(), query, selectionArgs);
+        } finally {
+            mLock.readLock().unlock();
         }
+    }
 
-        cursor.close();
-        return nameList;
+    /**
+     * Reads every remaining row of a {@link #PLAYER_COLUMNS} cursor into {@code player}.
+     */
+    static int visitPlayers(Cursor cursor, Player player, RowVisitor visitor) {
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            rows++;
+            if (!visitor.visit(readPlayer(cursor, player)))
+                break;
+        }
+        return rows;
     }
 
-    public synchronized int getPlayersCount() {
-        String countQuery = "SELECT  * FROM " + TABLE_PLAYERS;
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(countQuery, null);
-        int count = cursor.getCount();
-        cursor.close();
-        return count;
+    static Player readPlayer(Cursor cursor, Player player) {
+        player.setName(cursor.getString(0));
+        player.setEmailID(cursor.getString(1));
+        player.setGameCharacterType(GameCharacter.fromCode(cursor.getInt(2), GameCharacter.UNDEFINED));
+        player.setAlive(PlayerStatus.fromCode(cursor.getInt(3), PlayerStatus.ALIVE) == PlayerStatus.ALIVE);
+        player.setInvitationStatus(InvitationStatus.fromCode(cursor.getInt(4), InvitationStatus.UNDEFINED));
+        return player;
     }
 
-    public synchronized int updatePlayerInviationStatus(String userName, InvitationStatus status) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    private static Player newPlayer() {
+        return new Player(null, null, GameCharacter.UNDEFINED, true);
+    }
+
+    static Player copy(Player player) {
+        return new Player(player.getName(), player.getEmailID(), player.getGameCharacterType(), player.isAlive(),
+                player.getInvitationStatus());
+    }
 
+    public int updatePlayerInviationStatus(String gameName, String userName, InvitationStatus status) {
         ContentValues values = new ContentValues();
-        values.put(KEY_INVITATION_STATUS, status.toString());
+        values.put(KEY_INVITATION_STATUS, status.getCode());
+
+        awaitImport(gameName);
+        mLock.writeLock().lock();
+        try {
+            // updating row
+            return getWritableDatabase().update(TABLE_PLAYERS, values,
+                    WHERE_PLAYER, new String[] {gameName, userName});
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public void deletePlayer(String gameName, String userName) {
+        deletePlayers(gameName, Collections.singletonList(userName));
+    }
+
+    /**
+     * Deletes the players in one transaction.
+     */
+    public void deletePlayers(String gameName, Collection<String> userNames) {
+        awaitImport(gameName);
+        mLock.writeLock().lock();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            SQLiteStatement delete = db.compileStatement(DELETE_PLAYER);
+            try {
+                for (String userName : userNames) {
+                    delete.bindString(1, gameName);
+                    delete.bindString(2, userName);
+                    delete.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                delete.close();
+                db.endTransaction();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the game with its players and events.
+     */
+    public void deleteGame(String gameName) {
+        awaitImport(gameName);
+        mLock.writeLock().lock();
+        try {
+            getWritableDatabase().delete(TABLE_GAMES, KEY_NAME + " = ?", new String[] {gameName});
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@link #addEvent} off the main thread.
+     */
+    public void addEventInBackground(final String gameName, final GameEngine.Action action, final String actor,
+                                     final String target) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                addEvent(gameName, action, actor, target);
+            }
+        });
+    }
+
+    private <T> Task<T> load(final Callable<T> read) {
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.setResult(read.call());
+                } catch (Exception e) {
+                    source.setException(e);
+                }
+            }
+        });
+        return source.getTask();
+    }
+
+    /**
+     * Records an action this player saw resolved in the game.
+     */
+    public void addEvent(String gameName, GameEngine.Action action, String actor, String target) {
+        long time = System.currentTimeMillis();
+        awaitImport(gameName);
+        mLock.writeLock().lock();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                insertGame(db, gameName);
+                db.execSQL("INSERT INTO " + TABLE_EVENTS + " (" + KEY_GAME + ", " + KEY_TYPE + ", " + KEY_ACTOR + ", "
+                        + KEY_TARGET + ", " + KEY_TIME + ") VALUES (" + GAME_ID + ", ?, ?, ?, ?)",
+                        new Object[] {gameName, action.getCode(), actor, target, time});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Older versions kept every game in its own database, named after the game. Lists them, which
+     * only reads the directory, and marks them as waiting to be imported. Game names never hold a
+     * dot, so files like chat.db or the SDKs' databases are skipped without being opened, as are
+     * the ones an earlier start already found not to be legacy.
+     */
+    private List<String> findLegacyDatabases() {
+        Set<String> notLegacy = getImportPreferences().getStringSet(KEY_NOT_LEGACY, Collections.<String>emptySet());
+        List<String> legacyNames = new ArrayList<>();
+        for (String name : mContext.databaseList()) {
+            if (!name.contains(".") && !name.endsWith("-journal") && !name.endsWith("-wal")
+                    && !name.endsWith("-shm") && !notLegacy.contains(name)) {
+                legacyNames.add(name);
+            }
+        }
+        synchronized (mPendingImports) {
+            mPendingImports.addAll(legacyNames);
+        }
+        return legacyNames;
+    }
+
+    private SharedPreferences getImportPreferences() {
+        return mContext.getSharedPreferences(IMPORT_PREFERENCES, Context.MODE_PRIVATE);
+    }
 
-        // updating row
-        return db.update(TABLE_PLAYERS, values, KEY_NAME + " = ?", new String[] {userName});
+    private void rememberNotLegacy(String name) {
+        SharedPreferences preferences = getImportPreferences();
+        Set<String> notLegacy = new HashSet<>(preferences.getStringSet(KEY_NOT_LEGACY, Collections.<String>emptySet()));
+        notLegacy.add(name);
+        preferences.edit().putStringSet(KEY_NOT_LEGACY, notLegacy).apply();
+    }
+
+    /**
+     * Imports the game's legacy database, if it has one, on the calling thread ahead of the rest,
+     * or blocks until the import already running for it is done or given up on.
+     */
+    private void awaitImport(String gameName) {
+        if (claimImport(gameName)) {
+            importClaimed(gameName);
+            return;
+        }
+        synchronized (mPendingImports) {
+            boolean interrupted = false;
+            while (mImporting.contains(gameName)) {
+                try {
+                    mPendingImports.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    public synchronized void deletePlayer(String userName) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_PLAYERS, KEY_NAME + " = ?", new String[] {userName});
-        db.close();
+    /**
+     * Copies each legacy database, with its single players1 table, into this database and
+     * deletes it; one that can't be read is left for the next start. Games somebody asked for in
+     * the meantime have been imported by then and are skipped.
+     */
+    private void importLegacyDatabases(List<String> legacyNames) {
+        for (String gameName : legacyNames) {
+            if (claimImport(gameName)) {
+                importClaimed(gameName);
+            }
+        }
     }
 
+    private boolean claimImport(String gameName) {
+        synchronized (mPendingImports) {
+            if (!mPendingImports.remove(gameName))
+                return false;
+            mImporting.add(gameName);
+            return true;
+        }
+    }
 
+    private void importClaimed(String gameName) {
+        try {
+            importLegacyDatabase(gameName);
+        } finally {
+            synchronized (mPendingImports) {
+                mImporting.remove(gameName);
+                mPendingImports.notifyAll();
+            }
+        }
+    }
+
+    private void importLegacyDatabase(String gameName) {
+        SQLiteDatabase legacy;
+        try {
+            legacy = SQLiteDatabase.openDatabase(mContext.getDatabasePath(gameName).getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Couldn't open " + gameName, e);
+            return;
+        }
+        List<Player> players;
+        try {
+            if (!hasTable(legacy, LEGACY_TABLE_PLAYERS)) {
+                rememberNotLegacy(gameName); // someone else's database
+                return;
+            }
+            players = readLegacyPlayers(legacy);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Couldn't import " + gameName, e);
+            return;
+        } finally {
+            legacy.close();
+        }
+
+        writePlayers(gameName, players, true);
+        mContext.deleteDatabase(gameName);
+        Log.d(TAG, "Imported " + players.size() + " players of " + gameName);
+    }
+
+    private static boolean hasTable(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] {table});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<Player> readLegacyPlayers(SQLiteDatabase legacy) {
+        List<Player> players = new ArrayList<>();
+        Cursor cursor = legacy.rawQuery("SELECT name, email_id, character, is_alive, invitation_status FROM "
+                + LEGACY_TABLE_PLAYERS, null);
+        try {
+            while (cursor.moveToNext()) {
+                players.add(new Player(cursor.getString(0), cursor.getString(1),
+                        GameCharacter.decode(cursor.getString(2), GameCharacter.UNDEFINED),
+                        cursor.getInt(3) == 1,
+                        InvitationStatus.decode(cursor.getString(4), InvitationStatus.UNDEFINED)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return players;
+    }
 }
@@ -0,0 +1,96 @@
+package mobileappdev.assassingame;
+
+/**
+ * Maps the values our enums are stored as back to the enums. Firebase and SQLite store each
+ * constant as a small integer code; older data holds the constant's name in any casing. Both
+ * are decoded here without allocating, and anything unknown gives the caller's fallback
+ * instead of an exception, so a bad value from the server can't crash a listener.
+ *
+ * Codes are persisted, so a constant's code may never change and new constants take the next
+ * free code.
+ */
+public final class EnumCodec {
+
+    /**
+     * An enum with a stable code per constant. Codes run from 0 without gaps.
+     */
+    public interface Coded {
+        int getCode();
+    }
+
+    private EnumCodec() {
+    }
+
+    /**
+     * @return the constants indexed by their code
+     */
+    public static <E extends Enum<E> & Coded> E[] byCode(E[] values) {
+        E[] byCode = values.clone();
+        for (E value : values) {
+            byCode[value.getCode()] = value;
+        }
+        return byCode;
+    }
+
+    /**
+     * @param value a code as a {@link Number} or digits, or a constant's name in any casing
+     * @return the matching constant, or {@code fallback} for null and unknown values
+     */
+    public static <E extends Enum<E>> E decode(Object value, E[] byCode, E fallback) {
+        if (value instanceof Number)
+            return fromCode(byCode, ((Number) value).longValue(), fallback);
+        if (!(value instanceof CharSequence))
+            return fallback;
+        CharSequence text = (CharSequence) value;
+        long code = parseCode(text);
+        return code >= 0 ? fromCode(byCode, code, fallback) : fromName(byCode, text, fallback);
+    }
+
+    public static <E> E fromCode(E[] byCode, long code, E fallback) {
+        return code >= 0 && code < byCode.length ? byCode[(int) code] : fallback;
+    }
+
+    /**
+     * Case-insensitive lookup by {@link Enum#name()}.
+     */
+    public static <E extends Enum<E>> E fromName(E[] values, CharSequence name, E fallback) {
+        for (E value : values) {
+            if (equalsIgnoreCase(value.name(), name))
+                return value;
+        }
+        return fallback;
+    }
+
+    /**
+     * @return the number spelled by {@code text}, or -1 if it isn't a short run of digits
+     */
+    private static long parseCode(CharSequence text) {
+        int length = text.length();
+        if (length == 0 || length > 9)
+            return -1;
+        long code = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    // names are upper case ASCII, so folding the other side is enough
+    private static boolean equalsIgnoreCase(String name, CharSequence text) {
+        int length = name.length();
+        if (text.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
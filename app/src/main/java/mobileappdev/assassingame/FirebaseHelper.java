@@ -1,18 +1,29 @@
 package mobileappdev.assassingame;
 
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseUser;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author: Ajit Ku. Sahoo
@@ -24,91 +35,284 @@ import java.util.Set;
 
 public class FirebaseHelper {
 
+    public static final long DEFAULT_READ_TIMEOUT = 10000; // in msec
+    public static final String GAME_NAMES = "game_names";
+    public static final String GAME_STATE = "state";
+    private static final int READ_CACHE_SIZE = 64;
+    private static final long READ_CACHE_TTL = 30000; // in msec
+
+    private static final ReadCache<Object> sReadCache = new ReadCache<>(READ_CACHE_SIZE, READ_CACHE_TTL);
+    private static final ReadCache<DataSnapshot> sSnapshotCache = new ReadCache<>(READ_CACHE_SIZE, READ_CACHE_TTL);
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private static RealtimeStore sStore;
+
+    /**
+     * @return the database everything here reads and writes, Firebase unless
+     * {@link #setStore(RealtimeStore)} replaced it
+     */
+    public static synchronized RealtimeStore getStore() {
+        if (sStore == null) {
+            sStore = new FirebaseRealtimeStore(FirebaseDatabase.getInstance());
+        }
+        return sStore;
+    }
+
+    /**
+     * Points the app at another database, e.g. a {@link MemoryDatabase} for tests and
+     * benchmarks, and forgets what was read from the previous one.
+     */
+    public static synchronized void setStore(RealtimeStore store) {
+        sStore = store;
+        sReadCache.clear();
+        sSnapshotCache.clear();
+    }
+
     /**
-     * The primary logic that is fired when a user says "Create game." All sorts of things are
-     * handled here; specifically, the backend creates a new instance in our "games/" object and
-     * fills it with all of the necessary information.
+     * Reads a path once. The task fails with a {@link TimeoutException} if nothing arrives within
+     * {@link #DEFAULT_READ_TIMEOUT}, and with the database's exception if the read is cancelled.
+     * Reads are independent, so callers can start several and combine them with
+     * {@link com.google.android.gms.tasks.Tasks#whenAll}.
      *
-     * @param newGame
+     * @param useCache serve a recent result for the same path from {@link ReadCache}; only for
+     *                 data that rarely changes
+     * @return task resolving to the data as described in {@link RealtimeStore}, or null
      */
-    public static void createGame(Game newGame) {
+    public static Task<Object> read(String path, boolean useCache) {
+        return read(path, useCache, DEFAULT_READ_TIMEOUT);
+    }
 
-        /*
-         * This method is going to have a bit more logic; we will need to format and include the
-         * data in a cleaner way and also send notifications to users who were invited to the game.
-         */
+    public static Task<Object> read(String path, boolean useCache, long timeout) {
+        return read(new RealtimeStore.Query(path), useCache, timeout);
+    }
 
-        String gameReference = "games/" + newGame.getGameName();
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference typeRef = database.getReference(gameReference + "/type");
-        DatabaseReference creatorRef = database.getReference(gameReference + "/admin");
-        DatabaseReference playersRef = database.getReference(gameReference + "/players");
-        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        if (user != null) {
-            String creatorName = user.getDisplayName();
-            creatorRef.setValue(creatorName);
+    /**
+     * Runs a query once, same as {@link #read(String, boolean)}; the result keeps the query's
+     * order.
+     */
+    public static Task<Object> read(final RealtimeStore.Query query, final boolean useCache, long timeout) {
+        final String path = query.toString();
+        if (useCache) {
+            Object cached = sReadCache.get(path);
+            if (cached != null)
+                return Tasks.forResult(cached);
         }
 
-        // Public or private
-        if (newGame.isPublic()) {
-            typeRef.setValue("public");
-        } else {
-            typeRef.setValue("private");
-        }
+        final RealtimeStore store = getStore();
+        final TaskCompletionSource<Object> source = new TaskCompletionSource<>();
+        final AtomicBoolean done = new AtomicBoolean();
+        final RealtimeStore.ValueListener listener = new RealtimeStore.ValueListener() {
+            @Override
+            public void onValueChanged(String valuePath, Object value) {
+                if (done.compareAndSet(false, true)) {
+                    if (value != null) {
+                        sReadCache.put(path, value);
+                    }
+                    source.setResult(value);
+                }
+            }
 
-//        // Adding player names to our newly-created game!
-//        DatabaseReference gameAdminRef = database.getReference(gameReference + "/players/" + newGame.getGameAdmin());
-//        gameAdminRef.child("role").setValue(GameCharacter.UNDEFINED);
-//        gameAdminRef.child("status").setValue(PlayerStatus.ALIVE);
-//        gameAdminRef.child("invite").setValue(InvitationStatus.UNDEFINED);
+            @Override
+            public void onCancelled(Exception error) {
+                if (done.compareAndSet(false, true)) {
+                    Log.w("FirebaseHelper", "read:onCancelled " + path, error);
+                    source.setException(error);
+                }
+            }
+        };
+        final Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    store.removeListener(listener);
+                    source.setException(new TimeoutException("Reading " + path + " timed out"));
+                }
+            }
+        };
 
+        store.read(query, listener);
+        sHandler.postDelayed(timeoutRunnable, timeout);
+        return source.getTask().addOnCompleteListener(new OnCompleteListener<Object>() {
+            @Override
+            public void onComplete(Task<Object> task) {
+                sHandler.removeCallbacks(timeoutRunnable);
+            }
+        });
     }
 
     /**
-     * This function tells us whether a particular game is public or private. This will determine
-     * whether it shows up in game search results for our users.
+     * Runs a Firebase query once, same as {@link #read(String, boolean)}, for callers that
+     * still work with snapshots. Always goes to Firebase, whatever {@link #getStore()} is.
      *
-     * @param gameName
-     * @return boolean value indicating whether or not the game is public (true) or private (false).
+     * @param path identifies the query in the cache and in logs
      */
-    public static boolean isGamePublic(String gameName) {
-
-        /*
-         * Because the game type at this point is already determined, we don't need to waste
-         * resources by listening for changes. The reference method addListenerForSingleValueEvent()
-         * handles this for us, and we use a StringBuffer to store the result of that query for use
-         * in this function. A similar approach is used in other "get" methods so that I don't have
-         * to change the FirebaseHelper class.
-         */
-
-        // Establish reference to Firebase based on gameName attribute
-        String gameTypeReference = "games/" + gameName + "/type";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gameTypeReference);
-        final StringBuffer result = new StringBuffer();
+    public static Task<DataSnapshot> read(final Query query, final String path, final boolean useCache, long timeout) {
+        if (useCache) {
+            DataSnapshot cached = sSnapshotCache.get(path);
+            if (cached != null)
+                return Tasks.forResult(cached);
+        }
 
-        // Listen for single value then destroy listener
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+        final TaskCompletionSource<DataSnapshot> source = new TaskCompletionSource<>();
+        final AtomicBoolean done = new AtomicBoolean();
+        final ValueEventListener listener = new ValueEventListener() {
             @Override
             public void onDataChange(DataSnapshot dataSnapshot) {
-                Boolean value = (Boolean) dataSnapshot.getValue();
-                result.append(value);
-                Log.d("FIREBASE HELPER", "Value is: " + value);
+                if (done.compareAndSet(false, true)) {
+                    sSnapshotCache.put(path, dataSnapshot);
+                    source.setResult(dataSnapshot);
+                }
             }
 
             @Override
             public void onCancelled(DatabaseError databaseError) {
-                Log.w("FIREBASE HELPER", "Failed to read value.", databaseError.toException());
+                if (done.compareAndSet(false, true)) {
+                    Log.w("FirebaseHelper", "read:onCancelled " + path, databaseError.toException());
+                    source.setException(databaseError.toException());
+                }
+            }
+        };
+        final Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    query.removeEventListener(listener);
+                    source.setException(new TimeoutException("Reading " + path + " timed out"));
+                }
+            }
+        };
+
+        query.addListenerForSingleValueEvent(listener);
+        sHandler.postDelayed(timeoutRunnable, timeout);
+        return source.getTask().addOnCompleteListener(new OnCompleteListener<DataSnapshot>() {
+            @Override
+            public void onComplete(Task<DataSnapshot> task) {
+                sHandler.removeCallbacks(timeoutRunnable);
             }
         });
+    }
 
-        // Implementing the hacky workaround
-        Boolean isPublic = result.toString().equals("public");
+    /**
+     * Writes a multi-path update, with paths relative to the root.
+     *
+     * @return task completing once the database has applied the update
+     */
+    public static Task<Void> update(Map<String, Object> update) {
+        final TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        getStore().updateChildren("", update, new RealtimeStore.CompletionListener() {
+            @Override
+            public void onComplete(Exception error) {
+                if (error != null) {
+                    source.setException(error);
+                } else {
+                    source.setResult(null);
+                }
+            }
+        });
+        return source.getTask();
+    }
 
-        // Resetting string buffer
-        result.setLength(0);
+    /**
+     * Forgets cached reads of {@code path}, its children and its parents.
+     */
+    public static void invalidateCachedReads(String path) {
+        sReadCache.invalidate(path);
+        sSnapshotCache.invalidate(path);
+    }
+
+    public static String normalizeGameName(String gameName) {
+        return gameName.trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Reserves a game name for {@code owner} in one transaction on game_names/&lt;normalized
+     * name&gt;, so checking that a name is free doesn't depend on how many games exist. Claiming
+     * a name the owner already holds succeeds again only while nothing has been written under
+     * games/&lt;name&gt;, i.e. when an earlier attempt was abandoned before the game was set up.
+     *
+     * @return task resolving to false if somebody else holds the name or the game already exists
+     */
+    public static Task<Boolean> claimGameName(final String gameName, final String owner) {
+        final TaskCompletionSource<Boolean> source = new TaskCompletionSource<>();
+        // set by the transaction's last run, which is the one that committed
+        final AtomicBoolean reclaimed = new AtomicBoolean();
+        getStore().runTransaction(GAME_NAMES + "/" + normalizeGameName(gameName), new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object holder) {
+                if (holder != null && !owner.equals(holder.toString()))
+                    return RealtimeStore.ABORT;
+                reclaimed.set(holder != null);
+                return owner;
+            }
+        }, new RealtimeStore.TransactionListener() {
+            @Override
+            public void onComplete(Exception error, boolean committed, Object value) {
+                if (error != null) {
+                    source.setException(error);
+                } else if (!committed || !reclaimed.get()) {
+                    source.setResult(committed);
+                } else {
+                    checkGameIsNew(gameName, source);
+                }
+            }
+        });
+        return source.getTask();
+    }
+
+    // one child is enough to tell whether the game exists, without downloading all of it
+    private static void checkGameIsNew(String gameName, final TaskCompletionSource<Boolean> source) {
+        RealtimeStore.Query query = new RealtimeStore.Query("games/" + gameName).orderByKey().limitToFirst(1);
+        read(query, false, DEFAULT_READ_TIMEOUT).addOnCompleteListener(new OnCompleteListener<Object>() {
+            @Override
+            public void onComplete(Task<Object> task) {
+                if (task.isSuccessful()) {
+                    source.setResult(task.getResult() == null);
+                } else {
+                    source.setException(task.getException());
+                }
+            }
+        });
+    }
+
+    /**
+     * Gives up a name reserved by {@link #claimGameName(String, String)}, if {@code owner} still
+     * holds it.
+     */
+    public static void releaseGameName(final String gameName, final String owner) {
+        if (owner == null)
+            return;
+        getStore().runTransaction(GAME_NAMES + "/" + normalizeGameName(gameName), new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object holder) {
+                if (holder == null || !owner.equals(holder.toString()))
+                    return RealtimeStore.ABORT;
+                return null;
+            }
+        }, new RealtimeStore.TransactionListener() {
+            @Override
+            public void onComplete(Exception error, boolean committed, Object value) {
+                if (error != null) {
+                    Log.w("FirebaseHelper", "releaseGameName:" + gameName, error);
+                }
+            }
+        });
+    }
 
-        return isPublic;
+    /**
+     * This function tells us whether a particular game is public or private. This will determine
+     * whether it shows up in game search results for our users.
+     *
+     * @param gameName
+     * @return task resolving to whether or not the game is public (true) or private (false).
+     */
+    public static Task<Boolean> isGamePublic(String gameName) {
+        // The game type doesn't change once the game is set up, so a cached answer is fine
+        return read("games/" + gameName + "/type", true).continueWith(new Continuation<Object, Boolean>() {
+            @Override
+            public Boolean then(Task<Object> task) {
+                return "public".equals(String.valueOf(task.getResult()));
+            }
+        });
     }
 
     /**
@@ -120,11 +324,12 @@ public class FirebaseHelper {
 
         // Establishing reference to Firebase based on gameName attribute
         String gameTypeReference = "games/" + gameName + "/type";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gameTypeReference);
 
-        // Much simpler than isGamePublic, right?
-        ref.setValue("public");
+        Map<String, Object> update = new HashMap<>();
+        update.put(gameTypeReference, "public");
+        update.put(GameIndex.PUBLIC_GAMES + "/" + gameName, RealtimeStore.TIMESTAMP);
+        update(update);
+        invalidateCachedReads(gameTypeReference);
     }
 
     //Ajit - check NewGameActivity#fetchAllGameNames()
@@ -160,15 +365,13 @@ public class FirebaseHelper {
 */
 
    public static void sendInvite(List<String> players, String gameName, String admin) {
-       FirebaseDatabase database = FirebaseDatabase.getInstance();
+       RealtimeStore store = getStore();
        String currTime = Long.toString(System.currentTimeMillis());
        for (String player : players) {
            if (admin.equals(player)) //skip sending the invitation to the admin
                continue;
-           DatabaseReference inviteRef =
-                   database.getReference("users/" + player + "/invites/" + admin + "/" + gameName);
-           DatabaseReference newInviteRef = inviteRef.push();
-           newInviteRef.setValue(currTime);
+           String invitePath = "users/" + player + "/invites/" + admin + "/" + gameName;
+           store.setValue(invitePath + "/" + store.push(invitePath), currTime, null);
        }
    }
 
@@ -277,352 +480,217 @@ public class FirebaseHelper {
 
 
     public static void sendLocation(Location location, String gameName, String myself) {
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        String userLocation = "users/" + myself + "/location";
-        DatabaseReference myLocationRef = database.getReference(userLocation);
+        sendLocation(location.getLatitude(), location.getLongitude(), gameName, myself);
+    }
+
+    /**
+     * Writes both coordinates in one multi-path update, so it costs a single round-trip and
+     * listeners never see a lat from one fix paired with a lng from another. Callers on the play
+     * board should go through {@link LocationUplink} rather than calling this per fix.
+     *
+     * The fix goes to the game's positions node (see {@link GamePositionStream}), which is the
+     * only place the play board reads locations from.
+     */
+    public static void sendLocation(double lat, double lng, String gameName, String myself) {
+        String myPosition = GamePositionStream.getPositionsPath(gameName) + "/" + myself;
 
-        myLocationRef.child("lat").setValue(location.getLatitude());
-        myLocationRef.child("lng").setValue(location.getLongitude());
+        Map<String, Object> update = new HashMap<>();
+        update.put(myPosition + "/" + GamePositionStream.LAT, lat);
+        update.put(myPosition + "/" + GamePositionStream.LNG, lng);
+        getStore().updateChildren("", update, null);
+    }
+
+    /**
+     * @return the node the resolveAction cloud function transacts on: every player's role and
+     * status, citizens_alive and the game's status and result. Roles, statuses and the result are
+     * copied to the game itself, where the app reads them. Clients may only write their own entry
+     * there, and only before the game starts.
+     */
+    public static String getStatePath(String gameName) {
+        return "games/" + gameName + "/" + GAME_STATE;
+    }
+
+    /**
+     * Adds the player's status, its mirror under the game's positions node and its copy in the
+     * game state to a multi-path update. Only for the player's own entry before the game starts,
+     * as alive or newly joined; anything else goes through {@link ActionResolver}.
+     */
+    static void putPlayerStatus(Map<String, Object> update, String gameName, String playerName,
+                                PlayerStatus status) {
+        update.put("games/" + gameName + "/players/" + playerName + "/status", status.getCode());
+        update.put(GamePositionStream.getPositionsPath(gameName) + "/" + playerName + "/"
+                + GamePositionStream.STATUS, status.getCode());
+        update.put(getStatePath(gameName) + "/players/" + playerName + "/status", status.getCode());
+    }
+
+    /**
+     * Adds the player's role, and its copy in the game state, to a multi-path update. Same limits
+     * as {@link #putPlayerStatus}, so the role can only be {@link GameCharacter#UNDEFINED}.
+     */
+    static void putPlayerRole(Map<String, Object> update, String gameName, String playerName,
+                              GameCharacter role) {
+        update.put("games/" + gameName + "/players/" + playerName + "/role", role.getCode());
+        update.put(getStatePath(gameName) + "/players/" + playerName + "/role", role.getCode());
     }
 
 
     public static void sendRejectionResponse(String player, String gameName) {
-        final FirebaseDatabase database = FirebaseDatabase.getInstance();
         String invitesUrl = "games/" + gameName + "/invites/" + player;
-        DatabaseReference inviteResponseRef = database.getReference(invitesUrl);
-        inviteResponseRef.setValue("declined");
+        getStore().setValue(invitesUrl, InvitationStatus.DECLINED.getCode(), null);
     }
 
     /**
+     * Answers the invitation and asks the server to add the player, which it does whether or not
+     * the game is running.
+     *
      * @param player: The user that accepted the invitation.
      * @param gameName:   The game that the user has accepted the invitation for
      */
     public static void sendAcceptResponse(String player, String gameName) {
-        final FirebaseDatabase database = FirebaseDatabase.getInstance();
         String invitesUrl = "games/" + gameName + "/invites/" + player;
         String playerUrl = "games/" + gameName + "/players/" + player;
 
-        DatabaseReference playerRef = database.getReference(playerUrl);
-        playerRef.child("status").setValue(PlayerStatus.ALIVE.toString());
-        playerRef.child("invite").setValue(InvitationStatus.ACCEPTED.toString());
-        playerRef.child("role").setValue(GameCharacter.UNDEFINED.toString());
-        DatabaseReference inviteResponseRef = database.getReference(invitesUrl);
-        inviteResponseRef.setValue("accepted");
-    }
-
-    public static void sendGameStartMessage(String gameName) {
-
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference gameStatusRef = database.getReference("games/" + gameName + "/status");
-
-        gameStatusRef.setValue(GameStatus.STARTED.toString());
+        Map<String, Object> update = new HashMap<>();
+        update.put(playerUrl + "/invite", InvitationStatus.ACCEPTED.getCode());
+        update.put(invitesUrl, InvitationStatus.ACCEPTED.getCode());
+        update(update);
+        new ActionResolver(gameName).join(player);
     }
 
     /**
-     * Retrieves the game status as a string from the Firebase realtime database. Converts this
-     * result to a GameStatus object.
+     * Retrieves the game status from the Firebase realtime database, stored as a code or, for
+     * older games, a name. Converts this result to a GameStatus object.
      *
      * @param gameName: game whose status we are checking
-     * @return GameStatus object corresponding to queried game
+     * @return task resolving to the GameStatus of the queried game; fails if the game has none
      */
-    public static GameStatus getGameStatus(String gameName) {
-        String gameTypeReference = "games/" + gameName + "/status";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gameTypeReference);
-        final StringBuffer status = new StringBuffer();
-
-        // Listen for single value then destroy listener
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                String queriedGameStatus = (String) dataSnapshot.getValue();
-                status.append(queriedGameStatus);
-                Log.d("FIREBASE HELPER", "Value is: " + queriedGameStatus);
-            }
-
+    public static Task<GameStatus> getGameStatus(final String gameName) {
+        return read("games/" + gameName + "/status", false).continueWith(new Continuation<Object, GameStatus>() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FIREBASE HELPER", "Failed to read value.", databaseError.toException());
+            public GameStatus then(Task<Object> task) {
+                GameStatus status = GameStatus.decode(task.getResult(), null);
+                if (status == null)
+                    throw new IllegalStateException(gameName + " has no status");
+                return status;
             }
         });
-
-        return GameStatus.getGameStatusFrom(status.toString());
     }
 
     /**
      * Helper method to determine if the game has started.
      *
      * @param gameName: game in question
-     * @return whether or not game has started
+     * @return task resolving to whether or not game has started
      */
-    public static boolean isGameStarted(String gameName) {
-        return GameStatus.STARTED.equals(getGameStatus(gameName));
+    public static Task<Boolean> isGameStarted(String gameName) {
+        return getGameStatus(gameName).continueWith(isStatus(GameStatus.STARTED));
     }
 
     /**
      * Helper method to determine if the game has finished.
      *
      * @param gameName: game in question
-     * @return whether or not game has finished
+     * @return task resolving to whether or not game has finished
      */
-    public static boolean isGameFinished(String gameName) {
-        return GameStatus.FINISHED.equals(getGameStatus(gameName));
+    public static Task<Boolean> isGameFinished(String gameName) {
+        return getGameStatus(gameName).continueWith(isStatus(GameStatus.FINISHED));
     }
 
-    /**
-     * This returns all players of a game in a nice orderly fashion. It expects the fields
-     * /character and /isAlive to be filled with appropriate string and boolean values.
-     *
-     * @param gameName: the game we want the players for
-     * @return a map containing all the game player info
-     */
-    /*public static Map<String, Player> getAllPlayers(String gameName) {
-
-        final Map<String, Player> playerMap = new HashMap<>();
-
-        String gamePlayerReference = "games/" + gameName + "/players";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gamePlayerReference);
-
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-                    playerMap.put(snapshot.getKey(),
-                            new Player(snapshot.getKey(),
-                                    "test@doWeNeedThisInfo.com", // TODO: GET ACTUAL EMAIL
-                                    GameCharacter.getGameStatusFrom(snapshot.child("character").getValue().toString()),
-                                    Boolean.parseBoolean(snapshot.child("isAlive").getValue().toString())));
-                }
-            }
-
+    private static Continuation<GameStatus, Boolean> isStatus(final GameStatus expected) {
+        return new Continuation<GameStatus, Boolean>() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "getAllPlayers:onCancelled");
-            }
-        });
-
-        return playerMap;
-    }
-*/
-    public static void updatePlayerStatus(String gameName, String playerName, PlayerStatus status,
-                                          boolean shouldUpdateCiviliansCounter, boolean increaseCounter) {
-        String gamePlayerReference = "games/" + gameName + "/players/" + playerName + "/status";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gamePlayerReference);
-        ref.setValue(status.toString());
-
-        if (shouldUpdateCiviliansCounter) {
-            if (increaseCounter) {
-                increaseNoOfAliveCiviliansBy1(gameName);
-            } else {
-                decreaseNoOfAliveCiviliansBy1(gameName);
-            }
-        }
-    }
-
-    public static int getNoOfAliveCivilians(String gameName) {
-        String gameReference = "games/" + gameName;
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference aliveRef = database.getReference(gameReference + "/citizens_alive");
-
-        final StringBuffer aliveCivilians = new StringBuffer();
-
-        aliveRef.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                aliveCivilians.append(dataSnapshot.getValue());
-
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "getNoOfAliveCivilians:onCancelled");
-            }
-        });
-
-        return Integer.parseInt(aliveCivilians.toString());
-    }
-
-    public static void initializeNoOfAliveCivilians(final String gameName, int size) {
-        String gameReference = "games/" + gameName;
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference aliveRef = database.getReference(gameReference + "/citizens_alive");
-        aliveRef.setValue(size);
-
-        /*DatabaseReference playersRef = database.getReference(gameReference + "/players");
-        playersRef.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                for (int i = 0; i < dataSnapshot.getChildrenCount(); i++) {
-                    for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-                        if (snapshot.child(snapshot.getKey()).child("role").toString().equals("civilian")) {
-                            increaseNoOfAliveCiviliansBy1(gameName);
-                        }
-                    }
-                }
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FIREBASE HELPER", "Failed to read value.", databaseError.toException());
+            public Boolean then(Task<GameStatus> task) {
+                return expected.equals(task.getResult());
             }
-        });*/
+        };
     }
 
     /**
-     * This is a helper function that allows us to update the backend as new users join a game.
+     * This returns all players of a game in a nice orderly fashion, keyed and ordered by name. It
+     * expects the fields /role and /status to be filled with appropriate string values.
      *
-     * @param gameName: the game to be updated
+     * @param gameName: the game we want the players for
+     * @return task resolving to a map containing all the game player info
      */
-    public static void increaseNoOfAliveCiviliansBy1(String gameName) {
-        String gameReference = "games/" + gameName;
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        final DatabaseReference aliveRef = database.getReference(gameReference + "/citizens_alive");
-
-        final StringBuffer aliveCivilians = new StringBuffer();
-
-        aliveRef.addListenerForSingleValueEvent(new ValueEventListener() {
+    public static Task<Map<String, Player>> getAllPlayers(String gameName) {
+        return read("games/" + gameName + "/players", false).continueWith(new Continuation<Object, Map<String, Player>>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                aliveCivilians.append(dataSnapshot.getValue());
-                aliveRef.setValue(Integer.parseInt(aliveCivilians.toString()) + 1);
+            public Map<String, Player> then(Task<Object> task) {
+                return Game.decodePlayers(task.getResult());
             }
+        });
+    }
 
+    public static Task<PlayerStatus> getPlayerStatus(final String gameName, final String playerName) {
+        return read("games/" + gameName + "/players/" + playerName + "/status", false).continueWith(new Continuation<Object, PlayerStatus>() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "getNoOfAliveCivilians:onCancelled");
+            public PlayerStatus then(Task<Object> task) {
+                PlayerStatus status = PlayerStatus.decode(task.getResult(), null);
+                if (status == null)
+                    throw new IllegalStateException(playerName + " has no status in " + gameName);
+                return status;
             }
         });
-
     }
 
-    public static void decreaseNoOfAliveCiviliansBy1(String gameName) {
-        String gameReference = "games/" + gameName;
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        final DatabaseReference aliveRef = database.getReference(gameReference + "/citizens_alive");
-
-        final StringBuffer aliveCivilians = new StringBuffer();
-
-        aliveRef.addListenerForSingleValueEvent(new ValueEventListener() {
+    public static Task<Integer> getNoOfAliveCivilians(String gameName) {
+        return read(getStatePath(gameName) + "/citizens_alive", false).continueWith(new Continuation<Object, Integer>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                aliveCivilians.append(dataSnapshot.getValue());
-                aliveRef.setValue(Integer.parseInt(aliveCivilians.toString()) - 1);
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "getNoOfAliveCivilians:onCancelled");
+            public Integer then(Task<Object> task) {
+                Object value = task.getResult();
+                return value == null ? 0 : Integer.parseInt(value.toString());
             }
         });
     }
 
     public static void increaseNoOfWinsBy1(String playerName) {
-        String playerReference = "users/" + playerName + "/stats";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        final DatabaseReference winsRef = database.getReference(playerReference + "/wins");
-
-        final StringBuffer numWins = new StringBuffer();
-
-        winsRef.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                numWins.append(dataSnapshot.getValue());
-                winsRef.setValue(Integer.parseInt(numWins.toString()) + 1);
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "increaseNoOfWinsBy1:onCancelled");
-            }
-        });
+        incrementCounter("users/" + playerName + "/stats/wins", 1);
     }
 
     public static void increaseNoOfLossesBy1(String playerName) {
-        String playerReference = "users/" + playerName + "/stats";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        final DatabaseReference lossesRef = database.getReference(playerReference + "/losses");
-
-        final StringBuffer numLosses = new StringBuffer();
+        incrementCounter("users/" + playerName + "/stats/losses", 1);
+    }
 
-        lossesRef.addListenerForSingleValueEvent(new ValueEventListener() {
+    /**
+     * Adds {@code delta} to a counter inside a transaction, so concurrent updates from several
+     * devices can't overwrite each other the way a read followed by setValue() would.
+     */
+    private static void incrementCounter(final String counterPath, final long delta) {
+        getStore().runTransaction(counterPath, new RealtimeStore.Transaction() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                numLosses.append(dataSnapshot.getValue());
-                lossesRef.setValue(Integer.parseInt(numLosses.toString()) + 1);
+            public Object run(Object value) {
+                long current = value == null ? 0 : Long.parseLong(value.toString());
+                return current + delta;
             }
-
+        }, new RealtimeStore.TransactionListener() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "increaseNoOfLossesBy1:onCancelled");
+            public void onComplete(Exception error, boolean committed, Object value) {
+                if (error != null) {
+                    Log.w("FirebaseHelper", "incrementCounter:" + counterPath, error);
+                }
             }
         });
     }
 
-    public static void updateGameStatus(String gameName, boolean assassinWon, String description) {
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference gameStatusRef = database.getReference("games/" + gameName + "/status");
-        gameStatusRef.setValue("finished");
-
-        DatabaseReference resultRef = database.getReference("games/" + gameName + "/result");
-        resultRef.setValue(description);
-
-        DatabaseReference assassinWonRef = database.getReference("games/" + gameName + "/assassinWon");
-        assassinWonRef.setValue(assassinWon);
-    }
-
-    public static void newPlayerAddedUp(String userName, String gameName) {
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference gamePlayersRef = database.getReference("games/" + gameName + "/players/" + userName);
-
-        gamePlayersRef.child("role").setValue(GameCharacter.CITIZEN.toString());
-        gamePlayersRef.child("invite").setValue(InvitationStatus.UNDEFINED.toString());
-        gamePlayersRef.child("status").setValue(PlayerStatus.ALIVE.toString());
-    }
-
     public static void sendPlayerNotLoggedInResponse(String fromPlayer, String toAdmin) {
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference msgRef = database.getReference("users/" + toAdmin + "/messages");
-        DatabaseReference newMsgRef = msgRef.push();
-
-        newMsgRef.setValue(fromPlayer + " not logged in");
+        RealtimeStore store = getStore();
+        String messagesPath = "users/" + toAdmin + "/messages";
+        store.setValue(messagesPath + "/" + store.push(messagesPath), fromPlayer + " not logged in", null);
     }
 
 
 
-    public static void updateCharactersOfPlayers(String gameName, String assassinName, String detectiveName,
-                                                 String doctorName, List<String> citizens) {
-
-        String gamePlayers = "games/" + gameName + "/players";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-
-        // Setting up the assassin
-        DatabaseReference assassinRef = database.getReference(gamePlayers + "/" + assassinName);
-        assassinRef.child("role").setValue(GameCharacter.ASSASSIN.toString());
-
-        // Setting up the detective
-        if (detectiveName.length() > 1) {
-            DatabaseReference detectiveRef = database.getReference(gamePlayers + "/" + detectiveName);
-            detectiveRef.child("role").setValue(GameCharacter.DETECTIVE.toString());
-        }
-
-        // Setting up the doctor
-        if (doctorName.length() > 1) {
-            DatabaseReference doctorRef = database.getReference(gamePlayers + "/" + doctorName);
-            doctorRef.child("role").setValue(GameCharacter.DOCTOR.toString());
-        }
 
-        // Setting up each of the citizens
-        for (String citizenName : citizens) {
-            DatabaseReference civilianRef = database.getReference(gamePlayers + "/" + citizenName);
-            civilianRef.child("role").setValue(GameCharacter.CITIZEN.toString());
-        }
-    }
-
-    public static void deleteGame(String gameName) {
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference reference = database.getReference("games/" + gameName);
-        reference.setValue(null);
+    /**
+     * Deletes the game together with its entries in the game indexes.
+     *
+     * @param admin may be null if unknown, which leaves the games_by_admin entry behind
+     */
+    public static void deleteGame(String gameName, String admin) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("games/" + gameName, null);
+        GameIndex.removeGame(update, gameName, admin);
+        update(update);
+        invalidateCachedReads("games/" + gameName);
     }
 }
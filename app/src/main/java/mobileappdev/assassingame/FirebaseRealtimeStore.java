@@ -0,0 +1,276 @@
+package mobileappdev.assassingame;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link RealtimeStore} the app runs on: Firebase's realtime database, with snapshots turned
+ * into plain values. Callbacks come on the main thread, like Firebase's own.
+ */
+public class FirebaseRealtimeStore implements RealtimeStore {
+
+    private static class Registration {
+        final com.google.firebase.database.Query query;
+        final ValueEventListener valueListener;
+        final ChildEventListener childListener;
+
+        Registration(com.google.firebase.database.Query query, ValueEventListener valueListener, ChildEventListener childListener) {
+            this.query = query;
+            this.valueListener = valueListener;
+            this.childListener = childListener;
+        }
+    }
+
+    private final FirebaseDatabase mDatabase;
+    private final Map<Object, List<Registration>> mRegistrations = new HashMap<>();
+
+    public FirebaseRealtimeStore(FirebaseDatabase database) {
+        mDatabase = database;
+    }
+
+    @Override
+    public void setValue(String path, Object value, CompletionListener listener) {
+        mDatabase.getReference(path).setValue(value, toCompletionListener(listener));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void updateChildren(String path, Map<String, ?> update, CompletionListener listener) {
+        mDatabase.getReference(path).updateChildren((Map<String, Object>) update, toCompletionListener(listener));
+    }
+
+    @Override
+    public void runTransaction(String path, final Transaction transaction, final TransactionListener listener) {
+        mDatabase.getReference(path).runTransaction(new com.google.firebase.database.Transaction.Handler() {
+            @Override
+            public com.google.firebase.database.Transaction.Result doTransaction(MutableData mutableData) {
+                Object result = transaction.run(mutableData.getValue());
+                if (result == ABORT)
+                    return com.google.firebase.database.Transaction.abort();
+                mutableData.setValue(result);
+                return com.google.firebase.database.Transaction.success(mutableData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+                if (listener != null) {
+                    listener.onComplete(databaseError == null ? null : databaseError.toException(), committed,
+                            dataSnapshot == null ? null : toValue(dataSnapshot));
+                }
+            }
+        });
+    }
+
+    @Override
+    public String push(String path) {
+        return mDatabase.getReference(path).push().getKey();
+    }
+
+    @Override
+    public ValueListener addValueListener(Query query, ValueListener listener) {
+        com.google.firebase.database.Query firebaseQuery = toQuery(query);
+        ValueEventListener valueListener = toValueEventListener(query.getPath(), listener);
+        register(listener, new Registration(firebaseQuery, valueListener, null));
+        firebaseQuery.addValueEventListener(valueListener);
+        return listener;
+    }
+
+    @Override
+    public ChildListener addChildListener(Query query, final ChildListener listener) {
+        com.google.firebase.database.Query firebaseQuery = toQuery(query);
+        ChildEventListener childListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onChildAdded(dataSnapshot.getKey(), toValue(dataSnapshot));
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onChildChanged(dataSnapshot.getKey(), toValue(dataSnapshot));
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+                listener.onChildRemoved(dataSnapshot.getKey());
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                // order within the query isn't reported
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                listener.onCancelled(databaseError.toException());
+            }
+        };
+        register(listener, new Registration(firebaseQuery, null, childListener));
+        firebaseQuery.addChildEventListener(childListener);
+        return listener;
+    }
+
+    @Override
+    public void read(Query query, final ValueListener listener) {
+        final com.google.firebase.database.Query firebaseQuery = toQuery(query);
+        final Registration[] registration = new Registration[1];
+        ValueEventListener valueListener = toValueEventListener(query.getPath(), new ValueListener() {
+            @Override
+            public void onValueChanged(String path, Object value) {
+                if (unregister(listener, registration[0])) {
+                    listener.onValueChanged(path, value);
+                }
+            }
+
+            @Override
+            public void onCancelled(Exception error) {
+                if (unregister(listener, registration[0])) {
+                    listener.onCancelled(error);
+                }
+            }
+        });
+        registration[0] = new Registration(firebaseQuery, valueListener, null);
+        register(listener, registration[0]);
+        firebaseQuery.addListenerForSingleValueEvent(valueListener);
+    }
+
+    @Override
+    public void removeListener(Object listener) {
+        List<Registration> registrations;
+        synchronized (mRegistrations) {
+            registrations = mRegistrations.remove(listener);
+        }
+        if (registrations == null)
+            return;
+        for (Registration registration : registrations) {
+            if (registration.valueListener != null) {
+                registration.query.removeEventListener(registration.valueListener);
+            } else {
+                registration.query.removeEventListener(registration.childListener);
+            }
+        }
+    }
+
+    /**
+     * @return the snapshot as plain data, children in the order the snapshot has them
+     */
+    static Object toValue(DataSnapshot snapshot) {
+        if (!snapshot.hasChildren())
+            return snapshot.getValue();
+        Map<String, Object> children = new LinkedHashMap<>();
+        for (DataSnapshot child : snapshot.getChildren()) {
+            children.put(child.getKey(), toValue(child));
+        }
+        return children;
+    }
+
+    private com.google.firebase.database.Query toQuery(Query query) {
+        com.google.firebase.database.Query firebaseQuery = mDatabase.getReference(query.getPath());
+        if (query.getOrder() != null) {
+            switch (query.getOrder()) {
+                case KEY:
+                    firebaseQuery = firebaseQuery.orderByKey();
+                    break;
+                case VALUE:
+                    firebaseQuery = firebaseQuery.orderByValue();
+                    break;
+                case CHILD:
+                    firebaseQuery = firebaseQuery.orderByChild(query.getChild());
+                    break;
+            }
+        }
+        if (query.hasStart()) {
+            Object start = query.getStart();
+            String key = query.getStartKey();
+            if (start instanceof Number) {
+                double value = ((Number) start).doubleValue();
+                firebaseQuery = key == null ? firebaseQuery.startAt(value) : firebaseQuery.startAt(value, key);
+            } else if (start instanceof Boolean) {
+                firebaseQuery = firebaseQuery.startAt((Boolean) start);
+            } else {
+                String value = start == null ? null : start.toString();
+                firebaseQuery = key == null ? firebaseQuery.startAt(value) : firebaseQuery.startAt(value, key);
+            }
+        }
+        if (query.hasEnd()) {
+            Object end = query.getEnd();
+            String key = query.getEndKey();
+            if (end instanceof Number) {
+                double value = ((Number) end).doubleValue();
+                firebaseQuery = key == null ? firebaseQuery.endAt(value) : firebaseQuery.endAt(value, key);
+            } else if (end instanceof Boolean) {
+                firebaseQuery = firebaseQuery.endAt((Boolean) end);
+            } else {
+                String value = end == null ? null : end.toString();
+                firebaseQuery = key == null ? firebaseQuery.endAt(value) : firebaseQuery.endAt(value, key);
+            }
+        }
+        if (query.getLimit() > 0) {
+            firebaseQuery = query.isLimitToLast()
+                    ? firebaseQuery.limitToLast(query.getLimit())
+                    : firebaseQuery.limitToFirst(query.getLimit());
+        }
+        return firebaseQuery;
+    }
+
+    private static ValueEventListener toValueEventListener(final String path, final ValueListener listener) {
+        return new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onValueChanged(path, toValue(dataSnapshot));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                listener.onCancelled(databaseError.toException());
+            }
+        };
+    }
+
+    private static DatabaseReference.CompletionListener toCompletionListener(final CompletionListener listener) {
+        if (listener == null)
+            return null;
+        return new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                listener.onComplete(databaseError == null ? null : databaseError.toException());
+            }
+        };
+    }
+
+    private void register(Object listener, Registration registration) {
+        synchronized (mRegistrations) {
+            List<Registration> registrations = mRegistrations.get(listener);
+            if (registrations == null) {
+                registrations = new ArrayList<>();
+                mRegistrations.put(listener, registrations);
+            }
+            registrations.add(registration);
+        }
+    }
+
+    /**
+     * @return whether the registration was still there
+     */
+    private boolean unregister(Object listener, Registration registration) {
+        synchronized (mRegistrations) {
+            List<Registration> registrations = mRegistrations.get(listener);
+            if (registrations == null || !registrations.remove(registration))
+                return false;
+            if (registrations.isEmpty()) {
+                mRegistrations.remove(listener);
+            }
+            return true;
+        }
+    }
+}
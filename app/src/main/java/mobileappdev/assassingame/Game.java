@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * @author: Ajit Ku. Sahoo
@@ -105,6 +106,27 @@ public class Game {
         players2Invite.add(player);
     }
 
+    /**
+     * Decodes games/&lt;game&gt;/players as {@link RealtimeStore} reads it. Roles and statuses
+     * may be codes or legacy names; a missing or unknown one reads as undefined and alive.
+     *
+     * @return players keyed and ordered by name; empty if there are none
+     */
+    public static Map<String, Player> decodePlayers(Object players) {
+        Map<String, Player> playerMap = new TreeMap<>();
+        if (!(players instanceof Map))
+            return playerMap;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) players).entrySet()) {
+            String name = entry.getKey().toString();
+            Map<?, ?> player = (Map<?, ?>) entry.getValue();
+            playerMap.put(name,
+                    new Player(name, "test@doWeNeedThisInfo.com", //no, we don't need it
+                            GameCharacter.decode(player.get("role"), GameCharacter.UNDEFINED),
+                            PlayerStatus.decode(player.get("status"), PlayerStatus.ALIVE) == PlayerStatus.ALIVE));
+        }
+        return playerMap;
+    }
+
     public void resetGameData() {
         players2Invite = new HashSet<>();
         mSearchedPlayer = new ArrayList<>();
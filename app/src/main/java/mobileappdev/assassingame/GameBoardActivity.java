@@ -7,6 +7,7 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.FragmentManager;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -16,6 +17,15 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.Map;
+import java.util.Random;
+
 /**
  * @author: Ajit Ku. Sahoo
  * @Date: 3/14/2017
@@ -114,21 +124,55 @@ public class GameBoardActivity extends AppCompatActivity {
         }
 
 
-        new MyAsyncTask().execute();
-        Intent intent = new Intent(GameBoardActivity.this, PlayBoardActivity.class);
-        intent.putExtra(BroadcastHelper.AM_I_ADMIN, true);
-        intent.putExtra(BroadcastHelper.GAME_STARTED, true);
-        intent.putExtra(BroadcastHelper.GAME_NAME, Game.getInstance().getGameName());
-        startActivity(intent);
-        finish();
+        mCreateGameButton.setEnabled(false);
+        final Spinner spinner = new Spinner(this);
+        spinner.show("Hang On!", "Starting the game...", false);
+        final String gameName = Game.getInstance().getGameName();
+        String admin = Game.getInstance().getGameAdmin();
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user != null) {
+            admin = user.getDisplayName();
+        }
+        final String gameAdmin = admin;
+        FirebaseHelper.getAllPlayers(gameName)
+                .continueWithTask(new Continuation<Map<String, Player>, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(Task<Map<String, Player>> task) {
+                        // players, roles, counters and the started status land in one write
+                        return new GameBootstrap(gameName)
+                                .setAdmin(gameAdmin)
+                                .setPublic(Game.getInstance().isPublic())
+                                .addPlayers(task.getResult().keySet())
+                                .assignRoles(new Random())
+                                .commit();
+                    }
+                })
+                .addOnCompleteListener(this, new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(Task<Void> task) {
+                        spinner.dismiss();
+                        if (!task.isSuccessful()) {
+                            Log.w(GameBoardActivity.class.getSimpleName(), "Couldn't start " + gameName, task.getException());
+                            Toast.makeText(GameBoardActivity.this, "Couldn't start the game. Please try again.",
+                                    Toast.LENGTH_SHORT).show();
+                            mCreateGameButton.setEnabled(true);
+                            return;
+                        }
+                        new MyAsyncTask().execute();
+                        Intent intent = new Intent(GameBoardActivity.this, PlayBoardActivity.class);
+                        intent.putExtra(BroadcastHelper.AM_I_ADMIN, true);
+                        intent.putExtra(BroadcastHelper.GAME_STARTED, true);
+                        intent.putExtra(BroadcastHelper.GAME_NAME, gameName);
+                        startActivity(intent);
+                        finish();
+                    }
+                });
     }
 
     private class MyAsyncTask extends AsyncTask<Void, Void, Void> {
 
         @Override
         protected Void doInBackground(Void... params) {
-            FirebaseHelper.createGame(Game.getInstance());
-            FirebaseHelper.sendGameStartMessage(Game.getInstance().getGameName());
             addPlayersToDatabase();
             return null;
         }
@@ -136,11 +180,7 @@ public class GameBoardActivity extends AppCompatActivity {
 
     private void addPlayersToDatabase() {
         Game gameInstance = Game.getInstance();
-        DatabaseHandler handler = new DatabaseHandler(this, gameInstance.getGameName());
-        for (Player player : gameInstance.getAllPlayers()) {
-            handler.addPlayer(player);
-        }
-
+        DatabaseHandler.getInstance(this).replaceRoster(gameInstance.getGameName(), gameInstance.getAllPlayers());
     }
 
 
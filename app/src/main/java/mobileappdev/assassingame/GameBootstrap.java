@@ -0,0 +1,109 @@
+package mobileappdev.assassingame;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Assembles everything a game needs to start - admin, type, index entries and every player's
+ * role. The first three are one multi-path update; the roles go to the resolveAction cloud
+ * function as a start request, since clients may not write the game state. It sets every role
+ * and status, the civilian counter and the started status, in the game and in its state node, in
+ * one update of its own. Players are told the game started by the status write, so they can
+ * never see it half set up.
+ *
+ * <pre>
+ * new GameBootstrap(gameName)
+ *         .setAdmin(admin)
+ *         .setPublic(isPublic)
+ *         .addPlayers(playerNames)
+ *         .assignRoles(new Random())
+ *         .commit();
+ * </pre>
+ */
+public class GameBootstrap {
+
+    private final String mGameName;
+    private String mAdmin;
+    private boolean mPublic;
+    private final Map<String, GameCharacter> mRoles = new LinkedHashMap<>();
+
+    public GameBootstrap(String gameName) {
+        mGameName = gameName;
+    }
+
+    public GameBootstrap setAdmin(String admin) {
+        mAdmin = admin;
+        return this;
+    }
+
+    public GameBootstrap setPublic(boolean isPublic) {
+        mPublic = isPublic;
+        return this;
+    }
+
+    public GameBootstrap addPlayers(Iterable<String> playerNames) {
+        for (String playerName : playerNames) {
+            if (!mRoles.containsKey(playerName)) {
+                mRoles.put(playerName, GameCharacter.CITIZEN);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @see GameEngine#assignRoles
+     */
+    public GameBootstrap assignRoles(Random random) {
+        GameEngine.assignRoles(new ArrayList<>(mRoles.keySet()), random, mRoles);
+        return this;
+    }
+
+    public Map<String, GameCharacter> getRoles() {
+        return mRoles;
+    }
+
+    /**
+     * @return the multi-path update written before the start request, with paths relative to
+     * the database root
+     */
+    public Map<String, Object> build() {
+        if (mAdmin == null)
+            throw new IllegalStateException("The game needs an admin");
+        String gameReference = "games/" + mGameName;
+        Map<String, Object> update = new HashMap<>();
+        update.put(gameReference + "/admin", mAdmin);
+        update.put(gameReference + "/type", mPublic ? "public" : "private");
+        GameIndex.putGame(update, mGameName, mAdmin, mPublic);
+        return update;
+    }
+
+    /**
+     * @return task failing if the update failed or the server refused to start the game
+     */
+    public Task<Void> commit() {
+        final ActionResolver resolver = new ActionResolver(mGameName);
+        return FirebaseHelper.update(build()).continueWithTask(new Continuation<Void, Task<ActionResolver.Outcome>>() {
+            @Override
+            public Task<ActionResolver.Outcome> then(Task<Void> task) {
+                task.getResult(); // rethrows the update's failure
+                return resolver.start(mAdmin, mRoles);
+            }
+        }).continueWith(new Continuation<ActionResolver.Outcome, Void>() {
+            @Override
+            public Void then(Task<ActionResolver.Outcome> task) {
+                FirebaseHelper.invalidateCachedReads("games/" + mGameName);
+                ActionResolver.Outcome outcome = task.getResult();
+                if (!outcome.isAccepted())
+                    throw new IllegalStateException("The server refused to start " + mGameName + ": "
+                            + outcome.getReason());
+                return null;
+            }
+        });
+    }
+}
@@ -1,42 +1,45 @@
 package mobileappdev.assassingame;
 
-import android.util.Log;
-
 /**
  * @author: Ajit Ku. Sahoo
  * @Date: 3/14/2017
  */
 
-public enum GameCharacter {
-    ASSASSIN, CITIZEN, DETECTIVE, DOCTOR, UNDEFINED;
+public enum GameCharacter implements EnumCodec.Coded {
+    ASSASSIN(1), CITIZEN(2), DETECTIVE(3), DOCTOR(4), UNDEFINED(0);
+
+    private static final GameCharacter[] BY_CODE = EnumCodec.byCode(values());
+
+    private final int mCode;
+
+    GameCharacter(int code) {
+        mCode = code;
+    }
+
+    /**
+     * @return the code Firebase and SQLite store for this constant
+     */
+    @Override
+    public int getCode() {
+        return mCode;
+    }
+
+    public static GameCharacter fromCode(long code, GameCharacter fallback) {
+        return EnumCodec.fromCode(BY_CODE, code, fallback);
+    }
+
+    /**
+     * @param value a stored code or a legacy name in any casing
+     * @return the constant, or {@code fallback} if the value is missing or unknown
+     */
+    public static GameCharacter decode(Object value, GameCharacter fallback) {
+        return EnumCodec.decode(value, BY_CODE, fallback);
+    }
 
     public static GameCharacter getCharacterFrom(String character) {
-        switch (character) {
-            case "CITIZEN" :
-            case "Citizen" :
-            case "citizen" :
-                return CITIZEN;
-            case "ASSASSIN":
-            case "assassin":
-            case "Assassin":
-                return ASSASSIN;
-            case "DETECTIVE":
-            case "detective":
-            case "Detective":
-                return DETECTIVE;
-            case "DOCTOR":
-            case "doctor":
-            case "Doctor":
-                return DOCTOR;
-            case "UNDEFINED":
-            case "Undefined":
-            case "undefined":
-                return UNDEFINED;
-            default: {
-                Log.w("Ajit11", "character found: " + character);
-                throw new RuntimeException(character + "No such GameCharacter in the game ");
-
-            }
-        }
+        GameCharacter value = decode(character, null);
+        if (value == null)
+            throw new RuntimeException("No such GameCharacter in the game: " + character);
+        return value;
     }
 }
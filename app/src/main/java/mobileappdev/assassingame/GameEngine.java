@@ -0,0 +1,380 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The game's rules as a deterministic state machine: role assignment, kill/revive/arrest/leave,
+ * the assassin's target and win detection. It follows the resolveAction cloud function rule for
+ * rule, so the play board can check an action before sending it and a recorded game can be
+ * replayed action by action.
+ *
+ * Players are fixed when the engine is built and addressed by index in name order, the same
+ * order the server picks targets in; state lives in parallel arrays, so commands and events
+ * don't allocate. Two kinds of input drive it:
+ * <ul>
+ * <li>commands, {@link #check} and {@link #apply}, which validate an action and, for apply,
+ * carry it out like the server would;</li>
+ * <li>events, {@link #move}, {@link #setStatus} and {@link #finish}, which take what the server
+ * decided as is.</li>
+ * </ul>
+ *
+ * Pure Java and not thread safe.
+ */
+public class GameEngine {
+
+    public static final double ACTION_DISTANCE = 50; // in meters, same as the resolveAction cloud function
+    public static final int NONE = -1;
+
+    public enum Action implements EnumCodec.Coded {
+        KILL(0), REVIVE(1), ARREST(2), LEAVE(3);
+
+        private static final Action[] BY_CODE = EnumCodec.byCode(values());
+
+        private final int mCode;
+
+        Action(int code) {
+            mCode = code;
+        }
+
+        /**
+         * @return the code the action log stores; the server still gets the name
+         */
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        public static Action fromCode(long code, Action fallback) {
+            return EnumCodec.fromCode(BY_CODE, code, fallback);
+        }
+    }
+
+    public enum Reason {
+        OK, GAME_OVER, UNKNOWN_PLAYER, NOT_ALLOWED, ACTOR_DEAD, TOO_FAR, TARGET_DEAD, TARGET_ALIVE,
+        NOT_TARGET, NOT_ASSASSIN, UNKNOWN;
+
+        private static final Reason[] VALUES = values();
+
+        public static Reason getReasonFrom(String reason) {
+            return reason == null ? UNKNOWN : EnumCodec.fromName(VALUES, reason, UNKNOWN);
+        }
+    }
+
+    public interface Listener {
+        void onStatusChanged(int player, PlayerStatus status);
+
+        /**
+         * @param target the assassin's new target, or {@link #NONE}
+         */
+        void onTargetChanged(int target);
+
+        void onGameFinished(boolean assassinWon, String description);
+    }
+
+    private final String[] mNames;
+    private final GameCharacter[] mRoles;
+    private final PlayerStatus[] mStatuses;
+    private final double[] mLat;
+    private final double[] mLng;
+    private final boolean[] mHasPosition;
+    private int mCitizensAlive;
+    private int mTarget;
+    private boolean mFinished;
+    private boolean mAssassinWon;
+    private String mResult;
+    private Listener mListener;
+
+    /**
+     * Starts a game with everybody alive.
+     */
+    public GameEngine(Map<String, GameCharacter> roles) {
+        this(roles, null);
+    }
+
+    /**
+     * @param statuses statuses by player name, e.g. from a snapshot; missing players are alive
+     */
+    public GameEngine(Map<String, GameCharacter> roles, Map<String, PlayerStatus> statuses) {
+        mNames = roles.keySet().toArray(new String[roles.size()]);
+        Arrays.sort(mNames);
+        int size = mNames.length;
+        mRoles = new GameCharacter[size];
+        mStatuses = new PlayerStatus[size];
+        mLat = new double[size];
+        mLng = new double[size];
+        mHasPosition = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            mRoles[i] = roles.get(mNames[i]);
+            PlayerStatus status = statuses == null ? null : statuses.get(mNames[i]);
+            mStatuses[i] = status == null ? PlayerStatus.ALIVE : status;
+            if (mRoles[i] != GameCharacter.ASSASSIN && mStatuses[i] == PlayerStatus.ALIVE) {
+                mCitizensAlive++;
+            }
+        }
+        mTarget = findTarget();
+    }
+
+    /**
+     * Picks one assassin, then a detective and a doctor as long as more than one other player
+     * is left for each; everybody else is a citizen.
+     */
+    public static void assignRoles(List<String> playerNames, Random random, Map<String, GameCharacter> roles) {
+        List<String> remaining = new ArrayList<>(playerNames);
+        if (remaining.isEmpty())
+            return;
+        roles.put(remaining.remove(random.nextInt(remaining.size())), GameCharacter.ASSASSIN);
+        if (remaining.size() > 1) {
+            roles.put(remaining.remove(random.nextInt(remaining.size())), GameCharacter.DETECTIVE);
+        }
+        if (remaining.size() > 1) {
+            roles.put(remaining.remove(random.nextInt(remaining.size())), GameCharacter.DOCTOR);
+        }
+        for (String playerName : remaining) {
+            roles.put(playerName, GameCharacter.CITIZEN);
+        }
+    }
+
+    /**
+     * @return whether a player with this role won; everybody but the assassin plays as the town
+     */
+    public static boolean isWinner(GameCharacter role, boolean assassinWon) {
+        return (role == GameCharacter.ASSASSIN) == assassinWon;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int size() {
+        return mNames.length;
+    }
+
+    /**
+     * @return the player's index, or {@link #NONE}
+     */
+    public int indexOf(String name) {
+        if (name == null)
+            return NONE;
+        int index = Arrays.binarySearch(mNames, name);
+        return index < 0 ? NONE : index;
+    }
+
+    public String getName(int player) {
+        return player == NONE ? null : mNames[player];
+    }
+
+    public GameCharacter getRole(int player) {
+        return mRoles[player];
+    }
+
+    public PlayerStatus getStatus(int player) {
+        return mStatuses[player];
+    }
+
+    public boolean isAlive(int player) {
+        return mStatuses[player] == PlayerStatus.ALIVE;
+    }
+
+    public int getCitizensAlive() {
+        return mCitizensAlive;
+    }
+
+    /**
+     * @return the alive non-assassin first in name order, or {@link #NONE}
+     */
+    public int getTarget() {
+        return mTarget;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public boolean hasAssassinWon() {
+        return mAssassinWon;
+    }
+
+    public String getResult() {
+        return mResult;
+    }
+
+    /**
+     * @return meters between the players, or infinity if either position is unknown
+     */
+    public double distance(int player1, int player2) {
+        if (!mHasPosition[player1] || !mHasPosition[player2])
+            return Double.POSITIVE_INFINITY;
+        return PlayerSpatialIndex.distanceInMeters(mLat[player1], mLng[player1], mLat[player2], mLng[player2]);
+    }
+
+    public Reason check(Action action, String actor, String target) {
+        return check(action, indexOf(actor), indexOf(target));
+    }
+
+    /**
+     * @param target ignored for {@link Action#LEAVE}
+     * @return why the server would reject the action, or {@link Reason#OK}
+     */
+    public Reason check(Action action, int actor, int target) {
+        if (mFinished)
+            return Reason.GAME_OVER;
+        if (actor == NONE || (action != Action.LEAVE && target == NONE))
+            return Reason.UNKNOWN_PLAYER;
+
+        if (action == Action.LEAVE)
+            return mStatuses[actor] == PlayerStatus.LEFT ? Reason.NOT_ALLOWED : Reason.OK;
+
+        if (mStatuses[actor] != PlayerStatus.ALIVE)
+            return Reason.ACTOR_DEAD;
+        if (distance(actor, target) > ACTION_DISTANCE)
+            return Reason.TOO_FAR;
+
+        switch (action) {
+            case KILL:
+                if (mRoles[actor] != GameCharacter.ASSASSIN)
+                    return Reason.NOT_ALLOWED;
+                if (mStatuses[target] != PlayerStatus.ALIVE)
+                    return Reason.TARGET_DEAD;
+                return target == mTarget ? Reason.OK : Reason.NOT_TARGET;
+            case REVIVE:
+                if (mRoles[actor] != GameCharacter.DOCTOR)
+                    return Reason.NOT_ALLOWED;
+                return mStatuses[target] == PlayerStatus.DEAD ? Reason.OK : Reason.TARGET_ALIVE;
+            case ARREST:
+                if (mRoles[actor] != GameCharacter.DETECTIVE)
+                    return Reason.NOT_ALLOWED;
+                return mRoles[target] == GameCharacter.ASSASSIN ? Reason.OK : Reason.NOT_ASSASSIN;
+            default:
+                return Reason.NOT_ALLOWED;
+        }
+    }
+
+    public Reason apply(Action action, String actor, String target) {
+        return apply(action, indexOf(actor), indexOf(target));
+    }
+
+    /**
+     * Checks the action and, if it is allowed, carries it out.
+     */
+    public Reason apply(Action action, int actor, int target) {
+        Reason reason = check(action, actor, target);
+        if (reason != Reason.OK)
+            return reason;
+
+        switch (action) {
+            case LEAVE:
+                boolean wasAlive = mStatuses[actor] != PlayerStatus.DEAD;
+                changeStatus(actor, PlayerStatus.LEFT);
+                if (mRoles[actor] == GameCharacter.ASSASSIN) {
+                    finish(false, "Assassin left the game");
+                } else if (wasAlive && mRoles[actor] != GameCharacter.DETECTIVE) {
+                    killCivilian();
+                }
+                break;
+            case KILL:
+                changeStatus(target, PlayerStatus.DEAD);
+                killCivilian();
+                break;
+            case REVIVE:
+                changeStatus(target, PlayerStatus.ALIVE);
+                mCitizensAlive++;
+                break;
+            case ARREST:
+                changeStatus(target, PlayerStatus.DEAD);
+                finish(false, "Detective arrested the Assassin.");
+                break;
+        }
+        updateTarget(action == Action.LEAVE ? actor : target);
+        return reason;
+    }
+
+    public void move(String player, double lat, double lng) {
+        int index = indexOf(player);
+        if (index != NONE) {
+            move(index, lat, lng);
+        }
+    }
+
+    public void move(int player, double lat, double lng) {
+        mLat[player] = lat;
+        mLng[player] = lng;
+        mHasPosition[player] = true;
+    }
+
+    public void setStatus(String player, PlayerStatus status) {
+        int index = indexOf(player);
+        if (index != NONE) {
+            setStatus(index, status);
+        }
+    }
+
+    /**
+     * A status the server set. The civilian counter follows, but only the server finishes the
+     * game, through {@link #finish}.
+     */
+    public void setStatus(int player, PlayerStatus status) {
+        if (mStatuses[player] == status)
+            return;
+        if (mRoles[player] != GameCharacter.ASSASSIN) {
+            if (mStatuses[player] == PlayerStatus.ALIVE) {
+                mCitizensAlive--;
+            } else if (status == PlayerStatus.ALIVE) {
+                mCitizensAlive++;
+            }
+        }
+        changeStatus(player, status);
+        updateTarget(player);
+    }
+
+    public void finish(boolean assassinWon, String description) {
+        if (mFinished)
+            return;
+        mFinished = true;
+        mAssassinWon = assassinWon;
+        mResult = description;
+        if (mListener != null) {
+            mListener.onGameFinished(assassinWon, description);
+        }
+    }
+
+    private void killCivilian() {
+        mCitizensAlive--;
+        if (mCitizensAlive <= 0) {
+            finish(true, "Assassin killed all Civilians");
+        }
+    }
+
+    private void changeStatus(int player, PlayerStatus status) {
+        mStatuses[player] = status;
+        if (mListener != null) {
+            mListener.onStatusChanged(player, status);
+        }
+    }
+
+    /**
+     * Only a change at or before the current target can move it.
+     */
+    private void updateTarget(int changed) {
+        if (mTarget != NONE && changed > mTarget)
+            return;
+        int target = findTarget();
+        if (target != mTarget) {
+            mTarget = target;
+            if (mListener != null) {
+                mListener.onTargetChanged(target);
+            }
+        }
+    }
+
+    private int findTarget() {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mRoles[i] != GameCharacter.ASSASSIN && mStatuses[i] == PlayerStatus.ALIVE)
+                return i;
+        }
+        return NONE;
+    }
+}
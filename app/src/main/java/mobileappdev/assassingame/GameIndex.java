@@ -0,0 +1,133 @@
+package mobileappdev.assassingame;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Secondary indexes over games/ so the game lists don't download every game with its players
+ * and chat: public_games/&lt;game&gt; and games_by_admin/&lt;admin&gt;/&lt;game&gt; both hold the
+ * game's creation time. {@link FirebaseHelper} keeps them in the same multi-path write that
+ * creates, deletes or finishes the game; the indexGameStatus cloud function covers games
+ * finished on the server.
+ *
+ * Lists are newest first and paged by creation time.
+ */
+public class GameIndex {
+
+    public static final String PUBLIC_GAMES = "public_games";
+    public static final String GAMES_BY_ADMIN = "games_by_admin";
+    public static final String CREATED_AT = "created_at";
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    public static class Page {
+        private final String mIndexPath;
+        private final List<String> mGameNames;
+        private final String mLastKey;
+        private final double mLastCreatedAt;
+        private final boolean mHasMore;
+
+        Page(String indexPath, List<String> gameNames, String lastKey, double lastCreatedAt, boolean hasMore) {
+            mIndexPath = indexPath;
+            mGameNames = gameNames;
+            mLastKey = lastKey;
+            mLastCreatedAt = lastCreatedAt;
+            mHasMore = hasMore;
+        }
+
+        /**
+         * @return game names, newest first
+         */
+        public List<String> getGameNames() {
+            return mGameNames;
+        }
+
+        public boolean hasMore() {
+            return mHasMore;
+        }
+
+        /**
+         * @return the following (older) page, or null if this is the last one
+         */
+        public Task<Page> next(int pageSize) {
+            return mHasMore ? list(mIndexPath, mLastKey, mLastCreatedAt, pageSize) : null;
+        }
+    }
+
+    public static Task<Page> getPublicGames(int pageSize) {
+        return list(PUBLIC_GAMES, null, 0, pageSize);
+    }
+
+    public static Task<Page> getGamesByAdmin(String admin, int pageSize) {
+        return list(adminPath(admin), null, 0, pageSize);
+    }
+
+    /**
+     * Adds the index entries of a new game to a multi-path update.
+     */
+    static void putGame(Map<String, Object> update, String gameName, String admin, boolean isPublic) {
+        update.put("games/" + gameName + "/" + CREATED_AT, RealtimeStore.TIMESTAMP);
+        update.put(adminPath(admin) + "/" + gameName, RealtimeStore.TIMESTAMP);
+        if (isPublic) {
+            update.put(PUBLIC_GAMES + "/" + gameName, RealtimeStore.TIMESTAMP);
+        }
+    }
+
+    /**
+     * Adds the removal of every index entry of a game to a multi-path update.
+     */
+    static void removeGame(Map<String, Object> update, String gameName, String admin) {
+        update.put(PUBLIC_GAMES + "/" + gameName, null);
+        if (admin != null) {
+            update.put(adminPath(admin) + "/" + gameName, null);
+        }
+    }
+
+    private static String adminPath(String admin) {
+        return GAMES_BY_ADMIN + "/" + admin;
+    }
+
+    private static Task<Page> list(final String indexPath, final String endBefore, double endBeforeCreatedAt,
+                                   final int pageSize) {
+        // endAt() is inclusive, so a continued page asks for one extra game and drops it
+        int limit = pageSize + 1 + (endBefore == null ? 0 : 1);
+        RealtimeStore.Query query = new RealtimeStore.Query(indexPath).orderByValue();
+        if (endBefore != null) {
+            query.endAt(endBeforeCreatedAt, endBefore);
+        }
+        query.limitToLast(limit);
+
+        return FirebaseHelper.read(query, false, FirebaseHelper.DEFAULT_READ_TIMEOUT)
+                .continueWith(new Continuation<Object, Page>() {
+                    @Override
+                    public Page then(Task<Object> task) {
+                        List<Map.Entry<?, ?>> entries = new ArrayList<>();
+                        if (task.getResult() instanceof Map) {
+                            for (Map.Entry<?, ?> entry : ((Map<?, ?>) task.getResult()).entrySet()) {
+                                if (!entry.getKey().equals(endBefore)) {
+                                    entries.add(entry);
+                                }
+                            }
+                        }
+                        // children come oldest first
+                        Collections.reverse(entries);
+
+                        boolean hasMore = entries.size() > pageSize;
+                        List<String> gameNames = new ArrayList<>();
+                        String lastKey = null;
+                        double lastCreatedAt = 0;
+                        for (Map.Entry<?, ?> entry : entries.subList(0, Math.min(pageSize, entries.size()))) {
+                            lastKey = entry.getKey().toString();
+                            gameNames.add(lastKey);
+                            Object createdAt = entry.getValue();
+                            lastCreatedAt = createdAt instanceof Number ? ((Number) createdAt).doubleValue() : 0;
+                        }
+                        return new Page(indexPath, gameNames, lastKey, lastCreatedAt, hasMore);
+                    }
+                });
+    }
+}
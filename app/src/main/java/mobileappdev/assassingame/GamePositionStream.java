@@ -0,0 +1,119 @@
+package mobileappdev.assassingame;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One child listener on {@code games/<game>/positions}, through {@link FirebaseHelper#getStore()},
+ * that replaces the per-player location and status listeners the play board used to attach.
+ * Each child is a player keyed by name holding {@code lat}, {@code lng} and a mirror of their
+ * {@code status}; only the fields that actually changed are dispatched to the {@link Listener}.
+ */
+public class GamePositionStream {
+
+    private static final String TAG = "GamePositionStream";
+
+    public static final String POSITIONS = "positions";
+    public static final String LAT = "lat";
+    public static final String LNG = "lng";
+    public static final String STATUS = "status";
+
+    public interface Listener {
+        void onPlayerMoved(String playerName, double lat, double lng);
+
+        void onPlayerStatusChanged(String playerName, PlayerStatus status);
+
+        void onPlayerRemoved(String playerName);
+    }
+
+    private static class PlayerState {
+        double lat = Double.NaN;
+        double lng = Double.NaN;
+        PlayerStatus status;
+    }
+
+    private final String mPositionsPath;
+    private final Listener mListener;
+    private final Map<String, PlayerState> mStates = new HashMap<>();
+    private boolean mStarted;
+
+    private final RealtimeStore.ChildListener mChildListener = new RealtimeStore.ChildListener() {
+        @Override
+        public void onChildAdded(String key, Object value) {
+            apply(key, value);
+        }
+
+        @Override
+        public void onChildChanged(String key, Object value) {
+            apply(key, value);
+        }
+
+        @Override
+        public void onChildRemoved(String key) {
+            mStates.remove(key);
+            mListener.onPlayerRemoved(key);
+        }
+
+        @Override
+        public void onCancelled(Exception error) {
+            Log.w(TAG, "positions:onCancelled", error);
+        }
+    };
+
+    public GamePositionStream(String gameName, Listener listener) {
+        mPositionsPath = getPositionsPath(gameName);
+        mListener = listener;
+    }
+
+    public static String getPositionsPath(String gameName) {
+        return "games/" + gameName + "/" + POSITIONS;
+    }
+
+    public void start() {
+        if (mStarted)
+            return;
+        FirebaseHelper.getStore().addChildListener(new RealtimeStore.Query(mPositionsPath), mChildListener);
+        mStarted = true;
+    }
+
+    public void stop() {
+        if (!mStarted)
+            return;
+        FirebaseHelper.getStore().removeListener(mChildListener);
+        mStates.clear();
+        mStarted = false;
+    }
+
+    private void apply(String playerName, Object value) {
+        if (!(value instanceof Map))
+            return;
+        Map<?, ?> position = (Map<?, ?>) value;
+        PlayerState state = mStates.get(playerName);
+        if (state == null) {
+            state = new PlayerState();
+            mStates.put(playerName, state);
+        }
+
+        Object lat = position.get(LAT);
+        Object lng = position.get(LNG);
+        if (lat instanceof Number && lng instanceof Number) {
+            double newLat = ((Number) lat).doubleValue();
+            double newLng = ((Number) lng).doubleValue();
+            if (newLat != state.lat || newLng != state.lng) {
+                state.lat = newLat;
+                state.lng = newLng;
+                mListener.onPlayerMoved(playerName, newLat, newLng);
+            }
+        }
+
+        PlayerStatus newStatus = PlayerStatus.decode(position.get(STATUS), null);
+        if (newStatus != null) {
+            if (newStatus != state.status) {
+                state.status = newStatus;
+                mListener.onPlayerStatusChanged(playerName, newStatus);
+            }
+        }
+    }
+}
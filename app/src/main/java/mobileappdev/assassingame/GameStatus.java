@@ -5,22 +5,41 @@ package mobileappdev.assassingame;
  * @Date: 3/18/2017
  */
 
-public enum GameStatus {
+public enum GameStatus implements EnumCodec.Coded {
+    STARTED(0), FINISHED(1);
 
-    STARTED, FINISHED;
+    private static final GameStatus[] BY_CODE = EnumCodec.byCode(values());
+
+    private final int mCode;
+
+    GameStatus(int code) {
+        mCode = code;
+    }
+
+    /**
+     * @return the code Firebase and SQLite store for this constant
+     */
+    @Override
+    public int getCode() {
+        return mCode;
+    }
+
+    public static GameStatus fromCode(long code, GameStatus fallback) {
+        return EnumCodec.fromCode(BY_CODE, code, fallback);
+    }
+
+    /**
+     * @param value a stored code or a legacy name in any casing
+     * @return the constant, or {@code fallback} if the value is missing or unknown
+     */
+    public static GameStatus decode(Object value, GameStatus fallback) {
+        return EnumCodec.decode(value, BY_CODE, fallback);
+    }
 
     public static GameStatus getGameStatusFrom(String string) {
-        switch (string) {
-            case "STARTED" :
-            case "started" :
-            case "Started" :
-                return STARTED;
-            case "FINISHED":
-            case "finished":
-            case "Finished":
-                return FINISHED;
-            default:
-                throw new RuntimeException("No such Game Status");
-        }
+        GameStatus value = decode(string, null);
+        if (value == null)
+            throw new RuntimeException("No such Game Status: " + string);
+        return value;
     }
 }
@@ -5,29 +5,41 @@ package mobileappdev.assassingame;
  * @Date: 3/17/2017
  */
 
-public enum InvitationStatus {
-    UNDEFINED, ACCEPTED, DECLINED, INVITED;
+public enum InvitationStatus implements EnumCodec.Coded {
+    UNDEFINED(0), ACCEPTED(2), DECLINED(3), INVITED(1);
+
+    private static final InvitationStatus[] BY_CODE = EnumCodec.byCode(values());
+
+    private final int mCode;
+
+    InvitationStatus(int code) {
+        mCode = code;
+    }
+
+    /**
+     * @return the code Firebase and SQLite store for this constant
+     */
+    @Override
+    public int getCode() {
+        return mCode;
+    }
+
+    public static InvitationStatus fromCode(long code, InvitationStatus fallback) {
+        return EnumCodec.fromCode(BY_CODE, code, fallback);
+    }
+
+    /**
+     * @param value a stored code or a legacy name in any casing
+     * @return the constant, or {@code fallback} if the value is missing or unknown
+     */
+    public static InvitationStatus decode(Object value, InvitationStatus fallback) {
+        return EnumCodec.decode(value, BY_CODE, fallback);
+    }
 
     public static InvitationStatus getStatusFrom(String string) {
-        switch (string) {
-            case "UNDEFINED" :
-            case "undefined" :
-            case "Undefined" :
-                return UNDEFINED;
-            case "ACCEPTED":
-            case "accepted":
-            case "Accepted":
-                return ACCEPTED;
-            case "DECLINED":
-            case "declined":
-            case "Declined":
-                return DECLINED;
-            case "INVITED":
-            case "invited":
-            case "Invited":
-                return INVITED;
-            default:
-                throw new RuntimeException("Invalid Invitation Status. ");
-        }
+        InvitationStatus value = decode(string, null);
+        if (value == null)
+            throw new RuntimeException("Invalid Invitation Status: " + string);
+        return value;
     }
 }
@@ -9,23 +9,28 @@ import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public class JoinGameActivity extends AppCompatActivity {
 
     ArrayList<String> mItems = new ArrayList<>();
     private Spinner mProgressDialog;
+    private ArrayAdapter<String> mAdapter;
+    private Button mMoreButton;
+    private GameIndex.Page mLastPage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,89 +51,95 @@ public class JoinGameActivity extends AppCompatActivity {
         mProgressDialog = new Spinner(this);
         mProgressDialog.show("Hang on!", "Fetching public games for you. Please wait...", false);
 
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference();
-        final DatabaseReference gamesRef = ref.child("games");
+        populateData();
+        showPage(GameIndex.getPublicGames(GameIndex.DEFAULT_PAGE_SIZE));
+    }
 
-        gamesRef.addListenerForSingleValueEvent(new ValueEventListener() {
+    private void populateData() {
+        ListView mListView = (ListView) findViewById(R.id.public_games_list_view);
+        mMoreButton = new Button(this);
+        mMoreButton.setText(R.string.more_results);
+        mMoreButton.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                for (DataSnapshot gameSnapshot : dataSnapshot.getChildren()) {
-                    Object gameType = gameSnapshot.child("type").getValue();
-                    if (gameType == null) {
-                        Log.i("JoinGame", gameSnapshot.getKey() + " doesn't have a Type value");
-                        continue;
-                    }
-                    if ("public".equals(gameType.toString())) {
-                        mItems.add(gameSnapshot.getKey());
-                    }
+            public void onClick(View v) {
+                if (mLastPage != null && mLastPage.hasMore()) {
+                    mMoreButton.setEnabled(false);
+                    showPage(mLastPage.next(GameIndex.DEFAULT_PAGE_SIZE));
                 }
-                mProgressDialog.dismiss();
-                populateData();
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                // Getting Post failed, log a message
-                Log.w("JoinGameActivity", "loadGames:onCancelled", databaseError.toException());
             }
         });
-    }
-
-    private void populateData() {
-        ListView mListView = (ListView) findViewById(R.id.public_games_list_view);
-        final ArrayAdapter<String> mAdapter = new ArrayAdapter<>(JoinGameActivity.this, android.R.layout.simple_list_item_1, mItems);
+        mMoreButton.setVisibility(View.GONE);
+        mListView.addFooterView(mMoreButton);
+        mAdapter = new ArrayAdapter<>(JoinGameActivity.this, android.R.layout.simple_list_item_1, mItems);
         mListView.setAdapter(mAdapter);
 
         mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                if (position >= mItems.size())
+                    return; // the footer
 
                 final String gameName = mItems.get(position);
-                FirebaseDatabase database = FirebaseDatabase.getInstance();
-                String gameStatusRef = "games/" + gameName + "/status";
-                DatabaseReference ref = database.getReference(gameStatusRef);
-
-                ref.addListenerForSingleValueEvent(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(DataSnapshot dataSnapshot) {
-                        Object statusObj = dataSnapshot.getValue();
-                        if (statusObj == null) {
-                            Log.w("JoinGameActivity:", gameName + "'s status is null.");
-                            return;
-                        }
+                FirebaseHelper.getGameStatus(gameName)
+                        .addOnSuccessListener(JoinGameActivity.this, new OnSuccessListener<GameStatus>() {
+                            @Override
+                            public void onSuccess(GameStatus gameStatus) {
+                                joinGame(gameName, gameStatus);
+                            }
+                        })
+                        .addOnFailureListener(JoinGameActivity.this, new OnFailureListener() {
+                            @Override
+                            public void onFailure(Exception e) {
+                                Log.w("JoinGameActivity:", "Couldn't read " + gameName + "'s status.", e);
+                            }
+                        });
 
-                        joinGame(gameName, statusObj.toString());
-                    }
 
-                    @Override
-                    public void onCancelled(DatabaseError databaseError) {
-                        Log.w("JoinGameActivity:", gameName + "'s status is null.");
-                    }
-                });
+            }
+        });
+    }
 
+    private void showPage(Task<GameIndex.Page> pageTask) {
+        pageTask.addOnCompleteListener(this, new OnCompleteListener<GameIndex.Page>() {
+            @Override
+            public void onComplete(Task<GameIndex.Page> task) {
+                if (mProgressDialog != null) {
+                    mProgressDialog.dismiss();
+                    mProgressDialog = null;
+                }
+                mMoreButton.setEnabled(true);
+                if (!task.isSuccessful()) {
+                    Log.w("JoinGameActivity", "loadGames failed", task.getException());
+                    Toast.makeText(JoinGameActivity.this, "Couldn't load games. Please try again.",
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
 
+                mLastPage = task.getResult();
+                mItems.addAll(mLastPage.getGameNames());
+                mAdapter.notifyDataSetChanged();
+                mMoreButton.setVisibility(mLastPage.hasMore() ? View.VISIBLE : View.GONE);
             }
         });
     }
 
-    private void joinGame(String gameName, String gameStatus) {
-        if (GameStatus.FINISHED.equals(GameStatus.getGameStatusFrom(gameStatus))) {
+    private void joinGame(String gameName, GameStatus gameStatus) {
+        if (GameStatus.FINISHED.equals(gameStatus)) {
             Toast.makeText(this, "The game is not being played right now. But, you are added to the game.",
                     Toast.LENGTH_SHORT).show();
 
             String currentUser = FirebaseAuth.getInstance().getCurrentUser().getDisplayName();
-            final FirebaseDatabase database = FirebaseDatabase.getInstance();
             String playerUrl = "games/" + gameName + "/players/" + currentUser;
 
-            DatabaseReference playerRef = database.getReference(playerUrl);
-            playerRef.child("status").setValue(PlayerStatus.NEWLY_JOINED.toString());
-            playerRef.child("invite").setValue(InvitationStatus.ACCEPTED.toString());
-            playerRef.child("role").setValue(GameCharacter.UNDEFINED.toString());
+            // the server adds me as newly joined, for the next round
+            Map<String, Object> update = new HashMap<>();
+            update.put(playerUrl + "/invite", InvitationStatus.ACCEPTED.getCode());
+            FirebaseHelper.update(update);
+            new ActionResolver(gameName).join(currentUser);
 
         } else {
-            FirebaseHelper.updatePlayerStatus(gameName, FirebaseAuth.getInstance().getCurrentUser().getDisplayName(),
-                    PlayerStatus.ALIVE, true, true);
+            // the server adds me as an alive citizen and counts me in citizens_alive
+            new ActionResolver(gameName).join(FirebaseAuth.getInstance().getCurrentUser().getDisplayName());
             Intent intent = new Intent(JoinGameActivity.this, PlayBoardActivity.class);
             intent.putExtra(BroadcastHelper.GAME_STARTED, true);
             intent.putExtra(BroadcastHelper.GAME_NAME, gameName);
@@ -0,0 +1,72 @@
+package mobileappdev.assassingame;
+
+/**
+ * Decides how often and how precisely a player's device should sample its location, given how
+ * far the nearest player that matters to them is. Plugged into {@link LocationSamplingScheduler}.
+ */
+public interface LocationSamplingPolicy {
+
+    /**
+     * @return whether {@code other} matters for {@code me}'s sampling rate, e.g. an assassin only
+     * cares about players they could kill.
+     */
+    boolean isRelevant(GameCharacter me, boolean meAlive, GameCharacter other, boolean otherAlive);
+
+    /**
+     * @param nearestRelevantDistance distance in meters to the nearest relevant player, or
+     *                                {@link Double#POSITIVE_INFINITY} when there is none
+     */
+    SamplingRate getRate(double nearestRelevantDistance, GameCharacter role, boolean alive);
+
+    class SamplingRate {
+        private final long mInterval;
+        private final float mMinDistance;
+        private final boolean mHighAccuracy;
+
+        public SamplingRate(long intervalInMillis, float minDistanceInMeters, boolean highAccuracy) {
+            mInterval = intervalInMillis;
+            mMinDistance = minDistanceInMeters;
+            mHighAccuracy = highAccuracy;
+        }
+
+        public long getInterval() {
+            return mInterval;
+        }
+
+        public float getMinDistance() {
+            return mMinDistance;
+        }
+
+        public boolean isHighAccuracy() {
+            return mHighAccuracy;
+        }
+
+        /**
+         * @return true if this rate samples at least as often as {@code other}
+         */
+        public boolean isFasterThan(SamplingRate other) {
+            return mInterval < other.mInterval
+                    || (mInterval == other.mInterval && mMinDistance < other.mMinDistance);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SamplingRate))
+                return false;
+            SamplingRate that = (SamplingRate) o;
+            return mInterval == that.mInterval && mMinDistance == that.mMinDistance
+                    && mHighAccuracy == that.mHighAccuracy;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (int) (mInterval ^ (mInterval >>> 32)) + Float.floatToIntBits(mMinDistance))
+                    + (mHighAccuracy ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return mInterval + "ms/" + mMinDistance + "m/" + (mHighAccuracy ? "fine" : "coarse");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package mobileappdev.assassingame;
+
+/**
+ * Tracks the location sampling rate the play board should request from the
+ * {@link android.location.LocationManager}. Speeding up is applied immediately, so a player
+ * walking into range is sampled quickly, while slowing down only happens once the slower rate has
+ * been asked for continuously for {@code slowDownDelay}, so players hovering around a distance
+ * threshold don't make us re-register location updates on every fix. A player who has just
+ * died drops to their new rate at once.
+ */
+public class LocationSamplingScheduler {
+
+    public interface Clock {
+        long now(); // in msec, monotonic
+    }
+
+    public static final Clock MONOTONIC_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    public static final long DEFAULT_SLOW_DOWN_DELAY = 20000; // in msec
+
+    private final LocationSamplingPolicy mPolicy;
+    private final Clock mClock;
+    private final long mSlowDownDelay;
+
+    private LocationSamplingPolicy.SamplingRate mCurrentRate;
+    private LocationSamplingPolicy.SamplingRate mSlowerCandidate;
+    private long mSlowerCandidateSince;
+    private boolean mWasAlive = true;
+
+    public LocationSamplingScheduler(LocationSamplingPolicy policy, LocationSamplingPolicy.SamplingRate initialRate) {
+        this(policy, initialRate, MONOTONIC_CLOCK, DEFAULT_SLOW_DOWN_DELAY);
+    }
+
+    public LocationSamplingScheduler(LocationSamplingPolicy policy, LocationSamplingPolicy.SamplingRate initialRate,
+                                     Clock clock, long slowDownDelay) {
+        mPolicy = policy;
+        mCurrentRate = initialRate;
+        mClock = clock;
+        mSlowDownDelay = slowDownDelay;
+    }
+
+    public LocationSamplingPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    public LocationSamplingPolicy.SamplingRate getCurrentRate() {
+        return mCurrentRate;
+    }
+
+    /**
+     * Re-evaluates the rate for the player's current situation.
+     *
+     * @return true if the rate changed and location updates need to be re-requested
+     */
+    public boolean update(double nearestRelevantDistance, GameCharacter role, boolean alive) {
+        LocationSamplingPolicy.SamplingRate wanted = mPolicy.getRate(nearestRelevantDistance, role, alive);
+        boolean justDied = mWasAlive && !alive;
+        mWasAlive = alive;
+
+        if (wanted.equals(mCurrentRate)) {
+            mSlowerCandidate = null;
+            return false;
+        }
+
+        if (wanted.isFasterThan(mCurrentRate) || justDied) {
+            return switchTo(wanted);
+        }
+
+        long now = mClock.now();
+        if (!wanted.equals(mSlowerCandidate)) {
+            mSlowerCandidate = wanted;
+            mSlowerCandidateSince = now;
+            return false;
+        }
+        if (now - mSlowerCandidateSince >= mSlowDownDelay) {
+            return switchTo(wanted);
+        }
+        return false;
+    }
+
+    private boolean switchTo(LocationSamplingPolicy.SamplingRate rate) {
+        mCurrentRate = rate;
+        mSlowerCandidate = null;
+        return true;
+    }
+}
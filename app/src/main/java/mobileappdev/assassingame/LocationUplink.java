@@ -0,0 +1,143 @@
+package mobileappdev.assassingame;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Sits between {@link android.location.LocationListener#onLocationChanged} and
+ * {@link FirebaseHelper#sendLocation}. Fixes that arrive faster than the flush interval are
+ * coalesced so only the latest one is written, fixes that moved less than the movement
+ * threshold since the last write are dropped, and every write is a single multi-path update so
+ * peers never observe a half-updated lat/lng pair.
+ *
+ * Must be used from the main thread.
+ */
+public class LocationUplink {
+
+    private static final String TAG = "LocationUplink";
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 2000; // in msec
+    public static final double DEFAULT_MIN_MOVEMENT = 3; // in meters
+
+    private final String mPlayerName;
+    private final String mGameName;
+    private long mFlushInterval;
+    private double mMinMovement;
+    private final Handler mHandler;
+
+    private boolean mHasPending;
+    private double mPendingLat;
+    private double mPendingLng;
+
+    private boolean mHasSent;
+    private double mSentLat;
+    private double mSentLng;
+    private long mLastFlushTime;
+    private boolean mFlushScheduled;
+
+    private int mFixesReceived;
+    private int mFixesCoalesced;
+    private int mFixesDropped;
+    private int mFixesSent;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    public LocationUplink(String playerName, String gameName) {
+        this(playerName, gameName, DEFAULT_FLUSH_INTERVAL, DEFAULT_MIN_MOVEMENT);
+    }
+
+    public LocationUplink(String playerName, String gameName, long flushInterval, double minMovement) {
+        mPlayerName = playerName;
+        mGameName = gameName;
+        mFlushInterval = flushInterval;
+        mMinMovement = minMovement;
+        mHandler = new Handler(Looper.getMainLooper());
+        mLastFlushTime = -flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        mFlushInterval = flushInterval;
+    }
+
+    public void setMinMovement(double minMovement) {
+        mMinMovement = minMovement;
+    }
+
+    public void offer(Location location) {
+        mFixesReceived++;
+        double lat = location.getLatitude();
+        double lng = location.getLongitude();
+
+        if (mHasSent && PlayerSpatialIndex.distanceInMeters(mSentLat, mSentLng, lat, lng) < mMinMovement) {
+            mFixesDropped++;
+            return;
+        }
+
+        if (mHasPending) {
+            mFixesCoalesced++;
+        }
+        mHasPending = true;
+        mPendingLat = lat;
+        mPendingLng = lng;
+
+        long sinceLastFlush = SystemClock.elapsedRealtime() - mLastFlushTime;
+        if (sinceLastFlush >= mFlushInterval) {
+            flush();
+        } else if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mFlushInterval - sinceLastFlush);
+        }
+    }
+
+    /**
+     * Writes the pending fix, if any, right away.
+     */
+    public void flush() {
+        if (!mHasPending)
+            return;
+
+        FirebaseHelper.sendLocation(mPendingLat, mPendingLng, mGameName, mPlayerName);
+        mHasPending = false;
+        mHasSent = true;
+        mSentLat = mPendingLat;
+        mSentLng = mPendingLng;
+        mLastFlushTime = SystemClock.elapsedRealtime();
+        mFixesSent++;
+    }
+
+    /**
+     * Flushes whatever is pending and cancels the timer. Call when the player leaves the board.
+     */
+    public void stop() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        flush();
+        Log.d(TAG, "Fixes received=" + mFixesReceived + ", coalesced=" + mFixesCoalesced
+                + ", dropped=" + mFixesDropped + ", sent=" + mFixesSent);
+    }
+
+    public int getFixesReceived() {
+        return mFixesReceived;
+    }
+
+    public int getFixesCoalesced() {
+        return mFixesCoalesced;
+    }
+
+    public int getFixesDropped() {
+        return mFixesDropped;
+    }
+
+    public int getFixesSent() {
+        return mFixesSent;
+    }
+}
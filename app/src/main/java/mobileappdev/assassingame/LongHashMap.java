@@ -0,0 +1,122 @@
+package mobileappdev.assassingame;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing map from primitive {@code long} keys to objects. The spatial index
+ * looks cells up on every query, and boxing each key into a {@link Long} for a {@code HashMap}
+ * was most of what those lookups allocated. Null values are not supported.
+ */
+class LongHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mMask;
+    private int mSize;
+
+    LongHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        for (int i = slot(key); mValues[i] != null; i = (i + 1) & mMask) {
+            if (mKeys[i] == key)
+                return (V) mValues[i];
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not supported");
+        int i = slot(key);
+        for (; mValues[i] != null; i = (i + 1) & mMask) {
+            if (mKeys[i] == key) {
+                V previous = (V) mValues[i];
+                mValues[i] = value;
+                return previous;
+            }
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        // keep the table at most half full so probe runs stay short
+        if (++mSize * 2 > mValues.length) {
+            rehash(mValues.length * 2);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int i = slot(key);
+        for (; mValues[i] != null; i = (i + 1) & mMask) {
+            if (mKeys[i] == key)
+                break;
+        }
+        if (mValues[i] == null)
+            return null;
+
+        V removed = (V) mValues[i];
+        // shift the rest of the probe run back instead of leaving a tombstone
+        int gap = i;
+        for (int j = (gap + 1) & mMask; mValues[j] != null; j = (j + 1) & mMask) {
+            int home = slot(mKeys[j]);
+            boolean movable = j > gap ? (home <= gap || home > j) : (home <= gap && home > j);
+            if (movable) {
+                mKeys[gap] = mKeys[j];
+                mValues[gap] = mValues[j];
+                gap = j;
+            }
+        }
+        mValues[gap] = null;
+        mSize--;
+        return removed;
+    }
+
+    void clear() {
+        if (mValues.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(mValues, null);
+        }
+        mSize = 0;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mMask;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mMask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                continue;
+            int j = slot(keys[i]);
+            while (mValues[j] != null) {
+                j = (j + 1) & mMask;
+            }
+            mKeys[j] = keys[i];
+            mValues[j] = values[i];
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Culls players outside the camera and groups the rest into per-role clusters on a screen-space
+ * grid. Pure Java so it can be tested and benchmarked off-device; {@link PlayerMarkerRenderer}
+ * turns the {@link Changes} it reports into markers.
+ *
+ * Work is incremental: moving a player only re-clusters the grid cells it left and entered, and
+ * panning only touches the cells scrolling in or out of view, found from the old and new bounds.
+ * Only a change of the integer zoom level re-buckets everyone.
+ */
+public class MarkerClusterer {
+
+    public static final int DEFAULT_CELL_SIZE = 96; // in screen pixels
+    public static final int DEFAULT_MIN_CLUSTER_SIZE = 3;
+    public static final int DEFAULT_MAX_CLUSTER_ZOOM = 18; // at or above this zoom nothing is clustered
+
+    private static final int TILE_SIZE = 256; // world width in pixels at zoom 0
+    private static final int MAX_ZOOM = 22;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /**
+     * Visible camera bounds in degrees. {@code west > east} when the camera spans the
+     * antimeridian.
+     */
+    public static class Viewport {
+        private final double mSouth;
+        private final double mWest;
+        private final double mNorth;
+        private final double mEast;
+
+        public Viewport(double south, double west, double north, double east) {
+            mSouth = south;
+            mWest = west;
+            mNorth = north;
+            mEast = east;
+        }
+    }
+
+    public static final class Cluster {
+        private final String mKey;
+        private final GameCharacter mRole;
+        private final int mSize;
+        private final double mLatitude;
+        private final double mLongitude;
+
+        Cluster(String key, GameCharacter role, int size, double latitude, double longitude) {
+            mKey = key;
+            mRole = role;
+            mSize = size;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        /**
+         * @return an id that stays the same while the cluster covers the same cell and role
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        public GameCharacter getRole() {
+            return mRole;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        boolean looksSameAs(Cluster other) {
+            return mSize == other.mSize && mLatitude == other.mLatitude && mLongitude == other.mLongitude;
+        }
+    }
+
+    /**
+     * What changed on screen since the previous {@link #cluster()} call.
+     */
+    public static class Changes {
+        private final List<String> mShownPlayers = new ArrayList<>();
+        private final List<String> mHiddenPlayers = new ArrayList<>();
+        private final List<Cluster> mAddedClusters = new ArrayList<>();
+        private final List<Cluster> mUpdatedClusters = new ArrayList<>();
+        private final List<String> mRemovedClusters = new ArrayList<>();
+
+        /**
+         * @return players that now need their own marker
+         */
+        public List<String> getShownPlayers() {
+            return mShownPlayers;
+        }
+
+        /**
+         * @return players that went off screen or into a cluster
+         */
+        public List<String> getHiddenPlayers() {
+            return mHiddenPlayers;
+        }
+
+        public List<Cluster> getAddedClusters() {
+            return mAddedClusters;
+        }
+
+        /**
+         * @return clusters whose size or position changed
+         */
+        public List<Cluster> getUpdatedClusters() {
+            return mUpdatedClusters;
+        }
+
+        /**
+         * @return keys of clusters that are gone
+         */
+        public List<String> getRemovedClusters() {
+            return mRemovedClusters;
+        }
+
+        public boolean isEmpty() {
+            return mShownPlayers.isEmpty() && mHiddenPlayers.isEmpty() && mAddedClusters.isEmpty()
+                    && mUpdatedClusters.isEmpty() && mRemovedClusters.isEmpty();
+        }
+    }
+
+    private static class Point {
+        final String name;
+        double latitude;
+        double longitude;
+        double x; // web mercator, 0..1
+        double y;
+        GameCharacter role;
+        long cell;
+
+        Point(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class CellOutput {
+        final Set<String> singles = new HashSet<>();
+        final Map<String, Cluster> clusters = new HashMap<>();
+    }
+
+    private final int mCellSize;
+    private final int mMinClusterSize;
+    private final int mMaxClusterZoom;
+
+    private final Map<String, Point> mPoints = new HashMap<>();
+    private final Map<Long, List<Point>> mCells = new HashMap<>();
+    private final Map<Long, CellOutput> mOutputs = new HashMap<>();
+    private final Set<Long> mDirtyCells = new HashSet<>();
+    private final Set<String> mShown = new HashSet<>();
+
+    private boolean mHasCamera;
+    private int mZoomLevel;
+    private long mCellsPerWorld = 1;
+    private long mMinCellX, mMaxCellX, mMinCellY, mMaxCellY;
+
+    public MarkerClusterer() {
+        this(DEFAULT_CELL_SIZE, DEFAULT_MIN_CLUSTER_SIZE, DEFAULT_MAX_CLUSTER_ZOOM);
+    }
+
+    public MarkerClusterer(int cellSize, int minClusterSize, int maxClusterZoom) {
+        mCellSize = cellSize;
+        mMinClusterSize = minClusterSize;
+        mMaxClusterZoom = maxClusterZoom;
+    }
+
+    /**
+     * Adds or moves a player. {@code role} is the role the player is drawn as; only players drawn
+     * alike are clustered together.
+     */
+    public void update(String name, double latitude, double longitude, GameCharacter role) {
+        Point point = mPoints.get(name);
+        if (point == null) {
+            point = new Point(name);
+            mPoints.put(name, point);
+        } else if (point.latitude == latitude && point.longitude == longitude && point.role == role) {
+            return;
+        } else {
+            removeFromCell(point);
+        }
+        point.latitude = latitude;
+        point.longitude = longitude;
+        point.role = role;
+        point.x = toWorldX(longitude);
+        point.y = toWorldY(latitude);
+        addToCell(point);
+    }
+
+    public void remove(String name) {
+        Point point = mPoints.remove(name);
+        if (point != null) {
+            removeFromCell(point);
+        }
+    }
+
+    public boolean contains(String name) {
+        return mPoints.containsKey(name);
+    }
+
+    /**
+     * @return whether the player currently gets a marker of their own
+     */
+    public boolean isShown(String name) {
+        return mShown.contains(name);
+    }
+
+    /**
+     * Moves the camera. Until this is first called everybody is shown and nothing is clustered.
+     */
+    public void setCamera(Viewport viewport, float zoom) {
+        int zoomLevel = Math.max(0, Math.min(MAX_ZOOM, (int) Math.floor(zoom)));
+        boolean rebucketed = !mHasCamera || zoomLevel != mZoomLevel;
+        if (rebucketed) {
+            mHasCamera = true;
+            mZoomLevel = zoomLevel;
+            mCellsPerWorld = Math.max(1, ((long) TILE_SIZE << zoomLevel) / mCellSize);
+            rebucket();
+        }
+        long minCellX = mMinCellX, maxCellX = mMaxCellX, minCellY = mMinCellY, maxCellY = mMaxCellY;
+
+        // one cell of margin so small pans don't make markers pop in and out at the edges
+        mMinCellX = floorMod(toCell(toWorldX(viewport.mWest)) - 1, mCellsPerWorld);
+        mMaxCellX = floorMod(toCell(toWorldX(viewport.mEast)) + 1, mCellsPerWorld);
+        mMinCellY = toCell(toWorldY(viewport.mNorth)) - 1;
+        mMaxCellY = toCell(toWorldY(viewport.mSouth)) + 1;
+        if (viewport.mEast - viewport.mWest >= 360 || mCellsPerWorld <= 3) {
+            mMinCellX = 0;
+            mMaxCellX = mCellsPerWorld - 1;
+        }
+        if (!rebucketed && (minCellX != mMinCellX || maxCellX != mMaxCellX || minCellY != mMinCellY
+                || maxCellY != mMaxCellY)) {
+            // a cell can only have scrolled in or out if it is in the old or the new bounds
+            markScrolled(minCellX, maxCellX, minCellY, maxCellY);
+            markScrolled(mMinCellX, mMaxCellX, mMinCellY, mMaxCellY);
+        }
+    }
+
+    /**
+     * Marks the cells of the given bounds that scrolled into view with players in them or have
+     * markers out of view. When the bounds hold more cells than there are players, the occupied
+     * cells are checked instead.
+     */
+    private void markScrolled(long minCellX, long maxCellX, long minCellY, long maxCellY) {
+        long width = floorMod(maxCellX - minCellX, mCellsPerWorld) + 1;
+        long top = Math.max(0, minCellY);
+        long bottom = Math.min(mCellsPerWorld - 1, maxCellY);
+        if (width * (bottom - top + 1) > mCells.size() + mOutputs.size()) {
+            for (Long cell : mCells.keySet()) {
+                markIfScrolled(cell);
+            }
+            for (Long cell : mOutputs.keySet()) {
+                markIfScrolled(cell);
+            }
+            return;
+        }
+        for (long i = 0; i < width; i++) {
+            long cellX = floorMod(minCellX + i, mCellsPerWorld);
+            for (long cellY = top; cellY <= bottom; cellY++) {
+                markIfScrolled((cellX << 32) | cellY);
+            }
+        }
+    }
+
+    private void markIfScrolled(long cell) {
+        if ((isVisible(cell) && mCells.containsKey(cell)) != mOutputs.containsKey(cell)) {
+            mDirtyCells.add(cell);
+        }
+    }
+
+    /**
+     * Re-clusters the cells that changed or scrolled in or out of view since the last call.
+     */
+    public Changes cluster() {
+        Changes changes = new Changes();
+        Set<String> added = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+
+        List<Long> candidates = new ArrayList<>(mDirtyCells);
+        mDirtyCells.clear();
+
+        for (Long cell : candidates) {
+            List<Point> points = mCells.get(cell);
+            CellOutput output = points != null && isVisible(cell) ? build(cell, points) : null;
+            CellOutput previous = output == null ? mOutputs.remove(cell) : mOutputs.put(cell, output);
+            diff(previous, output, changes, added, removed);
+        }
+
+        for (String name : added) {
+            if (mShown.add(name)) {
+                changes.mShownPlayers.add(name);
+            }
+        }
+        for (String name : removed) {
+            if (!added.contains(name) && mShown.remove(name)) {
+                changes.mHiddenPlayers.add(name);
+            }
+        }
+        return changes;
+    }
+
+    private CellOutput build(long cell, List<Point> points) {
+        CellOutput output = new CellOutput();
+        boolean clustering = mHasCamera && mZoomLevel < mMaxClusterZoom && points.size() >= mMinClusterSize;
+        if (!clustering) {
+            for (Point point : points) {
+                output.singles.add(point.name);
+            }
+            return output;
+        }
+
+        Map<GameCharacter, List<Point>> byRole = new EnumMap<>(GameCharacter.class);
+        for (Point point : points) {
+            List<Point> group = byRole.get(point.role);
+            if (group == null) {
+                group = new ArrayList<>();
+                byRole.put(point.role, group);
+            }
+            group.add(point);
+        }
+        for (Map.Entry<GameCharacter, List<Point>> entry : byRole.entrySet()) {
+            List<Point> group = entry.getValue();
+            if (group.size() < mMinClusterSize) {
+                for (Point point : group) {
+                    output.singles.add(point.name);
+                }
+                continue;
+            }
+            double latitude = 0;
+            double longitude = 0;
+            for (Point point : group) {
+                latitude += point.latitude;
+                longitude += point.longitude;
+            }
+            String key = entry.getKey().name() + "@" + (cell >>> 32) + "," + (cell & 0xffffffffL);
+            output.clusters.put(key, new Cluster(key, entry.getKey(), group.size(),
+                    latitude / group.size(), longitude / group.size()));
+        }
+        return output;
+    }
+
+    private static void diff(CellOutput previous, CellOutput current, Changes changes,
+                             Set<String> added, Set<String> removed) {
+        if (previous != null) {
+            for (String name : previous.singles) {
+                if (current == null || !current.singles.contains(name)) {
+                    removed.add(name);
+                }
+            }
+            for (String key : previous.clusters.keySet()) {
+                if (current == null || !current.clusters.containsKey(key)) {
+                    changes.mRemovedClusters.add(key);
+                }
+            }
+        }
+        if (current != null) {
+            added.addAll(current.singles);
+            for (Cluster cluster : current.clusters.values()) {
+                Cluster old = previous == null ? null : previous.clusters.get(cluster.getKey());
+                if (old == null) {
+                    changes.mAddedClusters.add(cluster);
+                } else if (!old.looksSameAs(cluster)) {
+                    changes.mUpdatedClusters.add(cluster);
+                }
+            }
+        }
+    }
+
+    private void rebucket() {
+        mCells.clear();
+        mDirtyCells.addAll(mOutputs.keySet());
+        for (Point point : mPoints.values()) {
+            addToCell(point);
+        }
+    }
+
+    private void addToCell(Point point) {
+        point.cell = (toCell(point.x) << 32) | toCell(point.y);
+        List<Point> points = mCells.get(point.cell);
+        if (points == null) {
+            points = new ArrayList<>();
+            mCells.put(point.cell, points);
+        }
+        points.add(point);
+        mDirtyCells.add(point.cell);
+    }
+
+    private void removeFromCell(Point point) {
+        List<Point> points = mCells.get(point.cell);
+        if (points != null) {
+            points.remove(point);
+            if (points.isEmpty()) {
+                mCells.remove(point.cell);
+            }
+        }
+        mDirtyCells.add(point.cell);
+    }
+
+    private boolean isVisible(long cell) {
+        if (!mHasCamera)
+            return true;
+        long cellX = cell >>> 32;
+        long cellY = cell & 0xffffffffL;
+        if (cellY < mMinCellY || cellY > mMaxCellY)
+            return false;
+        return floorMod(cellX - mMinCellX, mCellsPerWorld) <= floorMod(mMaxCellX - mMinCellX, mCellsPerWorld);
+    }
+
+    private long toCell(double world) {
+        long cell = (long) Math.floor(world * mCellsPerWorld);
+        return Math.max(0, Math.min(mCellsPerWorld - 1, cell));
+    }
+
+    private static long floorMod(long value, long modulus) {
+        long mod = value % modulus;
+        return mod < 0 ? mod + modulus : mod;
+    }
+
+    private static double toWorldX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    private static double toWorldY(double latitude) {
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sin = Math.sin(Math.toRadians(lat));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+}
@@ -0,0 +1,929 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory {@link RealtimeStore}: one JSON tree addressed by slash separated paths, with
+ * writes, multi-path updates, transactions, queries and value/child listeners. It behaves like
+ * the real database where that matters for load - nulls and empty objects delete, whole numbers
+ * are stored as Long and fractions as Double, and listeners only hear about data that actually
+ * changed - and it counts every write and every delivered event in JSON bytes, so a headless run
+ * can tell how much traffic a game would cost.
+ *
+ * Out of the box everything happens on the calling thread before the call returns. Events raised
+ * while listeners run are queued behind the current ones, so every listener sees writes in order.
+ * {@link #setNetworkDelay} puts a simulated network in between instead: requests reach the
+ * database, and results and events reach listeners, on a background thread after the delay, still
+ * in order. {@link #setHeld} holds every message until {@link #deliver()} instead, so a
+ * single-threaded caller can have many clients send at once.
+ *
+ * Transactions are optimistic like Firebase's: the client runs the function on the value it last
+ * saw, and the database only takes the result if the value is still the same. Otherwise the
+ * client gets the current value back and tries again, up to {@link #MAX_TRANSACTION_TRIES} times.
+ * Retries, aborts and give-ups are counted in the {@link Stats}.
+ *
+ * Values handed to listeners are copies shared by all listeners of a path and must not be
+ * modified. Pure Java and thread safe.
+ */
+public class MemoryDatabase implements RealtimeStore {
+
+    public static final int MAX_TRANSACTION_TRIES = 25; // as the Firebase client
+
+    public static class Stats {
+        private final long mWrites;
+        private final long mPathsWritten;
+        private final long mBytesWritten;
+        private final long mEvents;
+        private final long mBytesDelivered;
+        private final long mTransactionRetries;
+        private final long mTransactionAborts;
+        private final long mTransactionFailures;
+
+        Stats(long writes, long pathsWritten, long bytesWritten, long events, long bytesDelivered,
+              long transactionRetries, long transactionAborts, long transactionFailures) {
+            mWrites = writes;
+            mPathsWritten = pathsWritten;
+            mBytesWritten = bytesWritten;
+            mEvents = events;
+            mBytesDelivered = bytesDelivered;
+            mTransactionRetries = transactionRetries;
+            mTransactionAborts = transactionAborts;
+            mTransactionFailures = transactionFailures;
+        }
+
+        /**
+         * @return set values, multi-path updates and committed transactions
+         */
+        public long getWrites() {
+            return mWrites;
+        }
+
+        public long getPathsWritten() {
+            return mPathsWritten;
+        }
+
+        public long getBytesWritten() {
+            return mBytesWritten;
+        }
+
+        /**
+         * @return value and child events handed to listeners, counted once per listener
+         */
+        public long getEvents() {
+            return mEvents;
+        }
+
+        public long getBytesDelivered() {
+            return mBytesDelivered;
+        }
+
+        /**
+         * @return bytes delivered to listeners for every byte written
+         */
+        public double getWriteAmplification() {
+            return mBytesWritten == 0 ? 0 : (double) mBytesDelivered / mBytesWritten;
+        }
+
+        /**
+         * @return transaction runs after the first, because the value changed in between
+         */
+        public long getTransactionRetries() {
+            return mTransactionRetries;
+        }
+
+        /**
+         * @return transactions whose function returned {@link RealtimeStore#ABORT}
+         */
+        public long getTransactionAborts() {
+            return mTransactionAborts;
+        }
+
+        /**
+         * @return transactions given up after {@link #MAX_TRANSACTION_TRIES} conflicts
+         */
+        public long getTransactionFailures() {
+            return mTransactionFailures;
+        }
+    }
+
+    private static class Registration {
+        final String path;
+        // null for the whole path
+        final Query query;
+        final Object listener;
+        // a listener may implement both interfaces
+        final boolean child;
+
+        volatile boolean removed;
+
+        Registration(String path, Query query, Object listener, boolean child) {
+            this.path = path;
+            this.query = query;
+            this.listener = listener;
+            this.child = child;
+        }
+    }
+
+    /**
+     * The data at a listened path before a write. Value listeners, queries, and writes at or
+     * above the path need all of it; a write below only changes the children it touches.
+     */
+    private static class Before {
+        final String path;
+        final boolean whole;
+        Object value;
+        final Map<String, Object> children = new TreeMap<>();
+
+        Before(String path, boolean whole) {
+            this.path = path;
+            this.whole = whole;
+        }
+    }
+
+    private static final int VALUE = 0;
+    private static final int CHILD_ADDED = 1;
+    private static final int CHILD_CHANGED = 2;
+    private static final int CHILD_REMOVED = 3;
+
+    private static class Event {
+        final Registration registration;
+        final int type;
+        final String key;
+        final Object value;
+        final long size;
+
+        Event(Registration registration, int type, String key, Object value) {
+            this(registration, type, key, value, (key == null ? 0 : key.length() + 3) + sizeOf(value));
+        }
+
+        /**
+         * The same event for another listener, without sizing the value again.
+         */
+        Event(Registration registration, Event event) {
+            this(registration, event.type, event.key, event.value, event.size);
+        }
+
+        private Event(Registration registration, int type, String key, Object value, long size) {
+            this.registration = registration;
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private final Map<String, Object> mRoot = new TreeMap<>();
+    // sorted, so the listeners below a path are one range
+    private final TreeMap<String, List<Registration>> mRegistrations = new TreeMap<>();
+    private final Set<Object> mPendingReads = new HashSet<>();
+    private final Queue<Event> mEvents = new ArrayDeque<>();
+    private boolean mDispatching;
+    private long mPushCount;
+
+    private ScheduledExecutorService mNetwork;
+    private long mDelay;
+    private long mJitter;
+    private Random mDelayRandom;
+    private final Queue<Runnable> mUplink = new ArrayDeque<>();
+    private final Queue<Runnable> mDownlink = new ArrayDeque<>();
+    private boolean mHeld;
+    private final Queue<Runnable> mHeldMessages = new ArrayDeque<>();
+
+    private long mWrites;
+    private long mPathsWritten;
+    private long mBytesWritten;
+    private long mEventCount;
+    private long mBytesDelivered;
+    private long mTransactionRetries;
+    private long mTransactionAborts;
+    private long mTransactionFailures;
+
+    /**
+     * Delays every request on its way to the database, and every result and event on its way
+     * back, by {@code delayInMillis} plus up to {@code jitterInMillis}, so a write takes about
+     * twice the delay to complete. Messages keep their order, like on one connection.
+     *
+     * @param seed makes the jitter reproducible
+     */
+    public synchronized MemoryDatabase setNetworkDelay(long delayInMillis, long jitterInMillis, long seed) {
+        mDelay = delayInMillis;
+        mJitter = jitterInMillis;
+        mDelayRandom = new Random(seed);
+        if (mNetwork == null && (delayInMillis > 0 || jitterInMillis > 0)) {
+            mNetwork = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "MemoryDatabase network");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * While held, requests, results and events wait until {@link #deliver()}; turning it off
+     * doesn't deliver what is waiting.
+     */
+    public synchronized MemoryDatabase setHeld(boolean held) {
+        mHeld = held;
+        return this;
+    }
+
+    /**
+     * Delivers the held messages in the order they were sent. Messages they cause, such as a
+     * transaction's next try, are held for the next call.
+     *
+     * @return the number of messages delivered
+     */
+    public int deliver() {
+        List<Runnable> messages;
+        synchronized (this) {
+            messages = new ArrayList<>(mHeldMessages);
+            mHeldMessages.clear();
+        }
+        for (Runnable message : messages) {
+            message.run();
+        }
+        return messages.size();
+    }
+
+    /**
+     * Stops the simulated network; messages still on their way are dropped.
+     */
+    public synchronized void shutdown() {
+        if (mNetwork != null) {
+            mNetwork.shutdownNow();
+            mNetwork = null;
+        }
+    }
+
+    /**
+     * @return a copy of the data at the path, or null; always answered right away
+     */
+    public synchronized Object getValue(String path) {
+        return copy(get(normalize(path)));
+    }
+
+    public void setValue(String path, Object value) {
+        setValue(path, value, null);
+    }
+
+    @Override
+    public void setValue(String path, final Object value, final CompletionListener listener) {
+        final String normalized = normalize(path);
+        send(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MemoryDatabase.this) {
+                    write(Collections.singletonMap(normalized, value));
+                }
+                complete(listener);
+            }
+        });
+    }
+
+    public void updateChildren(String path, Map<String, ?> update) {
+        updateChildren(path, update, null);
+    }
+
+    @Override
+    public void updateChildren(String path, Map<String, ?> update, final CompletionListener listener) {
+        String base = normalize(path);
+        final Map<String, Object> writes = new TreeMap<>();
+        for (Map.Entry<String, ?> entry : update.entrySet()) {
+            String relative = normalize(entry.getKey());
+            writes.put(base.isEmpty() ? relative : relative.isEmpty() ? base : base + "/" + relative,
+                    entry.getValue());
+        }
+        for (String written : writes.keySet()) {
+            for (int slash = written.indexOf('/'); slash >= 0; slash = written.indexOf('/', slash + 1)) {
+                if (writes.containsKey(written.substring(0, slash)))
+                    throw new IllegalArgumentException("Path " + written.substring(0, slash)
+                            + " is an ancestor of " + written);
+            }
+        }
+        send(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MemoryDatabase.this) {
+                    write(writes);
+                }
+                complete(listener);
+            }
+        });
+    }
+
+    @Override
+    public void runTransaction(String path, Transaction transaction, TransactionListener listener) {
+        String normalized = normalize(path);
+        attempt(normalized, transaction, listener, getValue(normalized), 1);
+    }
+
+    /**
+     * One try: runs the function on what the client saw and sends the result, which the database
+     * only writes if that is still the value.
+     */
+    private void attempt(final String path, final Transaction transaction, final TransactionListener listener,
+                         final Object seen, final int tries) {
+        final Object result = transaction.run(copy(seen));
+        if (result == ABORT) {
+            // decided on the client, nothing is sent
+            synchronized (this) {
+                mTransactionAborts++;
+            }
+            if (listener != null) {
+                listener.onComplete(null, false, seen);
+            }
+            return;
+        }
+        send(new Runnable() {
+            @Override
+            public void run() {
+                final boolean committed;
+                final Object value;
+                synchronized (MemoryDatabase.this) {
+                    committed = equal(seen, get(path));
+                    if (committed) {
+                        write(Collections.singletonMap(path, result));
+                    } else if (tries < MAX_TRANSACTION_TRIES) {
+                        mTransactionRetries++;
+                    } else {
+                        mTransactionFailures++;
+                    }
+                    value = copy(get(path));
+                }
+                receive(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!committed && tries < MAX_TRANSACTION_TRIES) {
+                            attempt(path, transaction, listener, value, tries + 1);
+                        } else if (listener != null) {
+                            listener.onComplete(committed ? null : new IllegalStateException("Transaction at "
+                                    + path + " gave up after " + tries + " tries"), committed, value);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public synchronized String push(String path) {
+        return String.format("-%015x", mPushCount++);
+    }
+
+    public ValueListener addValueListener(String path, ValueListener listener) {
+        return addValueListener(new Query(path), listener);
+    }
+
+    @Override
+    public synchronized ValueListener addValueListener(Query query, ValueListener listener) {
+        Registration registration = register(query, listener, false);
+        enqueue(new Event(registration, VALUE, null, valueOf(registration, get(registration.path))));
+        drain();
+        return listener;
+    }
+
+    public ChildListener addChildListener(String path, ChildListener listener) {
+        return addChildListener(new Query(path), listener);
+    }
+
+    @Override
+    public synchronized ChildListener addChildListener(Query query, ChildListener listener) {
+        Registration registration = register(query, listener, true);
+        Object value = valueOf(registration, get(registration.path));
+        for (Map.Entry<String, Object> child : asMap(value).entrySet()) {
+            enqueue(new Event(registration, CHILD_ADDED, child.getKey(), child.getValue()));
+        }
+        drain();
+        return listener;
+    }
+
+    @Override
+    public void read(Query query, final ValueListener listener) {
+        final Registration registration = new Registration(normalize(query.getPath()),
+                query.isPlain() ? null : query, listener, false);
+        synchronized (this) {
+            mPendingReads.add(listener);
+        }
+        send(new Runnable() {
+            @Override
+            public void run() {
+                final Object value;
+                synchronized (MemoryDatabase.this) {
+                    value = valueOf(registration, get(registration.path));
+                }
+                receive(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (MemoryDatabase.this) {
+                            if (!mPendingReads.remove(listener))
+                                return;
+                        }
+                        listener.onValueChanged(registration.path, value);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public synchronized void removeListener(Object listener) {
+        mPendingReads.remove(listener);
+        for (Iterator<List<Registration>> it = mRegistrations.values().iterator(); it.hasNext(); ) {
+            List<Registration> registrations = it.next();
+            for (int i = registrations.size() - 1; i >= 0; i--) {
+                if (registrations.get(i).listener == listener) {
+                    registrations.remove(i).removed = true;
+                }
+            }
+            if (registrations.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(mWrites, mPathsWritten, mBytesWritten, mEventCount, mBytesDelivered,
+                mTransactionRetries, mTransactionAborts, mTransactionFailures);
+    }
+
+    public synchronized void resetStats() {
+        mWrites = mPathsWritten = mBytesWritten = mEventCount = mBytesDelivered = 0;
+        mTransactionRetries = mTransactionAborts = mTransactionFailures = 0;
+    }
+
+    /**
+     * @return the size of the value as JSON, assuming single byte characters
+     */
+    public static long sizeOf(Object value) {
+        if (value == null)
+            return 4;
+        if (value instanceof String)
+            return ((String) value).length() + 2;
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            long size = 2 + Math.max(map.size() - 1, 0);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                size += entry.getKey().toString().length() + 3 + sizeOf(entry.getValue());
+            }
+            return size;
+        }
+        return String.valueOf(value).length();
+    }
+
+    /**
+     * Runs a request once it reached the database.
+     */
+    private void send(Runnable request) {
+        transmit(request, mUplink);
+    }
+
+    /**
+     * Runs a callback once the answer reached the client.
+     */
+    private void receive(Runnable callback) {
+        transmit(callback, mDownlink);
+    }
+
+    /**
+     * Queues the message on the link and has the network run the oldest message of the link once
+     * the delay is over, so messages arrive in the order they were sent whatever the jitter.
+     */
+    private void transmit(Runnable message, final Queue<Runnable> link) {
+        ScheduledExecutorService network;
+        long delay;
+        synchronized (this) {
+            if (mHeld) {
+                mHeldMessages.add(message);
+                return;
+            }
+            network = mNetwork;
+            if (network != null) {
+                link.add(message);
+                delay = mDelay + (mJitter > 0 ? (long) (mDelayRandom.nextDouble() * mJitter) : 0);
+            } else {
+                delay = 0;
+            }
+        }
+        if (network == null) {
+            message.run();
+            return;
+        }
+        network.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Runnable oldest;
+                synchronized (MemoryDatabase.this) {
+                    oldest = link.poll();
+                }
+                oldest.run();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void complete(final CompletionListener listener) {
+        if (listener == null)
+            return;
+        receive(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(null);
+            }
+        });
+    }
+
+    private Registration register(Query query, Object listener, boolean child) {
+        Registration registration = new Registration(normalize(query.getPath()),
+                query.isPlain() ? null : query, listener, child);
+        List<Registration> registrations = mRegistrations.get(registration.path);
+        if (registrations == null) {
+            registrations = new ArrayList<>();
+            mRegistrations.put(registration.path, registrations);
+        }
+        registrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * @return a copy of what the registration sees of {@code value}
+     */
+    private static Object valueOf(Registration registration, Object value) {
+        if (registration.query == null)
+            return copy(value);
+        Map<String, Object> selected = registration.query.select(asMap(value));
+        if (selected.isEmpty())
+            return null;
+        for (Map.Entry<String, Object> entry : selected.entrySet()) {
+            entry.setValue(copy(entry.getValue()));
+        }
+        return selected;
+    }
+
+    private void write(Map<String, Object> writes) {
+        List<Before> befores = capture(writes.keySet());
+        for (Map.Entry<String, Object> entry : writes.entrySet()) {
+            Object value = normalizeValue(entry.getValue());
+            put(entry.getKey(), value);
+            mBytesWritten += entry.getKey().length() + 3 + sizeOf(value);
+        }
+        mWrites++;
+        mPathsWritten += writes.size();
+
+        for (Before before : befores) {
+            raiseEvents(before);
+        }
+        drain();
+    }
+
+    /**
+     * Copies what every listened path affected by the written paths holds before the write.
+     */
+    private List<Before> capture(Set<String> written) {
+        Map<String, Boolean> affected = new TreeMap<>();
+        Map<String, Set<String>> touchedChildren = new TreeMap<>();
+        for (String path : written) {
+            // listeners at or above the written path
+            for (String ancestor = path; ; ancestor = parent(ancestor)) {
+                if (mRegistrations.containsKey(ancestor)) {
+                    if (ancestor.equals(path)) {
+                        affected.put(ancestor, true);
+                    } else {
+                        if (!affected.containsKey(ancestor)) {
+                            affected.put(ancestor, needsWholeValue(ancestor));
+                        }
+                        Set<String> children = touchedChildren.get(ancestor);
+                        if (children == null) {
+                            children = new HashSet<>();
+                            touchedChildren.put(ancestor, children);
+                        }
+                        children.add(childKey(ancestor, path));
+                    }
+                }
+                if (ancestor.isEmpty())
+                    break;
+            }
+            // listeners below it
+            String from = path.isEmpty() ? "" : path + "/";
+            String to = path.isEmpty() ? "\uffff" : path + "0"; // '0' follows '/'
+            for (String descendant : mRegistrations.subMap(from, false, to, false).keySet()) {
+                affected.put(descendant, true);
+            }
+        }
+
+        List<Before> befores = new ArrayList<>(affected.size());
+        for (Map.Entry<String, Boolean> entry : affected.entrySet()) {
+            Before before = new Before(entry.getKey(), entry.getValue());
+            if (before.whole) {
+                before.value = copy(get(before.path));
+            } else {
+                for (String key : touchedChildren.get(before.path)) {
+                    before.children.put(key, copy(get(before.path + "/" + key)));
+                }
+            }
+            befores.add(before);
+        }
+        return befores;
+    }
+
+    private void raiseEvents(Before before) {
+        List<Registration> registrations = mRegistrations.get(before.path);
+        if (registrations == null)
+            return;
+
+        Object after = null;
+        List<Event> childEvents;
+        if (before.whole) {
+            after = copy(get(before.path));
+            childEvents = diff(asMap(before.value), asMap(after));
+        } else {
+            Map<String, Object> newChildren = new TreeMap<>();
+            for (String key : before.children.keySet()) {
+                newChildren.put(key, copy(get(before.path + "/" + key)));
+            }
+            childEvents = diff(before.children, newChildren);
+        }
+
+        Event valueEvent = before.whole && !equal(before.value, after) ? new Event(null, VALUE, null, after) : null;
+        for (Registration registration : registrations) {
+            if (registration.query != null) {
+                Map<String, Object> oldSelection = registration.query.select(asMap(before.value));
+                Map<String, Object> newSelection = registration.query.select(asMap(after));
+                if (registration.child) {
+                    for (Event event : diff(oldSelection, newSelection)) {
+                        enqueue(new Event(registration, event));
+                    }
+                } else if (!oldSelection.equals(newSelection)) {
+                    enqueue(new Event(registration, VALUE, null, newSelection.isEmpty() ? null : newSelection));
+                }
+            } else if (registration.child) {
+                for (Event event : childEvents) {
+                    enqueue(new Event(registration, event));
+                }
+            } else if (valueEvent != null) {
+                enqueue(new Event(registration, valueEvent));
+            }
+        }
+    }
+
+    /**
+     * @return child events, for no registration yet, that turn {@code oldChildren} into
+     * {@code newChildren}
+     */
+    private static List<Event> diff(Map<String, Object> oldChildren, Map<String, Object> newChildren) {
+        List<Event> events = new ArrayList<>();
+        for (Map.Entry<String, Object> old : oldChildren.entrySet()) {
+            if (old.getValue() != null && newChildren.get(old.getKey()) == null) {
+                events.add(new Event(null, CHILD_REMOVED, old.getKey(), null));
+            }
+        }
+        for (Map.Entry<String, Object> current : newChildren.entrySet()) {
+            Object old = oldChildren.get(current.getKey());
+            if (current.getValue() == null)
+                continue;
+            if (old == null) {
+                events.add(new Event(null, CHILD_ADDED, current.getKey(), current.getValue()));
+            } else if (!old.equals(current.getValue())) {
+                events.add(new Event(null, CHILD_CHANGED, current.getKey(), current.getValue()));
+            }
+        }
+        return events;
+    }
+
+    private void enqueue(Event event) {
+        mEvents.add(event);
+        mEventCount++;
+        mBytesDelivered += event.size;
+    }
+
+    private void drain() {
+        if (mDispatching)
+            return;
+        mDispatching = true;
+        try {
+            Event event;
+            while ((event = mEvents.poll()) != null) {
+                if (mNetwork == null) {
+                    deliver(event);
+                } else {
+                    final Event delayed = event;
+                    receive(new Runnable() {
+                        @Override
+                        public void run() {
+                            deliver(delayed);
+                        }
+                    });
+                }
+            }
+        } finally {
+            mDispatching = false;
+        }
+    }
+
+    private static void deliver(Event event) {
+        Registration registration = event.registration;
+        if (registration.removed)
+            return;
+        switch (event.type) {
+            case VALUE:
+                ((ValueListener) registration.listener).onValueChanged(registration.path, event.value);
+                break;
+            case CHILD_ADDED:
+                ((ChildListener) registration.listener).onChildAdded(event.key, event.value);
+                break;
+            case CHILD_CHANGED:
+                ((ChildListener) registration.listener).onChildChanged(event.key, event.value);
+                break;
+            case CHILD_REMOVED:
+                ((ChildListener) registration.listener).onChildRemoved(event.key);
+                break;
+        }
+    }
+
+    private boolean needsWholeValue(String path) {
+        for (Registration registration : mRegistrations.get(path)) {
+            if (!registration.child || registration.query != null)
+                return true;
+        }
+        return false;
+    }
+
+    private Object get(String path) {
+        if (path.isEmpty())
+            return mRoot.isEmpty() ? null : mRoot;
+        Object node = mRoot;
+        int start = 0;
+        while (node instanceof Map) {
+            int slash = path.indexOf('/', start);
+            String segment = slash < 0 ? path.substring(start) : path.substring(start, slash);
+            node = ((Map<?, ?>) node).get(segment);
+            if (slash < 0)
+                return node;
+            start = slash + 1;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void put(String path, Object value) {
+        if (path.isEmpty()) {
+            mRoot.clear();
+            if (value instanceof Map) {
+                mRoot.putAll((Map<String, Object>) value);
+            } else if (value != null) {
+                throw new IllegalArgumentException("The root can only hold children");
+            }
+            return;
+        }
+        String[] segments = path.split("/");
+        Map<String, Object> node = mRoot;
+        for (int i = 0; i < segments.length - 1; i++) {
+            Object child = node.get(segments[i]);
+            if (!(child instanceof Map)) {
+                if (value == null)
+                    return;
+                child = new TreeMap<String, Object>();
+                node.put(segments[i], child);
+            }
+            node = (Map<String, Object>) child;
+        }
+        if (value != null) {
+            node.put(segments[segments.length - 1], value);
+        } else {
+            node.remove(segments[segments.length - 1]);
+            prune(mRoot, segments, 0);
+        }
+    }
+
+    /**
+     * Removes the objects along the path that a delete left empty.
+     *
+     * @return whether {@code node} is empty now
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean prune(Map<String, Object> node, String[] segments, int depth) {
+        if (depth < segments.length - 1) {
+            Object child = node.get(segments[depth]);
+            if (child instanceof Map && prune((Map<String, Object>) child, segments, depth + 1)) {
+                node.remove(segments[depth]);
+            }
+        }
+        return node.isEmpty();
+    }
+
+    /**
+     * @return the value as stored: nested maps and lists become sorted objects without nulls,
+     * integers become Long, floating point numbers Double, {@link #TIMESTAMP} the current time
+     * and empty objects null
+     */
+    private static Object normalizeValue(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Long || value instanceof Double)
+            return value;
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+        if (value instanceof Float)
+            return ((Float) value).doubleValue();
+        if (TIMESTAMP.equals(value))
+            return System.currentTimeMillis();
+        if (value instanceof List) {
+            Map<String, Object> map = new TreeMap<>();
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                map.put(String.valueOf(i), list.get(i));
+            }
+            return normalizeValue(map);
+        }
+        if (value instanceof Map) {
+            Map<String, Object> map = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                checkKey(key);
+                Object child = normalizeValue(entry.getValue());
+                if (child != null) {
+                    map.put(key, child);
+                }
+            }
+            return map.isEmpty() ? null : map;
+        }
+        throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+    }
+
+    private static Object copy(Object value) {
+        if (!(value instanceof Map))
+            return value;
+        Map<String, Object> copy = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : asMap(value).entrySet()) {
+            copy.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Collections.<String, Object>emptyMap();
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return the path without leading and trailing slashes; "" is the root
+     */
+    static String normalize(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        String normalized = path.substring(start, end);
+        for (String segment : normalized.split("/")) {
+            if (segment.isEmpty() && !normalized.isEmpty())
+                throw new IllegalArgumentException("Empty segment in " + path);
+            checkKey(segment);
+        }
+        return normalized;
+    }
+
+    private static void checkKey(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '.' || c == '#' || c == '$' || c == '[' || c == ']')
+                throw new IllegalArgumentException("Keys can't contain . # $ [ or ]: " + key);
+        }
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    /**
+     * @return the first segment of {@code path} below {@code ancestor}
+     */
+    private static String childKey(String ancestor, String path) {
+        int start = ancestor.isEmpty() ? 0 : ancestor.length() + 1;
+        int slash = path.indexOf('/', start);
+        return slash < 0 ? path.substring(start) : path.substring(start, slash);
+    }
+}
@@ -13,17 +13,16 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.Query;
-import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -33,6 +32,9 @@ public class MyGamesActivity extends AppCompatActivity {
 
     ArrayList<String> mItems = new ArrayList<>();
     private Spinner mProgressDialog;
+    private ArrayAdapter<String> mAdapter;
+    private Button mMoreButton;
+    private GameIndex.Page mLastPage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -66,80 +68,93 @@ public class MyGamesActivity extends AppCompatActivity {
             return;
         }
 
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference();
-        DatabaseReference games = ref.child("games");
-
-        games.addListenerForSingleValueEvent(new ValueEventListener() {
+        ListView mListView = (ListView) findViewById(R.id.public_games_list_view);
+        mMoreButton = new Button(this);
+        mMoreButton.setText(R.string.more_results);
+        mMoreButton.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-
-                    Object adminObject = snapshot.child("admin").getValue();
-                    if (adminObject == null) {
-                        Log.i("MyGame", snapshot.getKey() + " doesn't have an admin value");
-                        continue;
-                    }
-                    if (displayName.equals(adminObject.toString())) {
-                        mItems.add(snapshot.getKey());
-                    }
+            public void onClick(View v) {
+                if (mLastPage != null && mLastPage.hasMore()) {
+                    mMoreButton.setEnabled(false);
+                    showPage(mLastPage.next(GameIndex.DEFAULT_PAGE_SIZE));
                 }
+            }
+        });
+        mMoreButton.setVisibility(View.GONE);
+        mListView.addFooterView(mMoreButton);
+        mAdapter = new ArrayAdapter<String>(MyGamesActivity.this,
+                android.R.layout.simple_list_item_1, mItems);
+        mListView.setAdapter(mAdapter);
 
-                ListView mListView = (ListView) findViewById(R.id.public_games_list_view);
-                ArrayAdapter<String> mAdapter = new ArrayAdapter<String>(MyGamesActivity.this,
-                        android.R.layout.simple_list_item_1, mItems);
-                mListView.setAdapter(mAdapter);
-
-                mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-                    @Override
-                    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                        final String gameName = mItems.get(position);
-                        FirebaseDatabase database = FirebaseDatabase.getInstance();
-                        final String gameTypeRef = "games/" + gameName + "/type";
-                        DatabaseReference ref = database.getReference(gameTypeRef);
-
-                        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                if (position >= mItems.size())
+                    return; // the footer
+                final String gameName = mItems.get(position);
+                FirebaseHelper.isGamePublic(gameName)
+                        .addOnSuccessListener(MyGamesActivity.this, new OnSuccessListener<Boolean>() {
                             @Override
-                            public void onDataChange(DataSnapshot dataSnapshot) {
-                                Object gameTypeObj = dataSnapshot.getValue();
-                                if (gameTypeObj == null) {
-                                    Log.w(MyGamesActivity.class.getSimpleName(), gameName + "'s status is null.");
-                                    return;
-                                }
-                                String gameType = gameTypeObj.toString();
-                                proceed(gameName, gameType);
-
+                            public void onSuccess(Boolean isPublic) {
+                                proceed(gameName, isPublic);
                             }
-
+                        })
+                        .addOnFailureListener(MyGamesActivity.this, new OnFailureListener() {
                             @Override
-                            public void onCancelled(DatabaseError databaseError) {
-                                Log.w(MyGamesActivity.class.getSimpleName(), gameName + "'s status is null.");
+                            public void onFailure(Exception e) {
+                                Log.w(MyGamesActivity.class.getSimpleName(), "Couldn't read " + gameName + "'s type.", e);
                             }
                         });
 
-                    }
-                });
-                mProgressDialog.dismiss();
-
             }
+        });
 
+        showPage(GameIndex.getGamesByAdmin(displayName, GameIndex.DEFAULT_PAGE_SIZE));
+    }
+
+    private void showPage(Task<GameIndex.Page> pageTask) {
+        pageTask.addOnCompleteListener(this, new OnCompleteListener<GameIndex.Page>() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w(MyGamesActivity.class.getSimpleName(), "getMyGames:onCancelled");
+            public void onComplete(Task<GameIndex.Page> task) {
+                if (mProgressDialog != null) {
+                    mProgressDialog.dismiss();
+                    mProgressDialog = null;
+                }
+                mMoreButton.setEnabled(true);
+                if (!task.isSuccessful()) {
+                    Log.w(MyGamesActivity.class.getSimpleName(), "getMyGames failed", task.getException());
+                    Toast.makeText(MyGamesActivity.this, "Couldn't load your games. Please try again.",
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+
+                mLastPage = task.getResult();
+                mItems.addAll(mLastPage.getGameNames());
+                mAdapter.notifyDataSetChanged();
+                mMoreButton.setVisibility(mLastPage.hasMore() ? View.VISIBLE : View.GONE);
             }
         });
-
     }
 
-    private void proceed(String gameName, String gameType) {
-        Game gameInstance = Game.getInstance();
-        gameInstance.setGameName(gameName);
-        gameInstance.setPublic("public".equals(gameType));
-        gameInstance.setGameAdmin(FirebaseAuth.getInstance().getCurrentUser().getDisplayName());
-        DatabaseHandler handler = new DatabaseHandler(this, gameName);
-        gameInstance.setName2PlayerMap(handler.getAllName2PlayerMap());
-        startActivity(new Intent(MyGamesActivity.this, InvitePlayersActivity.class));
+    private void proceed(final String gameName, final boolean isPublic) {
+        DatabaseHandler.getInstance(this).loadName2PlayerMap(gameName)
+                .addOnSuccessListener(this, new OnSuccessListener<Map<String, Player>>() {
+                    @Override
+                    public void onSuccess(Map<String, Player> players) {
+                        Game gameInstance = Game.getInstance();
+                        gameInstance.setGameName(gameName);
+                        gameInstance.setPublic(isPublic);
+                        gameInstance.setGameAdmin(FirebaseAuth.getInstance().getCurrentUser().getDisplayName());
+                        gameInstance.setName2PlayerMap(players);
+                        startActivity(new Intent(MyGamesActivity.this, InvitePlayersActivity.class));
+                    }
+                })
+                .addOnFailureListener(this, new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.w(MyGamesActivity.class.getSimpleName(), "Couldn't load " + gameName + "'s players.", e);
+                    }
+                });
     }
 
 }
@@ -18,17 +18,13 @@ import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.Toast;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.Query;
-import com.google.firebase.database.ValueEventListener;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author: Ajit Ku. Sahoo
@@ -64,9 +60,12 @@ public class NewGameActivity extends AppCompatActivity {
         mProceedButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                String gameName = mGameTitleET.getText().toString().trim();
+                if (!isValidGameName(gameName))
+                    return;
                 mProgressDialog = new Spinner(_this);
                 mProgressDialog.show("Validation", "Validating game name. Please wait...", false);
-                fetchAllGameNames();
+                claimGameName(gameName);
             }
         });
 
@@ -86,56 +85,57 @@ public class NewGameActivity extends AppCompatActivity {
         return (RadioButton) findViewById(selectedId);
     }
 
-    public void fetchAllGameNames() {
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference();
-        Query gameQuery = ref.child("games");
-
-        gameQuery.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                List<String> gameNames = new ArrayList<>();
-                for (DataSnapshot gameSnapshot: dataSnapshot.getChildren()) {
-                    gameNames.add(gameSnapshot.getKey()); // Because game names are used as keys
-                }
-                mProgressDialog.dismiss();
-                validateAndSetData(gameNames);
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w(NewGameActivity.class.getSimpleName(), "loadGames:onCancelled", databaseError.toException());
-            }
-        });
-
-    }
-
-
-    private void validateAndSetData(List<String> allGameNames) {
-        String gameName = mGameTitleET.getText().toString().trim();
-
+    private boolean isValidGameName(String gameName) {
         if (gameName.contains(".")) {
             Toast.makeText(this, "Game name can't have a dot(.) in it.", Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
-
-        if (allGameNames.contains(gameName)) {
-            Toast.makeText(this, "Game already exists. Please choose a different name.", Toast.LENGTH_SHORT).show();
-            return;
+        if (gameName.matches(".*[#$\\[\\]/].*")) {
+            Toast.makeText(this, "Game name can't have #, $, [, ] or / in it.", Toast.LENGTH_SHORT).show();
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * Reserves the name in one round trip instead of downloading every game to look for it.
+     */
+    private void claimGameName(final String gameName) {
+        FirebaseHelper.claimGameName(gameName, getMyUserName())
+                .addOnCompleteListener(this, new OnCompleteListener<Boolean>() {
+                    @Override
+                    public void onComplete(Task<Boolean> task) {
+                        mProgressDialog.dismiss();
+                        if (!task.isSuccessful()) {
+                            Log.w(NewGameActivity.class.getSimpleName(), "claimGameName failed", task.getException());
+                            Toast.makeText(NewGameActivity.this, "Couldn't validate game name. Please try again.",
+                                    Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        if (!task.getResult()) {
+                            Toast.makeText(NewGameActivity.this, "Game already exists. Please choose a different name.",
+                                    Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        setData(gameName);
+                    }
+                });
+    }
+
 
+    private void setData(String gameName) {
         Game gameInstance = Game.getInstance();
         gameInstance.setGameName(gameName);
         gameInstance.setPublic(getSelectedRadioButton().getText().toString().contains("Public"));
         gameInstance.setGameAdmin(getMyUserName());
 
         // Adding myself as a player to this game!
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        String gameReference = "games/" + gameName;
-        DatabaseReference gameAdminRef = database.getReference(gameReference + "/players/" + getMyUserName());
-        gameAdminRef.child("role").setValue(GameCharacter.UNDEFINED);
-        gameAdminRef.child("status").setValue(PlayerStatus.ALIVE);
-        gameAdminRef.child("invite").setValue(InvitationStatus.UNDEFINED);
+        String gameAdminUrl = "games/" + gameName + "/players/" + getMyUserName();
+        Map<String, Object> update = new HashMap<>();
+        FirebaseHelper.putPlayerRole(update, gameName, getMyUserName(), GameCharacter.UNDEFINED);
+        FirebaseHelper.putPlayerStatus(update, gameName, getMyUserName(), PlayerStatus.ALIVE);
+        update.put(gameAdminUrl + "/invite", InvitationStatus.UNDEFINED.getCode());
+        FirebaseHelper.update(update);
 
 
         startActivity(new Intent(NewGameActivity.this, InvitePlayersActivity.class));
@@ -15,6 +15,7 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -37,26 +38,19 @@ import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptor;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.MapStyleOptions;
 import com.google.android.gms.maps.model.Marker;
-import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-
-import java.util.ArrayList;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author: Ajit Ku. Sahoo
@@ -64,7 +58,8 @@ import java.util.Set;
  */
 
 public class PlayBoardActivity extends AppCompatActivity implements LocationListener,
-        GoogleMap.OnMarkerClickListener, ActivityCompat.OnRequestPermissionsResultCallback {
+        GoogleMap.OnMarkerClickListener, ActivityCompat.OnRequestPermissionsResultCallback,
+        GamePositionStream.Listener, GoogleMap.OnCameraIdleListener {
 
     private static final int LOCATION_PERMISSION_REQUEST_ID = 123;
     private static final String TAG = "PBActivity";
@@ -73,7 +68,6 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     private GoogleMap mGoogleMap;
     private String mMyself = "ajitPBA";
     private String mGameName;
-    private String mTarget;
     private boolean mGameStarted = false;
     private boolean mGameFinished = false;
     private boolean mGameClosedByUser = false;
@@ -81,16 +75,26 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     private boolean mInitialized = false;
     private boolean amIAlive = true;
 
-    private static final long LOCATION_REFRESH_DISTANCE = 5; // in meters
-    private static final long LOCATION_REFRESH_TIME = 5000; // in msec
-    private static final double KILL_DISTANCE = 50; //in meters
+    private static final double KILL_DISTANCE = GameEngine.ACTION_DISTANCE; //in meters
+    private static final int NEARBY_PLAYERS_LIMIT = 10;
+    private static final float CLUSTER_CLICK_ZOOM_STEP = 2;
+    private static final int SAMPLING_CANDIDATES = 32; //nearest players looked at when picking a sampling rate
+    private static final long REMOTE_SAMPLING_UPDATE_INTERVAL = 2000; //in msec, the fastest sampling interval
 
     private Spinner mSpinner;
     private MyReceiver mMyReceiver;
     private Set<String> mPlayerNames;
-    private Map<String, Marker> mMarkerMap;
     private Map<String, Player> mPlayersMap;
-    private Map<String, MarkerOptions> mMarkerOptionsMap;
+    private PlayerMarkerRenderer mMarkerRenderer;
+    private PlayerSpatialIndex mSpatialIndex;
+    private LocationUplink mLocationUplink;
+    private GamePositionStream mPositionStream;
+    private ActionResolver mActionResolver;
+    private LocationSamplingScheduler mSamplingScheduler;
+    private long mLastSamplingUpdate = Long.MIN_VALUE / 2;
+    private GameEngine mEngine;
+    private RealtimeStore.ValueListener mGameStatusListener;
+    private RealtimeStore.ValueListener mAssassinWonListener;
 
     private boolean mGoogleCameraUpdateDone;
     private GoogleMap.OnMarkerClickListener _this;
@@ -103,25 +107,24 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
 
         Intent intent = getIntent();
         mIsAdminOfGame = intent.getBooleanExtra(BroadcastHelper.AM_I_ADMIN, false);
-        if(!mIsAdminOfGame) {
-            try {
-                Thread.sleep(500); //in order to give some time to admin to assign characters and info to be updated in firebase
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
 
         _this = this;
         mMyReceiver = new MyReceiver();
-        mMarkerMap = new HashMap<>();
         mPlayersMap = new HashMap<>();
         mPlayerNames = new HashSet<>();
-        mMarkerOptionsMap = new HashMap<>();
+        mMarkerRenderer = new PlayerMarkerRenderer(this);
+        mSpatialIndex = new PlayerSpatialIndex(KILL_DISTANCE);
         mGameName = intent.getStringExtra(BroadcastHelper.GAME_NAME);
 
         mSpinner = new Spinner(this);
         mSpinner.show("Hang On!", "Doing initial game set up for you...", false);
         updateUserName(this);
+        mMarkerRenderer.setPinned(mMyself, true);
+        mLocationUplink = new LocationUplink(mMyself, mGameName);
+        mPositionStream = new GamePositionStream(mGameName, this);
+        mActionResolver = new ActionResolver(mGameName);
+        mSamplingScheduler = new LocationSamplingScheduler(new ProximitySamplingPolicy(KILL_DISTANCE),
+                ProximitySamplingPolicy.NORMAL);
 
         mGameStarted = intent.getBooleanExtra(BroadcastHelper.GAME_STARTED, false);
         if (mGameStarted) {
@@ -134,47 +137,42 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     }
 
     private void fetchAllPlayer(String gameName) {
-
-        final Map<String, Player> playerMap = new HashMap<>();
-
-        String gamePlayerReference = "games/" + gameName + "/players";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gamePlayerReference);
-
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-                    playerMap.put(snapshot.getKey(),
-                            new Player(snapshot.getKey(), "test@doWeNeedThisInfo.com", //no, we don't need it
-                            GameCharacter.getCharacterFrom(snapshot.child("role").getValue().toString()),
-                            PlayerStatus.ALIVE.equals(PlayerStatus.getPlayerStatus(snapshot.child("status").getValue().toString()))));
-                }
-                updateData(playerMap);
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "getAllPlayers:onCancelled");
-            }
-        });
-
+        FirebaseHelper.getAllPlayers(gameName)
+                .addOnSuccessListener(this, new OnSuccessListener<Map<String, Player>>() {
+                    @Override
+                    public void onSuccess(Map<String, Player> playerMap) {
+                        updateData(playerMap);
+                    }
+                })
+                .addOnFailureListener(this, new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.w(TAG, "getAllPlayers failed", e);
+                    }
+                });
     }
 
     private void updateData(Map<String, Player> playersMap) {
         mPlayersMap = playersMap;
         mPlayerNames = playersMap.keySet();
-
-        if (mIsAdminOfGame) {
-            assignCharacters(mGameName, new ArrayList<>(mPlayerNames));
+        Map<String, GameCharacter> roles = new HashMap<>();
+        Map<String, PlayerStatus> statuses = new HashMap<>();
+        for (Map.Entry<String, Player> entry : playersMap.entrySet()) {
+            if (mMarkerRenderer.hasMarker(entry.getKey())) {
+                mMarkerRenderer.setPlayer(entry.getKey(), entry.getValue());
+            }
+            roles.put(entry.getKey(), entry.getValue().getGameCharacterType());
+            statuses.put(entry.getKey(), entry.getValue().isAlive() ? PlayerStatus.ALIVE : PlayerStatus.DEAD);
         }
+        mEngine = new GameEngine(roles, statuses);
+        mEngine.setListener(mEngineListener);
         initializeMap();
-        addLocationListener(mPlayerNames);
+        mPositionStream.start();
         addListenerForGameStatus(mGameName);
 
 
         if (GameCharacter.ASSASSIN.equals(mPlayersMap.get(mMyself).getGameCharacterType())){
-            getTarget();
+            announceTarget(mEngine.getTarget());
         } else {
             Toast.makeText(getBaseContext(), "Your character role is " + mPlayersMap.get(mMyself).getGameCharacterType() + ".", Toast.LENGTH_SHORT).show();
         }
@@ -182,32 +180,21 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
         mSpinner.dismiss();
     }
 
-    private void addLocationListener(Set<String> playerNames) {
-        for (final String playerName : playerNames) {
-            addListenerForLocation(playerName);
-            addListenerForPlayerStatusChange(playerName);
-        }
-    }
-
     private void addListenerForGameStatus(final String gameName) {
         String gameStatusUrl = "games/" + mGameName + "/status";
-        final FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference gameStatusRef = database.getReference(gameStatusUrl).getRef();
-        gameStatusRef.addValueEventListener(new ValueEventListener() {
+        mGameStatusListener = FirebaseHelper.getStore().addValueListener(new RealtimeStore.Query(gameStatusUrl),
+                new RealtimeStore.ValueListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
+            public void onValueChanged(String path, Object value) {
                 Log.w("God", "Game finished notification.");
-                if (dataSnapshot.getValue() != null) {
-                    String status = dataSnapshot.getValue().toString();
-                    if (GameStatus.FINISHED.equals(GameStatus.getGameStatusFrom(status))) {
-                        Log.w("God", "Game finished!");
-                        handleFinishGameStatus(gameName);
-                    }
+                if (GameStatus.decode(value, null) == GameStatus.FINISHED) {
+                    Log.w("God", "Game finished!");
+                    handleFinishGameStatus(gameName);
                 }
             }
 
             @Override
-            public void onCancelled(DatabaseError databaseError) {
+            public void onCancelled(Exception error) {
                 Log.w("PlayBoardActivity", "playerLocationRef:onCancelled");
             }
         });
@@ -215,200 +202,123 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     }
 
     private void handleFinishGameStatus(String gameName) {
-        final FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference gameStatusRef = database.getReference("games/" + gameName + "/assassinWon").getRef();
-        gameStatusRef.addValueEventListener(new ValueEventListener() {
+        if (mAssassinWonListener != null)
+            return;
+        mAssassinWonListener = FirebaseHelper.getStore().addValueListener(
+                new RealtimeStore.Query("games/" + gameName + "/assassinWon"), new RealtimeStore.ValueListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (dataSnapshot.getValue() != null) {
-                    boolean assassinWon = Boolean.parseBoolean(dataSnapshot.getValue().toString());
+            public void onValueChanged(String path, Object value) {
+                if (value != null) {
+                    boolean assassinWon = Boolean.parseBoolean(value.toString());
                     handlePostGameFinishTasks(assassinWon);
                 }
             }
 
             @Override
-            public void onCancelled(DatabaseError databaseError) {
+            public void onCancelled(Exception error) {
                 Log.w("PlayBoardActivity", "game_assassinWonStatus:onCancelled");
             }
         });
 
     }
 
-    private void addListenerForPlayerStatusChange(final String playerName) {
-        String playerStatusRef = "games/" + mGameName + "/players/" + playerName + "/status";
-        final FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference playerLocationRef = database.getReference(playerStatusRef).getRef();
-        playerLocationRef.addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (dataSnapshot.getValue() != null) {
-                    String status = dataSnapshot.getValue().toString();
-                    Log.w("God", "Got a player change status for " + playerName + ". Status=" + status);
-                    Marker marker1 = mMarkerMap.get(playerName);
-                    if (marker1 == null)
-                        return;
-                    if (PlayerStatus.LEFT.equals(PlayerStatus.getPlayerStatus(status))) {
-
-                        marker1.setVisible(false);
-//                        mMarkerMap.remove(playerName);
-//                        mMarkerOptionsMap.remove(playerName);
-                        mPlayersMap.get(playerName).setAlive(false);
-//                        Toast.makeText(PlayBoardActivity.this, "The assassin left the game.", Toast.LENGTH_LONG).show();
-
-                    } else if (PlayerStatus.DEAD.equals(PlayerStatus.getPlayerStatus(status))) {
-                        Toast.makeText(PlayBoardActivity.this, playerName + " is dead. ", Toast.LENGTH_SHORT).show();
-                        mPlayersMap.get(playerName).setAlive(false);
-                        Marker marker = marker1;
-                        marker.setVisible(false);
-                        marker.remove();
-                        mMarkerMap.put(playerName, null);
-                        mMarkerOptionsMap.put(playerName, null);
-                        updateMarker(playerName, marker.getPosition());
-
-                    } else if (PlayerStatus.ALIVE.equals(PlayerStatus.getPlayerStatus(status))) {
-//                        Toast.makeText(PlayBoardActivity.this, playerName + " has been revived. ", Toast.LENGTH_SHORT).show();
-                        Marker marker = marker1;
-                        if (marker ==  null) {
-                            return;
-                        }
-                        mPlayersMap.get(playerName).setAlive(true);
-                        marker.setVisible(false);
-                        marker.remove();
-                        mMarkerMap.put(playerName, null);
-                        mMarkerOptionsMap.put(playerName, null);
-                        updateMarker(playerName, marker.getPosition());
-                    }
-                }
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("PlayBoardActivity", "playerStatusRef:onCancelled");
-            }
-        });
-
-    }
-
-    private void addListenerForLocation(final String mPlayerName) {
-        String playerRef = "users/" + mPlayerName;
-        final FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference playerLocationRef = database.getReference(playerRef).getRef();
-        playerLocationRef.child("location").addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (dataSnapshot.child("lat").getValue() != null) {
-                    Double userLat = Double.parseDouble(dataSnapshot.child("lat").getValue().toString());
-                    Double userLng = Double.parseDouble(dataSnapshot.child("lng").getValue().toString());
-                    if (userLat.equals(0.0) && userLng.equals(0.0)) {
-                        Log.w(PlayBoardActivity.class.getSimpleName(), "Lat Lng is 0/0 for " + mPlayerName);
-                        return;
-                    }
-                    LatLng userLocation = new LatLng(userLat, userLng);
-                    updateMarker(mPlayerName, userLocation);
-                }
-            }
+    /**
+     * The engine mirrors the server's rules; statuses reach it from mPositionStream.
+     */
+    private final GameEngine.Listener mEngineListener = new GameEngine.Listener() {
+        @Override
+        public void onStatusChanged(int player, PlayerStatus status) {
+        }
 
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("PlayBoardActivity", "playerLocationRef:onCancelled");
+        @Override
+        public void onTargetChanged(int target) {
+            if (GameCharacter.ASSASSIN.equals(mPlayersMap.get(mMyself).getGameCharacterType())) {
+                announceTarget(target);
             }
-        });
-    }
+        }
 
+        @Override
+        public void onGameFinished(boolean assassinWon, String description) {
+        }
+    };
 
-    private void updateUserName(PlayBoardActivity playBoardActivity) {
-        SharedPreferences sharedPreferences = playBoardActivity.getSharedPreferences(LogInActivity.MY_PREFERENCES, Context.MODE_PRIVATE);
-        String userName = sharedPreferences.getString(LogInActivity.USER_NAME, null);
-        if (userName != null) {
-            mMyself = userName;
-            Log.d(PlayBoardActivity.class.getSimpleName(), "PBA#UpdateUserName()= I got a name. I am " + userName);
+    private void announceTarget(int target) {
+        if (target != GameEngine.NONE) {
+            Toast.makeText(getBaseContext(), "Your new target is " + mEngine.getName(target) + ".", Toast.LENGTH_SHORT).show();
         }
     }
 
-    private void assignCharacters(String gameName, List<String> playerNames) {
-        Random random = new Random();
-        int size = playerNames.size();
-
-        int assassinIndex = random.nextInt(playerNames.size());
-        String assassin = playerNames.get(assassinIndex);
-        playerNames.remove(assassinIndex);
-        mPlayersMap.get(assassin).setGameCharacterType(GameCharacter.ASSASSIN);
-
-        String detective = "";
-        String doctor = "";
-
-        // Doing some magic to handle < 4 player games
-
-        if (playerNames.size() > 1) {
-            int detectiveIndex = random.nextInt(playerNames.size());
-            detective = playerNames.get(detectiveIndex);
-            playerNames.remove(detectiveIndex);
-            mPlayersMap.get(detective).setGameCharacterType(GameCharacter.DETECTIVE);
+    @Override
+    public void onPlayerStatusChanged(String playerName, PlayerStatus status) {
+        Log.w("God", "Got a player change status for " + playerName + ". Status=" + status);
+        if (mEngine != null) {
+            mEngine.setStatus(playerName, status);
         }
-
-        if (playerNames.size() > 1) {
-            int doctorIndex = random.nextInt(playerNames.size());
-            doctor = playerNames.get(doctorIndex);
-            playerNames.remove(doctorIndex);
-            mPlayersMap.get(doctor).setGameCharacterType(GameCharacter.DOCTOR);
+        Player player = mPlayersMap.get(playerName);
+        if (!mMarkerRenderer.hasMarker(playerName) || player == null)
+            return;
+        if (PlayerStatus.LEFT.equals(status)) {
+
+            mMarkerRenderer.setVisible(playerName, false);
+            mSpatialIndex.remove(playerName);
+            player.setAlive(false);
+//            Toast.makeText(PlayBoardActivity.this, "The assassin left the game.", Toast.LENGTH_LONG).show();
+
+        } else if (PlayerStatus.DEAD.equals(status)) {
+            Toast.makeText(PlayBoardActivity.this, playerName + " is dead. ", Toast.LENGTH_SHORT).show();
+            player.setAlive(false);
+            mMarkerRenderer.setPlayer(playerName, player);
+
+        } else if (PlayerStatus.ALIVE.equals(status)) {
+//            Toast.makeText(PlayBoardActivity.this, playerName + " has been revived. ", Toast.LENGTH_SHORT).show();
+            player.setAlive(true);
+            mMarkerRenderer.setPlayer(playerName, player);
         }
-
-        for (String player : playerNames) {
-            mPlayersMap.get(player).setGameCharacterType(GameCharacter.CITIZEN);
+        if (mMyself.equals(playerName)) {
+            updateSamplingRate();
+        } else {
+            updateSamplingRateForRemoteChange();
         }
-
-        //could be done in an AsyncTask
-        FirebaseHelper.updateCharactersOfPlayers(gameName, assassin, detective, doctor, playerNames);
-        FirebaseHelper.initializeNoOfAliveCivilians(mGameName, size-1);
-
     }
 
-    private void addMarker(String userName, LatLng itemPoint, Player player) {
-        if (player == null) {
-            Log.e("PlayBoardActivity: ", "player is null in addMarker() for userName:" + userName);
+    @Override
+    public void onPlayerMoved(String playerName, double lat, double lng) {
+        if (lat == 0.0 && lng == 0.0) {
+            Log.w(PlayBoardActivity.class.getSimpleName(), "Lat Lng is 0/0 for " + playerName);
+            return;
         }
-        GameCharacter roleForColor;
-        String actualCharacter = "";
-        if (player == null) {
-            roleForColor = GameCharacter.UNDEFINED;
-        } else if (!player.isAlive()) {
-            roleForColor = GameCharacter.UNDEFINED;
-            actualCharacter = player.getGameCharacterType().toString();
-        } else {
-            roleForColor = player.getGameCharacterType();
-            actualCharacter = roleForColor.toString();
+        if (mEngine != null) {
+            mEngine.move(playerName, lat, lng);
         }
-        MarkerOptions markerOption = new MarkerOptions().position(itemPoint)
-                                                  .title(userName)
-                                                  .snippet(actualCharacter)
-                                                  .icon(getBitmapDescriptor(roleForColor));
-        mMarkerOptionsMap.put(userName, markerOption);
-        if (mGoogleMap == null) {
-            Log.w("Ajit", "mGoogleMap is null");
-            return;
+        if (mMyself.equals(playerName)) {
+            return; // my own marker follows onLocationChanged() directly
         }
-        Marker marker1 = mGoogleMap.addMarker(markerOption);
-        mMarkerMap.put(userName, marker1);
+        updateMarker(playerName, new LatLng(lat, lng));
+        updateSamplingRateForRemoteChange();
     }
 
-    @NonNull //TODO:Ajit: need a legend info panel as a menu item to describe the colors
-    private BitmapDescriptor getBitmapDescriptor(GameCharacter character) {
-        switch (character) {
-            case ASSASSIN:
-                return BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED);
-            case DETECTIVE:
-                return BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_CYAN);
-            case DOCTOR:
-                return BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE);
-            case CITIZEN:
-                return BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN);
-            default:
-                return BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_YELLOW);
+    @Override
+    public void onCameraIdle() {
+        LatLngBounds bounds = mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+        mMarkerRenderer.setCamera(new MarkerClusterer.Viewport(bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude), mGoogleMap.getCameraPosition().zoom);
+    }
 
-        }
+    @Override
+    public void onPlayerRemoved(String playerName) {
+        mSpatialIndex.remove(playerName);
     }
 
 
+    private void updateUserName(PlayBoardActivity playBoardActivity) {
+        SharedPreferences sharedPreferences = playBoardActivity.getSharedPreferences(LogInActivity.MY_PREFERENCES, Context.MODE_PRIVATE);
+        String userName = sharedPreferences.getString(LogInActivity.USER_NAME, null);
+        if (userName != null) {
+            mMyself = userName;
+            Log.d(PlayBoardActivity.class.getSimpleName(), "PBA#UpdateUserName()= I got a name. I am " + userName);
+        }
+    }
+
     private Location getLocation() {
 
         Location loc = null;
@@ -433,8 +343,8 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
                     try {
                         mLocationManager.requestLocationUpdates(
                                 LocationManager.NETWORK_PROVIDER,
-                                LOCATION_REFRESH_TIME,
-                                LOCATION_REFRESH_DISTANCE, this);
+                                mSamplingScheduler.getCurrentRate().getInterval(),
+                                mSamplingScheduler.getCurrentRate().getMinDistance(), this);
                         Log.d("Network", "Network");
                         if (mLocationManager != null) {
                             loc = mLocationManager
@@ -454,8 +364,8 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
                     try {
                         mLocationManager.requestLocationUpdates(
                                 LocationManager.GPS_PROVIDER,
-                                LOCATION_REFRESH_TIME,
-                                LOCATION_REFRESH_DISTANCE, this);
+                                mSamplingScheduler.getCurrentRate().getInterval(),
+                                mSamplingScheduler.getCurrentRate().getMinDistance(), this);
                         Log.d("GPS Enabled", "GPS Enabled");
                         if (mLocationManager != null) {
                             loc = mLocationManager
@@ -490,7 +400,7 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
                 && ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             return;
         }
-        mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, LOCATION_REFRESH_TIME, LOCATION_REFRESH_DISTANCE, this);
+        requestLocationUpdates();
 
 
         Log.d("Ajit", "Inside initializeMap(). Calling Map fragment.");
@@ -500,6 +410,8 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
             @Override
             public void onMapReady(GoogleMap googleMap) {
                 mGoogleMap = googleMap;
+                mMarkerRenderer.setMap(googleMap);
+                googleMap.setOnCameraIdleListener(PlayBoardActivity.this);
                 try {
                     // Customise the styling of the base map using a JSON object defined
                     // in a raw resource file.
@@ -526,6 +438,60 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
         mInitialized = true;
     }
 
+    /**
+     * (Re-)registers for location updates at the scheduler's current rate. High accuracy rates
+     * use GPS when it is on; everything else is served by the cheaper network provider.
+     */
+    private void requestLocationUpdates() {
+        if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED
+                && ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        LocationSamplingPolicy.SamplingRate rate = mSamplingScheduler.getCurrentRate();
+        String provider = LocationManager.NETWORK_PROVIDER;
+        if (rate.isHighAccuracy() && mLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
+            provider = LocationManager.GPS_PROVIDER;
+        }
+        mLocationManager.removeUpdates(this);
+        mLocationManager.requestLocationUpdates(provider, rate.getInterval(), rate.getMinDistance(), this);
+        mLocationUplink.setFlushInterval(rate.getInterval());
+        mLocationUplink.setMinMovement(rate.getMinDistance());
+    }
+
+    /**
+     * Other players' deltas can arrive many times a second in a big game; own fixes and status
+     * changes always re-evaluate the rate, theirs at most once per fastest sampling interval.
+     */
+    private void updateSamplingRateForRemoteChange() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastSamplingUpdate < REMOTE_SAMPLING_UPDATE_INTERVAL)
+            return;
+        updateSamplingRate();
+    }
+
+    private void updateSamplingRate() {
+        mLastSamplingUpdate = SystemClock.elapsedRealtime();
+        Player myself = mPlayersMap.get(mMyself);
+        if (myself == null || mLocationManager == null)
+            return;
+
+        double nearestRelevantDistance = Double.POSITIVE_INFINITY;
+        LocationSamplingPolicy policy = mSamplingScheduler.getPolicy();
+        for (PlayerSpatialIndex.Neighbor neighbor : mSpatialIndex.nearest(mMyself, SAMPLING_CANDIDATES)) {
+            Player other = mPlayersMap.get(neighbor.getName());
+            if (other != null && policy.isRelevant(myself.getGameCharacterType(), myself.isAlive(),
+                    other.getGameCharacterType(), other.isAlive())) {
+                nearestRelevantDistance = neighbor.getDistance();
+                break;
+            }
+        }
+
+        if (mSamplingScheduler.update(nearestRelevantDistance, myself.getGameCharacterType(), myself.isAlive())) {
+            Log.d(TAG, "Location sampling rate is now " + mSamplingScheduler.getCurrentRate());
+            requestLocationUpdates();
+        }
+    }
+
     private void initialGoogleMapCameraUpdate() {
         if (mGoogleCameraUpdateDone) return;
 
@@ -549,21 +515,21 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     protected void onDestroy() {
         super.onDestroy();
         mGoogleMap = null;
+        mMarkerRenderer.release();
 
         if (mLocationManager != null) {
             mLocationManager.removeUpdates(PlayBoardActivity.this);
         }
+        mLocationUplink.stop();
+        mPositionStream.stop();
+        mActionResolver.cancel();
+        FirebaseHelper.getStore().removeListener(mGameStatusListener);
+        FirebaseHelper.getStore().removeListener(mAssassinWonListener);
 
         if (mGameFinished)
             return;
 
-        if (mPlayersMap.get(mMyself).getGameCharacterType().equals(GameCharacter.ASSASSIN)) {
-            gameFinished(false, "Assassin left the game");
-            return;
-        }
-
-        boolean amIDetective = mPlayersMap.get(mMyself).getGameCharacterType().equals(GameCharacter.DETECTIVE);
-        FirebaseHelper.updatePlayerStatus(mGameName, mMyself, PlayerStatus.LEFT, !amIDetective, !amIDetective);
+        leaveGame();
 
 //        Player player = mPlayersMap.get(FirebaseAuth.getInstance().getCurrentUser().getDisplayName());
 //        String gamePlayerReference = "games/" + mGameName + "/players/" + player.getName() + "/status";
@@ -590,26 +556,31 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
 
             case R.id.chat:
 
-                String statusReference = "games/" + mGameName + "/players/" + mMyself + "/status";
-                final FirebaseDatabase database = FirebaseDatabase.getInstance();
-                DatabaseReference statusRef = database.getReference(statusReference);
-
-                statusRef.addListenerForSingleValueEvent(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(DataSnapshot dataSnapshot) {
-                        String status = dataSnapshot.getValue().toString();
-                        amIAlive = PlayerStatus.ALIVE.equals(PlayerStatus.getPlayerStatus(status));
-                        Intent intent = new Intent(PlayBoardActivity.this, ChatActivity.class);
-                        intent.putExtra("AM_I_ALIVE", amIAlive);
-                        intent.putExtra("GAME", mGameName);
-                        startActivity(intent);
-                    }
+                FirebaseHelper.getPlayerStatus(mGameName, mMyself)
+                        .addOnSuccessListener(this, new OnSuccessListener<PlayerStatus>() {
+                            @Override
+                            public void onSuccess(PlayerStatus status) {
+                                amIAlive = PlayerStatus.ALIVE.equals(status);
+                                Intent intent = new Intent(PlayBoardActivity.this, ChatActivity.class);
+                                intent.putExtra("AM_I_ALIVE", amIAlive);
+                                intent.putExtra("GAME", mGameName);
+                                Player me = mPlayersMap.get(mMyself);
+                                if (me != null) {
+                                    intent.putExtra("ROLE", me.getGameCharacterType().toString());
+                                }
+                                startActivity(intent);
+                            }
+                        })
+                        .addOnFailureListener(this, new OnFailureListener() {
+                            @Override
+                            public void onFailure(Exception e) {
+                                Log.w(TAG, "getPlayerStatus failed", e);
+                            }
+                        });
+                return true;
 
-                    @Override
-                    public void onCancelled(DatabaseError databaseError) {
-                        Log.w("FirebaseHelper", "getPlayerStatus:onCancelled");
-                    }
-                });
+            case R.id.nearby:
+                getNearbyPlayersDialog().show();
                 return true;
 
             case R.id.exit_game:
@@ -651,6 +622,40 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
         return alertDialog;
     }
 
+    @NonNull
+    private AlertDialog.Builder getNearbyPlayersDialog() {
+        List<PlayerSpatialIndex.Neighbor> neighbors = mSpatialIndex.nearest(mMyself, NEARBY_PLAYERS_LIMIT);
+        String[] items = new String[neighbors.size()];
+        for (int i = 0; i < items.length; i++) {
+            PlayerSpatialIndex.Neighbor neighbor = neighbors.get(i);
+            Player player = mPlayersMap.get(neighbor.getName());
+            StringBuilder item = new StringBuilder(neighbor.getName())
+                    .append(" - ").append(Math.round(neighbor.getDistance())).append(" m");
+            if (player != null && !player.isAlive()) {
+                item.append(" (dead)");
+            }
+            if (neighbor.getDistance() <= KILL_DISTANCE) {
+                item.append(" *");
+            }
+            items[i] = item.toString();
+        }
+
+        AlertDialog.Builder alertDialog = new AlertDialog.Builder(
+                new ContextThemeWrapper(this, R.style.Theme_AppCompat_Light));
+        alertDialog.setTitle("Nearby Players (* within " + (int) KILL_DISTANCE + "m)");
+        if (items.length == 0) {
+            alertDialog.setMessage("No other player has shared a location yet.");
+        } else {
+            alertDialog.setItems(items, null);
+        }
+        alertDialog.setPositiveButton("Ok", new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.cancel();
+            }
+        });
+        return alertDialog;
+    }
+
     @Override
     public void onLocationChanged(Location location) {
         Log.d("Ajit", "I am moving....");
@@ -670,20 +675,22 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
             }
             mGoogleMap.setMyLocationEnabled(false);*/
             updateMarker(mMyself, new LatLng(location.getLatitude(), location.getLongitude()));
-            FirebaseHelper.sendLocation(mLocation, mGameName, mMyself);
+            if (mEngine != null) {
+                mEngine.move(mMyself, location.getLatitude(), location.getLongitude());
+            }
+            mLocationUplink.offer(mLocation);
+            updateSamplingRate();
         //}
     }
 
     private void updateMarker(String userName, LatLng latLng) {
+        mSpatialIndex.update(userName, latLng.latitude, latLng.longitude);
 
-        MarkerOptions markerOptions = mMarkerOptionsMap.get(userName);
-
-        if (markerOptions == null) {
+        if (!mMarkerRenderer.hasMarker(userName)) {
             initialGoogleMapCameraUpdate();
-            addMarker(userName, latLng, mPlayersMap.get(userName));
-            markerOptions = mMarkerOptionsMap.get(userName);
+            mMarkerRenderer.setPlayer(userName, mPlayersMap.get(userName));
         }
-        markerOptions.position(latLng);
+        mMarkerRenderer.setPosition(userName, latLng);
     }
 
     @Override
@@ -700,15 +707,7 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     public void onProviderDisabled(String provider) {
 
         Toast.makeText(this, "Location Service is disabled. You are no longer part of the game.", Toast.LENGTH_LONG).show();
-
-        if (mPlayersMap.get(mMyself).getGameCharacterType().equals(GameCharacter.ASSASSIN)) {
-            gameFinished(false, "Assassin left the game");
-            return;
-        }
-
-        boolean amIDetective = mPlayersMap.get(mMyself).getGameCharacterType().equals(GameCharacter.DETECTIVE);
-        FirebaseHelper.updatePlayerStatus(mGameName, mMyself, PlayerStatus.LEFT, !amIDetective, !amIDetective);
-        checkIfGameIsOver(mGameName, mMyself);
+        leaveGame();
 
     }
 
@@ -845,166 +844,122 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
             return false;
         }*/
 
-        Player myself = mPlayersMap.get(mMyself);
+        MarkerClusterer.Cluster cluster = mMarkerRenderer.getCluster(marker);
+        if (cluster != null) {
+            mGoogleMap.animateCamera(CameraUpdateFactory.newLatLngZoom(
+                    new LatLng(cluster.getLatitude(), cluster.getLongitude()),
+                    mGoogleMap.getCameraPosition().zoom + CLUSTER_CLICK_ZOOM_STEP));
+            return true;
+        }
 
+        if (mEngine == null)
+            return false;
+        Player myself = mPlayersMap.get(mMyself);
         String targetPlayerName = marker.getTitle();
-        String targetPlayerCharType = marker.getSnippet();
-
-        MarkerOptions targetMarkerOption = mMarkerOptionsMap.get(targetPlayerName);
 
+        GameEngine.Action action;
+        String successMessage;
         switch (myself.getGameCharacterType()) {
             case ASSASSIN:
-                double assassinDistance = getDistance(marker, myself);
-                if (!mPlayersMap.get(targetPlayerName).isAlive()) {
-                    Toast.makeText(getBaseContext(), "This player is already dead.", Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-                if (assassinDistance > KILL_DISTANCE) {
-                    Toast.makeText(getBaseContext(), "You can't kill a player " + "if you are not within " + KILL_DISTANCE + "m of his proximity. " +
-                                    "Current distance is "+ assassinDistance + " meters.",
-                            Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-
-                if (!mPlayersMap.get(targetPlayerName).getName().equals(mTarget)){
-                    Toast.makeText(getBaseContext(), "This player is not your target.  Keep searching.", Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-                Toast.makeText(this, "You have killed " + targetPlayerName, Toast.LENGTH_SHORT).show();
-                marker.setVisible(false);
-                mPlayersMap.get(targetPlayerName).setAlive(false);
-                mMarkerOptionsMap.put(targetPlayerName, null);
-                mMarkerMap.put(targetPlayerName, null);
-                updateMarker(targetPlayerName, targetMarkerOption.getPosition());
-                //update player status is being done inside the checkIfGameIsOver() after updating the alive citizens count
-                checkIfGameIsOver(mGameName, marker.getTitle());
-                getTarget();
-
+                action = GameEngine.Action.KILL;
+                successMessage = "You have killed " + targetPlayerName;
                 break;
-
             case DOCTOR:
-                if (!myself.isAlive()) {
-                    Toast.makeText(getBaseContext(), "Doctor, you are dead. So you cannot revive another dead player.",
-                            Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-
-                if (mPlayersMap.get(targetPlayerName).isAlive()) {
-                    Toast.makeText(getBaseContext(), "This player is already alive. Try your magic on a dead player.",
-                            Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-
-                double distance = getDistance(marker, myself);
-                if (distance > KILL_DISTANCE) {
-                    Toast.makeText(getBaseContext(), "You can't revive a player " +
-                                    "if you are not within " + KILL_DISTANCE + "m of his proximity. " +
-                                    "Current distance is " + distance + " meters.",
-                            Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-                Toast.makeText(this, "You have revived " + targetPlayerName, Toast.LENGTH_SHORT).show();
-                marker.setVisible(false);
-                mPlayersMap.get(targetPlayerName).setAlive(true);
-                mMarkerOptionsMap.put(targetPlayerName, null); //resetting so that a new marker can be added in updateMarker()
-                mMarkerMap.put(targetPlayerName, null); //resetting so that a new marker can be added in updateMarker()
-                updateMarker(targetPlayerName, targetMarkerOption.getPosition());
-                FirebaseHelper.updatePlayerStatus(mGameName, targetPlayerName, PlayerStatus.ALIVE, true, true);
-
+                action = GameEngine.Action.REVIVE;
+                successMessage = "You have revived " + targetPlayerName;
                 break;
-
             case DETECTIVE:
-
-                if (!myself.isAlive()) {
-                    Toast.makeText(getBaseContext(), "Detective, you are dead. So you cannot arrest another player.",
-                            Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-
-                double detectiveDistance = getDistance(marker, myself);
-                if (detectiveDistance > KILL_DISTANCE) {
-                    Toast.makeText(getBaseContext(), "You can't arrest the assassin " +
-                                    "if you are not within " + KILL_DISTANCE + "m of his proximity. " +
-                                    "Current distance from " + targetPlayerName + " is " + detectiveDistance + " meters.",
-                            Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-                if (!GameCharacter.ASSASSIN.equals(GameCharacter.getCharacterFrom(targetPlayerCharType))) {
-
-                    Toast.makeText(getBaseContext(), "This player is not the assassin.  Keep searching.", Toast.LENGTH_SHORT).show();
-                    return false;
-                }
-                if (GameCharacter.ASSASSIN.equals(GameCharacter.getCharacterFrom(targetPlayerCharType))) {
-                    FirebaseHelper.updatePlayerStatus(mGameName, targetPlayerName, PlayerStatus.DEAD, false, false);
-                    gameFinished(false, "Detective arrested the Assassin.");
-
-                }
+                action = GameEngine.Action.ARREST;
+                successMessage = "You have arrested " + targetPlayerName;
                 break;
+            default:
+                return false;
+        }
+
+        //checked locally first to save a round trip; the server re-checks everything and updates
+        //status, counter and game result at once
+        GameEngine.Reason reason = mEngine.check(action, mMyself, targetPlayerName);
+        if (reason != GameEngine.Reason.OK) {
+            double distance = mEngine.distance(mEngine.indexOf(mMyself), mEngine.indexOf(targetPlayerName));
+            Toast.makeText(getBaseContext(), getRejectionMessage(reason, targetPlayerName, distance),
+                    Toast.LENGTH_SHORT).show();
+            return false;
         }
+        submitAction(action, targetPlayerName, successMessage);
         return false;
     }
 
-    private void checkIfGameIsOver(String gameName, final String userName) {
-            String gameReference = "games/" + gameName;
-            FirebaseDatabase database = FirebaseDatabase.getInstance();
-            DatabaseReference aliveRef = database.getReference(gameReference + "/citizens_alive");
-
-            aliveRef.addListenerForSingleValueEvent(new ValueEventListener() {
-                @Override
-                public void onDataChange(DataSnapshot dataSnapshot) {
-                    int aliveCivilians = Integer.parseInt(dataSnapshot.getValue().toString());
-                    if (aliveCivilians <= 1)
-                        gameFinished(true, "Assassin killed all Civilians");
-                    //this is patchy, but we need to do inside this call in order to make sure that there is no read of invalid count of alive players
-                    FirebaseHelper.updatePlayerStatus(mGameName, userName, PlayerStatus.DEAD, true, false);
-                }
-
-                @Override
-                public void onCancelled(DatabaseError databaseError) {
-                    Log.w("FirebaseHelper", "getNoOfAliveCivilians:onCancelled");
-                }
-            });
-
-
-
+    /**
+     * Hands the action to the server and reports the verdict. Statuses and markers follow from
+     * mPositionStream once the server has applied it.
+     */
+    private void submitAction(final GameEngine.Action action, final String targetPlayerName, final String successMessage) {
+        mActionResolver.submit(action, mMyself, targetPlayerName)
+                .addOnSuccessListener(this, new OnSuccessListener<ActionResolver.Outcome>() {
+                    @Override
+                    public void onSuccess(ActionResolver.Outcome outcome) {
+                        if (outcome.isAccepted()) {
+                            DatabaseHandler.getInstance(PlayBoardActivity.this).addEventInBackground(mGameName, action, mMyself, targetPlayerName);
+                            Toast.makeText(getBaseContext(), successMessage, Toast.LENGTH_SHORT).show();
+                            if (GameEngine.Action.ARREST.equals(action)) {
+                                mGameFinished = true;
+                            }
+                            return;
+                        }
+                        Toast.makeText(getBaseContext(), getRejectionMessage(outcome.getReason(), targetPlayerName,
+                                outcome.getDistance()), Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .addOnFailureListener(this, new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.w(TAG, "submitAction failed", e);
+                        if (e instanceof TimeoutException) {
+                            Toast.makeText(getBaseContext(), "No answer from the server. Try again.",
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
     }
 
-    private double getDistance(Marker marker, Player myself) {
-        Location startPoint = new Location("mySelf");
-        LatLng markerPosition1 = mMarkerOptionsMap.get(myself.getName()).getPosition();
-        startPoint.setLatitude(markerPosition1.latitude);
-        startPoint.setLongitude(markerPosition1.longitude);
-
-        Location endPoint = new Location("target");
-        LatLng markerPosition2 = mMarkerOptionsMap.get(marker.getTitle()).getPosition();
-        endPoint.setLatitude(markerPosition2.latitude);
-        endPoint.setLongitude(markerPosition2.longitude);
-
-        return (double) startPoint.distanceTo(endPoint);
+    private String getRejectionMessage(GameEngine.Reason reason, String targetPlayerName, double distance) {
+        switch (reason) {
+            case TOO_FAR:
+                return "You are not within " + KILL_DISTANCE + "m of " + targetPlayerName + ". " +
+                        "Current distance is " + distance + " meters.";
+            case TARGET_DEAD:
+                return "This player is already dead.";
+            case TARGET_ALIVE:
+                return "This player is already alive. Try your magic on a dead player.";
+            case NOT_TARGET:
+                return "This player is not your target.  Keep searching.";
+            case NOT_ASSASSIN:
+                return "This player is not the assassin.  Keep searching.";
+            case ACTOR_DEAD:
+                return "You are dead. So you cannot do that.";
+            case GAME_OVER:
+                return "The game is already over.";
+            default:
+                return "That is not allowed.";
+        }
     }
 
-    private void gameFinished(boolean assassinWon, String description) {
-        mGameFinished = true;
-        FirebaseHelper.updateGameStatus(mGameName, assassinWon, description);
-//        handlePostGameFinishTasks(assassinWon);
+    /**
+     * Marks me as gone. The server adjusts the alive count and ends the game if the assassin left.
+     */
+    private void leaveGame() {
+        mActionResolver.send(GameEngine.Action.LEAVE, mMyself, null);
     }
 
     private void handlePostGameFinishTasks(boolean assassinWon) {
         Player myself = mPlayersMap.get(mMyself);
-        GameCharacter role = myself.getGameCharacterType();
-        if (role.toString().equals("ASSASSIN")){
-            if (assassinWon){
-                FirebaseHelper.increaseNoOfWinsBy1(mMyself);
-            } else {
-                FirebaseHelper.increaseNoOfLossesBy1(mMyself);
-            }
-
+        if (mEngine != null) {
+            mEngine.finish(assassinWon, null);
+        }
+        if (GameEngine.isWinner(myself.getGameCharacterType(), assassinWon)) {
+            FirebaseHelper.increaseNoOfWinsBy1(mMyself);
         } else {
-            if (!assassinWon){
-                FirebaseHelper.increaseNoOfWinsBy1(mMyself);
-            } else {
-                FirebaseHelper.increaseNoOfLossesBy1(mMyself);
-            }
+            FirebaseHelper.increaseNoOfLossesBy1(mMyself);
         }
         if (mGameClosedByUser)
             return;
@@ -1030,10 +985,8 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
             //todo:ajit: need to check if invite response is "Accepted" type. If decline, just ignore.
             if (mIsAdminOfGame && action.equals(BroadcastHelper.INVITE_RESPONSE)) {
                 String playerName = intent.getExtras().getString(BroadcastHelper.PLAYER_NAME);
-                mPlayerNames.add(playerName);
-                addListenerForLocation(playerName);
-                FirebaseHelper.increaseNoOfAliveCiviliansBy1(mGameName);
-                FirebaseHelper.newPlayerAddedUp(playerName, mGameName);
+                mPlayerNames.add(playerName); //their position arrives through mPositionStream
+                //the player's own accept asks the server to add them and count them as alive
                 //rather than adding marker here, we will add it while attaching the location listener
                 //addMarker(userName, new LatLng(latlng[0], latlng[1]), GameCharacter.CITIZEN);
 
@@ -1050,67 +1003,13 @@ public class PlayBoardActivity extends AppCompatActivity implements LocationList
     }
 
     private void handleNewPlayer(final String userName) {
-        String gameTypeReference = "games/" + mGameName + "/status";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gameTypeReference);
-
-        // Listen for single value then destroy listener
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+        FirebaseHelper.isGameStarted(mGameName).addOnSuccessListener(this, new OnSuccessListener<Boolean>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                String queriedGameStatus = (String) dataSnapshot.getValue();
-                if (GameStatus.STARTED.equals(GameStatus.getGameStatusFrom(queriedGameStatus))) {
-                    mPlayerNames.add(userName);
-                    addListenerForLocation(userName);
+            public void onSuccess(Boolean started) {
+                if (started) {
+                    mPlayerNames.add(userName); //their position arrives through mPositionStream
                 }
             }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("PlayBoardActivity", "Failed to read value.", databaseError.toException());
-            }
         });
-
-    }
-
-    private void getTarget(){
-/*        String target;
-        Random rand = new Random();
-
-        int randomNum = rand.nextInt(mPlayerNames.size());
-        target = mPlayersMap.keySet().toArray()[randomNum].toString();
-
-        while (target.equals(mMyself) || !mPlayersMap.get(target).isAlive() ||
-                mPlayersMap.get(target).getGameCharacterType().equals(GameCharacter.getCharacterFrom("Assassin"))){
-
-            randomNum = rand.nextInt(mPlayerNames.size());
-            target = mPlayerNames.toArray()[randomNum].toString();
-        }*/
-
-        String gamePlayerReference = "games/" + mGameName + "/players";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(gamePlayerReference);
-
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-                    GameCharacter role = GameCharacter.getCharacterFrom(snapshot.child("role").getValue().toString());
-                    PlayerStatus status = PlayerStatus.getPlayerStatus(snapshot.child("status").getValue().toString());
-                    if (!role.equals(GameCharacter.ASSASSIN) && status.equals(PlayerStatus.ALIVE)) {
-                        mTarget = snapshot.getKey();
-                        Toast.makeText(getBaseContext(), "Your new target is " + mTarget + ".", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                }
-                gameFinished(true, "All civilans are dead");
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.w("FirebaseHelper", "getAllPlayers:onCancelled");
-            }
-        });
-
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package mobileappdev.assassingame;
 
-import android.location.Location;
-
 /**
  * Created by Ajit Ku. Sahoo on 3/14/2017.
  */
@@ -0,0 +1,363 @@
+package mobileappdev.assassingame;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns the play board's markers. Callers describe what each player's marker should look like
+ * and the renderer applies only the differences to one long-lived {@link Marker} per player,
+ * batched onto the next frame. Nothing is ever removed and re-added just to change color or
+ * position, and the role icons are created once.
+ *
+ * Players are run through a {@link MarkerClusterer}: only players inside the camera get a marker,
+ * and crowds of the same color are drawn as a single cluster marker with a count.
+ *
+ * Must be used from the main thread.
+ */
+public class PlayerMarkerRenderer {
+
+    private static final int CLUSTER_ICON_SIZE = 40; // in dp
+    private static final int MAX_CLUSTER_LABEL = 99;
+
+    private static class MarkerState {
+        LatLng position;
+        GameCharacter color = GameCharacter.UNDEFINED;
+        String snippet = "";
+        boolean visible = true;
+
+        // what the on-map marker currently shows
+        Marker marker;
+        LatLng appliedPosition;
+        GameCharacter appliedColor;
+        String appliedSnippet;
+    }
+
+    private final Context mContext;
+    private GoogleMap mGoogleMap;
+    private final Map<String, MarkerState> mStates = new HashMap<>();
+    private final Set<String> mDirty = new LinkedHashSet<>();
+    private final Set<String> mPinned = new HashSet<>();
+    private final Map<GameCharacter, BitmapDescriptor> mDescriptors = new EnumMap<>(GameCharacter.class);
+    private final Map<String, BitmapDescriptor> mClusterDescriptors = new HashMap<>();
+    private final MarkerClusterer mClusterer = new MarkerClusterer();
+    private final Map<String, Marker> mClusterMarkers = new HashMap<>();
+    private boolean mFrameScheduled;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            flush();
+        }
+    };
+
+    public PlayerMarkerRenderer(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Attaches the map once it is ready. Everything described so far is rendered on the next
+     * frame.
+     */
+    public void setMap(GoogleMap googleMap) {
+        mGoogleMap = googleMap;
+        if (googleMap != null) {
+            mDirty.addAll(mStates.keySet());
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Re-culls and re-clusters for the new camera; call when the camera settles.
+     */
+    public void setCamera(MarkerClusterer.Viewport viewport, float zoom) {
+        mClusterer.setCamera(viewport, zoom);
+        scheduleFrame();
+    }
+
+    /**
+     * Pinned players are never culled or clustered, e.g. the player holding the phone.
+     */
+    public void setPinned(String playerName, boolean pinned) {
+        if (pinned ? mPinned.add(playerName) : mPinned.remove(playerName)) {
+            MarkerState state = mStates.get(playerName);
+            if (state != null) {
+                syncClusterer(playerName, state);
+                markDirty(playerName);
+            }
+        }
+    }
+
+    public boolean hasMarker(String playerName) {
+        return mStates.containsKey(playerName);
+    }
+
+    /**
+     * @return the last position given for the player, even if it hasn't been drawn yet
+     */
+    public LatLng getPosition(String playerName) {
+        MarkerState state = mStates.get(playerName);
+        return state == null ? null : state.position;
+    }
+
+    /**
+     * @return the cluster behind a marker, or null if the marker belongs to a single player
+     */
+    public MarkerClusterer.Cluster getCluster(Marker marker) {
+        Object tag = marker.getTag();
+        return tag instanceof MarkerClusterer.Cluster ? (MarkerClusterer.Cluster) tag : null;
+    }
+
+    public void setPosition(String playerName, LatLng position) {
+        MarkerState state = getOrCreate(playerName);
+        state.position = position;
+        syncClusterer(playerName, state);
+        markDirty(playerName);
+    }
+
+    /**
+     * Updates color and snippet from the player's role and liveness. Dead players keep their
+     * real role in the snippet but are drawn in the "dead" color.
+     */
+    public void setPlayer(String playerName, Player player) {
+        MarkerState state = getOrCreate(playerName);
+        if (player == null) {
+            state.color = GameCharacter.UNDEFINED;
+            state.snippet = "";
+        } else {
+            state.color = player.isAlive() ? player.getGameCharacterType() : GameCharacter.UNDEFINED;
+            state.snippet = player.getGameCharacterType().toString();
+        }
+        syncClusterer(playerName, state);
+        markDirty(playerName);
+    }
+
+    public void setVisible(String playerName, boolean visible) {
+        MarkerState state = mStates.get(playerName);
+        if (state == null || state.visible == visible)
+            return;
+        state.visible = visible;
+        syncClusterer(playerName, state);
+        markDirty(playerName);
+    }
+
+    public void remove(String playerName) {
+        MarkerState state = mStates.remove(playerName);
+        mDirty.remove(playerName);
+        mClusterer.remove(playerName);
+        if (state != null && state.marker != null) {
+            state.marker.remove();
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * Drops pending work; call from onDestroy.
+     */
+    public void release() {
+        if (mFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            mFrameScheduled = false;
+        }
+        mDirty.clear();
+        mGoogleMap = null;
+    }
+
+    private MarkerState getOrCreate(String playerName) {
+        MarkerState state = mStates.get(playerName);
+        if (state == null) {
+            state = new MarkerState();
+            mStates.put(playerName, state);
+        }
+        return state;
+    }
+
+    private void syncClusterer(String playerName, MarkerState state) {
+        if (state.visible && state.position != null && !mPinned.contains(playerName)) {
+            mClusterer.update(playerName, state.position.latitude, state.position.longitude, state.color);
+        } else {
+            mClusterer.remove(playerName);
+        }
+    }
+
+    private void markDirty(String playerName) {
+        mDirty.add(playerName);
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (mFrameScheduled || mGoogleMap == null)
+            return;
+        mFrameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Applies every pending change. Normally driven by the frame callback.
+     */
+    public void flush() {
+        if (mGoogleMap == null)
+            return;
+
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        mDirty.addAll(changes.getShownPlayers());
+        mDirty.addAll(changes.getHiddenPlayers());
+        applyClusters(changes);
+
+        for (String playerName : mDirty) {
+            MarkerState state = mStates.get(playerName);
+            if (state != null) {
+                apply(playerName, state);
+            }
+        }
+        mDirty.clear();
+    }
+
+    private void apply(String playerName, MarkerState state) {
+        boolean onMap = state.position != null && state.visible
+                && (mPinned.contains(playerName) || mClusterer.isShown(playerName));
+        if (!onMap) {
+            if (state.marker != null) {
+                state.marker.remove();
+                state.marker = null;
+            }
+            return;
+        }
+
+        if (state.marker == null) {
+            state.marker = mGoogleMap.addMarker(new MarkerOptions()
+                    .position(state.position)
+                    .title(playerName)
+                    .snippet(state.snippet)
+                    .icon(getBitmapDescriptor(state.color)));
+            state.appliedPosition = state.position;
+            state.appliedColor = state.color;
+            state.appliedSnippet = state.snippet;
+            return;
+        }
+
+        if (state.position != state.appliedPosition) {
+            state.marker.setPosition(state.position);
+            state.appliedPosition = state.position;
+        }
+        if (state.color != state.appliedColor) {
+            state.marker.setIcon(getBitmapDescriptor(state.color));
+            state.appliedColor = state.color;
+        }
+        if (!state.snippet.equals(state.appliedSnippet)) {
+            state.marker.setSnippet(state.snippet);
+            state.appliedSnippet = state.snippet;
+        }
+    }
+
+    private void applyClusters(MarkerClusterer.Changes changes) {
+        for (String key : changes.getRemovedClusters()) {
+            Marker marker = mClusterMarkers.remove(key);
+            if (marker != null) {
+                marker.remove();
+            }
+        }
+        for (MarkerClusterer.Cluster cluster : changes.getAddedClusters()) {
+            Marker marker = mGoogleMap.addMarker(new MarkerOptions()
+                    .position(new LatLng(cluster.getLatitude(), cluster.getLongitude()))
+                    .title(getClusterTitle(cluster))
+                    .anchor(0.5f, 0.5f)
+                    .icon(getClusterDescriptor(cluster)));
+            marker.setTag(cluster);
+            mClusterMarkers.put(cluster.getKey(), marker);
+        }
+        for (MarkerClusterer.Cluster cluster : changes.getUpdatedClusters()) {
+            Marker marker = mClusterMarkers.get(cluster.getKey());
+            if (marker == null)
+                continue;
+            MarkerClusterer.Cluster old = getCluster(marker);
+            marker.setPosition(new LatLng(cluster.getLatitude(), cluster.getLongitude()));
+            if (old == null || old.getSize() != cluster.getSize()) {
+                marker.setTitle(getClusterTitle(cluster));
+                marker.setIcon(getClusterDescriptor(cluster));
+            }
+            marker.setTag(cluster);
+        }
+    }
+
+    private static String getClusterTitle(MarkerClusterer.Cluster cluster) {
+        if (GameCharacter.UNDEFINED.equals(cluster.getRole()))
+            return cluster.getSize() + " players";
+        return cluster.getSize() + " x " + cluster.getRole();
+    }
+
+    //TODO:Ajit: need a legend info panel as a menu item to describe the colors
+    private BitmapDescriptor getBitmapDescriptor(GameCharacter character) {
+        BitmapDescriptor descriptor = mDescriptors.get(character);
+        if (descriptor == null) {
+            descriptor = BitmapDescriptorFactory.defaultMarker(getHue(character));
+            mDescriptors.put(character, descriptor);
+        }
+        return descriptor;
+    }
+
+    private BitmapDescriptor getClusterDescriptor(MarkerClusterer.Cluster cluster) {
+        String label = cluster.getSize() > MAX_CLUSTER_LABEL ? MAX_CLUSTER_LABEL + "+" : String.valueOf(cluster.getSize());
+        String cacheKey = cluster.getRole().name() + label;
+        BitmapDescriptor descriptor = mClusterDescriptors.get(cacheKey);
+        if (descriptor == null) {
+            descriptor = BitmapDescriptorFactory.fromBitmap(drawClusterIcon(cluster.getRole(), label));
+            mClusterDescriptors.put(cacheKey, descriptor);
+        }
+        return descriptor;
+    }
+
+    private Bitmap drawClusterIcon(GameCharacter character, String label) {
+        float density = mContext.getResources().getDisplayMetrics().density;
+        int size = (int) (CLUSTER_ICON_SIZE * density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        paint.setColor(Color.HSVToColor(new float[]{getHue(character), 1f, 0.9f}));
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f - 2 * density, paint);
+
+        paint.setColor(Color.WHITE);
+        paint.setTextSize(14 * density);
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setFakeBoldText(true);
+        float baseline = size / 2f - (paint.descent() + paint.ascent()) / 2;
+        canvas.drawText(label, size / 2f, baseline, paint);
+        return bitmap;
+    }
+
+    private static float getHue(GameCharacter character) {
+        switch (character) {
+            case ASSASSIN:
+                return BitmapDescriptorFactory.HUE_RED;
+            case DETECTIVE:
+                return BitmapDescriptorFactory.HUE_CYAN;
+            case DOCTOR:
+                return BitmapDescriptorFactory.HUE_BLUE;
+            case CITIZEN:
+                return BitmapDescriptorFactory.HUE_GREEN;
+            default:
+                return BitmapDescriptorFactory.HUE_YELLOW;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over player positions, used by the play board to answer "who is near me"
+ * without walking every marker. Positions are projected onto a local equirectangular plane
+ * (good enough at city scale) and bucketed into square cells of {@code cellSizeInMeters}.
+ *
+ * Radius queries only visit the cells overlapping the query circle and k-nearest queries
+ * search outward ring by ring, so both stay proportional to the local player density rather
+ * than the size of the game. Pure Java on purpose so it can be exercised off-device.
+ */
+public class PlayerSpatialIndex {
+
+    public static final double UNKNOWN_DISTANCE = Double.POSITIVE_INFINITY;
+
+    private static final double EARTH_RADIUS = 6371008.8; // mean radius, in meters
+    private static final double METERS_PER_DEGREE_LAT = Math.PI * EARTH_RADIUS / 180;
+
+    private final double mCellSize;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final LongHashMap<List<Entry>> mCells = new LongHashMap<>();
+
+    // the longitude scale is fixed by the first position we see, so cells never need re-hashing
+    private double mMetersPerDegreeLng = Double.NaN;
+
+    // bounding box of occupied cells, used to stop ring searches early; recomputed lazily once
+    // a player on its edge moves or leaves
+    private boolean mBoundsStale;
+    private int mMinCellX = Integer.MAX_VALUE;
+    private int mMaxCellX = Integer.MIN_VALUE;
+    private int mMinCellY = Integer.MAX_VALUE;
+    private int mMaxCellY = Integer.MIN_VALUE;
+
+    public PlayerSpatialIndex(double cellSizeInMeters) {
+        if (cellSizeInMeters <= 0)
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSizeInMeters);
+        mCellSize = cellSizeInMeters;
+    }
+
+    public static class Neighbor {
+        private final String mName;
+        private final double mDistance;
+
+        Neighbor(String name, double distance) {
+            mName = name;
+            mDistance = distance;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public double getDistance() {
+            return mDistance;
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        double lat;
+        double lng;
+        int cellX;
+        int cellY;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Inserts the player or moves them to the new position.
+     */
+    public void update(String name, double lat, double lng) {
+        if (Double.isNaN(mMetersPerDegreeLng)) {
+            mMetersPerDegreeLng = METERS_PER_DEGREE_LAT * Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+        }
+        int cellX = toCellX(lng);
+        int cellY = toCellY(lat);
+
+        Entry entry = mEntries.get(name);
+        if (entry == null) {
+            entry = new Entry(name);
+            mEntries.put(name, entry);
+        } else if (entry.cellX != cellX || entry.cellY != cellY) {
+            removeFromCell(entry);
+        } else {
+            entry.lat = lat;
+            entry.lng = lng;
+            return;
+        }
+
+        entry.lat = lat;
+        entry.lng = lng;
+        entry.cellX = cellX;
+        entry.cellY = cellY;
+        addToCell(entry);
+    }
+
+    public void remove(String name) {
+        Entry entry = mEntries.remove(name);
+        if (entry != null) {
+            removeFromCell(entry);
+        }
+    }
+
+    public boolean contains(String name) {
+        return mEntries.containsKey(name);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mCells.clear();
+        mMinCellX = mMinCellY = Integer.MAX_VALUE;
+        mMaxCellX = mMaxCellY = Integer.MIN_VALUE;
+        mBoundsStale = false;
+    }
+
+    /**
+     * @return the distance in meters between two indexed players, or {@link #UNKNOWN_DISTANCE}
+     * if either of them has not reported a position yet.
+     */
+    public double distanceBetween(String name1, String name2) {
+        Entry e1 = mEntries.get(name1);
+        Entry e2 = mEntries.get(name2);
+        if (e1 == null || e2 == null)
+            return UNKNOWN_DISTANCE;
+        return distanceInMeters(e1.lat, e1.lng, e2.lat, e2.lng);
+    }
+
+    public boolean isWithin(String name1, String name2, double radiusInMeters) {
+        return distanceBetween(name1, name2) <= radiusInMeters;
+    }
+
+    /**
+     * Collects the names of all players within {@code radiusInMeters} of the given player into
+     * {@code result}, excluding the player themselves. {@code result} is cleared first so callers
+     * can reuse one list across queries.
+     */
+    public List<String> withinRadius(String name, double radiusInMeters, List<String> result) {
+        result.clear();
+        Entry center = mEntries.get(name);
+        if (center == null)
+            return result;
+
+        int reachX = (int) Math.ceil(radiusInMeters / mCellSize);
+        int reachY = reachX;
+        for (int x = center.cellX - reachX; x <= center.cellX + reachX; x++) {
+            for (int y = center.cellY - reachY; y <= center.cellY + reachY; y++) {
+                List<Entry> cell = mCells.get(cellKey(x, y));
+                if (cell == null)
+                    continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry other = cell.get(i);
+                    if (other == center)
+                        continue;
+                    if (distanceInMeters(center.lat, center.lng, other.lat, other.lng) <= radiusInMeters) {
+                        result.add(other.name);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to {@code k} players closest to the given player, nearest first. The player
+     * themselves is never part of the result. Once a ring would probe more cells than are
+     * occupied, the remaining players are scanned directly instead, so a lone far-away player
+     * costs one pass over the index rather than every empty cell between here and there.
+     */
+    public List<Neighbor> nearest(String name, int k) {
+        List<Neighbor> result = new ArrayList<>(Math.max(k, 0));
+        Entry center = mEntries.get(name);
+        if (center == null || k <= 0)
+            return result;
+
+        if (mBoundsStale) {
+            recomputeBounds();
+        }
+        int maxRing = Math.max(
+                Math.max(center.cellX - mMinCellX, mMaxCellX - center.cellX),
+                Math.max(center.cellY - mMinCellY, mMaxCellY - center.cellY));
+
+        int others = mEntries.size() - 1;
+        int seen = 0;
+        for (int ring = 0; ring <= maxRing && seen < others; ring++) {
+            // ring r has 8r cells
+            if (8L * ring > mCells.size()) {
+                scanFrom(center, ring, k, result);
+                break;
+            }
+            for (int x = center.cellX - ring; x <= center.cellX + ring; x++) {
+                boolean edgeColumn = x == center.cellX - ring || x == center.cellX + ring;
+                int step = edgeColumn ? 1 : 2 * ring;
+                for (int y = center.cellY - ring; y <= center.cellY + ring; y += Math.max(step, 1)) {
+                    List<Entry> cell = mCells.get(cellKey(x, y));
+                    if (cell == null)
+                        continue;
+                    for (int i = 0; i < cell.size(); i++) {
+                        Entry other = cell.get(i);
+                        if (other != center) {
+                            seen++;
+                            offer(result, k, other.name,
+                                    distanceInMeters(center.lat, center.lng, other.lat, other.lng));
+                        }
+                    }
+                }
+            }
+            // anything in ring r+1 is at least r cell widths away
+            if (result.size() == k && result.get(k - 1).getDistance() <= ring * mCellSize)
+                break;
+        }
+        return result;
+    }
+
+    // offers every player at least `ring` cells away from the center, i.e. all not yet visited
+    private void scanFrom(Entry center, int ring, int k, List<Neighbor> result) {
+        for (Entry other : mEntries.values()) {
+            int reach = Math.max(Math.abs(other.cellX - center.cellX), Math.abs(other.cellY - center.cellY));
+            if (reach >= ring) {
+                offer(result, k, other.name, distanceInMeters(center.lat, center.lng, other.lat, other.lng));
+            }
+        }
+    }
+
+    // keeps result sorted by distance and capped at k entries
+    private static void offer(List<Neighbor> result, int k, String name, double distance) {
+        if (result.size() == k && result.get(k - 1).getDistance() <= distance)
+            return;
+        int index = result.size();
+        while (index > 0 && result.get(index - 1).getDistance() > distance) {
+            index--;
+        }
+        result.add(index, new Neighbor(name, distance));
+        if (result.size() > k) {
+            result.remove(k);
+        }
+    }
+
+    /**
+     * Haversine distance, in meters. Agrees with {@link android.location.Location#distanceTo}
+     * to well under a meter at the distances the game cares about.
+     */
+    public static double distanceInMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLng = Math.sin(dLng / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private int toCellX(double lng) {
+        return (int) Math.floor(lng * mMetersPerDegreeLng / mCellSize);
+    }
+
+    private int toCellY(double lat) {
+        return (int) Math.floor(lat * METERS_PER_DEGREE_LAT / mCellSize);
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private void addToCell(Entry entry) {
+        long key = cellKey(entry.cellX, entry.cellY);
+        List<Entry> cell = mCells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>(4);
+            mCells.put(key, cell);
+        }
+        cell.add(entry);
+
+        mMinCellX = Math.min(mMinCellX, entry.cellX);
+        mMaxCellX = Math.max(mMaxCellX, entry.cellX);
+        mMinCellY = Math.min(mMinCellY, entry.cellY);
+        mMaxCellY = Math.max(mMaxCellY, entry.cellY);
+    }
+
+    private void removeFromCell(Entry entry) {
+        long key = cellKey(entry.cellX, entry.cellY);
+        List<Entry> cell = mCells.get(key);
+        if (cell == null)
+            return;
+        cell.remove(entry);
+        if (cell.isEmpty()) {
+            mCells.remove(key);
+        }
+        if (entry.cellX == mMinCellX || entry.cellX == mMaxCellX
+                || entry.cellY == mMinCellY || entry.cellY == mMaxCellY) {
+            mBoundsStale = true;
+        }
+    }
+
+    private void recomputeBounds() {
+        mMinCellX = mMinCellY = Integer.MAX_VALUE;
+        mMaxCellX = mMaxCellY = Integer.MIN_VALUE;
+        for (Entry entry : mEntries.values()) {
+            mMinCellX = Math.min(mMinCellX, entry.cellX);
+            mMaxCellX = Math.max(mMaxCellX, entry.cellX);
+            mMinCellY = Math.min(mMinCellY, entry.cellY);
+            mMaxCellY = Math.max(mMaxCellY, entry.cellY);
+        }
+        mBoundsStale = false;
+    }
+}
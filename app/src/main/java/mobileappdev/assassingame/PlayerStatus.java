@@ -5,30 +5,41 @@ package mobileappdev.assassingame;
  * @Date: 3/18/2017
  */
 
-public enum PlayerStatus {
-    ALIVE, DEAD, LEFT, NEWLY_JOINED; //LEFT = left game
+public enum PlayerStatus implements EnumCodec.Coded {
+    ALIVE(0), DEAD(1), LEFT(2), NEWLY_JOINED(3); //LEFT = left game
+
+    private static final PlayerStatus[] BY_CODE = EnumCodec.byCode(values());
+
+    private final int mCode;
+
+    PlayerStatus(int code) {
+        mCode = code;
+    }
+
+    /**
+     * @return the code Firebase and SQLite store for this constant
+     */
+    @Override
+    public int getCode() {
+        return mCode;
+    }
+
+    public static PlayerStatus fromCode(long code, PlayerStatus fallback) {
+        return EnumCodec.fromCode(BY_CODE, code, fallback);
+    }
+
+    /**
+     * @param value a stored code or a legacy name in any casing
+     * @return the constant, or {@code fallback} if the value is missing or unknown
+     */
+    public static PlayerStatus decode(Object value, PlayerStatus fallback) {
+        return EnumCodec.decode(value, BY_CODE, fallback);
+    }
 
     public static PlayerStatus getPlayerStatus(String status) {
-        switch (status) {
-            case "ALIVE":
-            case "Alive":
-            case "alive":
-                return ALIVE;
-            case "DEAD":
-            case "dead":
-            case "Dead":
-                return DEAD;
-            case "LEFT":
-            case "Left":
-            case "left":
-                return LEFT;
-            case "NEWLY_JOINED":
-            case "Newly_joined":
-            case "newly_joined":
-                return NEWLY_JOINED;
-            default:
-                throw new RuntimeException("No such player status defined");
-
-        }
+        PlayerStatus value = decode(status, null);
+        if (value == null)
+            throw new RuntimeException("No such player status defined: " + status);
+        return value;
     }
 }
@@ -0,0 +1,62 @@
+package mobileappdev.assassingame;
+
+/**
+ * Default {@link LocationSamplingPolicy}: the closer the nearest relevant player, the faster and
+ * more precisely we sample. Dead players only need to stay roughly visible on the map, unless a
+ * doctor is coming to revive them: the revive is checked against their last reported position.
+ */
+public class ProximitySamplingPolicy implements LocationSamplingPolicy {
+
+    public static final SamplingRate CLOSE = new SamplingRate(2000, 2, true);
+    public static final SamplingRate NORMAL = new SamplingRate(5000, 5, true);
+    public static final SamplingRate RELAXED = new SamplingRate(15000, 15, false);
+    public static final SamplingRate IDLE = new SamplingRate(30000, 30, false);
+    public static final SamplingRate DEAD = new SamplingRate(60000, 50, false);
+
+    private final double mCloseDistance;
+    private final double mNormalDistance;
+    private final double mRelaxedDistance;
+
+    /**
+     * @param actionDistance the distance within which kills, revives and arrests are allowed
+     */
+    public ProximitySamplingPolicy(double actionDistance) {
+        mCloseDistance = 3 * actionDistance;
+        mNormalDistance = 10 * actionDistance;
+        mRelaxedDistance = 40 * actionDistance;
+    }
+
+    @Override
+    public boolean isRelevant(GameCharacter me, boolean meAlive, GameCharacter other, boolean otherAlive) {
+        // only a doctor can do anything for the dead
+        if (!meAlive)
+            return otherAlive && GameCharacter.DOCTOR.equals(other);
+        switch (me) {
+            case ASSASSIN:
+                // hunting anyone alive, and running from the detective
+                return otherAlive;
+            case DOCTOR:
+                // the dead need reviving, the assassin needs avoiding
+                return !otherAlive || GameCharacter.ASSASSIN.equals(other);
+            case DETECTIVE:
+                // anyone alive could be the one to arrest
+                return otherAlive;
+            case CITIZEN:
+            default:
+                return otherAlive && GameCharacter.ASSASSIN.equals(other);
+        }
+    }
+
+    @Override
+    public SamplingRate getRate(double nearestRelevantDistance, GameCharacter role, boolean alive) {
+        if (!alive && nearestRelevantDistance > mRelaxedDistance)
+            return DEAD;
+        if (nearestRelevantDistance <= mCloseDistance)
+            return CLOSE;
+        if (nearestRelevantDistance <= mNormalDistance)
+            return NORMAL;
+        if (nearestRelevantDistance <= mRelaxedDistance)
+            return RELAXED;
+        return IDLE;
+    }
+}
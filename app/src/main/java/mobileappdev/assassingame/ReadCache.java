@@ -0,0 +1,95 @@
+package mobileappdev.assassingame;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small in-memory read-through cache for {@link FirebaseHelper} reads: entries expire after a
+ * fixed time and the least recently used entry is dropped once the cache is full. Keys are
+ * database paths, so a write can invalidate a path and everything below it.
+ *
+ * Thread safe; all methods are synchronized.
+ */
+public class ReadCache<V> {
+
+    private static class Entry<V> {
+        final V value;
+        final long storedAt;
+
+        Entry(V value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final int mMaxEntries;
+    private final long mTimeToLive;
+    private final LinkedHashMap<String, Entry<V>> mEntries;
+
+    /**
+     * @param timeToLive in msec
+     */
+    public ReadCache(final int maxEntries, long timeToLive) {
+        mMaxEntries = maxEntries;
+        mTimeToLive = timeToLive;
+        mEntries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public V get(String path) {
+        return get(path, now());
+    }
+
+    public void put(String path, V value) {
+        put(path, value, now());
+    }
+
+    synchronized V get(String path, long now) {
+        Entry<V> entry = mEntries.get(path);
+        if (entry == null)
+            return null;
+        if (now - entry.storedAt >= mTimeToLive) {
+            mEntries.remove(path);
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(String path, V value, long now) {
+        mEntries.put(path, new Entry<>(value, now));
+    }
+
+    /**
+     * Drops {@code path}, everything below it and everything above it, since a cached parent
+     * contains the changed child.
+     */
+    public synchronized void invalidate(String path) {
+        Iterator<String> iterator = mEntries.keySet().iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (key.equals(path) || key.startsWith(path + "/") || path.startsWith(key + "/")) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,379 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the app needs from the realtime database, without Firebase types, so code written against
+ * it runs on the JVM against {@link MemoryDatabase} as well as on the phone against
+ * {@link FirebaseRealtimeStore}. {@link FirebaseHelper#getStore()} hands out the one in use.
+ *
+ * Data is plain Java: Map for objects, String, Long, Double and Boolean for leaves, null for
+ * nothing. Paths are slash separated and relative to the root. Callbacks may come on any thread,
+ * in the order the database produced them.
+ */
+public interface RealtimeStore {
+
+    /**
+     * Written in place of a value, becomes the time the database applied the write; the same as
+     * Firebase's ServerValue.TIMESTAMP.
+     */
+    Map<String, String> TIMESTAMP = Collections.singletonMap(".sv", "timestamp");
+
+    /**
+     * Returned from a {@link Transaction} to leave the data as it is.
+     */
+    Object ABORT = new Object();
+
+    interface CompletionListener {
+        /**
+         * @param error null if the write succeeded
+         */
+        void onComplete(Exception error);
+    }
+
+    interface ValueListener {
+        /**
+         * @param value the data, ordered by the query for queries, or null if there is none
+         */
+        void onValueChanged(String path, Object value);
+
+        void onCancelled(Exception error);
+    }
+
+    interface ChildListener {
+        void onChildAdded(String key, Object value);
+
+        void onChildChanged(String key, Object value);
+
+        void onChildRemoved(String key);
+
+        void onCancelled(Exception error);
+    }
+
+    interface Transaction {
+        /**
+         * May run more than once, so it must not have side effects.
+         *
+         * @param current a copy of the data at the path, or null
+         * @return the new data, null to delete it, or {@link #ABORT}
+         */
+        Object run(Object current);
+    }
+
+    interface TransactionListener {
+        /**
+         * @param value the data after the transaction
+         */
+        void onComplete(Exception error, boolean committed, Object value);
+    }
+
+    /**
+     * Children of a path, ordered and filtered. Without any ordering the query is the path
+     * itself. Like Firebase's queries, start and end bounds are inclusive and compare the
+     * ordered-by value first and the key second.
+     */
+    class Query {
+
+        public enum Order {
+            KEY, VALUE, CHILD
+        }
+
+        private final String mPath;
+        private Order mOrder;
+        private String mChild;
+        private boolean mHasStart;
+        private Object mStart;
+        private String mStartKey;
+        private boolean mHasEnd;
+        private Object mEnd;
+        private String mEndKey;
+        private int mLimit;
+        private boolean mLimitToLast;
+
+        public Query(String path) {
+            mPath = path;
+        }
+
+        public Query orderByKey() {
+            mOrder = Order.KEY;
+            return this;
+        }
+
+        public Query orderByValue() {
+            mOrder = Order.VALUE;
+            return this;
+        }
+
+        public Query orderByChild(String child) {
+            mOrder = Order.CHILD;
+            mChild = child;
+            return this;
+        }
+
+        public Query startAt(Object value) {
+            return startAt(value, null);
+        }
+
+        /**
+         * @param key breaks ties between children with the same value
+         */
+        public Query startAt(Object value, String key) {
+            mHasStart = true;
+            mStart = value;
+            mStartKey = key;
+            return this;
+        }
+
+        public Query endAt(Object value) {
+            return endAt(value, null);
+        }
+
+        public Query endAt(Object value, String key) {
+            mHasEnd = true;
+            mEnd = value;
+            mEndKey = key;
+            return this;
+        }
+
+        public Query equalTo(Object value) {
+            return startAt(value).endAt(value);
+        }
+
+        public Query limitToFirst(int limit) {
+            mLimit = limit;
+            mLimitToLast = false;
+            return this;
+        }
+
+        public Query limitToLast(int limit) {
+            mLimit = limit;
+            mLimitToLast = true;
+            return this;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public Order getOrder() {
+            return mOrder;
+        }
+
+        public String getChild() {
+            return mChild;
+        }
+
+        public boolean hasStart() {
+            return mHasStart;
+        }
+
+        public Object getStart() {
+            return mStart;
+        }
+
+        public String getStartKey() {
+            return mStartKey;
+        }
+
+        public boolean hasEnd() {
+            return mHasEnd;
+        }
+
+        public Object getEnd() {
+            return mEnd;
+        }
+
+        public String getEndKey() {
+            return mEndKey;
+        }
+
+        /**
+         * @return 0 if there is no limit
+         */
+        public int getLimit() {
+            return mLimit;
+        }
+
+        public boolean isLimitToLast() {
+            return mLimitToLast;
+        }
+
+        /**
+         * @return whether the query is just its path
+         */
+        public boolean isPlain() {
+            return mOrder == null && !mHasStart && !mHasEnd && mLimit == 0;
+        }
+
+        /**
+         * Applies the query to the children of its path.
+         *
+         * @return the matching children in query order
+         */
+        public Map<String, Object> select(Map<String, Object> children) {
+            List<Map.Entry<String, Object>> entries = new ArrayList<>(children.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Object>>() {
+                @Override
+                public int compare(Map.Entry<String, Object> a, Map.Entry<String, Object> b) {
+                    int order = compareValues(orderValue(a.getKey(), a.getValue()), orderValue(b.getKey(), b.getValue()));
+                    return order != 0 ? order : compareKeys(a.getKey(), b.getKey());
+                }
+            });
+
+            int from = 0;
+            int to = entries.size();
+            while (from < to && mHasStart && compareToBound(entries.get(from), mStart, mStartKey) < 0) {
+                from++;
+            }
+            while (to > from && mHasEnd && compareToBound(entries.get(to - 1), mEnd, mEndKey) > 0) {
+                to--;
+            }
+            if (mLimit > 0 && to - from > mLimit) {
+                if (mLimitToLast) {
+                    from = to - mLimit;
+                } else {
+                    to = from + mLimit;
+                }
+            }
+
+            Map<String, Object> selected = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : entries.subList(from, to)) {
+                selected.put(entry.getKey(), entry.getValue());
+            }
+            return selected;
+        }
+
+        private Object orderValue(String key, Object value) {
+            if (mOrder == Order.VALUE)
+                return value;
+            if (mOrder == Order.CHILD)
+                return value instanceof Map ? ((Map<?, ?>) value).get(mChild) : null;
+            return key;
+        }
+
+        private int compareToBound(Map.Entry<String, Object> entry, Object bound, String boundKey) {
+            if (mOrder == null || mOrder == Order.KEY)
+                return compareKeys(entry.getKey(), String.valueOf(bound));
+            int order = compareValues(orderValue(entry.getKey(), entry.getValue()), bound);
+            if (order != 0 || boundKey == null)
+                return order;
+            return compareKeys(entry.getKey(), boundKey);
+        }
+
+        /**
+         * Keys that are 32-bit integers come first, in numeric order, then all others as strings.
+         */
+        static int compareKeys(String a, String b) {
+            Integer intA = asInteger(a);
+            Integer intB = asInteger(b);
+            if (intA != null && intB != null)
+                return intA.compareTo(intB);
+            if (intA != null)
+                return -1;
+            if (intB != null)
+                return 1;
+            return a.compareTo(b);
+        }
+
+        /**
+         * null, then false, true, numbers, strings and objects, like Firebase orders values.
+         */
+        static int compareValues(Object a, Object b) {
+            int rank = rank(a) - rank(b);
+            if (rank != 0)
+                return rank;
+            if (a instanceof Boolean)
+                return ((Boolean) a).compareTo((Boolean) b);
+            if (a instanceof Number)
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            if (a instanceof String)
+                return ((String) a).compareTo((String) b);
+            return 0;
+        }
+
+        private static int rank(Object value) {
+            if (value == null)
+                return 0;
+            if (value instanceof Boolean)
+                return ((Boolean) value) ? 2 : 1;
+            if (value instanceof Number)
+                return 3;
+            if (value instanceof String)
+                return 4;
+            return 5;
+        }
+
+        private static Integer asInteger(String key) {
+            if (key.isEmpty() || key.length() > 11)
+                return null;
+            try {
+                Integer value = Integer.valueOf(key);
+                // "01" and "+1" are strings to Firebase
+                return value.toString().equals(key) ? value : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (isPlain())
+                return mPath;
+            StringBuilder builder = new StringBuilder(mPath).append('?');
+            if (mOrder != null) {
+                builder.append("orderBy=").append(mOrder == Order.CHILD ? mChild : mOrder).append('&');
+            }
+            if (mHasStart) {
+                builder.append("startAt=").append(mStart).append(mStartKey == null ? "" : "," + mStartKey).append('&');
+            }
+            if (mHasEnd) {
+                builder.append("endAt=").append(mEnd).append(mEndKey == null ? "" : "," + mEndKey).append('&');
+            }
+            if (mLimit > 0) {
+                builder.append(mLimitToLast ? "limitToLast=" : "limitToFirst=").append(mLimit).append('&');
+            }
+            return builder.substring(0, builder.length() - 1);
+        }
+    }
+
+    void setValue(String path, Object value, CompletionListener listener);
+
+    /**
+     * Writes every entry at once, with keys relative to {@code path}; no key may be an ancestor
+     * of another.
+     */
+    void updateChildren(String path, Map<String, ?> update, CompletionListener listener);
+
+    void runTransaction(String path, Transaction transaction, TransactionListener listener);
+
+    /**
+     * @return a new child key for the path; keys sort in the order they were handed out
+     */
+    String push(String path);
+
+    /**
+     * Calls the listener with the current data and then on every change, until it is removed.
+     */
+    ValueListener addValueListener(Query query, ValueListener listener);
+
+    /**
+     * Calls {@link ChildListener#onChildAdded} for the children there are and then reports
+     * changes, until the listener is removed.
+     */
+    ChildListener addChildListener(Query query, ChildListener listener);
+
+    /**
+     * Calls the listener once, with the current data.
+     */
+    void read(Query query, ValueListener listener);
+
+    /**
+     * Removes a listener from everything it was added to, including a pending {@link #read}.
+     */
+    void removeListener(Object listener);
+}
@@ -2,8 +2,11 @@ package mobileappdev.assassingame;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,6 +15,8 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
@@ -28,14 +33,33 @@ import java.util.List;
  * @Date: 3/13/2017
  */
 
-public class SearchPlayerFragment extends Fragment {
+public class SearchPlayerFragment extends Fragment implements UserNameDirectory.Listener {
+
+    private static final long REMOTE_SEARCH_DELAY = 300; // in msec, after the last keystroke
 
     private Spinner mSpinner;
     private SearchOpListener mListener;
+    private Button mMoreButton;
+    private UserNameDirectory mDirectory;
+    private final Handler mHandler = new Handler();
+    private String mQuery;
+    private int mResultLimit = UserNameIndex.DEFAULT_PAGE_SIZE;
+    private UserNameIndex.Page mLastPage;
+
+    private final Runnable mRemoteSearch = new Runnable() {
+        @Override
+        public void run() {
+            if (mQuery != null) {
+                fetchPlayerListContainingUserName(mQuery);
+            }
+        }
+    };
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mDirectory = UserNameDirectory.getInstance(getContext());
+        mDirectory.start();
     }
 
     @Override
@@ -50,6 +74,19 @@ public class SearchPlayerFragment extends Fragment {
         mListener = null;
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        mDirectory.setListener(this);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mDirectory.setListener(null);
+        mHandler.removeCallbacks(mRemoteSearch);
+    }
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -57,47 +94,87 @@ public class SearchPlayerFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_search_player, container, false);
         Button searchButton = (Button)view.findViewById(R.id.search_button);
         final EditText searchBoxValue = (EditText) view.findViewById(R.id.search_player_box);
-        searchButton.setOnClickListener(new View.OnClickListener() {
+        mMoreButton = (Button) view.findViewById(R.id.search_more_button);
+        mMoreButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                mResultLimit += UserNameIndex.DEFAULT_PAGE_SIZE;
+                showLocalResults();
+                if (mLastPage != null && mLastPage.hasMore()) {
+                    showPage(mQuery, mLastPage.next(UserNameIndex.DEFAULT_PAGE_SIZE));
+                }
+            }
+        });
+        searchBoxValue.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String player = s.toString().trim();
                 resetSearchPlayer();
-                String player = searchBoxValue.getText().toString();
+                if (player.equals("") || player.contains("@"))
+                    return; // emails are only looked up on the search button
+                // answer from the local cache right away and ask the server once typing pauses
+                mQuery = player;
+                showLocalResults();
+                mHandler.postDelayed(mRemoteSearch, REMOTE_SEARCH_DELAY);
+            }
+        });
+        searchButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                String player = searchBoxValue.getText().toString().trim();
                 if (player.equals("")) {
                     Toast.makeText(getContext(), "Empty search field!!", Toast.LENGTH_SHORT).show();
                     return;
                 }
 
                 Log.i("TESTING", "we are entering the getplayerlist() function");
-                searchPlayer(player, player.contains("@"));
-                searchBoxValue.setText("");
+                if (player.contains("@")) {
+                    resetSearchPlayer();
+                    showSpinner();
+                    fetchPlayerByEmailID(player);
+                } else {
+                    mHandler.removeCallbacks(mRemoteSearch);
+                    mRemoteSearch.run();
+                }
             }
         });
         return view;
     }
 
-    private void resetSearchPlayer() {
-        Game.getInstance().setSearchedPlayer(null);
-    }
-
-    private void searchPlayer(String playerInfo, boolean byEmail) {
-        showSpinner(byEmail);
-        if (byEmail) {
-            fetchPlayerByEmailID(playerInfo);
-        } else {
-            fetchPlayerListContainingUserName(playerInfo);
+    @Override
+    public void onUserNamesChanged() {
+        if (mQuery != null) {
+            showLocalResults();
         }
+    }
 
+    private void resetSearchPlayer() {
+        mHandler.removeCallbacks(mRemoteSearch);
+        Game.getInstance().setSearchedPlayer(null);
+        mQuery = null;
+        mResultLimit = UserNameIndex.DEFAULT_PAGE_SIZE;
+        mLastPage = null;
+        mMoreButton.setVisibility(View.GONE);
     }
 
-    private void showSpinner(boolean byEmail) {
-        String msg = byEmail ? "Finding player by given email ID..." : "Finding all players with given name...";
+    private void showSpinner() {
         mSpinner = new Spinner(this.getContext());
-        mSpinner.show("Search", msg, false);
+        mSpinner.show("Search", "Finding player by given email ID...", false);
     }
 
     private void setAndUpdate(List<Player> searchedPlayers) {
         Game.getInstance().setSearchedPlayer(searchedPlayers);
-        mListener.updateSearchResult();
+        if (mListener != null) {
+            mListener.updateSearchResult();
+        }
     }
 
     public void fetchPlayerByEmailID(final String emailID) {
@@ -111,6 +188,10 @@ public class SearchPlayerFragment extends Fragment {
         gameQuery.addListenerForSingleValueEvent(new ValueEventListener() {
             @Override
             public void onDataChange(DataSnapshot dataSnapshot) {
+                if (mSpinner != null) {
+                    mSpinner.dismiss();
+                    mSpinner = null;
+                }
                 //todo:SAM: why do we need a for loop here?
                 String playerName = null;
                 for (DataSnapshot userSnapshot: dataSnapshot.getChildren()) {
@@ -122,51 +203,55 @@ public class SearchPlayerFragment extends Fragment {
 
             @Override
             public void onCancelled(DatabaseError databaseError) {
+                if (mSpinner != null) {
+                    mSpinner.dismiss();
+                    mSpinner = null;
+                }
                 Log.w("GAMES", "loadGames:onCancelled", databaseError.toException());
             }
         });
 
     }
 
-    private void fetchPlayerListContainingUserName(final String queriedName) {
-        final List<String> playerNames = new ArrayList<>();
-        String usersReference = "users/";
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        DatabaseReference ref = database.getReference(usersReference);
+    /**
+     * Renders the matches known locally, within the current result limit.
+     */
+    private void showLocalResults() {
+        List<String> names = mDirectory.getCache().findContaining(mQuery, mResultLimit + 1);
+        List<Player> searchedPlayers = new ArrayList<>();
+        for (int i = 0; i < names.size() && i < mResultLimit; i++) {
+            // Here we are creating "default" player objects because we only need their names.
+            Player newPlayerResult = Player.getDummyPlayer();
+            newPlayerResult.setName(names.get(i));
+            searchedPlayers.add(newPlayerResult);
+        }
+        boolean hasMore = names.size() > mResultLimit || (mLastPage != null && mLastPage.hasMore());
+        mMoreButton.setVisibility(hasMore ? View.VISIBLE : View.GONE);
+        setAndUpdate(searchedPlayers);
+    }
+
+    private void fetchPlayerListContainingUserName(String queriedName) {
+        showPage(queriedName, UserNameIndex.search(queriedName, mResultLimit));
+    }
 
-        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+    /**
+     * Merges a page from the server into the local cache, which re-renders the results.
+     */
+    private void showPage(final String query, Task<UserNameIndex.Page> pageTask) {
+        pageTask.addOnCompleteListener(new OnCompleteListener<UserNameIndex.Page>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                // Push the names to our result List.
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
-                    playerNames.add(snapshot.getKey());
+            public void onComplete(Task<UserNameIndex.Page> task) {
+                if (mListener == null || !query.equals(mQuery))
+                    return; // detached or the query changed meanwhile
+                if (!task.isSuccessful()) {
+                    Log.w("SearchPlayerFragment", "Player search failed", task.getException());
+                    return; // the local results stay on screen
                 }
-                getMatchingNames(playerNames, queriedName);
-            }
 
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.i("FirebaseHelper", "getAllPlayerNames:onCancelled");
+                mLastPage = task.getResult();
+                mDirectory.merge(mLastPage.getNames());
             }
         });
-
-
-    }
-
-    private void getMatchingNames(List<String> allNames, String queriedName) {
-        List<Player> playerList = new ArrayList<>();    // To store our player objects.
-        String queriedNameLowerCase = queriedName.toLowerCase();
-        for (String name : allNames) {
-            if (name.toLowerCase().contains(queriedNameLowerCase)) {
-                // Here we are creating "default" player objects because we only need their names.
-                Player newPlayerResult = Player.getDummyPlayer();
-                newPlayerResult.setName(name);
-                //todo:SAM: Leave the email id. I just figure out that it won't be used
-                playerList.add(newPlayerResult);
-            }
-        }
-        mSpinner.dismiss();
-        setAndUpdate(playerList);
     }
 
 }
@@ -0,0 +1,315 @@
+package mobileappdev.assassingame;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory copy of all user names for search-as-you-type. Names are kept in one array sorted
+ * by their lowercase form, with the lowercase forms alongside, so a prefix query is a binary
+ * search plus a scan of the hits and a substring query is a tight scan with no allocation per
+ * name. Recent result sets are kept in a small LRU, and a query that extends a cached complete
+ * one (typing "ab" after "a") only filters that earlier result.
+ *
+ * Pure Java so it can be benchmarked off-device; {@link UserNameDirectory} keeps it warm and
+ * persisted. Thread safe; all methods are synchronized.
+ */
+public class UserNameCache {
+
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 32;
+    private static final int FORMAT_VERSION = 1;
+    private static final int INCREMENTAL_BATCH = 64;
+
+    private static class Result {
+        final List<String> names;
+        final boolean complete; // false if the limit cut it short
+
+        Result(List<String> names, boolean complete) {
+            this.names = names;
+            this.complete = complete;
+        }
+    }
+
+    private String[] mNames = new String[0];
+    private String[] mKeys = new String[0]; // lowercase, same order as mNames
+    private int mSize;
+
+    private final int mResultCacheSize;
+    private final LinkedHashMap<String, Result> mResults;
+
+    public UserNameCache() {
+        this(DEFAULT_RESULT_CACHE_SIZE);
+    }
+
+    public UserNameCache(final int resultCacheSize) {
+        mResultCacheSize = resultCacheSize;
+        mResults = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > mResultCacheSize;
+            }
+        };
+    }
+
+    public static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.US);
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized boolean contains(String name) {
+        return indexOf(normalize(name), name) >= 0;
+    }
+
+    /**
+     * Replaces the contents with {@code names} in one sort, for warming up.
+     */
+    public synchronized void setAll(Collection<String> names) {
+        String[][] entries = new String[names.size()][];
+        int count = 0;
+        for (String name : names) {
+            entries[count++] = new String[]{normalize(name), name};
+        }
+        Arrays.sort(entries, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                int byKey = a[0].compareTo(b[0]);
+                return byKey != 0 ? byKey : a[1].compareTo(b[1]);
+            }
+        });
+
+        mNames = new String[count];
+        mKeys = new String[count];
+        mSize = 0;
+        for (String[] entry : entries) {
+            if (mSize > 0 && entry[1].equals(mNames[mSize - 1]))
+                continue;
+            mKeys[mSize] = entry[0];
+            mNames[mSize] = entry[1];
+            mSize++;
+        }
+        mResults.clear();
+    }
+
+    /**
+     * @return false if the name was already there
+     */
+    public synchronized boolean add(String name) {
+        String key = normalize(name);
+        int index = indexOf(key, name);
+        if (index >= 0)
+            return false;
+        int insertAt = -index - 1;
+        if (mSize == mNames.length) {
+            int capacity = Math.max(16, mSize * 2);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mKeys = Arrays.copyOf(mKeys, capacity);
+        }
+        System.arraycopy(mNames, insertAt, mNames, insertAt + 1, mSize - insertAt);
+        System.arraycopy(mKeys, insertAt, mKeys, insertAt + 1, mSize - insertAt);
+        mNames[insertAt] = name;
+        mKeys[insertAt] = key;
+        mSize++;
+        mResults.clear();
+        return true;
+    }
+
+    /**
+     * Adds many names at once. Large batches are merged with a single sort instead of one array
+     * shift per name.
+     */
+    public synchronized void addAll(Collection<String> names) {
+        if (names.size() <= INCREMENTAL_BATCH) {
+            for (String name : names) {
+                add(name);
+            }
+            return;
+        }
+        List<String> all = new ArrayList<>(mSize + names.size());
+        all.addAll(Arrays.asList(mNames).subList(0, mSize));
+        all.addAll(names);
+        setAll(all);
+    }
+
+    public synchronized boolean remove(String name) {
+        int index = indexOf(normalize(name), name);
+        if (index < 0)
+            return false;
+        System.arraycopy(mNames, index + 1, mNames, index, mSize - index - 1);
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        mSize--;
+        mNames[mSize] = null;
+        mKeys[mSize] = null;
+        mResults.clear();
+        return true;
+    }
+
+    /**
+     * @return up to {@code limit} names starting with {@code prefix}, ignoring case, in order
+     */
+    public synchronized List<String> findByPrefix(String prefix, int limit) {
+        return find(normalize(prefix), limit, true);
+    }
+
+    /**
+     * @return up to {@code limit} names containing {@code part}, ignoring case; names starting
+     * with it come first
+     */
+    public synchronized List<String> findContaining(String part, int limit) {
+        return find(normalize(part), limit, false);
+    }
+
+    private List<String> find(String query, int limit, boolean prefixOnly) {
+        String cacheKey = (prefixOnly ? "^" : "*") + query;
+        Result cached = mResults.get(cacheKey);
+        if (cached != null && (cached.complete || cached.names.size() >= limit)) {
+            return Collections.unmodifiableList(cached.names.subList(0, Math.min(limit, cached.names.size())));
+        }
+
+        Result result = refine(query, limit, prefixOnly);
+        if (result == null) {
+            result = prefixOnly ? scanPrefix(query, limit) : scanContaining(query, limit);
+        }
+        mResults.put(cacheKey, result);
+        return Collections.unmodifiableList(result.names);
+    }
+
+    /**
+     * Filters the complete result of a shorter query, if one is cached.
+     */
+    private Result refine(String query, int limit, boolean prefixOnly) {
+        for (int length = query.length() - 1; length >= 1; length--) {
+            Result shorter = mResults.get((prefixOnly ? "^" : "*") + query.substring(0, length));
+            if (shorter == null || !shorter.complete)
+                continue;
+            List<String> prefixed = new ArrayList<>();
+            List<String> others = new ArrayList<>();
+            for (String name : shorter.names) {
+                String key = normalize(name);
+                if (key.startsWith(query)) {
+                    prefixed.add(name);
+                } else if (!prefixOnly && key.contains(query)) {
+                    others.add(name);
+                }
+            }
+            return limit(prefixed, others, limit);
+        }
+        return null;
+    }
+
+    private Result scanPrefix(String prefix, int limit) {
+        List<String> names = new ArrayList<>();
+        int index = lowerBound(prefix);
+        while (index < mSize && mKeys[index].startsWith(prefix)) {
+            if (names.size() == limit)
+                return new Result(names, false);
+            names.add(mNames[index++]);
+        }
+        return new Result(names, true);
+    }
+
+    private Result scanContaining(String part, int limit) {
+        // the prefix matches are one contiguous run of the sorted array
+        int start = lowerBound(part);
+        int end = start;
+        while (end < mSize && mKeys[end].startsWith(part)) {
+            end++;
+        }
+        List<String> prefixed = new ArrayList<>(Arrays.asList(mNames).subList(start, end));
+        List<String> others = new ArrayList<>();
+        for (int i = 0; i < mSize; i++) {
+            if ((i < start || i >= end) && mKeys[i].indexOf(part) > 0) {
+                others.add(mNames[i]);
+                if (prefixed.size() + others.size() > limit)
+                    break; // one more than needed tells us the result is cut short
+            }
+        }
+        return limit(prefixed, others, limit);
+    }
+
+    private static Result limit(List<String> prefixed, List<String> others, int limit) {
+        List<String> names = new ArrayList<>(Math.min(limit, prefixed.size() + others.size()));
+        for (String name : prefixed) {
+            if (names.size() == limit)
+                return new Result(names, false);
+            names.add(name);
+        }
+        for (String name : others) {
+            if (names.size() == limit)
+                return new Result(names, false);
+            names.add(name);
+        }
+        return new Result(names, true);
+    }
+
+    /**
+     * @return index of the first key not less than {@code key}
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mKeys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the name, or (-(insertion point) - 1) like Arrays.binarySearch
+     */
+    private int indexOf(String key, String name) {
+        int index = lowerBound(key);
+        while (index < mSize && mKeys[index].equals(key)) {
+            int compare = mNames[index].compareTo(name);
+            if (compare == 0)
+                return index;
+            if (compare > 0)
+                break;
+            index++;
+        }
+        return -index - 1;
+    }
+
+    public synchronized void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            out.writeUTF(mNames[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Replaces the contents with names written by {@link #writeTo(OutputStream)}.
+     */
+    public void readFrom(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != FORMAT_VERSION)
+            throw new IOException("Unknown user name cache format");
+        int size = in.readInt();
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            names.add(in.readUTF());
+        }
+        setAll(names);
+    }
+}
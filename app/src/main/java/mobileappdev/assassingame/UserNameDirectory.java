@@ -0,0 +1,241 @@
+package mobileappdev.assassingame;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a {@link UserNameCache} of every user name warm for search-as-you-type: it is loaded
+ * from a file on a background thread, kept current by a child listener on
+ * {@link UserNameIndex#CHANGES}, and written back a few seconds after it changes.
+ *
+ * The file also keeps the server time of the newest change it includes, and the listener only
+ * asks for changes from then on, so a launch downloads the names added since the last one rather
+ * than all of them. Only the very first sync is a full download.
+ *
+ * Methods are to be called from the main thread.
+ */
+public class UserNameDirectory {
+
+    private static final String TAG = "UserNameDirectory";
+    private static final String FILE_NAME = "user_names.cache";
+    private static final long SAVE_DELAY = 5000; // in msec
+
+    public interface Listener {
+        void onUserNamesChanged();
+    }
+
+    private static UserNameDirectory sInstance;
+
+    private final UserNameCache mCache = new UserNameCache();
+    private final File mFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<String> mPendingAdds = new ArrayList<>();
+    private Listener mListener;
+    private boolean mStarted;
+    // server time of the newest change applied to mCache
+    private long mSyncedUntil;
+    // server time of the newest change received, which may still wait in mPendingAdds
+    private long mReceivedUntil;
+
+    private final Runnable mApplyPending = new Runnable() {
+        @Override
+        public void run() {
+            // the initial sync delivers one child per name; merging them in batches keeps it cheap
+            mCache.addAll(mPendingAdds);
+            mPendingAdds.clear();
+            mSyncedUntil = Math.max(mSyncedUntil, mReceivedUntil);
+            changed();
+        }
+    };
+
+    private final Runnable mSave = new Runnable() {
+        @Override
+        public void run() {
+            // the mark only covers names already in mCache and is taken before they are written,
+            // so the saved mark never runs ahead of the saved names
+            final long syncedUntil = mSyncedUntil;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    save(syncedUntil);
+                }
+            });
+        }
+    };
+
+    private final RealtimeStore.ChildListener mChangesListener = new RealtimeStore.ChildListener() {
+        @Override
+        public void onChildAdded(String key, Object value) {
+            onChildChanged(key, value);
+        }
+
+        @Override
+        public void onChildChanged(String key, Object value) {
+            Map<?, ?> change = value instanceof Map ? (Map<?, ?>) value : null;
+            if (change == null)
+                return;
+            Object changedAt = change.get(UserNameIndex.CHANGED_AT);
+            if (changedAt instanceof Number) {
+                mReceivedUntil = Math.max(mReceivedUntil, ((Number) changedAt).longValue());
+            }
+            if (Boolean.TRUE.equals(change.get(UserNameIndex.REMOVED))) {
+                mPendingAdds.remove(key);
+                mCache.remove(key);
+                if (mPendingAdds.isEmpty()) {
+                    mSyncedUntil = Math.max(mSyncedUntil, mReceivedUntil);
+                }
+                changed();
+                return;
+            }
+            mPendingAdds.add(key);
+            mHandler.removeCallbacks(mApplyPending);
+            mHandler.post(mApplyPending);
+        }
+
+        @Override
+        public void onChildRemoved(String key) {
+            // changes are only ever overwritten
+        }
+
+        @Override
+        public void onCancelled(Exception error) {
+            Log.w(TAG, "User name changes listener cancelled", error);
+        }
+    };
+
+    private UserNameDirectory(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    public static synchronized UserNameDirectory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UserNameDirectory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public UserNameCache getCache() {
+        return mCache;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Loads the saved names and starts following the index. Safe to call repeatedly.
+     */
+    public void start() {
+        if (mStarted)
+            return;
+        mStarted = true;
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                load();
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                notifyListener();
+                // inclusive, so changes made in the same millisecond as the last one aren't lost
+                FirebaseHelper.getStore().addChildListener(new RealtimeStore.Query(UserNameIndex.CHANGES)
+                        .orderByChild(UserNameIndex.CHANGED_AT).startAt(mSyncedUntil), mChangesListener);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Adds names learned elsewhere, e.g. from a remote search page.
+     */
+    public void merge(Collection<String> names) {
+        mCache.addAll(names);
+        changed();
+    }
+
+    private void changed() {
+        mHandler.removeCallbacks(mSave);
+        mHandler.postDelayed(mSave, SAVE_DELAY);
+        notifyListener();
+    }
+
+    private void notifyListener() {
+        if (mListener != null) {
+            mListener.onUserNamesChanged();
+        }
+    }
+
+    /**
+     * Runs before the listener starts, so mSyncedUntil needs no locking.
+     */
+    private void load() {
+        if (!mFile.exists())
+            return;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            UserNameCache saved = new UserNameCache();
+            saved.readFrom(in);
+            mCache.addAll(saved.findByPrefix("", Integer.MAX_VALUE));
+            try {
+                mSyncedUntil = new DataInputStream(in).readLong();
+            } catch (EOFException e) {
+                // written before the mark was kept; sync everything once more
+                mSyncedUntil = 0;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't load user names", e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private void save(long syncedUntil) {
+        File temp = new File(mFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            mCache.writeTo(out);
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeLong(syncedUntil);
+            data.flush();
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                Log.w(TAG, "Couldn't replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't save user names", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "close failed", e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package mobileappdev.assassingame;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prefix search over user names without downloading users/. The indexUsername cloud function
+ * keeps usernames_index/&lt;lowercase name&gt;/&lt;name&gt; = true for every account, so a search
+ * is a key range query whose cost grows with the page size rather than the number of users.
+ */
+public class UserNameIndex {
+
+    public static final String INDEX = "usernames_index";
+    /**
+     * usernames_by_time/&lt;name&gt; = {at: server time, removed: true if the account is gone},
+     * kept by the same function, for syncing everything that changed since a given time
+     */
+    public static final String CHANGES = "usernames_by_time";
+    public static final String CHANGED_AT = "at";
+    public static final String REMOVED = "removed";
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    private static final String HIGHEST_CHARACTER = "\uf8ff"; // sorts after any key the app creates
+
+    public static class Page {
+        private final String mPrefix;
+        private final List<String> mNames;
+        private final String mLastKey;
+        private final boolean mHasMore;
+
+        Page(String prefix, List<String> names, String lastKey, boolean hasMore) {
+            mPrefix = prefix;
+            mNames = names;
+            mLastKey = lastKey;
+            mHasMore = hasMore;
+        }
+
+        /**
+         * @return matching user names, with their original case
+         */
+        public List<String> getNames() {
+            return mNames;
+        }
+
+        public boolean hasMore() {
+            return mHasMore;
+        }
+
+        /**
+         * @return the following page, or null if this is the last one
+         */
+        public Task<Page> next(int pageSize) {
+            return mHasMore ? search(mPrefix, mLastKey, pageSize) : null;
+        }
+    }
+
+    public static String normalize(String userName) {
+        return userName.trim().toLowerCase(Locale.US);
+    }
+
+    public static Task<Page> search(String prefix, int pageSize) {
+        return search(normalize(prefix), null, pageSize);
+    }
+
+    private static Task<Page> search(final String prefix, final String startAfter, final int pageSize) {
+        // startAt() is inclusive, so a continued page asks for one extra key and drops it
+        int limit = pageSize + 1 + (startAfter == null ? 0 : 1);
+        RealtimeStore.Query query = new RealtimeStore.Query(INDEX)
+                .orderByKey()
+                .startAt(startAfter == null ? prefix : startAfter)
+                .endAt(prefix + HIGHEST_CHARACTER)
+                .limitToFirst(limit);
+
+        return FirebaseHelper.read(query, false, FirebaseHelper.DEFAULT_READ_TIMEOUT)
+                .continueWith(new Continuation<Object, Page>() {
+                    @Override
+                    public Page then(Task<Object> task) {
+                        List<String> names = new ArrayList<>();
+                        String lastKey = startAfter;
+                        int keys = 0;
+                        boolean hasMore = false;
+                        Map<?, ?> entries = task.getResult() instanceof Map
+                                ? (Map<?, ?>) task.getResult() : Collections.emptyMap();
+                        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                            if (entry.getKey().equals(startAfter))
+                                continue;
+                            if (keys == pageSize) {
+                                hasMore = true;
+                                break;
+                            }
+                            // several accounts can differ only in case
+                            if (entry.getValue() instanceof Map) {
+                                for (Object name : ((Map<?, ?>) entry.getValue()).keySet()) {
+                                    names.add(name.toString());
+                                }
+                            }
+                            lastKey = entry.getKey().toString();
+                            keys++;
+                        }
+                        return new Page(prefix, names, lastKey, hasMore);
+                    }
+                });
+    }
+}
@@ -0,0 +1,249 @@
+package mobileappdev.assassingame;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Read-only {@link Cursor} over rows held in memory, so code that reads cursors can run on the
+ * JVM without SQLite. Only positioning and the typed getters are supported.
+ */
+class ArrayCursor implements Cursor {
+
+    private final String[] mColumns;
+    private final Object[][] mRows;
+    private int mPosition = -1;
+    private boolean mClosed;
+
+    ArrayCursor(String[] columns, Object[][] rows) {
+        mColumns = columns;
+        mRows = rows;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.length;
+    }
+
+    @Override
+    public int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        mPosition = Math.max(-1, Math.min(mRows.length, position));
+        return mPosition >= 0 && mPosition < mRows.length;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(mRows.length - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPosition - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPosition == 0 && mRows.length > 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return mPosition == mRows.length - 1 && mRows.length > 0;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mPosition < 0;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return mPosition >= mRows.length;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i].equals(columnName))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0)
+            throw new IllegalArgumentException("No column " + columnName);
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumns[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    private Object value(int columnIndex) {
+        return mRows[mPosition][columnIndex];
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return (byte[]) value(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = value(columnIndex);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null)
+            return 0;
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null)
+            return 0;
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null)
+            return FIELD_TYPE_NULL;
+        if (value instanceof Float || value instanceof Double)
+            return FIELD_TYPE_FLOAT;
+        if (value instanceof Number)
+            return FIELD_TYPE_INTEGER;
+        return value instanceof byte[] ? FIELD_TYPE_BLOB : FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return value(columnIndex) == null;
+    }
+
+    @Override
+    public void deactivate() {
+    }
+
+    @Override
+    public boolean requery() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver resolver, Uri uri) {
+    }
+
+    // no @Override: newer platform versions add these to Cursor
+    public Uri getNotificationUri() {
+        return null;
+    }
+
+    public void setExtras(Bundle extras) {
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return null;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        return null;
+    }
+}
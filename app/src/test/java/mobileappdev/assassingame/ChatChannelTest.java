@@ -0,0 +1,30 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChatChannelTest {
+
+    @Test
+    public void playersOnlyReadTheirChannels() {
+        assertEquals(Arrays.asList(ChatChannel.GLOBAL),
+                ChatChannel.getReadableChannels(GameCharacter.ASSASSIN, true));
+        assertEquals(Arrays.asList(ChatChannel.GLOBAL, ChatChannel.TOWN),
+                ChatChannel.getReadableChannels(GameCharacter.DOCTOR, true));
+        assertEquals(Arrays.asList(ChatChannel.GLOBAL, ChatChannel.DEAD),
+                ChatChannel.getReadableChannels(GameCharacter.DETECTIVE, false));
+    }
+
+    @Test
+    public void theDeadOnlyWriteInTheGraveyard() {
+        assertFalse(ChatChannel.GLOBAL.canWrite(GameCharacter.CITIZEN, false));
+        assertTrue(ChatChannel.DEAD.canWrite(GameCharacter.CITIZEN, false));
+        assertTrue(ChatChannel.GLOBAL.canWrite(GameCharacter.CITIZEN, true));
+        assertEquals("games/g/messages_dead", ChatChannel.DEAD.getPath("g"));
+    }
+}
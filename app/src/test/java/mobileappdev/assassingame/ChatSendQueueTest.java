@@ -0,0 +1,142 @@
+package mobileappdev.assassingame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChatSendQueueTest {
+
+    private final List<Map<String, Object>> mWrites = new ArrayList<>();
+    private final List<ChatSendQueue.Transport.Callback> mCallbacks = new ArrayList<>();
+    private final List<Runnable> mScheduled = new ArrayList<>();
+    private long mNow;
+    private int mKeys;
+    private ChatSendQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new ChatSendQueue("games/g/messages", new ChatSendQueue.Transport() {
+            @Override
+            public String newKey() {
+                return String.format("k%03d", mKeys++);
+            }
+
+            @Override
+            public void write(Map<String, Object> update, Callback callback) {
+                mWrites.add(new TreeMap<>(update));
+                mCallbacks.add(callback);
+            }
+        }, new ChatSendQueue.Scheduler() {
+            @Override
+            public void schedule(Runnable task, long delay) {
+                mScheduled.add(task);
+            }
+
+            @Override
+            public long now() {
+                return mNow;
+            }
+        });
+    }
+
+    private void runScheduled() {
+        List<Runnable> tasks = new ArrayList<>(mScheduled);
+        mScheduled.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void rapidMessagesGoOutAsOneUpdate() {
+        mQueue.send(new ChatMessage("one", "amy"));
+        mQueue.send(new ChatMessage("two", "bob"));
+        assertTrue(mWrites.isEmpty());
+
+        runScheduled();
+        assertEquals(1, mWrites.size());
+        assertEquals(2, mWrites.get(0).size());
+        assertTrue(mWrites.get(0).containsKey("games/g/messages/k000"));
+        assertTrue(mWrites.get(0).containsKey("games/g/messages/k001"));
+    }
+
+    @Test
+    public void batchesWaitForTheOneInFlight() {
+        mQueue.send(new ChatMessage("one", "amy"));
+        runScheduled();
+        mQueue.send(new ChatMessage("two", "amy"));
+        mQueue.send(new ChatMessage("three", "amy"));
+        runScheduled();
+        assertEquals(1, mWrites.size()); // e.g. offline: nothing acknowledged yet
+
+        mNow = 250;
+        mCallbacks.get(0).onComplete(null, false);
+        runScheduled();
+        assertEquals(2, mWrites.size());
+        assertEquals(2, mWrites.get(1).size());
+
+        mCallbacks.get(1).onComplete(null, false);
+        ChatSendQueue.Metrics metrics = mQueue.getMetrics();
+        assertEquals(3, metrics.getSent());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(3, metrics.getMaxQueueDepth()); // unacknowledged messages count
+        assertEquals(250, metrics.getMaxLatency());
+    }
+
+    @Test
+    public void sendersAreRateLimitedSeparately() {
+        for (int i = 0; i < ChatSendQueue.BURST; i++) {
+            assertEquals(ChatSendQueue.Result.QUEUED, mQueue.send(new ChatMessage("spam", "amy")));
+        }
+        assertEquals(ChatSendQueue.Result.RATE_LIMITED, mQueue.send(new ChatMessage("spam", "amy")));
+        assertEquals(ChatSendQueue.Result.QUEUED, mQueue.send(new ChatMessage("hi", "bob")));
+
+        mNow += ChatSendQueue.REFILL_INTERVAL;
+        assertEquals(ChatSendQueue.Result.QUEUED, mQueue.send(new ChatMessage("spam", "amy")));
+        assertEquals(1, mQueue.getMetrics().getRateLimited());
+    }
+
+    @Test
+    public void networkFailuresAreRetried() {
+        mQueue.send(new ChatMessage("one", "amy"));
+        runScheduled();
+        mCallbacks.get(0).onComplete(new Exception("offline"), true);
+        runScheduled();
+        assertEquals(2, mWrites.size());
+        assertEquals(mWrites.get(0), mWrites.get(1));
+
+        mCallbacks.get(1).onComplete(null, false);
+        assertEquals(1, mQueue.getMetrics().getSent());
+        assertEquals(1, mQueue.getMetrics().getFailedWrites());
+    }
+
+    @Test
+    public void otherFailuresDropTheBatch() {
+        final List<ChatMessage> dropped = new ArrayList<>();
+        mQueue.setListener(new ChatSendQueue.Listener() {
+            @Override
+            public void onDropped(List<ChatMessage> messages, Exception error) {
+                dropped.addAll(messages);
+            }
+        });
+        mQueue.send(new ChatMessage("one", "amy"));
+        mQueue.send(new ChatMessage("two", "amy"));
+        runScheduled();
+        mCallbacks.get(0).onComplete(new Exception("permission denied"), false);
+        runScheduled();
+
+        assertEquals(1, mWrites.size());
+        assertEquals(2, dropped.size());
+        ChatSendQueue.Metrics metrics = mQueue.getMetrics();
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(0, metrics.getSent());
+        assertEquals(2, metrics.getDropped());
+    }
+}
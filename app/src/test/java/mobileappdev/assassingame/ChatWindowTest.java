@@ -0,0 +1,109 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChatWindowTest {
+
+    private static List<ChatMessage> messages(List<String> keys) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (String key : keys) {
+            messages.add(new ChatMessage(key, "sender"));
+        }
+        return messages;
+    }
+
+    private static List<String> keys(ChatWindow window) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < window.size(); i++) {
+            keys.add(window.getKey(i));
+        }
+        return keys;
+    }
+
+    @Test
+    public void liveMessagesEvictTheOldest() {
+        ChatWindow window = new ChatWindow(3);
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            window.onLiveMessage(key, new ChatMessage(key, "sender"));
+        }
+        assertEquals(Arrays.asList("b", "c", "d"), keys(window));
+        assertTrue(window.hasOlder());
+        assertFalse(window.hasNewer());
+    }
+
+    @Test
+    public void olderPagesEvictTheNewestAndPauseTheLiveTail() {
+        ChatWindow window = new ChatWindow(4);
+        window.onLiveMessage("e", new ChatMessage("e", "sender"));
+        window.onLiveMessage("f", new ChatMessage("f", "sender"));
+        List<String> older = Arrays.asList("b", "c", "d");
+        window.addOlderPage(older, messages(older), false);
+
+        assertEquals(Arrays.asList("b", "c", "d", "e"), keys(window));
+        assertFalse(window.hasOlder());
+        assertTrue(window.hasNewer());
+
+        // not contiguous with the window until the gap is paged in
+        window.onLiveMessage("g", new ChatMessage("g", "sender"));
+        assertEquals("e", window.getNewestKey());
+
+        List<String> newer = Arrays.asList("f", "g");
+        window.addNewerPage(newer, messages(newer), false);
+        assertEquals(Arrays.asList("d", "e", "f", "g"), keys(window));
+        assertFalse(window.hasNewer());
+        assertTrue(window.hasOlder());
+    }
+
+    @Test
+    public void missingNewerMessagesHoldBackTheLiveTail() {
+        ChatWindow window = new ChatWindow(10);
+        List<String> stored = Arrays.asList("a", "b");
+        window.addOlderPage(stored, messages(stored), true);
+        window.markNewerMissing();
+
+        window.onLiveMessage("z", new ChatMessage("z", "sender"));
+        assertEquals(Arrays.asList("a", "b"), keys(window));
+
+        List<String> newer = Arrays.asList("c", "d");
+        window.addNewerPage(newer, messages(newer), false);
+        assertFalse(window.hasNewer());
+        window.onLiveMessage("z", new ChatMessage("z", "sender"));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "z"), keys(window));
+    }
+
+    @Test
+    public void listenerSeesEveryChange() {
+        ChatWindow window = new ChatWindow(2);
+        final List<String> events = new ArrayList<>();
+        window.setListener(new ChatWindow.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                events.add("+" + position + "x" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                events.add("-" + position + "x" + count);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                events.add("~" + position);
+            }
+        });
+        window.onLiveMessage("b", new ChatMessage("hi", "sender"));
+        window.onLiveMessage("b", new ChatMessage("hi!", "sender"));
+        window.onLiveMessage("a", new ChatMessage("first", "sender"));
+        window.onLiveMessage("c", new ChatMessage("last", "sender"));
+        assertEquals(Arrays.asList("+0x1", "~0", "+0x1", "+2x1", "-0x1"), events);
+        assertEquals("hi!", window.get(0).getText());
+    }
+}
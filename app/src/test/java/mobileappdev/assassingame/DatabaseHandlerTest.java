@@ -0,0 +1,106 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streaming reads of {@link DatabaseHandler} over an in-memory cursor.
+ */
+public class DatabaseHandlerTest {
+
+    @Test
+    public void visitorsReuseOnePlayerAndCanStop() {
+        Object[][] rows = codedRows(10);
+        final List<Player> seen = new ArrayList<>();
+        int visited = DatabaseHandler.visitPlayers(new ArrayCursor(DatabaseHandler.PLAYER_COLUMNS, rows),
+                DatabaseHandler.copy(new Player("x", null, GameCharacter.UNDEFINED, true)),
+                new DatabaseHandler.RowVisitor() {
+                    @Override
+                    public boolean visit(Player player) {
+                        seen.add(player);
+                        return seen.size() < 3;
+                    }
+                });
+
+        assertEquals(3, visited);
+        assertSame(seen.get(0), seen.get(2));
+        assertEquals("player2", seen.get(2).getName());
+        assertEquals(GameCharacter.CITIZEN, seen.get(2).getGameCharacterType());
+        assertTrue(seen.get(2).isAlive());
+        assertEquals(InvitationStatus.ACCEPTED, seen.get(2).getInvitationStatus());
+    }
+
+    @Test
+    public void visitorsSeeEveryRowUnlessStopped() {
+        Player player = new Player("x", null, GameCharacter.UNDEFINED, true);
+        ArrayCursor cursor = new ArrayCursor(DatabaseHandler.PLAYER_COLUMNS, codedRows(10));
+        int visited = DatabaseHandler.visitPlayers(cursor, player,
+                new DatabaseHandler.RowVisitor() {
+                    @Override
+                    public boolean visit(Player player) {
+                        return true;
+                    }
+                });
+        assertEquals(10, visited);
+        assertTrue(cursor.isAfterLast());
+
+        cursor = new ArrayCursor(DatabaseHandler.PLAYER_COLUMNS, codedRows(10));
+        visited = DatabaseHandler.visitPlayers(cursor, player,
+                new DatabaseHandler.RowVisitor() {
+                    @Override
+                    public boolean visit(Player player) {
+                        return false;
+                    }
+                });
+        assertEquals(1, visited);
+        assertEquals(0, cursor.getPosition());
+    }
+
+    @Test
+    public void unknownCodesFallBackToDefaults() {
+        ArrayCursor cursor = new ArrayCursor(DatabaseHandler.PLAYER_COLUMNS,
+                new Object[][]{{"ghost", null, 99, 99, 99}});
+        cursor.moveToFirst();
+        Player player = DatabaseHandler.readPlayer(cursor, new Player("x", "x@example.com", GameCharacter.ASSASSIN, false));
+
+        assertEquals("ghost", player.getName());
+        assertNull(player.getEmailID());
+        assertEquals(GameCharacter.UNDEFINED, player.getGameCharacterType());
+        assertTrue(player.isAlive());
+        assertEquals(InvitationStatus.UNDEFINED, player.getInvitationStatus());
+    }
+
+    @Test
+    public void playersWhoLeftAreNotAlive() {
+        // DETECTIVE = 3, LEFT = 2, DECLINED = 3
+        ArrayCursor cursor = new ArrayCursor(DatabaseHandler.PLAYER_COLUMNS,
+                new Object[][]{{"gone", "gone@example.com", 3, 2, 3}});
+        cursor.moveToFirst();
+        Player player = DatabaseHandler.readPlayer(cursor, new Player("x", null, GameCharacter.UNDEFINED, true));
+
+        assertEquals(GameCharacter.DETECTIVE, player.getGameCharacterType());
+        assertFalse(player.isAlive());
+        assertEquals(InvitationStatus.DECLINED, player.getInvitationStatus());
+    }
+
+    /**
+     * Rows as stored now: character, status and invitation status are integer codes.
+     */
+    private static Object[][] codedRows(int count) {
+        Object[][] rows = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            // CITIZEN = 2 and ASSASSIN = 1, ALIVE = 0 and DEAD = 1, ACCEPTED = 2
+            rows[i] = new Object[]{"player" + i, "player" + i + "@example.com",
+                    i % 2 == 0 ? 2 : 1, i % 2 == 0 ? 0 : 1, 2};
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,60 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EnumCodecTest {
+
+    @Test
+    public void codesRoundTrip() {
+        for (GameCharacter value : GameCharacter.values()) {
+            assertEquals(value, GameCharacter.decode((long) value.getCode(), null));
+        }
+        for (PlayerStatus value : PlayerStatus.values()) {
+            assertEquals(value, PlayerStatus.decode(value.getCode(), null));
+        }
+        for (GameStatus value : GameStatus.values()) {
+            assertEquals(value, GameStatus.decode(String.valueOf(value.getCode()), null));
+        }
+        for (InvitationStatus value : InvitationStatus.values()) {
+            assertEquals(value, InvitationStatus.fromCode(value.getCode(), null));
+        }
+    }
+
+    @Test
+    public void storedCodesDoNotChange() {
+        // SQLite rows and Firebase data already hold these
+        assertEquals(0, GameCharacter.UNDEFINED.getCode());
+        assertEquals(4, GameCharacter.DOCTOR.getCode());
+        assertEquals(3, PlayerStatus.NEWLY_JOINED.getCode());
+        assertEquals(1, GameStatus.FINISHED.getCode());
+        assertEquals(1, InvitationStatus.INVITED.getCode());
+        assertEquals(3, GameEngine.Action.LEAVE.getCode());
+    }
+
+    @Test
+    public void decodesLegacyNamesInAnyCasing() {
+        assertEquals(GameCharacter.ASSASSIN, GameCharacter.decode("Assassin", null));
+        assertEquals(PlayerStatus.NEWLY_JOINED, PlayerStatus.decode("Newly_joined", null));
+        assertEquals(GameStatus.FINISHED, GameStatus.decode("finished", null));
+        assertEquals(InvitationStatus.DECLINED, InvitationStatus.getStatusFrom("DECLINED"));
+        assertEquals(GameEngine.Reason.TOO_FAR, GameEngine.Reason.getReasonFrom("too_far"));
+    }
+
+    @Test
+    public void unknownValuesGiveTheFallback() {
+        assertEquals(PlayerStatus.ALIVE, PlayerStatus.decode(null, PlayerStatus.ALIVE));
+        assertEquals(PlayerStatus.ALIVE, PlayerStatus.decode("ALIVEX", PlayerStatus.ALIVE));
+        assertEquals(PlayerStatus.ALIVE, PlayerStatus.decode(-1L, PlayerStatus.ALIVE));
+        assertNull(GameStatus.decode(2, null));
+        assertNull(GameStatus.decode("", null));
+        assertNull(GameCharacter.decode(true, null));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void strictParsingStillThrows() {
+        GameCharacter.getCharacterFrom("villain");
+    }
+}
@@ -0,0 +1,64 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GameBootstrapTest {
+
+    @Test
+    public void everyRoleIsHandedOutOnceThereAreEnoughPlayers() {
+        Map<GameCharacter, Integer> counts = countRoles(new GameBootstrap("g")
+                .addPlayers(Arrays.asList("a", "b", "c", "d", "e"))
+                .assignRoles(new Random(7)));
+        assertEquals(1, (int) counts.get(GameCharacter.ASSASSIN));
+        assertEquals(1, (int) counts.get(GameCharacter.DETECTIVE));
+        assertEquals(1, (int) counts.get(GameCharacter.DOCTOR));
+        assertEquals(2, (int) counts.get(GameCharacter.CITIZEN));
+    }
+
+    @Test
+    public void smallGamesKeepACitizen() {
+        Map<GameCharacter, Integer> counts = countRoles(new GameBootstrap("g")
+                .addPlayers(Arrays.asList("a", "b"))
+                .assignRoles(new Random(7)));
+        assertEquals(1, (int) counts.get(GameCharacter.ASSASSIN));
+        assertEquals(1, (int) counts.get(GameCharacter.CITIZEN));
+        assertFalse(counts.containsKey(GameCharacter.DETECTIVE));
+    }
+
+    @Test
+    public void theStateIsLeftToTheServer() {
+        Map<String, Object> update = new GameBootstrap("g")
+                .setAdmin("a")
+                .addPlayers(Arrays.asList("a", "b"))
+                .assignRoles(new Random(7))
+                .build();
+        for (String path : update.keySet()) {
+            assertFalse(path, path.startsWith("games/g/state") || path.startsWith("games/g/players")
+                    || path.equals("games/g/status"));
+        }
+        assertEquals("a", update.get("games/g/admin"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void aGameNeedsAnAdmin() {
+        new GameBootstrap("g").addPlayers(Collections.singletonList("a")).build();
+    }
+
+    private static Map<GameCharacter, Integer> countRoles(GameBootstrap bootstrap) {
+        Map<GameCharacter, Integer> counts = new EnumMap<>(GameCharacter.class);
+        for (GameCharacter character : bootstrap.getRoles().values()) {
+            Integer count = counts.get(character);
+            counts.put(character, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,170 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameEngineTest {
+
+    private static GameEngine newGame() {
+        Map<String, GameCharacter> roles = new LinkedHashMap<>();
+        roles.put("ann", GameCharacter.CITIZEN);
+        roles.put("bob", GameCharacter.CITIZEN);
+        roles.put("doc", GameCharacter.DOCTOR);
+        roles.put("max", GameCharacter.ASSASSIN);
+        roles.put("tom", GameCharacter.DETECTIVE);
+        GameEngine engine = new GameEngine(roles);
+        for (int i = 0; i < engine.size(); i++) {
+            engine.move(i, 40.0, -74.0);
+        }
+        return engine;
+    }
+
+    @Test
+    public void theAssassinOnlyKillsTheTargetUpClose() {
+        GameEngine engine = newGame();
+        assertEquals("ann", engine.getName(engine.getTarget()));
+        assertEquals(GameEngine.Reason.NOT_TARGET, engine.check(GameEngine.Action.KILL, "max", "bob"));
+
+        engine.move("ann", 40.01, -74.0);
+        assertEquals(GameEngine.Reason.TOO_FAR, engine.check(GameEngine.Action.KILL, "max", "ann"));
+        engine.move("ann", 40.0, -74.0);
+
+        assertEquals(GameEngine.Reason.OK, engine.apply(GameEngine.Action.KILL, "max", "ann"));
+        assertEquals(PlayerStatus.DEAD, engine.getStatus(engine.indexOf("ann")));
+        assertEquals("bob", engine.getName(engine.getTarget()));
+        assertEquals(3, engine.getCitizensAlive());
+        assertEquals(GameEngine.Reason.TARGET_DEAD, engine.check(GameEngine.Action.KILL, "max", "ann"));
+    }
+
+    @Test
+    public void theDoctorRevivesTheDead() {
+        GameEngine engine = newGame();
+        assertEquals(GameEngine.Reason.TARGET_ALIVE, engine.check(GameEngine.Action.REVIVE, "doc", "ann"));
+        engine.apply(GameEngine.Action.KILL, "max", "ann");
+        assertEquals(GameEngine.Reason.NOT_ALLOWED, engine.check(GameEngine.Action.REVIVE, "bob", "ann"));
+        assertEquals(GameEngine.Reason.OK, engine.apply(GameEngine.Action.REVIVE, "doc", "ann"));
+        assertEquals(4, engine.getCitizensAlive());
+        assertEquals("ann", engine.getName(engine.getTarget()));
+    }
+
+    @Test
+    public void arrestingTheAssassinEndsTheGame() {
+        GameEngine engine = newGame();
+        assertEquals(GameEngine.Reason.NOT_ASSASSIN, engine.check(GameEngine.Action.ARREST, "tom", "bob"));
+        assertEquals(GameEngine.Reason.OK, engine.apply(GameEngine.Action.ARREST, "tom", "max"));
+        assertTrue(engine.isFinished());
+        assertFalse(engine.hasAssassinWon());
+        assertEquals(GameEngine.Reason.GAME_OVER, engine.check(GameEngine.Action.KILL, "max", "ann"));
+    }
+
+    @Test
+    public void theAssassinWinsOnceNoCivilianIsLeft() {
+        GameEngine engine = newGame();
+        while (!engine.isFinished()) {
+            int target = engine.getTarget();
+            assertEquals(GameEngine.Reason.OK, engine.apply(GameEngine.Action.KILL, engine.indexOf("max"), target));
+        }
+        assertTrue(engine.hasAssassinWon());
+        assertTrue(GameEngine.isWinner(GameCharacter.ASSASSIN, true));
+        assertFalse(GameEngine.isWinner(GameCharacter.DOCTOR, true));
+    }
+
+    @Test
+    public void leavingCountsLikeOnTheServer() {
+        GameEngine engine = newGame();
+        assertEquals(GameEngine.Reason.OK, engine.apply(GameEngine.Action.LEAVE, "bob", null));
+        assertEquals(3, engine.getCitizensAlive());
+        // a leaving detective isn't taken off the counter
+        engine.apply(GameEngine.Action.LEAVE, "tom", null);
+        assertEquals(3, engine.getCitizensAlive());
+        assertEquals(GameEngine.Reason.NOT_ALLOWED, engine.check(GameEngine.Action.LEAVE, "tom", null));
+        engine.apply(GameEngine.Action.LEAVE, "max", null);
+        assertTrue(engine.isFinished());
+        assertFalse(engine.hasAssassinWon());
+    }
+
+    @Test
+    public void serverStatusesMoveTheTarget() {
+        GameEngine engine = newGame();
+        final List<String> targets = new ArrayList<>();
+        engine.setListener(new GameEngine.Listener() {
+            @Override
+            public void onStatusChanged(int player, PlayerStatus status) {
+            }
+
+            @Override
+            public void onTargetChanged(int target) {
+                targets.add(String.valueOf(target));
+            }
+
+            @Override
+            public void onGameFinished(boolean assassinWon, String description) {
+            }
+        });
+        engine.setStatus("bob", PlayerStatus.DEAD);
+        engine.setStatus("ann", PlayerStatus.LEFT);
+        engine.setStatus("bob", PlayerStatus.ALIVE);
+        assertEquals(3, engine.getCitizensAlive());
+        assertEquals("[2, 1]", targets.toString());
+        assertFalse(engine.isFinished());
+    }
+
+    /**
+     * Random commands and events must keep the counters consistent with the statuses.
+     */
+    @Test
+    public void fuzzedGamesStayConsistent() {
+        Random random = new Random(1);
+        for (int game = 0; game < 200; game++) {
+            List<String> names = new ArrayList<>();
+            int players = 2 + random.nextInt(30);
+            for (int i = 0; i < players; i++) {
+                names.add("p" + i);
+            }
+            Map<String, GameCharacter> roles = new LinkedHashMap<>();
+            GameEngine.assignRoles(names, random, roles);
+            GameEngine engine = new GameEngine(roles);
+
+            for (int step = 0; step < 500 && !engine.isFinished(); step++) {
+                int actor = random.nextInt(players);
+                int target = random.nextInt(players);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        engine.move(actor, 40 + random.nextDouble() * 0.001, -74 + random.nextDouble() * 0.001);
+                        break;
+                    case 1:
+                        engine.setStatus(target, PlayerStatus.values()[random.nextInt(3)]);
+                        break;
+                    default:
+                        engine.apply(GameEngine.Action.values()[random.nextInt(4)], actor, target);
+                }
+                assertConsistent(engine);
+            }
+        }
+    }
+
+    private static void assertConsistent(GameEngine engine) {
+        int alive = 0;
+        int firstTarget = GameEngine.NONE;
+        for (int i = 0; i < engine.size(); i++) {
+            if (engine.getRole(i) != GameCharacter.ASSASSIN && engine.isAlive(i)) {
+                alive++;
+                if (firstTarget == GameEngine.NONE) {
+                    firstTarget = i;
+                }
+            }
+        }
+        assertEquals(firstTarget, engine.getTarget());
+        // leaving detectives and the server's rules can only leave the counter at or above the truth
+        assertTrue(engine.getCitizensAlive() >= alive);
+    }
+}
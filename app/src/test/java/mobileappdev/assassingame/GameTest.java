@@ -0,0 +1,53 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameTest {
+
+    @Test
+    public void decodesPlayersOrderedByName() {
+        Map<String, Object> players = new HashMap<>();
+        players.put("zoe", player("ASSASSIN", "ALIVE"));
+        players.put("ann", player("doctor", "dead"));
+
+        Map<String, Player> decoded = Game.decodePlayers(players);
+
+        assertEquals("[ann, zoe]", decoded.keySet().toString());
+        assertEquals(GameCharacter.DOCTOR, decoded.get("ann").getGameCharacterType());
+        assertFalse(decoded.get("ann").isAlive());
+        assertTrue(decoded.get("zoe").isAlive());
+    }
+
+    @Test
+    public void decodesPlayerCodes() {
+        Map<String, Object> players = new HashMap<>();
+        players.put("ann", player((long) GameCharacter.DETECTIVE.getCode(), (long) PlayerStatus.DEAD.getCode()));
+        players.put("bob", player(null, null));
+
+        Map<String, Player> decoded = Game.decodePlayers(players);
+
+        assertEquals(GameCharacter.DETECTIVE, decoded.get("ann").getGameCharacterType());
+        assertFalse(decoded.get("ann").isAlive());
+        assertEquals(GameCharacter.UNDEFINED, decoded.get("bob").getGameCharacterType());
+        assertTrue(decoded.get("bob").isAlive());
+    }
+
+    @Test
+    public void decodesNothingAsNoPlayers() {
+        assertTrue(Game.decodePlayers(null).isEmpty());
+    }
+
+    private static Map<String, Object> player(Object role, Object status) {
+        Map<String, Object> player = new HashMap<>();
+        player.put("role", role);
+        player.put("status", status);
+        return player;
+    }
+}
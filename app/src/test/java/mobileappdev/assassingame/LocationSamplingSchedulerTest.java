@@ -0,0 +1,84 @@
+package mobileappdev.assassingame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationSamplingSchedulerTest {
+
+    private static final long SLOW_DOWN_DELAY = 20000;
+
+    private long mNow;
+    private LocationSamplingScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        LocationSamplingScheduler.Clock clock = new LocationSamplingScheduler.Clock() {
+            @Override
+            public long now() {
+                return mNow;
+            }
+        };
+        mScheduler = new LocationSamplingScheduler(new ProximitySamplingPolicy(50),
+                ProximitySamplingPolicy.NORMAL, clock, SLOW_DOWN_DELAY);
+    }
+
+    @Test
+    public void speedsUpImmediately() {
+        assertTrue(mScheduler.update(40, GameCharacter.CITIZEN, true));
+        assertEquals(ProximitySamplingPolicy.CLOSE, mScheduler.getCurrentRate());
+    }
+
+    @Test
+    public void slowsDownOnlyAfterDelay() {
+        assertFalse(mScheduler.update(5000, GameCharacter.CITIZEN, true));
+        mNow += SLOW_DOWN_DELAY - 1;
+        assertFalse(mScheduler.update(5000, GameCharacter.CITIZEN, true));
+        assertEquals(ProximitySamplingPolicy.NORMAL, mScheduler.getCurrentRate());
+
+        mNow += 1;
+        assertTrue(mScheduler.update(5000, GameCharacter.CITIZEN, true));
+        assertEquals(ProximitySamplingPolicy.IDLE, mScheduler.getCurrentRate());
+    }
+
+    @Test
+    public void flappingAroundThresholdDoesNotSlowDown() {
+        for (int i = 0; i < 10; i++) {
+            assertFalse(mScheduler.update(5000, GameCharacter.CITIZEN, true));
+            mNow += SLOW_DOWN_DELAY / 2;
+            assertFalse(mScheduler.update(300, GameCharacter.CITIZEN, true));
+            mNow += SLOW_DOWN_DELAY / 2;
+        }
+        assertEquals(ProximitySamplingPolicy.NORMAL, mScheduler.getCurrentRate());
+    }
+
+    @Test
+    public void deadPlayersDropToSlowestRateRightAway() {
+        assertTrue(mScheduler.update(Double.POSITIVE_INFINITY, GameCharacter.DOCTOR, false));
+        assertEquals(ProximitySamplingPolicy.DEAD, mScheduler.getCurrentRate());
+    }
+
+    @Test
+    public void deadPlayersKeepUpWithAnApproachingDoctor() {
+        mScheduler.update(Double.POSITIVE_INFINITY, GameCharacter.CITIZEN, false);
+        assertTrue(mScheduler.update(100, GameCharacter.CITIZEN, false));
+        assertEquals(ProximitySamplingPolicy.CLOSE, mScheduler.getCurrentRate());
+
+        LocationSamplingPolicy policy = mScheduler.getPolicy();
+        assertTrue(policy.isRelevant(GameCharacter.CITIZEN, false, GameCharacter.DOCTOR, true));
+        assertFalse(policy.isRelevant(GameCharacter.CITIZEN, false, GameCharacter.ASSASSIN, true));
+    }
+
+    @Test
+    public void relevanceDependsOnRole() {
+        LocationSamplingPolicy policy = mScheduler.getPolicy();
+        assertTrue(policy.isRelevant(GameCharacter.ASSASSIN, true, GameCharacter.CITIZEN, true));
+        assertFalse(policy.isRelevant(GameCharacter.ASSASSIN, true, GameCharacter.CITIZEN, false));
+        assertTrue(policy.isRelevant(GameCharacter.DOCTOR, true, GameCharacter.CITIZEN, false));
+        assertFalse(policy.isRelevant(GameCharacter.CITIZEN, true, GameCharacter.DOCTOR, true));
+        assertTrue(policy.isRelevant(GameCharacter.CITIZEN, true, GameCharacter.ASSASSIN, true));
+    }
+}
@@ -0,0 +1,42 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongHashMapTest {
+
+    @Test
+    public void putGetRemove_survivesGrowthAndProbeRuns() {
+        LongHashMap<String> map = new LongHashMap<>();
+        // keys one table-width apart tend to collide before the table grows
+        for (long i = 0; i < 1000; i++) {
+            map.put(i << 32 | (i & 0xf), "v" + i);
+        }
+        assertEquals(1000, map.size());
+        for (long i = 0; i < 1000; i += 2) {
+            assertEquals("v" + i, map.remove(i << 32 | (i & 0xf)));
+        }
+        assertEquals(500, map.size());
+        for (long i = 0; i < 1000; i++) {
+            String value = map.get(i << 32 | (i & 0xf));
+            if (i % 2 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals("v" + i, value);
+            }
+        }
+    }
+
+    @Test
+    public void put_replacesExistingValue() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertNull(map.put(-1L, "a"));
+        assertEquals("a", map.put(-1L, "b"));
+        assertEquals(1, map.size());
+        assertEquals("b", map.get(-1L));
+        map.clear();
+        assertNull(map.get(-1L));
+    }
+}
@@ -0,0 +1,152 @@
+package mobileappdev.assassingame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MarkerClustererTest {
+
+    private static final double LAT = 42.0;
+    private static final double LNG = -76.0;
+    private static final double METER = 1.0 / 111000; // roughly, in degrees of latitude
+
+    private MarkerClusterer mClusterer;
+
+    @Before
+    public void setUp() {
+        mClusterer = new MarkerClusterer(96, 3, 18);
+    }
+
+    private static MarkerClusterer.Viewport around(double lat, double lng, double halfSpan) {
+        return new MarkerClusterer.Viewport(lat - halfSpan, lng - halfSpan, lat + halfSpan, lng + halfSpan);
+    }
+
+    @Test
+    public void showsEveryoneUntilCameraIsKnown() {
+        for (int i = 0; i < 5; i++) {
+            mClusterer.update("p" + i, LAT + i * 10, LNG, GameCharacter.CITIZEN);
+        }
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        assertEquals(5, changes.getShownPlayers().size());
+        assertTrue(changes.getAddedClusters().isEmpty());
+    }
+
+    @Test
+    public void clustersCrowdsPerRole() {
+        for (int i = 0; i < 4; i++) {
+            mClusterer.update("citizen" + i, LAT + i * METER, LNG, GameCharacter.CITIZEN);
+        }
+        mClusterer.update("doctor", LAT, LNG, GameCharacter.DOCTOR);
+        mClusterer.setCamera(around(LAT, LNG, 0.1), 10);
+
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        assertEquals(1, changes.getAddedClusters().size());
+        MarkerClusterer.Cluster cluster = changes.getAddedClusters().get(0);
+        assertEquals(GameCharacter.CITIZEN, cluster.getRole());
+        assertEquals(4, cluster.getSize());
+        assertEquals(1, changes.getShownPlayers().size());
+        assertTrue(mClusterer.isShown("doctor"));
+        assertFalse(mClusterer.isShown("citizen0"));
+    }
+
+    @Test
+    public void cullsPlayersOutsideTheCamera() {
+        mClusterer.update("near", LAT, LNG, GameCharacter.CITIZEN);
+        mClusterer.update("far", LAT + 1, LNG + 1, GameCharacter.CITIZEN);
+        mClusterer.setCamera(around(LAT, LNG, 0.001), 17);
+        mClusterer.cluster();
+        assertTrue(mClusterer.isShown("near"));
+        assertFalse(mClusterer.isShown("far"));
+
+        mClusterer.setCamera(around(LAT + 1, LNG + 1, 0.001), 17);
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        assertEquals("far", changes.getShownPlayers().get(0));
+        assertEquals("near", changes.getHiddenPlayers().get(0));
+    }
+
+    @Test
+    public void reportsOnlyWhatChanged() {
+        for (int i = 0; i < 3; i++) {
+            mClusterer.update("citizen" + i, LAT, LNG + i * METER, GameCharacter.CITIZEN);
+        }
+        mClusterer.update("lonely", LAT + 0.05, LNG, GameCharacter.ASSASSIN);
+        mClusterer.setCamera(around(LAT, LNG, 0.1), 10);
+        mClusterer.cluster();
+
+        assertTrue(mClusterer.cluster().isEmpty());
+
+        // a fourth citizen joins the crowd: the cluster grows, nothing else is touched
+        mClusterer.update("citizen3", LAT, LNG, GameCharacter.CITIZEN);
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        assertEquals(1, changes.getUpdatedClusters().size());
+        assertEquals(4, changes.getUpdatedClusters().get(0).getSize());
+        assertTrue(changes.getShownPlayers().isEmpty());
+        assertTrue(changes.getAddedClusters().isEmpty());
+    }
+
+    @Test
+    public void crowdSplitsWhenItShrinks() {
+        for (int i = 0; i < 3; i++) {
+            mClusterer.update("citizen" + i, LAT, LNG, GameCharacter.CITIZEN);
+        }
+        mClusterer.setCamera(around(LAT, LNG, 0.1), 10);
+        mClusterer.cluster();
+
+        mClusterer.remove("citizen2");
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        assertEquals(1, changes.getRemovedClusters().size());
+        assertEquals(2, changes.getShownPlayers().size());
+    }
+
+    @Test
+    public void noClusteringWhenZoomedIn() {
+        for (int i = 0; i < 5; i++) {
+            mClusterer.update("citizen" + i, LAT, LNG, GameCharacter.CITIZEN);
+        }
+        mClusterer.setCamera(around(LAT, LNG, 0.1), 10);
+        mClusterer.cluster();
+
+        mClusterer.setCamera(around(LAT, LNG, 0.001), 19);
+        MarkerClusterer.Changes changes = mClusterer.cluster();
+        assertEquals(1, changes.getRemovedClusters().size());
+        assertEquals(5, changes.getShownPlayers().size());
+    }
+
+    @Test
+    public void panningMatchesClusteringFromScratch() {
+        // a row of players a cell or two apart, so a small view holds fewer cells than players
+        for (int i = 0; i < 60; i++) {
+            mClusterer.update("p" + i, LAT, LNG + i * 0.002, GameCharacter.CITIZEN);
+        }
+        for (int step = 0; step < 30; step++) {
+            MarkerClusterer.Viewport viewport = around(LAT, LNG + step * 0.004, 0.001);
+            mClusterer.setCamera(viewport, 17);
+            mClusterer.cluster();
+
+            MarkerClusterer fresh = new MarkerClusterer(96, 3, 18);
+            for (int i = 0; i < 60; i++) {
+                fresh.update("p" + i, LAT, LNG + i * 0.002, GameCharacter.CITIZEN);
+            }
+            fresh.setCamera(viewport, 17);
+            fresh.cluster();
+            for (int i = 0; i < 60; i++) {
+                assertEquals("p" + i + " at step " + step, fresh.isShown("p" + i), mClusterer.isShown("p" + i));
+            }
+        }
+    }
+
+    @Test
+    public void viewportAcrossAntimeridian() {
+        mClusterer.update("east", 0, 179.99, GameCharacter.CITIZEN);
+        mClusterer.update("west", 0, -179.99, GameCharacter.CITIZEN);
+        mClusterer.update("elsewhere", 0, 0, GameCharacter.CITIZEN);
+        mClusterer.setCamera(new MarkerClusterer.Viewport(-0.1, 179.9, 0.1, -179.9), 15);
+        mClusterer.cluster();
+        assertTrue(mClusterer.isShown("east"));
+        assertTrue(mClusterer.isShown("west"));
+        assertFalse(mClusterer.isShown("elsewhere"));
+    }
+}
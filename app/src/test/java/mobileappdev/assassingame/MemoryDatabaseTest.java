@@ -0,0 +1,283 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryDatabaseTest {
+
+    private static class RecordingListener implements RealtimeStore.ChildListener, RealtimeStore.ValueListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onChildAdded(String key, Object value) {
+            events.add("added " + key);
+        }
+
+        @Override
+        public void onChildChanged(String key, Object value) {
+            events.add("changed " + key);
+        }
+
+        @Override
+        public void onChildRemoved(String key) {
+            events.add("removed " + key);
+        }
+
+        @Override
+        public void onValueChanged(String path, Object value) {
+            events.add("value " + value);
+        }
+
+        @Override
+        public void onCancelled(Exception error) {
+            events.add("cancelled");
+        }
+    }
+
+    @Test
+    public void writesAreStoredLikeTheRealtimeDatabase() {
+        MemoryDatabase database = new MemoryDatabase();
+        database.setValue("games/g/citizens_alive", 3);
+        assertEquals(3L, database.getValue("/games/g/citizens_alive/"));
+
+        database.setValue("games/g/citizens_alive", null);
+        // deleting the last child removes the parents too
+        assertNull(database.getValue("games"));
+    }
+
+    @Test
+    public void multiPathUpdatesWriteEverythingAtOnce() {
+        MemoryDatabase database = new MemoryDatabase();
+        Map<String, Object> update = new HashMap<>();
+        update.put("players/ann/status", "ALIVE");
+        update.put("positions/ann/status", "ALIVE");
+        database.updateChildren("games/g", update);
+        assertEquals("ALIVE", database.getValue("games/g/positions/ann/status"));
+        assertEquals(1, database.getStats().getWrites());
+        assertEquals(2, database.getStats().getPathsWritten());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updatesCannotOverlap() {
+        Map<String, Object> update = new HashMap<>();
+        update.put("a", "x");
+        update.put("a/b", "y");
+        new MemoryDatabase().updateChildren("", update);
+    }
+
+    @Test
+    public void listenersOnlyHearAboutChanges() {
+        MemoryDatabase database = new MemoryDatabase();
+        database.setValue("positions/ann/lat", 1.0);
+        RecordingListener children = new RecordingListener();
+        RecordingListener value = new RecordingListener();
+        database.addChildListener("positions", (RealtimeStore.ChildListener) children);
+        database.addValueListener("status", (RealtimeStore.ValueListener) value);
+
+        database.setValue("positions/bob/lat", 2.0);
+        database.setValue("positions/ann/lat", 1.0); // unchanged
+        database.setValue("positions/ann/lat", 3.0);
+        database.setValue("positions/bob", null);
+        database.setValue("status", "STARTED");
+
+        assertEquals("[added ann, added bob, changed ann, removed bob]", children.events.toString());
+        assertEquals("[value null, value STARTED]", value.events.toString());
+    }
+
+    @Test
+    public void listenersAddedWhileDispatchingSeeWritesInOrder() {
+        final MemoryDatabase database = new MemoryDatabase();
+        final RecordingListener outcome = new RecordingListener();
+        database.addChildListener("actions", new RealtimeStore.ChildListener() {
+            @Override
+            public void onChildAdded(String key, Object value) {
+                database.setValue("actions/" + key + "/outcome", "ok");
+            }
+
+            @Override
+            public void onChildChanged(String key, Object value) {
+            }
+
+            @Override
+            public void onChildRemoved(String key) {
+            }
+
+            @Override
+            public void onCancelled(Exception error) {
+            }
+        });
+        String key = database.push("actions");
+        database.addValueListener("actions/" + key + "/outcome", outcome);
+        database.setValue("actions/" + key + "/type", "KILL");
+        assertEquals("[value null, value ok]", outcome.events.toString());
+    }
+
+    @Test
+    public void abortedTransactionsWriteNothing() {
+        MemoryDatabase database = new MemoryDatabase();
+        database.setValue("count", 1);
+        final List<Boolean> committed = new ArrayList<>();
+        RealtimeStore.TransactionListener listener = new RealtimeStore.TransactionListener() {
+            @Override
+            public void onComplete(Exception error, boolean wasCommitted, Object value) {
+                committed.add(wasCommitted);
+            }
+        };
+        database.runTransaction("count", new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object current) {
+                return RealtimeStore.ABORT;
+            }
+        }, listener);
+        database.runTransaction("count", new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object current) {
+                return (Long) current + 1;
+            }
+        }, listener);
+        assertEquals("[false, true]", committed.toString());
+        assertEquals(2L, database.getValue("count"));
+        assertEquals(2, database.getStats().getWrites());
+    }
+
+    @Test
+    public void concurrentTransactionsRetryOnConflict() {
+        MemoryDatabase database = new MemoryDatabase().setHeld(true);
+        database.setValue("count", 0);
+        database.deliver();
+        RealtimeStore.Transaction increment = new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object current) {
+                return (Long) current + 1;
+            }
+        };
+        // sent together, so all three start from 0
+        for (int i = 0; i < 3; i++) {
+            database.runTransaction("count", increment, null);
+        }
+        while (database.deliver() > 0) {
+        }
+        assertEquals(3L, database.getValue("count"));
+        // the second is turned away once, the third twice
+        assertEquals(3, database.getStats().getTransactionRetries());
+        assertEquals(0, database.getStats().getTransactionFailures());
+    }
+
+    @Test
+    public void deliveredBytesCountEveryListener() {
+        MemoryDatabase database = new MemoryDatabase();
+        database.addValueListener("status", new RecordingListener());
+        database.addValueListener("status", new RecordingListener());
+        database.resetStats();
+        database.setValue("status", "STARTED");
+        MemoryDatabase.Stats stats = database.getStats();
+        assertEquals("status".length() + 3 + MemoryDatabase.sizeOf("STARTED"), stats.getBytesWritten());
+        assertEquals(2 * MemoryDatabase.sizeOf("STARTED"), stats.getBytesDelivered());
+        assertEquals(2, stats.getEvents());
+    }
+
+    @Test
+    public void queriesOrderFilterAndLimitChildren() {
+        MemoryDatabase database = new MemoryDatabase();
+        database.setValue("games/a/created_at", 3);
+        database.setValue("games/b/created_at", 1);
+        database.setValue("games/c/created_at", 2);
+        database.setValue("games/d/type", "private");
+
+        RecordingListener newest = new RecordingListener();
+        database.addValueListener(new RealtimeStore.Query("games").orderByChild("created_at").limitToLast(2),
+                (RealtimeStore.ValueListener) newest);
+        RecordingListener range = new RecordingListener();
+        database.addChildListener(new RealtimeStore.Query("games").orderByKey().startAt("b").endAt("c"),
+                (RealtimeStore.ChildListener) range);
+
+        database.setValue("games/b/created_at", 4);
+        database.setValue("games/d/created_at", 0); // outside the limit
+
+        assertEquals("[value {c={created_at=2}, a={created_at=3}}, value {a={created_at=3}, b={created_at=4}}]",
+                newest.events.toString());
+        assertEquals("[added b, added c, changed b]", range.events.toString());
+    }
+
+    @Test
+    public void timestampsBecomeTheWriteTime() {
+        MemoryDatabase database = new MemoryDatabase();
+        long before = System.currentTimeMillis();
+        database.setValue("games/g/created_at", RealtimeStore.TIMESTAMP);
+        long written = (Long) database.getValue("games/g/created_at");
+        assertTrue(written >= before && written <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void networkDelayKeepsCallbacksInOrder() throws InterruptedException {
+        MemoryDatabase database = new MemoryDatabase().setNetworkDelay(20, 10, 1);
+        try {
+            final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(1);
+            database.addValueListener("status", new RealtimeStore.ValueListener() {
+                @Override
+                public void onValueChanged(String path, Object value) {
+                    received.add("value " + value);
+                }
+
+                @Override
+                public void onCancelled(Exception error) {
+                }
+            });
+            long start = System.nanoTime();
+            database.setValue("status", "CREATED");
+            database.setValue("status", "STARTED", new RealtimeStore.CompletionListener() {
+                @Override
+                public void onComplete(Exception error) {
+                    received.add("written");
+                    done.countDown();
+                }
+            });
+            // nothing has arrived yet
+            assertEquals(null, database.getValue("status"));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+            assertEquals("[value null, value CREATED, value STARTED, written]", received.toString());
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    @Test
+    public void removedReadsAreNotAnswered() {
+        MemoryDatabase database = new MemoryDatabase().setNetworkDelay(50, 0, 1);
+        try {
+            RecordingListener listener = new RecordingListener();
+            database.read(new RealtimeStore.Query("status"), listener);
+            database.removeListener(listener);
+
+            // messages arrive in order, so once a later read is answered the removed one would
+            // have been too
+            final CountDownLatch sentinel = new CountDownLatch(1);
+            database.read(new RealtimeStore.Query("status"), new RecordingListener() {
+                @Override
+                public void onValueChanged(String path, Object value) {
+                    sentinel.countDown();
+                }
+            });
+            assertTrue(sentinel.await(5, TimeUnit.SECONDS));
+            assertTrue(listener.events.isEmpty());
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            database.shutdown();
+        }
+    }
+}
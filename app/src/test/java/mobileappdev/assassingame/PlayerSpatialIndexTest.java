@@ -0,0 +1,135 @@
+package mobileappdev.assassingame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerSpatialIndexTest {
+
+    // roughly Corvallis, OR; one degree of latitude is ~111 km
+    private static final double LAT = 44.5646;
+    private static final double LNG = -123.2620;
+    private static final double METER_IN_LAT = 1 / 111195.0;
+
+    private PlayerSpatialIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new PlayerSpatialIndex(50);
+    }
+
+    @Test
+    public void distanceBetween_unknownPlayer() {
+        mIndex.update("me", LAT, LNG);
+        assertTrue(Double.isInfinite(mIndex.distanceBetween("me", "ghost")));
+    }
+
+    @Test
+    public void distanceBetween_matchesHaversine() {
+        mIndex.update("me", LAT, LNG);
+        mIndex.update("you", LAT + 40 * METER_IN_LAT, LNG);
+        assertEquals(40, mIndex.distanceBetween("me", "you"), 0.5);
+        assertTrue(mIndex.isWithin("me", "you", 50));
+        assertFalse(mIndex.isWithin("me", "you", 30));
+    }
+
+    @Test
+    public void withinRadius_excludesSelfAndFarPlayers() {
+        mIndex.update("me", LAT, LNG);
+        mIndex.update("near", LAT + 20 * METER_IN_LAT, LNG);
+        mIndex.update("edge", LAT - 49 * METER_IN_LAT, LNG);
+        mIndex.update("far", LAT + 500 * METER_IN_LAT, LNG);
+
+        List<String> result = mIndex.withinRadius("me", 50, new ArrayList<String>());
+        Collections.sort(result);
+        assertEquals(2, result.size());
+        assertEquals("edge", result.get(0));
+        assertEquals("near", result.get(1));
+    }
+
+    @Test
+    public void update_movesPlayerBetweenCells() {
+        mIndex.update("me", LAT, LNG);
+        mIndex.update("you", LAT + 1000 * METER_IN_LAT, LNG);
+        assertTrue(mIndex.withinRadius("me", 50, new ArrayList<String>()).isEmpty());
+
+        mIndex.update("you", LAT + 10 * METER_IN_LAT, LNG);
+        assertEquals(1, mIndex.withinRadius("me", 50, new ArrayList<String>()).size());
+        assertEquals(2, mIndex.size());
+
+        mIndex.remove("you");
+        assertTrue(mIndex.withinRadius("me", 50, new ArrayList<String>()).isEmpty());
+    }
+
+    @Test
+    public void nearest_agreesWithBruteForce() {
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String name = "p" + i;
+            names.add(name);
+            mIndex.update(name, LAT + (random.nextDouble() - 0.5) * 0.05, LNG + (random.nextDouble() - 0.5) * 0.05);
+        }
+
+        List<PlayerSpatialIndex.Neighbor> nearest = mIndex.nearest("p0", 5);
+        assertEquals(5, nearest.size());
+
+        List<Double> distances = new ArrayList<>();
+        for (String name : names) {
+            if (!name.equals("p0")) {
+                distances.add(mIndex.distanceBetween("p0", name));
+            }
+        }
+        Collections.sort(distances);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(distances.get(i), nearest.get(i).getDistance(), 1e-9);
+        }
+    }
+
+    @Test
+    public void nearest_fewerPlayersThanK() {
+        mIndex.update("me", LAT, LNG);
+        mIndex.update("you", LAT + 3000 * METER_IN_LAT, LNG);
+        List<PlayerSpatialIndex.Neighbor> nearest = mIndex.nearest("me", 10);
+        assertEquals(1, nearest.size());
+        assertEquals("you", nearest.get(0).getName());
+    }
+
+    @Test
+    public void nearest_outlierDoesNotHideCloserPlayers() {
+        Random random = new Random(7);
+        for (int i = 0; i < 40; i++) {
+            mIndex.update("p" + i, LAT + (random.nextDouble() - 0.5) * 0.01, LNG + (random.nextDouble() - 0.5) * 0.01);
+        }
+        mIndex.update("far", LAT + 300000 * METER_IN_LAT, LNG);
+
+        List<PlayerSpatialIndex.Neighbor> nearest = mIndex.nearest("p0", 64);
+        assertEquals(40, nearest.size());
+        assertEquals("far", nearest.get(39).getName());
+        for (int i = 1; i < nearest.size(); i++) {
+            assertTrue(nearest.get(i - 1).getDistance() <= nearest.get(i).getDistance());
+        }
+    }
+
+    @Test
+    public void nearest_boxShrinksWhenEdgePlayerLeaves() {
+        mIndex.update("me", LAT, LNG);
+        mIndex.update("you", LAT + 100 * METER_IN_LAT, LNG);
+        mIndex.update("far", LAT + 300000 * METER_IN_LAT, LNG);
+        assertEquals(2, mIndex.nearest("me", 5).size());
+
+        mIndex.remove("far");
+        mIndex.update("you", LAT + 200 * METER_IN_LAT, LNG);
+        List<PlayerSpatialIndex.Neighbor> nearest = mIndex.nearest("me", 5);
+        assertEquals(1, nearest.size());
+        assertEquals(200, nearest.get(0).getDistance(), 0.5);
+    }
+}
@@ -0,0 +1,48 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReadCacheTest {
+
+    @Test
+    public void entriesExpire() {
+        ReadCache<String> cache = new ReadCache<>(4, 1000);
+        cache.put("games/g/type", "public", 0);
+        assertEquals("public", cache.get("games/g/type", 999));
+        assertNull(cache.get("games/g/type", 1000));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        ReadCache<String> cache = new ReadCache<>(2, 1000);
+        cache.put("a", "1", 0);
+        cache.put("b", "2", 0);
+        cache.get("a", 1);
+        cache.put("c", "3", 2);
+        assertEquals("1", cache.get("a", 3));
+        assertNull(cache.get("b", 3));
+        assertEquals("3", cache.get("c", 3));
+    }
+
+    @Test
+    public void invalidateDropsParentsAndChildren() {
+        ReadCache<String> cache = new ReadCache<>(8, 1000);
+        cache.put("games/g", "game", 0);
+        cache.put("games/g/status", "started", 0);
+        cache.put("games/g/status/x", "x", 0);
+        cache.put("games/g2/status", "finished", 0);
+        cache.put("games/g/statusLog", "other", 0);
+
+        cache.invalidate("games/g/status");
+
+        assertNull(cache.get("games/g", 1));
+        assertNull(cache.get("games/g/status", 1));
+        assertNull(cache.get("games/g/status/x", 1));
+        assertEquals("finished", cache.get("games/g2/status", 1));
+        assertEquals("other", cache.get("games/g/statusLog", 1));
+    }
+}
@@ -0,0 +1,130 @@
+package mobileappdev.assassingame;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UserNameCacheTest {
+
+    private static final int MANY_NAMES = 50000;
+    private static final int QUERIES = 2000;
+
+    @Test
+    public void prefixSearchIgnoresCase() {
+        UserNameCache cache = new UserNameCache();
+        cache.setAll(Arrays.asList("bob", "Alice", "alfred", "ALbert", "carl"));
+        assertEquals(Arrays.asList("ALbert", "alfred", "Alice"), cache.findByPrefix("al", 10));
+        assertEquals(Arrays.asList("ALbert", "alfred"), cache.findByPrefix("AL", 2));
+    }
+
+    @Test
+    public void containingListsPrefixMatchesFirst() {
+        UserNameCache cache = new UserNameCache();
+        cache.setAll(Arrays.asList("malice", "alice", "palace", "bob"));
+        assertEquals(Arrays.asList("alice", "malice", "palace"), cache.findContaining("al", 10));
+    }
+
+    @Test
+    public void refinedQueriesMatchFullScans() {
+        UserNameCache cache = new UserNameCache();
+        cache.setAll(Arrays.asList("anna", "hannah", "banana", "nan", "ian"));
+        cache.findContaining("n", 10);
+        assertEquals(Arrays.asList("nan", "anna", "banana", "hannah"), cache.findContaining("na", 10));
+        assertEquals(Arrays.asList("anna", "banana", "hannah", "ian", "nan"), cache.findContaining("an", 10));
+    }
+
+    @Test
+    public void updatesInvalidateCachedResults() {
+        UserNameCache cache = new UserNameCache();
+        cache.setAll(Arrays.asList("dave"));
+        assertEquals(Arrays.asList("dave"), cache.findByPrefix("d", 10));
+        assertTrue(cache.add("Dan"));
+        assertFalse(cache.add("Dan"));
+        assertEquals(Arrays.asList("Dan", "dave"), cache.findByPrefix("d", 10));
+        assertTrue(cache.remove("dave"));
+        assertEquals(Arrays.asList("Dan"), cache.findByPrefix("d", 10));
+    }
+
+    @Test
+    public void addAllMergesLargeBatches() {
+        UserNameCache cache = new UserNameCache();
+        cache.add("user5");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add("user" + i);
+        }
+        cache.addAll(names);
+        assertEquals(100, cache.size());
+        assertTrue(cache.contains("user99"));
+    }
+
+    @Test
+    public void survivesRoundTrip() throws IOException {
+        UserNameCache cache = new UserNameCache();
+        cache.setAll(Arrays.asList("Zed", "amy"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.writeTo(out);
+
+        UserNameCache restored = new UserNameCache();
+        restored.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Arrays.asList("amy", "Zed"), restored.findByPrefix("", 10));
+    }
+
+    @Test
+    public void lookupsMatchTheQuery() {
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>(MANY_NAMES);
+        for (int i = 0; i < MANY_NAMES; i++) {
+            names.add(randomName(random));
+        }
+        // no result cache, so every query runs a real scan
+        UserNameCache cache = new UserNameCache(0);
+        cache.setAll(names);
+
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String name = names.get(random.nextInt(MANY_NAMES));
+            int start = random.nextInt(name.length() - 2);
+            queries[i] = name.substring(start, start + 2);
+        }
+
+        checkMatches(cache, queries, true);
+        checkMatches(cache, queries, false);
+    }
+
+    private static void checkMatches(UserNameCache cache, String[] queries, boolean prefixOnly) {
+        int limit = UserNameIndex.DEFAULT_PAGE_SIZE + 1;
+        int found = 0;
+        for (String query : queries) {
+            List<String> matches = prefixOnly ? cache.findByPrefix(query, limit) : cache.findContaining(query, limit);
+            assertTrue(matches.size() <= limit);
+            String key = UserNameCache.normalize(query);
+            for (String match : matches) {
+                String name = UserNameCache.normalize(match);
+                assertTrue(prefixOnly ? name.startsWith(key) : name.contains(key));
+            }
+            found += matches.size();
+        }
+        assertTrue(found > 0);
+    }
+
+    private static String randomName(Random random) {
+        int length = 5 + random.nextInt(8);
+        StringBuilder name = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            char c = (char) ('a' + random.nextInt(26));
+            name.append(i == 0 ? Character.toUpperCase(c) : c);
+        }
+        return name.toString();
+    }
+}
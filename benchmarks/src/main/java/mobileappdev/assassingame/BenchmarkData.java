@@ -0,0 +1,84 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeded inputs shared by the benchmarks, so every run measures the same data.
+ */
+final class BenchmarkData {
+
+    static final long SEED = 42;
+
+    // around the campus the game was written for
+    static final double CENTER_LAT = 40.4237;
+    static final double CENTER_LNG = -86.9212;
+    private static final double METERS_PER_DEGREE_LAT = Math.PI * 6371008.8 / 180;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return player names the way the app generates them in the simulator
+     */
+    static List<String> playerNames(int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(String.format(Locale.US, "player%05d", i));
+        }
+        return names;
+    }
+
+    /**
+     * @return capitalized random user names of 5 to 12 letters
+     */
+    static List<String> userNames(int count, Random random) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = 5 + random.nextInt(8);
+            StringBuilder name = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                char c = (char) ('a' + random.nextInt(26));
+                name.append(j == 0 ? Character.toUpperCase(c) : c);
+            }
+            names.add(name.toString());
+        }
+        return names;
+    }
+
+    /**
+     * @return games/&lt;game&gt;/players as {@link RealtimeStore} hands it out, with roles from
+     * {@link GameEngine#assignRoles}
+     */
+    static Map<String, Object> playersNode(int count, Random random) {
+        List<String> names = playerNames(count);
+        Map<String, GameCharacter> roles = new LinkedHashMap<>();
+        GameEngine.assignRoles(names, random, roles);
+        Map<String, Object> players = new LinkedHashMap<>();
+        for (String name : names) {
+            Map<String, Object> player = new LinkedHashMap<>();
+            // codes come back from Firebase as longs
+            player.put("invite", (long) InvitationStatus.ACCEPTED.getCode());
+            player.put("role", (long) roles.get(name).getCode());
+            player.put("status", (long) (random.nextInt(4) == 0 ? PlayerStatus.DEAD : PlayerStatus.ALIVE).getCode());
+            players.put(name, player);
+        }
+        return players;
+    }
+
+    /**
+     * @return a random point within {@code radiusInMeters} of the center, as {lat, lng}
+     */
+    static double[] position(Random random, double radiusInMeters) {
+        double north = (random.nextDouble() * 2 - 1) * radiusInMeters;
+        double east = (random.nextDouble() * 2 - 1) * radiusInMeters;
+        return new double[] {
+                CENTER_LAT + north / METERS_PER_DEGREE_LAT,
+                CENTER_LNG + east / (METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(CENTER_LAT)))
+        };
+    }
+}
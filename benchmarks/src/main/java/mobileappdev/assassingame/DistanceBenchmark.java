@@ -0,0 +1,94 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distances on the play board: one haversine, and the proximity questions a position update
+ * asks - who is in action range, who is nearest - through {@link PlayerSpatialIndex} and by
+ * checking every player, as the board did before the index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+
+    private static final double SPACE_PER_PLAYER = 60; // in meters, same as the simulator
+    private static final int NEIGHBORS = 8;
+
+    @Param({"50", "500", "5000"})
+    public int players;
+
+    private List<String> mNames;
+    private double[][] mPositions;
+    private PlayerSpatialIndex mIndex;
+    private final List<String> mInRange = new ArrayList<>();
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkData.SEED);
+        double radius = Math.sqrt(players) * SPACE_PER_PLAYER / 2;
+        mNames = BenchmarkData.playerNames(players);
+        mPositions = new double[players][];
+        mIndex = new PlayerSpatialIndex(GameEngine.ACTION_DISTANCE);
+        for (int i = 0; i < players; i++) {
+            mPositions[i] = BenchmarkData.position(random, radius);
+            mIndex.update(mNames.get(i), mPositions[i][0], mPositions[i][1]);
+        }
+    }
+
+    private int nextPlayer() {
+        mNext = (mNext + 1) % players;
+        return mNext;
+    }
+
+    @Benchmark
+    public double haversine() {
+        int player = nextPlayer();
+        double[] from = mPositions[player];
+        double[] to = mPositions[(player + 1) % players];
+        return PlayerSpatialIndex.distanceInMeters(from[0], from[1], to[0], to[1]);
+    }
+
+    @Benchmark
+    public List<String> inRangeIndexed() {
+        return mIndex.withinRadius(mNames.get(nextPlayer()), GameEngine.ACTION_DISTANCE, mInRange);
+    }
+
+    @Benchmark
+    public List<String> inRangeBruteForce() {
+        int player = nextPlayer();
+        double[] center = mPositions[player];
+        mInRange.clear();
+        for (int i = 0; i < players; i++) {
+            if (i != player && PlayerSpatialIndex.distanceInMeters(center[0], center[1],
+                    mPositions[i][0], mPositions[i][1]) <= GameEngine.ACTION_DISTANCE) {
+                mInRange.add(mNames.get(i));
+            }
+        }
+        return mInRange;
+    }
+
+    @Benchmark
+    public List<PlayerSpatialIndex.Neighbor> nearestIndexed() {
+        return mIndex.nearest(mNames.get(nextPlayer()), NEIGHBORS);
+    }
+}
@@ -0,0 +1,110 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the enum values that come back from Firebase and SQLite, once per player per
+ * snapshot. The string inputs mix the casings of older data: enum names from older app builds,
+ * lower case from older cloud functions. Current data is {@link EnumCodec} codes, which come
+ * back as longs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnumParsingBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private final String[] mRoles = new String[VALUES];
+    private final String[] mPlayerStatuses = new String[VALUES];
+    private final String[] mGameStatuses = new String[VALUES];
+    private final String[] mInvitations = new String[VALUES];
+    private final Object[] mRoleCodes = new Object[VALUES];
+    private final Object[] mPlayerStatusCodes = new Object[VALUES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkData.SEED);
+        for (int i = 0; i < VALUES; i++) {
+            mRoles[i] = wireValue(GameCharacter.values()[random.nextInt(GameCharacter.values().length)], random);
+            mPlayerStatuses[i] = wireValue(PlayerStatus.values()[random.nextInt(PlayerStatus.values().length)], random);
+            mGameStatuses[i] = wireValue(GameStatus.values()[random.nextInt(GameStatus.values().length)], random);
+            mInvitations[i] = wireValue(InvitationStatus.values()[random.nextInt(InvitationStatus.values().length)], random);
+            mRoleCodes[i] = (long) GameCharacter.values()[random.nextInt(GameCharacter.values().length)].getCode();
+            mPlayerStatusCodes[i] = (long) PlayerStatus.values()[random.nextInt(PlayerStatus.values().length)].getCode();
+        }
+    }
+
+    /**
+     * @return the name as stored: mostly as written by the app, sometimes lower case
+     */
+    private static String wireValue(Enum<?> value, Random random) {
+        // new String, so the switch can't get away with an identity check
+        return new String(random.nextInt(4) == 0 ? value.name().toLowerCase() : value.name());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void gameCharacter(Blackhole blackhole) {
+        for (String role : mRoles) {
+            blackhole.consume(GameCharacter.getCharacterFrom(role));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void playerStatus(Blackhole blackhole) {
+        for (String status : mPlayerStatuses) {
+            blackhole.consume(PlayerStatus.getPlayerStatus(status));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void gameStatus(Blackhole blackhole) {
+        for (String status : mGameStatuses) {
+            blackhole.consume(GameStatus.getGameStatusFrom(status));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void invitationStatus(Blackhole blackhole) {
+        for (String status : mInvitations) {
+            blackhole.consume(InvitationStatus.getStatusFrom(status));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void gameCharacterCode(Blackhole blackhole) {
+        for (Object role : mRoleCodes) {
+            blackhole.consume(GameCharacter.decode(role, GameCharacter.UNDEFINED));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void playerStatusCode(Blackhole blackhole) {
+        for (Object status : mPlayerStatusCodes) {
+            blackhole.consume(PlayerStatus.decode(status, PlayerStatus.ALIVE));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GameEngine} fed a recorded-looking stream: mostly position updates, with a check and
+ * maybe a kill, revive or arrest every eighth event, as a replay or fuzz run would feed it.
+ * Scores are per event. The board starts over every iteration, so it doesn't run out of living
+ * players.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GameEngineBenchmark {
+
+    private static final int EVENTS = 1 << 16;
+    private static final int BATCH = 1024;
+    private static final GameEngine.Action[] ACTIONS = GameEngine.Action.values();
+
+    @Param({"50", "500"})
+    public int players;
+
+    private final Map<String, GameCharacter> mRoles = new LinkedHashMap<>();
+    private final int[] mActors = new int[EVENTS];
+    private final int[] mTargets = new int[EVENTS];
+    private final double[] mLats = new double[EVENTS];
+    private final double[] mLngs = new double[EVENTS];
+    private GameEngine mEngine;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkData.SEED);
+        GameEngine.assignRoles(BenchmarkData.playerNames(players), random, mRoles);
+        for (int i = 0; i < EVENTS; i++) {
+            mActors[i] = random.nextInt(players);
+            mTargets[i] = random.nextInt(players);
+            mLats[i] = 40 + random.nextDouble() * 0.002;
+            mLngs[i] = -74 + random.nextDouble() * 0.002;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newBoard() {
+        mEngine = new GameEngine(mRoles);
+        mNext = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int replay() {
+        int accepted = 0;
+        for (int n = 0; n < BATCH; n++) {
+            int i = mNext;
+            mNext = (mNext + 1) & (EVENTS - 1);
+            if (i % 8 != 0) {
+                mEngine.move(mActors[i], mLats[i], mLngs[i]);
+            } else if (mEngine.check(ACTIONS[i % 3], mActors[i], mTargets[i]) == GameEngine.Reason.OK
+                    && mEngine.apply(ACTIONS[i % 3], mActors[i], mTargets[i]) == GameEngine.Reason.OK) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,98 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a roster out of the players table, the Java side only. DatabaseHandler needs Android,
+ * so the rows come from arrays here, read column by column the way its cursors are:
+ * <ul>
+ * <li>{@link #materialize} is the old way - SELECT *, string columns parsed back into enums and
+ * a new {@link Player} per row collected into a list and a map;</li>
+ * <li>{@link #stream} is DatabaseHandler.visitPlayers - the coded projection read into one reused
+ * {@link Player} handed to a visitor.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlayerRowBenchmark {
+
+    @Param({"50", "500"})
+    public int players;
+
+    private String[][] mLegacyRows;
+    private Object[][] mCodedRows;
+    private final Player mReused = new Player(null, null, GameCharacter.UNDEFINED, true);
+
+    @Setup
+    public void setUp() {
+        List<String> names = BenchmarkData.playerNames(players);
+        mLegacyRows = new String[players][];
+        mCodedRows = new Object[players][];
+        for (int i = 0; i < players; i++) {
+            String name = names.get(i);
+            boolean alive = i % 2 == 0;
+            mLegacyRows[i] = new String[]{name, name + "@example.com", alive ? "CITIZEN" : "ASSASSIN",
+                    alive ? "1" : "0", "ACCEPTED"};
+            mCodedRows[i] = new Object[]{name, name + "@example.com",
+                    (long) (alive ? GameCharacter.CITIZEN : GameCharacter.ASSASSIN).getCode(),
+                    (long) (alive ? PlayerStatus.ALIVE : PlayerStatus.DEAD).getCode(),
+                    (long) InvitationStatus.ACCEPTED.getCode()};
+        }
+    }
+
+    @Benchmark
+    public int materialize() {
+        List<Player> roster = new LinkedList<>();
+        Map<String, Player> byName = new HashMap<>();
+        for (String[] row : mLegacyRows) {
+            Player player = new Player(row[0], row[1], GameCharacter.getCharacterFrom(row[2]),
+                    Integer.parseInt(row[3]) == 1, InvitationStatus.getStatusFrom(row[4]));
+            roster.add(player);
+            byName.put(player.getName(), player);
+        }
+        int alive = 0;
+        for (Player player : roster) {
+            if (player.isAlive()) {
+                alive++;
+            }
+        }
+        return alive + byName.size();
+    }
+
+    @Benchmark
+    public int stream() {
+        int alive = 0;
+        for (Object[] row : mCodedRows) {
+            // DatabaseHandler.readPlayer
+            mReused.setName((String) row[0]);
+            mReused.setEmailID((String) row[1]);
+            mReused.setGameCharacterType(GameCharacter.fromCode((Long) row[2], GameCharacter.UNDEFINED));
+            mReused.setAlive(PlayerStatus.fromCode((Long) row[3], PlayerStatus.ALIVE) == PlayerStatus.ALIVE);
+            mReused.setInvitationStatus(InvitationStatus.fromCode((Long) row[4], InvitationStatus.UNDEFINED));
+            if (mReused.isAlive()) {
+                alive++;
+            }
+        }
+        return alive;
+    }
+}
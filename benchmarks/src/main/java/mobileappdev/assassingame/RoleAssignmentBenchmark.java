@@ -0,0 +1,57 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starting a game: dealing the roles, and setting up the {@link GameEngine} board every phone
+ * builds from them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoleAssignmentBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int players;
+
+    private List<String> mNames;
+    private Map<String, GameCharacter> mRoles;
+    private final Random mRandom = new Random(BenchmarkData.SEED);
+
+    @Setup
+    public void setUp() {
+        mNames = BenchmarkData.playerNames(players);
+        mRoles = assignRoles();
+    }
+
+    @Benchmark
+    public Map<String, GameCharacter> assignRoles() {
+        Map<String, GameCharacter> roles = new HashMap<>();
+        GameEngine.assignRoles(mNames, mRandom, roles);
+        return roles;
+    }
+
+    @Benchmark
+    public GameEngine buildBoard() {
+        return new GameEngine(mRoles);
+    }
+}
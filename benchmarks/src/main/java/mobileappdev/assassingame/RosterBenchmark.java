@@ -0,0 +1,81 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The roster operations on {@link Game} the screens run: filling it from a fetch, looking
+ * players up by name, and the list copies the adapters take.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RosterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int players;
+
+    private final List<Player> mPlayers = new ArrayList<>();
+    private Game mGame;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        for (String name : BenchmarkData.playerNames(players)) {
+            mPlayers.add(new Player(name, name + "@example.com", GameCharacter.CITIZEN, true));
+        }
+        mGame = Game.getInstance();
+        fill();
+    }
+
+    @Benchmark
+    public Game fill() {
+        mGame.resetGameData();
+        for (Player player : mPlayers) {
+            mGame.addPlayer(player);
+        }
+        return mGame;
+    }
+
+    @Benchmark
+    public Player lookUp() {
+        mNext = (mNext + 1) % players;
+        return mGame.getName2PlayerMap().get(mPlayers.get(mNext).getName());
+    }
+
+    @Benchmark
+    public void removeAndAdd(Blackhole blackhole) {
+        mNext = (mNext + 1) % players;
+        Player player = mPlayers.get(mNext);
+        mGame.removePlayer(player.getName());
+        mGame.addPlayer(player);
+        blackhole.consume(mGame);
+    }
+
+    @Benchmark
+    public List<Player> allPlayers() {
+        return mGame.getAllPlayers();
+    }
+
+    @Benchmark
+    public List<String> allPlayerNames() {
+        return mGame.getAllPlayerNames();
+    }
+}
@@ -0,0 +1,45 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding games/&lt;game&gt;/players, as FirebaseHelper.getAllPlayers does for every play
+ * board and post-game screen, from the plain values {@link RealtimeStore} delivers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotDecodingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int players;
+
+    private Map<String, Object> mPlayers;
+
+    @Setup
+    public void setUp() {
+        mPlayers = BenchmarkData.playersNode(players, new Random(BenchmarkData.SEED));
+    }
+
+    @Benchmark
+    public Map<String, Player> decodePlayers() {
+        return Game.decodePlayers(mPlayers);
+    }
+}
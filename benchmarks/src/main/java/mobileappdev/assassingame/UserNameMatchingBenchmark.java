@@ -0,0 +1,86 @@
+package mobileappdev.assassingame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a typed fragment against user names. {@link #linearScan} is the loop
+ * SearchPlayerFragment.getMatchingNames ran over every downloaded name before search moved to
+ * {@link UserNameCache}; it stays as the baseline the cache has to beat.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserNameMatchingBenchmark {
+
+    private static final int QUERIES = 256;
+    private static final int LIMIT = 21; // a page of the search results and one more
+
+    @Param({"1000", "50000"})
+    public int names;
+
+    private List<String> mNames;
+    private final String[] mQueries = new String[QUERIES];
+    private UserNameCache mCache;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkData.SEED);
+        mNames = BenchmarkData.userNames(names, random);
+        for (int i = 0; i < QUERIES; i++) {
+            String name = mNames.get(random.nextInt(names));
+            int start = random.nextInt(name.length() - 2);
+            mQueries[i] = name.substring(start, start + 2);
+        }
+        // no result cache, so every call does the lookup
+        mCache = new UserNameCache(0);
+        mCache.setAll(mNames);
+    }
+
+    private String nextQuery() {
+        mNext = (mNext + 1) % QUERIES;
+        return mQueries[mNext];
+    }
+
+    @Benchmark
+    public List<Player> linearScan() {
+        String queriedNameLowerCase = nextQuery().toLowerCase();
+        List<Player> playerList = new ArrayList<>();
+        for (String name : mNames) {
+            if (name.toLowerCase().contains(queriedNameLowerCase)) {
+                Player newPlayerResult = Player.getDummyPlayer();
+                newPlayerResult.setName(name);
+                playerList.add(newPlayerResult);
+            }
+        }
+        return playerList;
+    }
+
+    @Benchmark
+    public List<String> cachedPrefix() {
+        return mCache.findByPrefix(nextQuery(), LIMIT);
+    }
+
+    @Benchmark
+    public List<String> cachedContaining() {
+        return mCache.findContaining(nextQuery(), LIMIT);
+    }
+}
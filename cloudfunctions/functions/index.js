@@ -25,6 +25,33 @@ exports.helloWorld = functions.https.onRequest((request, response) => {
  *       from inside those helper methods.
  */
 
+/*
+ * Player roles and statuses, game statuses and invitation responses are stored
+ * as the EnumCodec codes of the app's enums, the position in these arrays, so
+ * they may only grow at the end. Data from older builds holds the names in any
+ * casing; decodeEnum reads both.
+ */
+const ROLES = ['UNDEFINED', 'ASSASSIN', 'CITIZEN', 'DETECTIVE', 'DOCTOR'];
+const PLAYER_STATUSES = ['ALIVE', 'DEAD', 'LEFT', 'NEWLY_JOINED'];
+const GAME_STATUSES = ['STARTED', 'FINISHED'];
+const INVITATION_STATUSES = ['UNDEFINED', 'INVITED', 'ACCEPTED', 'DECLINED'];
+
+/*
+ * Returns the name for a stored code or name, or undefined if it is neither.
+ */
+function decodeEnum(names, value) {
+  if (typeof value === 'string' && /^[0-9]+$/.test(value)) {
+    value = Number(value);
+  }
+  if (typeof value === 'number') {
+    return names[value];
+  }
+  if (typeof value === 'string' && names.indexOf(value.toUpperCase()) >= 0) {
+    return value.toUpperCase();
+  }
+  return undefined;
+}
+
 /* BEGIN CLOUD FUNCTIONS ******************************************************/
 
 /**
@@ -130,9 +157,10 @@ exports.sendInviteResponse = functions.database
         console.log("gameAdminDeviceToken.val() = " + gameAdminDeviceToken.val());
 
         var response;
-        if (invitationResponseSnapshot.val() == 'accepted') {
+        const invitationResponse = decodeEnum(INVITATION_STATUSES, invitationResponseSnapshot.val());
+        if (invitationResponse === 'ACCEPTED') {
           response = `${invitedID} accepted your invitation to join ${gameID}.`;
-        } else if (invitationResponseSnapshot.val() == 'declined') {
+        } else if (invitationResponse === 'DECLINED') {
           response = `${invitedID} declined your invitation to join ${gameID}.`;
         } else {
           return console.log('Invalid response from player');
@@ -293,11 +321,12 @@ exports.sendGameStartMessage =  functions.database
   .ref('games/{gameID}/status').onWrite(event => {
 
     const gameID = event.params.gameID;
-    if (!event.data.val()) {
+    // STARTED is stored as 0, so check for null rather than falsy
+    if (event.data.val() === null) {
       return console.log('No game status info');
     } else {
-      const status = event.data.val();
-      if (status == 'started' || status == 'STARTED') {
+      const status = decodeEnum(GAME_STATUSES, event.data.val());
+      if (status === 'STARTED') {
         const gamePlayerPromise = admin.database()
           .ref(`games/${gameID}/players`).once('value');
         const gameAdminPromise = admin.database()
@@ -499,6 +528,455 @@ exports.gameEndAlert = functions.database
   }); // resolve gamePlayersPromise
 }); // export endGame fxn
 
+/**
+ * Keeps usernames_index/{lowercase username}/{username} = true for every
+ * account so the app can prefix-search players with a key range query instead
+ * of downloading users/. Triggered by the email that sign up writes, rather
+ * than users/{username}, so location and stats writes don't fire it.
+ * Also stamps usernames_by_time/{username} = {at, removed} in the same update,
+ * so the app's cache of every name syncs only what changed since its last
+ * sync. Mirrors UserNameIndex on the Android side.
+ */
+exports.indexUsername = functions.database
+  .ref('users/{username}/email').onWrite(event => {
+
+  const username = event.params.username;
+  const update = {};
+  const change = {at: admin.database.ServerValue.TIMESTAMP};
+
+  if (!event.data.exists()) {
+    update[`usernames_index/${normalizeUsername(username)}/${username}`] = null;
+    change.removed = true;
+  } else if (event.data.previous.exists()) {
+    return null; // email changed, the name didn't
+  } else {
+    update[`usernames_index/${normalizeUsername(username)}/${username}`] = true;
+  }
+  update[`usernames_by_time/${username}`] = change;
+  return admin.database().ref().update(update);
+});
+
+/**
+ * One-off backfill of usernames_index and usernames_by_time for accounts
+ * created before indexUsername existed. Visit the URL from the Firebase
+ * console once.
+ */
+exports.backfillUsernameIndex = functions.https.onRequest((request, response) => {
+  return admin.database().ref('users').once('value').then(usersSnapshot => {
+    const update = {};
+    let count = 0;
+    usersSnapshot.forEach(userSnapshot => {
+      const username = userSnapshot.key;
+      update[`usernames_index/${normalizeUsername(username)}/${username}`] = true;
+      update[`usernames_by_time/${username}`] = {at: admin.database.ServerValue.TIMESTAMP};
+      count++;
+    });
+    return admin.database().ref().update(update).then(() => {
+      response.send('Indexed ' + count + ' user names');
+    });
+  });
+});
+
+function normalizeUsername(username) {
+  return username.trim().toLowerCase();
+}
+
+/**
+ * Drops a game from public_games/ once it is finished. Only resolveAction
+ * finishes games; the database rules keep clients from writing the status.
+ * Mirrors GameIndex on the Android side.
+ */
+exports.indexGameStatus = functions.database
+  .ref('games/{gameID}/status').onWrite(event => {
+
+  if (decodeEnum(GAME_STATUSES, event.data.val()) !== 'FINISHED') {
+    return null;
+  }
+  return admin.database().ref(`public_games/${event.params.gameID}`).remove();
+});
+
+/**
+ * One-off backfill of public_games, games_by_admin and game_names for games
+ * created before the indexes existed. Games without created_at are stamped with the
+ * backfill time. Visit the URL from the Firebase console once.
+ */
+exports.backfillGameIndexes = functions.https.onRequest((request, response) => {
+  return admin.database().ref('games').once('value').then(gamesSnapshot => {
+    const update = {};
+    const now = Date.now();
+    gamesSnapshot.forEach(gameSnapshot => {
+      const gameID = gameSnapshot.key;
+      const game = gameSnapshot.val() || {};
+      const createdAt = game.created_at || now;
+      if (!game.created_at) {
+        update[`games/${gameID}/created_at`] = createdAt;
+      }
+      if (game.admin) {
+        update[`games_by_admin/${game.admin}/${gameID}`] = createdAt;
+        // reserve the name like NewGameActivity does
+        update[`game_names/${gameID.trim().toLowerCase()}`] = game.admin;
+      }
+      if (game.type === 'public' && decodeEnum(GAME_STATUSES, game.status) !== 'FINISHED') {
+        update[`public_games/${gameID}`] = createdAt;
+      }
+    });
+    return admin.database().ref().update(update).then(() => {
+      response.send('Indexed ' + gamesSnapshot.numChildren() + ' games');
+    });
+  });
+});
+
+/**
+ * Server side referee for kills, revives, arrests and players leaving, and the
+ * only writer of the game state: joining a game and starting it are requests
+ * too, since the database rules let a client write no more than its own entry
+ * before the game starts. The client pushes a request to
+ * games/{gameID}/actions and this function checks that the caller is the
+ * actor, the actor's role and liveness, the target's liveness, the assassin's
+ * current target and the distance between both players. Only the holder of
+ * the game's name in game_names may start it.
+ *
+ * Only games/{gameID}/state is transacted on. It holds what the rules need:
+ * every player's role and status, citizens_alive and the game's status and
+ * result, so position uplinks, chat and other requests under the same game
+ * don't make the transaction retry. Positions are read before it. Once it
+ * commits, the changes are copied to the nodes the app listens on, the
+ * outcome goes to outcomes/{actionID} for the client waiting on it and the
+ * request is deleted, all in one update. Mirrors ActionResolver on the Android
+ * side.
+ */
+const ACTION_DISTANCE = 50; // meters, same as PlayBoardActivity.KILL_DISTANCE
+
+exports.resolveAction = functions.database
+  .ref('games/{gameID}/actions/{actionID}').onWrite(event => {
+
+  const gameID   = event.params.gameID;
+  const actionID = event.params.actionID;
+  const action   = event.data.val();
+
+  if (event.data.previous.exists() || !action) {
+    // Only fresh requests get resolved; deleting them lands here too
+    return null;
+  }
+  if (!isCaller(event, action.actor)) {
+    return finishAction(gameID, actionID, rejected('not_allowed'), null, []);
+  }
+
+  const game = admin.database().ref(`games/${gameID}`);
+  return Promise.all([
+    game.child(`positions/${action.actor}`).once('value'),
+    action.target ? game.child(`positions/${action.target}`).once('value') : null,
+    action.type === 'START' ?
+      admin.database().ref(`game_names/${gameID.trim().toLowerCase()}`).once('value') : null
+  ]).then(reads => {
+    const distance = distanceBetween(reads[0].val(), reads[1] && reads[1].val());
+    const owner = reads[2] && reads[2].val();
+    let outcome;
+    let changed;
+    return game.child('state').transaction(state => {
+      outcome = undefined;
+      changed = [];
+      if (!state) {
+        if (action.type !== 'JOIN') {
+          // Nothing cached yet, the transaction retries with the server's copy
+          return state;
+        }
+        state = {}; // the first player to join a game creates its state
+      }
+      const actor = state.players && state.players[action.actor];
+      if (actor && actor.last_action === actionID) {
+        return; // already resolved by an earlier delivery of this event
+      }
+      if (action.type === 'JOIN') {
+        outcome = joinGame(state, action.actor, changed);
+      } else if (action.type === 'START') {
+        outcome = startGame(state, action, owner, changed);
+      } else {
+        outcome = resolveAction(state, action, distance, changed);
+      }
+      // looked up again, joining and starting replace the entry
+      const resolvedActor = state.players && state.players[action.actor];
+      if (resolvedActor) {
+        resolvedActor.last_action = actionID;
+      }
+      return state;
+    }).then(result => {
+      if (!result.committed) {
+        // resolved before; make sure the request is gone
+        return game.child(`actions/${actionID}`).remove();
+      }
+      return finishAction(gameID, actionID, action.type, outcome || rejected('not_allowed'),
+                          result.snapshot.val(), changed);
+    }, error => {
+      console.error(`${gameID}/${actionID}: transaction failed`, error);
+      return finishAction(gameID, actionID, action.type, rejected('busy'), null, []);
+    });
+  });
+});
+
+/*
+ * Whether the request was written by the player it names. The app uses the
+ * Firebase display name as the user name. Admin writes are trusted.
+ */
+function isCaller(event, playerName) {
+  const auth = event.auth || {};
+  if (auth.admin) {
+    return true;
+  }
+  const token = auth.variable && auth.variable.token;
+  return !!token && token.name === playerName;
+}
+
+/*
+ * Stores the outcome, deletes the request and copies the roles, statuses, game
+ * status and result the action changed in state to where the app reads them,
+ * in one update. A start also drops the outcomes of the previous game.
+ */
+function finishAction(gameID, actionID, type, outcome, state, changed) {
+  const path = `games/${gameID}`;
+  const update = {};
+  if (type === 'START' && outcome.accepted) {
+    const outcomes = {};
+    outcomes[actionID] = outcome;
+    update[`${path}/outcomes`] = outcomes;
+  } else {
+    update[`${path}/outcomes/${actionID}`] = outcome;
+  }
+  update[`${path}/actions/${actionID}`] = null;
+  changed.forEach(playerName => {
+    const player = state.players[playerName];
+    update[`${path}/players/${playerName}/role`] = player.role;
+    update[`${path}/players/${playerName}/status`] = player.status;
+    // mirrored for GamePositionStream
+    update[`${path}/positions/${playerName}/status`] = player.status;
+  });
+  const gameStatus = decodeEnum(GAME_STATUSES, state && state.status);
+  if (outcome.accepted && (type === 'START' || gameStatus === 'FINISHED')) {
+    update[`${path}/status`] = state.status;
+    update[`${path}/result`] = state.result === undefined ? null : state.result;
+    update[`${path}/assassinWon`] = state.assassinWon === undefined ? null : state.assassinWon;
+  }
+  return admin.database().ref().update(update).then(() => {
+    console.log(`${gameID}/${actionID}: ` + JSON.stringify(outcome));
+  });
+}
+
+/*
+ * Validates an action against the game state as it is inside the transaction
+ * and applies it to the state object, adding the players whose status changed
+ * to changed. Returns the outcome to store.
+ */
+function resolveAction(state, action, distance, changed) {
+  const players = state.players || {};
+  const actor = players[action.actor];
+  const target = players[action.target];
+
+  if (decodeEnum(GAME_STATUSES, state.status) === 'FINISHED') {
+    return rejected('game_over');
+  }
+  if (!actor || (action.type !== 'LEAVE' && !target)) {
+    return rejected('unknown_player');
+  }
+
+  if (action.type === 'LEAVE') {
+    if (statusOf(actor) === 'LEFT') {
+      return rejected('not_allowed');
+    }
+    const wasAlive = statusOf(actor) !== 'DEAD';
+    setPlayerStatus(state, action.actor, 'LEFT', changed);
+    if (roleOf(actor) === 'ASSASSIN') {
+      finishGame(state, false, 'Assassin left the game');
+    } else if (wasAlive && roleOf(actor) !== 'DETECTIVE') {
+      killCivilian(state);
+    }
+    return accepted(0);
+  }
+
+  if (statusOf(actor) !== 'ALIVE') {
+    return rejected('actor_dead');
+  }
+  if (distance > ACTION_DISTANCE) {
+    return rejected('too_far', distance);
+  }
+
+  switch (action.type) {
+    case 'KILL':
+      if (roleOf(actor) !== 'ASSASSIN') {
+        return rejected('not_allowed', distance);
+      }
+      if (statusOf(target) !== 'ALIVE') {
+        return rejected('target_dead', distance);
+      }
+      if (currentTarget(players) !== action.target) {
+        return rejected('not_target', distance);
+      }
+      setPlayerStatus(state, action.target, 'DEAD', changed);
+      killCivilian(state);
+      return accepted(distance);
+
+    case 'REVIVE':
+      if (roleOf(actor) !== 'DOCTOR') {
+        return rejected('not_allowed', distance);
+      }
+      if (statusOf(target) !== 'DEAD') {
+        return rejected('target_alive', distance);
+      }
+      setPlayerStatus(state, action.target, 'ALIVE', changed);
+      state.citizens_alive = (state.citizens_alive || 0) + 1;
+      return accepted(distance);
+
+    case 'ARREST':
+      if (roleOf(actor) !== 'DETECTIVE') {
+        return rejected('not_allowed', distance);
+      }
+      if (roleOf(target) !== 'ASSASSIN') {
+        return rejected('not_assassin', distance);
+      }
+      setPlayerStatus(state, action.target, 'DEAD', changed);
+      finishGame(state, false, 'Detective arrested the Assassin.');
+      return accepted(distance);
+
+    default:
+      return rejected('not_allowed', distance);
+  }
+}
+
+/*
+ * Adds the caller to the game, which is idempotent for a player who is in it
+ * and hasn't left. Before the start a player joins without a role, into a
+ * running game as an alive citizen counted in citizens_alive, and into a
+ * finished one as newly joined, to play the next round.
+ */
+function joinGame(state, playerName, changed) {
+  state.players = state.players || {};
+  const player = state.players[playerName];
+  if (player && statusOf(player) !== 'LEFT') {
+    return accepted(0);
+  }
+  const gameStatus = decodeEnum(GAME_STATUSES, state.status);
+  if (gameStatus === 'STARTED') {
+    state.players[playerName] = {
+      role: ROLES.indexOf('CITIZEN'),
+      status: PLAYER_STATUSES.indexOf('ALIVE')
+    };
+    state.citizens_alive = (state.citizens_alive || 0) + 1;
+  } else {
+    state.players[playerName] = {
+      role: ROLES.indexOf('UNDEFINED'),
+      status: PLAYER_STATUSES.indexOf(gameStatus === 'FINISHED' ? 'NEWLY_JOINED' : 'ALIVE')
+    };
+  }
+  changed.push(playerName);
+  return accepted(0);
+}
+
+/*
+ * Starts the game, or the next round of a finished one, with the roles the
+ * admin handed out: every listed player must have joined and exactly one is
+ * the assassin. Replaces the roster, so players who weren't dealt in and the
+ * previous result are dropped.
+ */
+function startGame(state, action, owner, changed) {
+  if (action.actor !== owner || decodeEnum(GAME_STATUSES, state.status) === 'STARTED') {
+    return rejected('not_allowed');
+  }
+  const roles = action.roles || {};
+  const names = Object.keys(roles);
+  const joined = state.players || {};
+  if (names.length === 0 || names.some(name => !joined[name] || decodeEnum(ROLES, roles[name]) === undefined)) {
+    return rejected('unknown_player');
+  }
+  if (names.filter(name => decodeEnum(ROLES, roles[name]) === 'ASSASSIN').length !== 1) {
+    return rejected('not_allowed');
+  }
+  const players = {};
+  let civilians = 0;
+  names.forEach(name => {
+    const role = decodeEnum(ROLES, roles[name]);
+    players[name] = { role: ROLES.indexOf(role), status: PLAYER_STATUSES.indexOf('ALIVE') };
+    if (role !== 'ASSASSIN') {
+      civilians++;
+    }
+    changed.push(name);
+  });
+  state.players = players;
+  state.citizens_alive = civilians;
+  state.status = GAME_STATUSES.indexOf('STARTED');
+  delete state.result;
+  delete state.assassinWon;
+  return accepted(0);
+}
+
+/*
+ * The assassin's target is the first alive non-assassin by name, the same rule
+ * PlayBoardActivity.getTarget() uses.
+ */
+function currentTarget(players) {
+  const names = Object.keys(players).sort();
+  for (let i = 0; i < names.length; i++) {
+    const player = players[names[i]];
+    if (roleOf(player) !== 'ASSASSIN' && statusOf(player) === 'ALIVE') {
+      return names[i];
+    }
+  }
+  return null;
+}
+
+function killCivilian(state) {
+  state.citizens_alive = (state.citizens_alive || 0) - 1;
+  if (state.citizens_alive <= 0) {
+    finishGame(state, true, 'Assassin killed all Civilians');
+  }
+}
+
+function finishGame(state, assassinWon, description) {
+  state.status = GAME_STATUSES.indexOf('FINISHED');
+  state.result = description;
+  state.assassinWon = assassinWon;
+}
+
+function setPlayerStatus(state, playerName, status, changed) {
+  state.players[playerName].status = PLAYER_STATUSES.indexOf(status);
+  changed.push(playerName);
+}
+
+function roleOf(player) {
+  return decodeEnum(ROLES, player.role);
+}
+
+function statusOf(player) {
+  return decodeEnum(PLAYER_STATUSES, player.status);
+}
+
+function distanceBetween(a, b) {
+  if (!a || !b || a.lat === undefined || b.lat === undefined) {
+    return Infinity;
+  }
+  const R = 6371000;
+  const dLat = toRadians(b.lat - a.lat);
+  const dLng = toRadians(b.lng - a.lng);
+  const h = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+            Math.cos(toRadians(a.lat)) * Math.cos(toRadians(b.lat)) *
+            Math.sin(dLng / 2) * Math.sin(dLng / 2);
+  return 2 * R * Math.asin(Math.min(1, Math.sqrt(h)));
+}
+
+function toRadians(degrees) {
+  return degrees * Math.PI / 180;
+}
+
+function accepted(distance) {
+  return { accepted: true, reason: 'ok', distance: Math.round(distance) };
+}
+
+function rejected(reason, distance) {
+  const outcome = { accepted: false, reason: reason };
+  if (distance !== undefined && isFinite(distance)) {
+    outcome.distance = Math.round(distance);
+  }
+  return outcome;
+}
+
 /*
  * Intermediate function that handles distributing the game end message to all players of a
  * particular game.
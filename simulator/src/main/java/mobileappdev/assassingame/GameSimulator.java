@@ -0,0 +1,467 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Headless load generator: plays a whole game with hundreds or thousands of virtual players
+ * against {@link MemoryDatabase}, in simulated time, and reports what it cost - latency of every
+ * kind of write including the listeners it fans out to, bytes written and delivered, write
+ * amplification and traffic per player per minute.
+ *
+ * The paths, payloads and listeners are the app's: the start is the update resolveAction writes
+ * for GameBootstrap's start request, positions go where FirebaseHelper.sendLocation puts them, every player
+ * listens to the game's positions and status like the play board does, and actions go through
+ * {@link SimulatedServer}, which stands in for the resolveAction cloud function.
+ *
+ * Around the game it runs what happens to shared data when many phones act at once. The admin
+ * invites everyone and everyone answers, which {@link SimulatedMessaging} turns into FCM
+ * messages. A rush of late joiners each send a join request, like JoinGameActivity does, all in
+ * the same instant, and the server adds each of them in a transaction on the game state. At the end every player adds a win or a loss to their stats. These
+ * run in {@link MemoryDatabase#setHeld held} rounds, so the counters' transactions conflict and
+ * retry the way they do on the server, and the report counts the retries and give-ups.
+ *
+ * All players share one {@link GameEngine} board, fed by listening to the database like a
+ * spectator's phone would, so 5,000 players don't need 5,000 copies of the board. The board
+ * is counted as one more listening client.
+ *
+ * <pre>
+ * java mobileappdev.assassingame.GameSimulator [players...] [--minutes m] [--seed s]
+ * </pre>
+ * Players default to 50, 500 and 5000, one run each.
+ */
+public class GameSimulator implements RealtimeStore.ChildListener, RealtimeStore.ValueListener {
+
+    private static final String GAME_NAME = "simulated";
+    private static final long STEP = 1000; // in msec of simulated time
+    private static final double SPACE_PER_PLAYER = 60; // side of the square each player gets, in meters
+    private static final double LATE_JOINERS = 0.1; // per player
+    private static final double SECOND_DEVICE_CHANCE = 0.2;
+
+    private static final double CENTER_LAT = 40.4237;
+    private static final double CENTER_LNG = -86.9212;
+    private static final double METERS_PER_DEGREE_LAT = Math.PI * 6371008.8 / 180;
+
+    /**
+     * Same as FirebaseHelper.incrementCounter.
+     */
+    private static final RealtimeStore.Transaction INCREMENT = new RealtimeStore.Transaction() {
+        @Override
+        public Object run(Object value) {
+            long current = value == null ? 0 : Long.parseLong(value.toString());
+            return current + 1;
+        }
+    };
+
+    /**
+     * What a batch of simultaneous transactions cost.
+     */
+    private static class Contention {
+        final int transactions;
+        final long retries;
+        final long failures;
+        final int hops;
+
+        Contention(int transactions, long retries, long failures, int hops) {
+            this.transactions = transactions;
+            this.retries = retries;
+            this.failures = failures;
+            this.hops = hops;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%,d transactions at once: %,d retries, %,d gave up, settled after %,d hops",
+                    transactions, retries, failures, hops);
+        }
+    }
+
+    private final int mPlayerCount;
+    private final long mDuration;
+    private final Random mRandom;
+    private final MemoryDatabase mDatabase = new MemoryDatabase();
+    private final double mArenaSize;
+    private final Map<String, LatencyHistogram> mLatencies = new LinkedHashMap<>();
+    private final List<SimulatedPlayer> mPlayers = new ArrayList<>();
+    private final PlayerSpatialIndex mSpatialIndex = new PlayerSpatialIndex(GameEngine.ACTION_DISTANCE);
+    private GameEngine mBoard;
+    private SimulatedServer mServer;
+    private SimulatedMessaging mMessaging;
+    private Contention mJoinRush;
+    private Contention mStatsRush;
+    private long mTime;
+    private boolean mFinished;
+
+    public GameSimulator(int playerCount, long durationInMillis, long seed) {
+        mPlayerCount = playerCount;
+        mDuration = durationInMillis;
+        mRandom = new Random(seed);
+        mArenaSize = Math.sqrt(playerCount) * SPACE_PER_PLAYER;
+    }
+
+    public static void main(String[] args) {
+        List<Integer> playerCounts = new ArrayList<>();
+        double minutes = 2;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if ("--minutes".equals(args[i])) {
+                minutes = Double.parseDouble(args[++i]);
+            } else if ("--seed".equals(args[i])) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                playerCounts.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (playerCounts.isEmpty()) {
+            playerCounts.add(50);
+            playerCounts.add(500);
+            playerCounts.add(5000);
+        }
+        for (int playerCount : playerCounts) {
+            new GameSimulator(playerCount, (long) (minutes * 60000), seed).run();
+        }
+    }
+
+    public void run() {
+        long wallStart = System.nanoTime();
+        System.out.printf(Locale.US, "=== %,d players, %.1f simulated minutes ===%n", mPlayerCount, mDuration / 60000.0);
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < mPlayerCount; i++) {
+            names.add(String.format(Locale.US, "player%05d", i));
+        }
+        Map<String, GameCharacter> roles = new HashMap<>();
+        GameEngine.assignRoles(names, mRandom, roles);
+        mBoard = new GameEngine(roles);
+        mServer = new SimulatedServer(mDatabase, GAME_NAME);
+        mMessaging = new SimulatedMessaging(mDatabase, GAME_NAME);
+        for (int i = 0; i < mBoard.size(); i++) {
+            mPlayers.add(new SimulatedPlayer(this, mBoard.getName(i), i, mBoard.getRole(i), new Random(mRandom.nextLong())));
+        }
+
+        signUp(names);
+        invite(names);
+        long start = System.nanoTime();
+        mDatabase.updateChildren("", buildStart(roles));
+        record("start", System.nanoTime() - start);
+        mServer.start();
+        mDatabase.addChildListener(getPositionsPath(), (RealtimeStore.ChildListener) this);
+        mDatabase.addValueListener(getGamePath() + "/status", (RealtimeStore.ValueListener) this);
+        for (SimulatedPlayer player : mPlayers) {
+            start = System.nanoTime();
+            player.join();
+            record("join", System.nanoTime() - start);
+        }
+        mJoinRush = joinRush((int) (mPlayerCount * LATE_JOINERS));
+        MemoryDatabase.Stats setup = mDatabase.getStats();
+        mDatabase.resetStats();
+        long serverBytesBefore = mServer.getBytesWritten();
+
+        for (mTime = 0; mTime < mDuration && !mFinished; mTime += STEP) {
+            for (SimulatedPlayer player : mPlayers) {
+                player.step(mTime);
+            }
+        }
+        MemoryDatabase.Stats play = mDatabase.getStats();
+        mStatsRush = recordStats();
+        long wallTime = System.nanoTime() - wallStart;
+
+        report(setup, play, mServer.getBytesWritten() - serverBytesBefore, wallTime);
+    }
+
+    /**
+     * What SignUpPageActivity leaves behind: zeroed stats and a device token or two.
+     */
+    private void signUp(List<String> names) {
+        Map<String, Object> update = new HashMap<>();
+        for (String name : names) {
+            update.put("users/" + name + "/stats/wins", 0);
+            update.put("users/" + name + "/stats/losses", 0);
+            int devices = mRandom.nextDouble() < SECOND_DEVICE_CHANCE ? 2 : 1;
+            for (int i = 0; i < devices; i++) {
+                update.put("users/" + name + "/device/" + mDatabase.push("users/" + name + "/device"), true);
+            }
+        }
+        mDatabase.updateChildren("", update);
+    }
+
+    /**
+     * The admin invites everyone as FirebaseHelper.sendInvite does, and everyone accepts in the
+     * same instant as FirebaseHelper.sendAcceptResponse does.
+     */
+    private void invite(List<String> names) {
+        String admin = names.get(0);
+        mMessaging.start();
+        for (String name : names) {
+            if (name.equals(admin))
+                continue;
+            long start = System.nanoTime();
+            String invitePath = "users/" + name + "/invites/" + admin + "/" + GAME_NAME;
+            mDatabase.setValue(invitePath + "/" + mDatabase.push(invitePath), Long.toString(mTime));
+            record("invite", System.nanoTime() - start);
+            mMessaging.onInvite(name, admin);
+        }
+        mDatabase.setValue(getGamePath() + "/admin", admin);
+
+        mDatabase.setHeld(true);
+        for (String name : names) {
+            if (name.equals(admin))
+                continue;
+            Map<String, Object> update = new HashMap<>();
+            update.put(getGamePath() + "/players/" + name + "/invite", InvitationStatus.ACCEPTED.getCode());
+            update.put(getGamePath() + "/invites/" + name, InvitationStatus.ACCEPTED.getCode());
+            mDatabase.updateChildren("", update);
+        }
+        settle();
+    }
+
+    /**
+     * Late joiners of the started game send join requests at once, like JoinGameActivity. They
+     * join a copy of the game with its own server, so the board keeps its players.
+     */
+    private Contention joinRush(int joiners) {
+        String rushGame = GAME_NAME + "_rush";
+        mDatabase.setValue("games/" + rushGame + "/state", mDatabase.getValue(getGamePath() + "/state"));
+        new SimulatedServer(mDatabase, rushGame).start();
+        MemoryDatabase.Stats before = mDatabase.getStats();
+        mDatabase.setHeld(true);
+        String actions = "games/" + rushGame + "/actions";
+        for (int i = 0; i < joiners; i++) {
+            Map<String, Object> request = new HashMap<>();
+            request.put("type", "JOIN");
+            request.put("actor", "late" + i);
+            request.put("requested_at", RealtimeStore.TIMESTAMP);
+            mDatabase.setValue(actions + "/" + mDatabase.push(actions), request);
+        }
+        return contention(joiners, before, settle());
+    }
+
+    /**
+     * Every player adds a win or a loss at once, as PlayBoardActivity does when the game ends;
+     * if it hasn't ended, as if the assassin had lost.
+     */
+    private Contention recordStats() {
+        MemoryDatabase.Stats before = mDatabase.getStats();
+        boolean assassinWon = mBoard.isFinished() && mBoard.hasAssassinWon();
+        mDatabase.setHeld(true);
+        for (int i = 0; i < mBoard.size(); i++) {
+            String counter = GameEngine.isWinner(mBoard.getRole(i), assassinWon) ? "wins" : "losses";
+            mDatabase.runTransaction("users/" + mBoard.getName(i) + "/stats/" + counter, INCREMENT, null);
+        }
+        return contention(mBoard.size(), before, settle());
+    }
+
+    /**
+     * Delivers held messages until nothing is left, then goes back to delivering right away.
+     *
+     * @return the number of rounds of messages delivered
+     */
+    private int settle() {
+        int hops = 0;
+        while (mDatabase.deliver() > 0) {
+            hops++;
+        }
+        mDatabase.setHeld(false);
+        return hops;
+    }
+
+    private Contention contention(int transactions, MemoryDatabase.Stats before, int hops) {
+        MemoryDatabase.Stats after = mDatabase.getStats();
+        return new Contention(transactions, after.getTransactionRetries() - before.getTransactionRetries(),
+                after.getTransactionFailures() - before.getTransactionFailures(), hops);
+    }
+
+    /**
+     * The admin, the type and the update resolveAction writes for the start request, as one
+     * write.
+     */
+    private Map<String, Object> buildStart(Map<String, GameCharacter> roles) {
+        String game = getGamePath();
+        Map<String, Object> update = new HashMap<>();
+        update.put(game + "/admin", mBoard.getName(0));
+        update.put(game + "/type", "public");
+        int civilians = 0;
+        Map<String, Object> statePlayers = new HashMap<>();
+        for (Map.Entry<String, GameCharacter> entry : roles.entrySet()) {
+            update.put(game + "/players/" + entry.getKey() + "/role", entry.getValue().getCode());
+            update.put(game + "/players/" + entry.getKey() + "/status", PlayerStatus.ALIVE.getCode());
+            update.put(getPositionsPath() + "/" + entry.getKey() + "/status", PlayerStatus.ALIVE.getCode());
+            Map<String, Object> statePlayer = new HashMap<>();
+            statePlayer.put("role", entry.getValue().getCode());
+            statePlayer.put("status", PlayerStatus.ALIVE.getCode());
+            statePlayers.put(entry.getKey(), statePlayer);
+            if (entry.getValue() != GameCharacter.ASSASSIN) {
+                civilians++;
+            }
+        }
+        Map<String, Object> state = new HashMap<>();
+        state.put("players", statePlayers);
+        state.put("citizens_alive", civilians);
+        state.put("status", GameStatus.STARTED.getCode());
+        update.put(game + "/state", state);
+        update.put(game + "/status", GameStatus.STARTED.getCode());
+        return update;
+    }
+
+    private void report(MemoryDatabase.Stats setup, MemoryDatabase.Stats stats, long serverBytes, long wallTime) {
+        double minutes = mTime / 60000.0;
+        int clients = mPlayerCount + 1;
+
+        System.out.printf(Locale.US, "setup: %,d writes, %s written, %,d events, %s delivered%n",
+                setup.getWrites(), bytes(setup.getBytesWritten()), setup.getEvents(), bytes(setup.getBytesDelivered()));
+        System.out.printf(Locale.US, "%-10s %10s %10s %10s %10s %10s%n", "operation", "count", "p50", "p90", "p99", "max");
+        for (Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+            printLatency(entry.getKey(), entry.getValue());
+        }
+        printLatency("resolve", mServer.getLatency());
+        printLatency("fcm", mMessaging.getLatency());
+
+        System.out.printf(Locale.US, "played %.1f minutes: %s%n", minutes,
+                mFinished ? mBoard.getResult() : "no winner yet");
+        System.out.println("actions: " + mServer.getOutcomes());
+        System.out.printf(Locale.US, "traffic: %,d writes, %s written (%s by the server), %,d events, %s delivered%n",
+                stats.getWrites(), bytes(stats.getBytesWritten()), bytes(serverBytes), stats.getEvents(),
+                bytes(stats.getBytesDelivered()));
+        System.out.printf(Locale.US, "write amplification: %.1fx%n", stats.getWriteAmplification());
+        System.out.printf(Locale.US, "transactions in play: %,d retries, %,d aborted, %,d gave up%n",
+                stats.getTransactionRetries(), stats.getTransactionAborts(), stats.getTransactionFailures());
+        System.out.printf(Locale.US, "fcm: %,d messages to %,d devices, %s payload; %,d reads, %s read%n",
+                mMessaging.getMessages(), mMessaging.getDeliveries(), bytes(mMessaging.getPayloadBytes()),
+                mMessaging.getReads(), bytes(mMessaging.getBytesRead()));
+        System.out.println("join rush on the game state: " + mJoinRush);
+        System.out.println("wins/losses at the end: " + mStatsRush);
+        if (minutes > 0) {
+            System.out.printf(Locale.US, "per player per minute: %s up, %s down%n",
+                    bytes((long) ((stats.getBytesWritten() - serverBytes) / mPlayerCount / minutes)),
+                    bytes((long) (stats.getBytesDelivered() / clients / minutes)));
+        }
+        System.out.printf(Locale.US, "wall time: %.1f s%n%n", wallTime / 1e9);
+    }
+
+    private static void printLatency(String operation, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0)
+            return;
+        System.out.printf(Locale.US, "%-10s %,10d %10s %10s %10s %10s%n", operation, histogram.getCount(),
+                duration(histogram.getPercentile(0.5)), duration(histogram.getPercentile(0.9)),
+                duration(histogram.getPercentile(0.99)), duration(histogram.getMax()));
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 1000)
+            return nanos + " ns";
+        if (nanos < 1000000)
+            return String.format(Locale.US, "%.1f us", nanos / 1e3);
+        return String.format(Locale.US, "%.1f ms", nanos / 1e6);
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024)
+            return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024));
+        return String.format(Locale.US, "%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    void record(String operation, long nanos) {
+        LatencyHistogram histogram = mLatencies.get(operation);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            mLatencies.put(operation, histogram);
+        }
+        histogram.record(nanos);
+    }
+
+    MemoryDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    GameEngine getBoard() {
+        return mBoard;
+    }
+
+    PlayerSpatialIndex getSpatialIndex() {
+        return mSpatialIndex;
+    }
+
+    SimulatedPlayer getPlayer(int index) {
+        return mPlayers.get(index);
+    }
+
+    double getArenaSize() {
+        return mArenaSize;
+    }
+
+    long getTime() {
+        return mTime;
+    }
+
+    String getGamePath() {
+        return "games/" + GAME_NAME;
+    }
+
+    /**
+     * Same as GamePositionStream.getPositionsPath.
+     */
+    String getPositionsPath() {
+        return getGamePath() + "/positions";
+    }
+
+    double toLat(double y) {
+        return CENTER_LAT + y / METERS_PER_DEGREE_LAT;
+    }
+
+    double toLng(double x) {
+        return CENTER_LNG + x / (METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(CENTER_LAT)));
+    }
+
+    // the board, fed like GamePositionStream feeds the play board
+
+    @Override
+    public void onChildAdded(String key, Object value) {
+        onChildChanged(key, value);
+    }
+
+    @Override
+    public void onChildChanged(String key, Object value) {
+        Map<?, ?> position = (Map<?, ?>) value;
+        Object lat = position.get("lat");
+        Object lng = position.get("lng");
+        if (lat instanceof Number && lng instanceof Number) {
+            double latitude = ((Number) lat).doubleValue();
+            double longitude = ((Number) lng).doubleValue();
+            mBoard.move(key, latitude, longitude);
+            mSpatialIndex.update(key, latitude, longitude);
+        }
+        PlayerStatus status = PlayerStatus.decode(position.get("status"), null);
+        if (status != null) {
+            mBoard.setStatus(key, status);
+        }
+    }
+
+    @Override
+    public void onChildRemoved(String key) {
+        mSpatialIndex.remove(key);
+    }
+
+    @Override
+    public void onValueChanged(String path, Object value) {
+        if (GameStatus.decode(value, null) == GameStatus.FINISHED) {
+            Object result = mDatabase.getValue(getGamePath() + "/result");
+            Object assassinWon = mDatabase.getValue(getGamePath() + "/assassinWon");
+            mBoard.finish(Boolean.TRUE.equals(assassinWon), result == null ? null : result.toString());
+            mFinished = true;
+        }
+    }
+
+    @Override
+    public void onCancelled(Exception error) {
+        throw new IllegalStateException(error);
+    }
+}
@@ -0,0 +1,51 @@
+package mobileappdev.assassingame;
+
+/**
+ * Durations in power-of-two nanosecond buckets, so recording costs a few instructions and no
+ * allocation however long a run gets. A percentile is reported as the upper end of its bucket,
+ * i.e. at most twice the real value; the maximum is exact.
+ */
+class LatencyHistogram {
+
+    private final long[] mBuckets = new long[64];
+    private long mCount;
+    private long mTotal;
+    private long mMax;
+
+    void record(long nanos) {
+        long value = Math.max(nanos, 1);
+        mBuckets[63 - Long.numberOfLeadingZeros(value)]++;
+        mCount++;
+        mTotal += value;
+        mMax = Math.max(mMax, value);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    long getMax() {
+        return mMax;
+    }
+
+    long getMean() {
+        return mCount == 0 ? 0 : mTotal / mCount;
+    }
+
+    /**
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return nanoseconds, or 0 if nothing was recorded
+     */
+    long getPercentile(double fraction) {
+        if (mCount == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * mCount));
+        long seen = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank)
+                return Math.min(i >= 62 ? Long.MAX_VALUE : (2L << i) - 1, mMax);
+        }
+        return mMax;
+    }
+}
@@ -0,0 +1,133 @@
+package mobileappdev.assassingame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The sendInvite and sendInviteResponse cloud functions on the simulated database. Every invite
+ * or response written makes the function read what it needs plus the receiver's device tokens,
+ * and send one FCM message to all of them. Counts the reads, the messages, the devices they went
+ * to and the payload bytes FCM carried.
+ */
+class SimulatedMessaging implements RealtimeStore.ChildListener {
+
+    private final MemoryDatabase mDatabase;
+    private final String mGameName;
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private long mReads;
+    private long mBytesRead;
+    private long mMessages;
+    private long mDeliveries;
+    private long mPayloadBytes;
+
+    SimulatedMessaging(MemoryDatabase database, String gameName) {
+        mDatabase = database;
+        mGameName = gameName;
+    }
+
+    /**
+     * Starts answering responses written to the game's invites, like sendInviteResponse.
+     */
+    void start() {
+        mDatabase.addChildListener("games/" + mGameName + "/invites", this);
+    }
+
+    /**
+     * sendInvite, for an invite FirebaseHelper.sendInvite wrote.
+     */
+    void onInvite(String invitee, String inviter) {
+        long start = System.nanoTime();
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", "invitation");
+        data.put("sender", inviter);
+        data.put("receiver", invitee);
+        data.put("game", mGameName);
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("data", data);
+        send(invitee, payload);
+        mLatency.record(System.nanoTime() - start);
+    }
+
+    LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    long getReads() {
+        return mReads;
+    }
+
+    long getBytesRead() {
+        return mBytesRead;
+    }
+
+    long getMessages() {
+        return mMessages;
+    }
+
+    /**
+     * @return devices the messages went to; a message goes to every token of its user
+     */
+    long getDeliveries() {
+        return mDeliveries;
+    }
+
+    long getPayloadBytes() {
+        return mPayloadBytes;
+    }
+
+    @Override
+    public void onChildAdded(String key, Object value) {
+        onChildChanged(key, value);
+    }
+
+    /**
+     * sendInviteResponse: tells the admin who accepted or declined.
+     */
+    @Override
+    public void onChildChanged(String invited, Object value) {
+        long start = System.nanoTime();
+        String game = "games/" + mGameName;
+        InvitationStatus response = InvitationStatus.decode(read(game + "/invites/" + invited), null);
+        Object admin = read(game + "/admin");
+        if (admin == null || (response != InvitationStatus.ACCEPTED && response != InvitationStatus.DECLINED))
+            return;
+
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("body", invited + (response == InvitationStatus.ACCEPTED ? " accepted" : " declined")
+                + " your invitation to join " + mGameName + ".");
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", "invite_response");
+        data.put("player_name", invited);
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("notification", notification);
+        payload.put("data", data);
+        send(admin.toString(), payload);
+        mLatency.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void onChildRemoved(String key) {
+    }
+
+    @Override
+    public void onCancelled(Exception error) {
+        throw new IllegalStateException(error);
+    }
+
+    private void send(String user, Map<String, Object> payload) {
+        Object devices = read("users/" + user + "/device");
+        if (!(devices instanceof Map))
+            return; // no tokens to send to
+        int tokens = ((Map<?, ?>) devices).size();
+        mMessages++;
+        mDeliveries += tokens;
+        mPayloadBytes += tokens * MemoryDatabase.sizeOf(payload);
+    }
+
+    private Object read(String path) {
+        Object value = mDatabase.getValue(path);
+        mReads++;
+        mBytesRead += MemoryDatabase.sizeOf(value);
+        return value;
+    }
+}
@@ -0,0 +1,320 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * One virtual phone in a {@link GameSimulator} run. It walks around the arena, uploads its
+ * position at the rate {@link ProximitySamplingPolicy} picks, listens to the game's positions and
+ * status like the play board does, and plays its role:
+ * <ul>
+ * <li>the assassin chases its target and kills it once in range;</li>
+ * <li>the doctor heads for the nearest dead player and revives them;</li>
+ * <li>the detective wanders and now and then sees through the assassin when they are close;</li>
+ * <li>citizens wander.</li>
+ * </ul>
+ * Every player but the assassin may leave the game. Actions go through the actions node and wait
+ * for their outcome, as {@link GameEngine} checks on the shared board allow.
+ */
+class SimulatedPlayer implements RealtimeStore.ChildListener, RealtimeStore.ValueListener {
+
+    static final double WALK_SPEED = 1.4; // in m/s
+    static final double RUN_SPEED = 2.5; // in m/s
+    static final double ARREST_CHANCE = 0.1; // per second with the assassin in range
+    static final double LEAVE_CHANCE = 0.005; // per minute
+
+    // same as LocationUplink
+    private static final long FLUSH_INTERVAL = 2000; // in msec
+    private static final double MIN_MOVEMENT = 3; // in meters
+
+    private static final int SAMPLING_CANDIDATES = 8;
+
+    private final GameSimulator mSimulator;
+    private final MemoryDatabase mDatabase;
+    private final String mName;
+    private final int mIndex;
+    private final GameCharacter mRole;
+    private final Random mRandom;
+    private final LocationSamplingScheduler mScheduler;
+    private final List<String> mNearby = new ArrayList<>();
+
+    private double mX;
+    private double mY;
+    private double mHeading;
+    private double mUploadedX = Double.NaN;
+    private double mUploadedY = Double.NaN;
+    private long mUploadedAt;
+    private boolean mWaiting;
+    private boolean mLeft;
+    private long mEventsSeen;
+
+    SimulatedPlayer(GameSimulator simulator, String name, int index, GameCharacter role, Random random) {
+        mSimulator = simulator;
+        mDatabase = simulator.getDatabase();
+        mName = name;
+        mIndex = index;
+        mRole = role;
+        mRandom = random;
+        double half = simulator.getArenaSize() / 2;
+        mX = (random.nextDouble() * 2 - 1) * half;
+        mY = (random.nextDouble() * 2 - 1) * half;
+        mHeading = random.nextDouble() * 2 * Math.PI;
+        mScheduler = new LocationSamplingScheduler(new ProximitySamplingPolicy(GameEngine.ACTION_DISTANCE),
+                ProximitySamplingPolicy.NORMAL, new LocationSamplingScheduler.Clock() {
+            @Override
+            public long now() {
+                return mSimulator.getTime();
+            }
+        }, LocationSamplingScheduler.DEFAULT_SLOW_DOWN_DELAY);
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    boolean hasUploaded() {
+        return !Double.isNaN(mUploadedX);
+    }
+
+    double getUploadedX() {
+        return mUploadedX;
+    }
+
+    double getUploadedY() {
+        return mUploadedY;
+    }
+
+    long getEventsSeen() {
+        return mEventsSeen;
+    }
+
+    /**
+     * Opens the play board: positions and the game status.
+     */
+    void join() {
+        mDatabase.addChildListener(mSimulator.getPositionsPath(), this);
+        mDatabase.addValueListener(mSimulator.getGamePath() + "/status", this);
+    }
+
+    /**
+     * Plays one second.
+     */
+    void step(long now) {
+        if (mLeft)
+            return;
+        GameEngine board = mSimulator.getBoard();
+        boolean alive = board.isAlive(mIndex);
+        if (alive) {
+            play(board);
+            if (mRole != GameCharacter.ASSASSIN && !mWaiting
+                    && mRandom.nextDouble() < LEAVE_CHANCE / 60) {
+                submit(GameEngine.Action.LEAVE, GameEngine.NONE);
+                return;
+            }
+        }
+
+        mScheduler.update(nearestRelevantDistance(board), mRole, alive);
+        LocationSamplingPolicy.SamplingRate rate = mScheduler.getCurrentRate();
+        if (!hasUploaded() || (now - mUploadedAt >= Math.max(rate.getInterval(), FLUSH_INTERVAL)
+                && Math.hypot(mX - mUploadedX, mY - mUploadedY) >= Math.max(rate.getMinDistance(), MIN_MOVEMENT))) {
+            upload(now);
+        }
+    }
+
+    private void play(GameEngine board) {
+        switch (mRole) {
+            case ASSASSIN: {
+                int target = board.getTarget();
+                SimulatedPlayer prey = target == GameEngine.NONE ? null : mSimulator.getPlayer(target);
+                if (prey != null && prey.hasUploaded()) {
+                    walkTowards(prey.getUploadedX(), prey.getUploadedY(), RUN_SPEED);
+                } else {
+                    wander();
+                }
+                if (prey != null && !mWaiting && board.check(GameEngine.Action.KILL, mIndex, target) == GameEngine.Reason.OK) {
+                    submit(GameEngine.Action.KILL, target);
+                }
+                break;
+            }
+            case DOCTOR: {
+                int patient = nearestDead(board);
+                if (patient == GameEngine.NONE) {
+                    wander();
+                    break;
+                }
+                SimulatedPlayer dead = mSimulator.getPlayer(patient);
+                walkTowards(dead.getUploadedX(), dead.getUploadedY(), WALK_SPEED);
+                if (!mWaiting && board.check(GameEngine.Action.REVIVE, mIndex, patient) == GameEngine.Reason.OK) {
+                    submit(GameEngine.Action.REVIVE, patient);
+                }
+                break;
+            }
+            case DETECTIVE:
+                wander();
+                if (!mWaiting && mRandom.nextDouble() < ARREST_CHANCE) {
+                    for (String suspect : mSimulator.getSpatialIndex().withinRadius(mName, GameEngine.ACTION_DISTANCE, mNearby)) {
+                        int index = board.indexOf(suspect);
+                        if (board.check(GameEngine.Action.ARREST, mIndex, index) == GameEngine.Reason.OK) {
+                            submit(GameEngine.Action.ARREST, index);
+                            break;
+                        }
+                    }
+                }
+                break;
+            default:
+                wander();
+                break;
+        }
+    }
+
+    private void wander() {
+        mHeading += mRandom.nextGaussian() * 0.3;
+        walk(Math.cos(mHeading), Math.sin(mHeading), WALK_SPEED);
+    }
+
+    private void walkTowards(double x, double y, double speed) {
+        double distance = Math.hypot(x - mX, y - mY);
+        if (distance < 1)
+            return;
+        double step = Math.min(speed, distance);
+        walk((x - mX) / distance, (y - mY) / distance, step);
+    }
+
+    private void walk(double dx, double dy, double meters) {
+        double half = mSimulator.getArenaSize() / 2;
+        mX += dx * meters;
+        mY += dy * meters;
+        // bounce off the edges
+        if (Math.abs(mX) > half) {
+            mX = Math.signum(mX) * (2 * half - Math.abs(mX));
+            mHeading = Math.PI - mHeading;
+        }
+        if (Math.abs(mY) > half) {
+            mY = Math.signum(mY) * (2 * half - Math.abs(mY));
+            mHeading = -mHeading;
+        }
+    }
+
+    /**
+     * Same as the play board's updateSamplingRate.
+     */
+    private double nearestRelevantDistance(GameEngine board) {
+        LocationSamplingPolicy policy = mScheduler.getPolicy();
+        boolean alive = board.isAlive(mIndex);
+        for (PlayerSpatialIndex.Neighbor neighbor : mSimulator.getSpatialIndex().nearest(mName, SAMPLING_CANDIDATES)) {
+            int other = board.indexOf(neighbor.getName());
+            if (policy.isRelevant(mRole, alive, board.getRole(other), board.isAlive(other)))
+                return neighbor.getDistance();
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private int nearestDead(GameEngine board) {
+        int nearest = GameEngine.NONE;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < board.size(); i++) {
+            if (board.getStatus(i) != PlayerStatus.DEAD || !mSimulator.getPlayer(i).hasUploaded())
+                continue;
+            SimulatedPlayer dead = mSimulator.getPlayer(i);
+            double distance = Math.hypot(dead.getUploadedX() - mX, dead.getUploadedY() - mY);
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Same writes as FirebaseHelper.sendLocation.
+     */
+    private void upload(long now) {
+        String myPosition = mSimulator.getPositionsPath() + "/" + mName;
+        Map<String, Object> update = new HashMap<>();
+        update.put(myPosition + "/lat", mSimulator.toLat(mY));
+        update.put(myPosition + "/lng", mSimulator.toLng(mX));
+        long start = System.nanoTime();
+        mDatabase.updateChildren("", update);
+        mSimulator.record("position", System.nanoTime() - start);
+        mUploadedX = mX;
+        mUploadedY = mY;
+        mUploadedAt = now;
+    }
+
+    /**
+     * Same request as ActionResolver.submit, waiting on the outcome the same way. Outcomes are
+     * left to the server.
+     */
+    private void submit(final GameEngine.Action action, int target) {
+        String id = mDatabase.push(mSimulator.getGamePath() + "/actions");
+        String request = mSimulator.getGamePath() + "/actions/" + id;
+        final String outcome = mSimulator.getGamePath() + "/outcomes/" + id;
+        Map<String, Object> values = new HashMap<>();
+        values.put("type", action.toString());
+        values.put("actor", mName);
+        if (target != GameEngine.NONE) {
+            values.put("target", mSimulator.getBoard().getName(target));
+        }
+        values.put("requested_at", mSimulator.getTime());
+
+        mWaiting = true;
+        mDatabase.addValueListener(outcome, new RealtimeStore.ValueListener() {
+            @Override
+            public void onValueChanged(String path, Object value) {
+                if (value == null)
+                    return;
+                mDatabase.removeListener(this);
+                mWaiting = false;
+                if (action == GameEngine.Action.LEAVE && Boolean.TRUE.equals(((Map<?, ?>) value).get("accepted"))) {
+                    leave();
+                }
+            }
+
+            @Override
+            public void onCancelled(Exception error) {
+                throw new IllegalStateException(error);
+            }
+        });
+        long start = System.nanoTime();
+        mDatabase.setValue(request, values);
+        mSimulator.record(action.name().toLowerCase(Locale.US), System.nanoTime() - start);
+    }
+
+    private void leave() {
+        mLeft = true;
+        mDatabase.removeListener(this);
+    }
+
+    @Override
+    public void onChildAdded(String key, Object value) {
+        onChildChanged(key, value);
+    }
+
+    @Override
+    public void onChildChanged(String key, Object value) {
+        // what GamePositionStream decodes
+        Map<?, ?> position = (Map<?, ?>) value;
+        if (position.get("lat") instanceof Number || position.get("status") != null) {
+            mEventsSeen++;
+        }
+    }
+
+    @Override
+    public void onChildRemoved(String key) {
+        mEventsSeen++;
+    }
+
+    @Override
+    public void onValueChanged(String path, Object value) {
+        mEventsSeen++;
+    }
+
+    @Override
+    public void onCancelled(Exception error) {
+        throw new IllegalStateException(error);
+    }
+}
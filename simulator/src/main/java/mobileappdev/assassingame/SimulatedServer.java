@@ -0,0 +1,326 @@
+package mobileappdev.assassingame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The resolveAction cloud function on the simulated database. Every request pushed to the
+ * game's actions is resolved the way the function does it. Positions are read first. Then a
+ * transaction on the game's state node has {@link GameEngine} decide, and updates the statuses,
+ * citizens_alive and the result there. One update then copies the changes to the players and
+ * positions nodes, stores the outcome and deletes the request. A transaction that gave up after
+ * too many conflicts is rejected as busy. Join requests add the player to the state the same way.
+ */
+class SimulatedServer implements RealtimeStore.ChildListener {
+
+    /**
+     * What the last run of the transaction decided.
+     */
+    private static class Resolution {
+        final GameEngine.Reason reason;
+        final double distance;
+        final List<String> changed = new ArrayList<>();
+
+        Resolution(GameEngine.Reason reason, double distance) {
+            this.reason = reason;
+            this.distance = distance;
+        }
+    }
+
+    private final MemoryDatabase mDatabase;
+    private final String mGamePath;
+    private final String mStatePath;
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private final Map<String, Integer> mOutcomes = new TreeMap<>();
+    private long mBytesWritten;
+
+    SimulatedServer(MemoryDatabase database, String gameName) {
+        mDatabase = database;
+        mGamePath = "games/" + gameName;
+        mStatePath = mGamePath + "/state";
+    }
+
+    void start() {
+        mDatabase.addChildListener(mGamePath + "/actions", this);
+    }
+
+    LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * @return "KILL ok", "ARREST too_far" and the like, with how often each happened
+     */
+    Map<String, Integer> getOutcomes() {
+        return mOutcomes;
+    }
+
+    /**
+     * @return bytes the server's transactions and updates wrote, as opposed to the players' own
+     * writes
+     */
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    @Override
+    public void onChildAdded(final String key, Object value) {
+        final long start = System.nanoTime();
+        final long bytesBefore = mDatabase.getStats().getBytesWritten();
+        Map<String, Object> request = asMap(value);
+        final String actor = (String) request.get("actor");
+        if ("JOIN".equals(request.get("type"))) {
+            join(key, actor, start, bytesBefore);
+            return;
+        }
+        final GameEngine.Action action = GameEngine.Action.valueOf((String) request.get("type"));
+        final String target = (String) request.get("target");
+        // read outside the transaction, so players moving can't make it retry
+        final Object actorPosition = mDatabase.getValue(mGamePath + "/positions/" + actor);
+        final Object targetPosition = target == null ? null : mDatabase.getValue(mGamePath + "/positions/" + target);
+
+        final Resolution[] resolution = new Resolution[1];
+        mDatabase.runTransaction(mStatePath, new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object current) {
+                resolution[0] = null;
+                if (current == null)
+                    return RealtimeStore.ABORT;
+                Map<String, Object> state = asMap(current);
+                Map<String, Object> players = asMap(state.get("players"));
+                if (players.get(actor) instanceof Map && key.equals(asMap(players.get(actor)).get("last_action")))
+                    return RealtimeStore.ABORT; // resolved before
+                resolution[0] = resolve(state, action, actor, target, actorPosition, targetPosition);
+                if (players.get(actor) instanceof Map) {
+                    asMap(players.get(actor)).put("last_action", key);
+                }
+                return state;
+            }
+        }, new RealtimeStore.TransactionListener() {
+            @Override
+            public void onComplete(Exception error, boolean committed, Object value) {
+                if (error != null) {
+                    reject(key, action.toString(), "busy");
+                } else if (committed && resolution[0] != null) {
+                    finish(key, action, resolution[0], asMap(value));
+                } else {
+                    mDatabase.setValue(mGamePath + "/actions/" + key, null);
+                }
+                mBytesWritten += mDatabase.getStats().getBytesWritten() - bytesBefore;
+                mLatency.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * The function's joinGame: a player joins a running game as an alive citizen and is counted
+     * in citizens_alive, and one that hasn't started without a role. Joining again is a no-op.
+     */
+    private void join(final String key, final String player, final long start, final long bytesBefore) {
+        final boolean[] joined = new boolean[1];
+        mDatabase.runTransaction(mStatePath, new RealtimeStore.Transaction() {
+            @Override
+            public Object run(Object current) {
+                joined[0] = false;
+                Map<String, Object> state = asMap(current);
+                Map<String, Object> players = asMap(state.get("players"));
+                state.put("players", players);
+                Map<String, Object> entry = players.get(player) instanceof Map ? asMap(players.get(player)) : null;
+                if (entry != null && key.equals(entry.get("last_action")))
+                    return RealtimeStore.ABORT; // resolved before
+                if (entry == null || PlayerStatus.decode(entry.get("status"), null) == PlayerStatus.LEFT) {
+                    GameStatus gameStatus = GameStatus.decode(state.get("status"), null);
+                    entry = new TreeMap<>();
+                    if (gameStatus == GameStatus.STARTED) {
+                        entry.put("role", (long) GameCharacter.CITIZEN.getCode());
+                        entry.put("status", (long) PlayerStatus.ALIVE.getCode());
+                        Object citizens = state.get("citizens_alive");
+                        state.put("citizens_alive", (citizens instanceof Number ? ((Number) citizens).longValue() : 0) + 1);
+                    } else {
+                        entry.put("role", (long) GameCharacter.UNDEFINED.getCode());
+                        entry.put("status", (long) (gameStatus == GameStatus.FINISHED
+                                ? PlayerStatus.NEWLY_JOINED : PlayerStatus.ALIVE).getCode());
+                    }
+                    players.put(player, entry);
+                    joined[0] = true;
+                }
+                entry.put("last_action", key);
+                return state;
+            }
+        }, new RealtimeStore.TransactionListener() {
+            @Override
+            public void onComplete(Exception error, boolean committed, Object value) {
+                if (error != null) {
+                    reject(key, "JOIN", "busy");
+                } else if (committed) {
+                    count("JOIN ok");
+                    Map<String, Object> outcome = new TreeMap<>();
+                    outcome.put("accepted", true);
+                    outcome.put("reason", "ok");
+                    outcome.put("distance", 0L);
+                    Map<String, Object> update = new HashMap<>();
+                    update.put(mGamePath + "/outcomes/" + key, outcome);
+                    update.put(mGamePath + "/actions/" + key, null);
+                    if (joined[0]) {
+                        Map<String, Object> entry = asMap(asMap(asMap(value).get("players")).get(player));
+                        update.put(mGamePath + "/players/" + player + "/role", entry.get("role"));
+                        update.put(mGamePath + "/players/" + player + "/status", entry.get("status"));
+                        update.put(mGamePath + "/positions/" + player + "/status", entry.get("status"));
+                    }
+                    mDatabase.updateChildren("", update);
+                } else {
+                    mDatabase.setValue(mGamePath + "/actions/" + key, null);
+                }
+                mBytesWritten += mDatabase.getStats().getBytesWritten() - bytesBefore;
+                mLatency.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    @Override
+    public void onChildChanged(String key, Object value) {
+    }
+
+    @Override
+    public void onChildRemoved(String key) {
+        // our own delete
+    }
+
+    @Override
+    public void onCancelled(Exception error) {
+        throw new IllegalStateException(error);
+    }
+
+    /**
+     * Decides on an engine built from the state, so a transaction run again after a conflict
+     * starts over, and applies the decision to the state.
+     */
+    private Resolution resolve(Map<String, Object> state, GameEngine.Action action, String actor, String target,
+                               Object actorPosition, Object targetPosition) {
+        Map<String, Object> players = asMap(state.get("players"));
+        Map<String, GameCharacter> roles = new TreeMap<>();
+        Map<String, PlayerStatus> statuses = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : players.entrySet()) {
+            Map<String, Object> player = asMap(entry.getValue());
+            roles.put(entry.getKey(), GameCharacter.decode(player.get("role"), GameCharacter.UNDEFINED));
+            statuses.put(entry.getKey(), PlayerStatus.decode(player.get("status"), PlayerStatus.ALIVE));
+        }
+        final GameEngine engine = new GameEngine(roles, statuses);
+        if (GameStatus.decode(state.get("status"), null) == GameStatus.FINISHED) {
+            engine.finish(Boolean.TRUE.equals(state.get("assassinWon")), (String) state.get("result"));
+        }
+        final List<Integer> changed = new ArrayList<>();
+        engine.setListener(new GameEngine.Listener() {
+            @Override
+            public void onStatusChanged(int player, PlayerStatus status) {
+                changed.add(player);
+            }
+
+            @Override
+            public void onTargetChanged(int target) {
+            }
+
+            @Override
+            public void onGameFinished(boolean assassinWon, String description) {
+            }
+        });
+
+        int actorIndex = engine.indexOf(actor);
+        int targetIndex = engine.indexOf(target);
+        moveFrom(engine, actorIndex, actorPosition);
+        moveFrom(engine, targetIndex, targetPosition);
+        double distance = actorIndex == GameEngine.NONE || targetIndex == GameEngine.NONE
+                ? Double.POSITIVE_INFINITY : engine.distance(actorIndex, targetIndex);
+
+        boolean wasFinished = engine.isFinished();
+        int citizensBefore = engine.getCitizensAlive();
+        Resolution resolution = new Resolution(engine.apply(action, actorIndex, targetIndex), distance);
+        for (int player : changed) {
+            asMap(players.get(engine.getName(player))).put("status", (long) engine.getStatus(player).getCode());
+            resolution.changed.add(engine.getName(player));
+        }
+        // relative, so counter changes from joining players survive
+        Object citizens = state.get("citizens_alive");
+        long stored = citizens instanceof Number ? ((Number) citizens).longValue() : citizensBefore;
+        state.put("citizens_alive", stored + engine.getCitizensAlive() - citizensBefore);
+        if (engine.isFinished() && !wasFinished) {
+            state.put("status", (long) GameStatus.FINISHED.getCode());
+            state.put("result", engine.getResult());
+            state.put("assassinWon", engine.hasAssassinWon());
+        }
+        return resolution;
+    }
+
+    /**
+     * The same update the function writes once its transaction committed.
+     */
+    private void finish(String key, GameEngine.Action action, Resolution resolution, Map<String, Object> state) {
+        String reason = resolution.reason.name().toLowerCase(Locale.US);
+        count(action + " " + reason);
+
+        Map<String, Object> outcome = new TreeMap<>();
+        outcome.put("accepted", resolution.reason == GameEngine.Reason.OK);
+        outcome.put("reason", reason);
+        if (action == GameEngine.Action.LEAVE && resolution.reason == GameEngine.Reason.OK) {
+            outcome.put("distance", 0L);
+        } else if (!Double.isInfinite(resolution.distance)) {
+            outcome.put("distance", Math.round(resolution.distance));
+        }
+
+        Map<String, Object> update = new HashMap<>();
+        update.put(mGamePath + "/outcomes/" + key, outcome);
+        update.put(mGamePath + "/actions/" + key, null);
+        Map<String, Object> players = asMap(state.get("players"));
+        for (String player : resolution.changed) {
+            Object status = asMap(players.get(player)).get("status");
+            update.put(mGamePath + "/players/" + player + "/status", status);
+            update.put(mGamePath + "/positions/" + player + "/status", status);
+        }
+        if (resolution.reason == GameEngine.Reason.OK
+                && GameStatus.decode(state.get("status"), null) == GameStatus.FINISHED) {
+            update.put(mGamePath + "/status", state.get("status"));
+            update.put(mGamePath + "/result", state.get("result"));
+            update.put(mGamePath + "/assassinWon", state.get("assassinWon"));
+        }
+        mDatabase.updateChildren("", update);
+    }
+
+    /**
+     * Same as the function's rejected() outcome for reasons the engine doesn't have.
+     */
+    private void reject(String key, String type, String reason) {
+        count(type + " " + reason);
+        Map<String, Object> outcome = new TreeMap<>();
+        outcome.put("accepted", false);
+        outcome.put("reason", reason);
+        Map<String, Object> update = new HashMap<>();
+        update.put(mGamePath + "/outcomes/" + key, outcome);
+        update.put(mGamePath + "/actions/" + key, null);
+        mDatabase.updateChildren("", update);
+    }
+
+    private void count(String outcomeName) {
+        Integer count = mOutcomes.get(outcomeName);
+        mOutcomes.put(outcomeName, count == null ? 1 : count + 1);
+    }
+
+    private static void moveFrom(GameEngine engine, int player, Object position) {
+        if (player == GameEngine.NONE)
+            return;
+        Map<String, Object> values = asMap(position);
+        Object lat = values.get("lat");
+        Object lng = values.get("lng");
+        if (lat instanceof Number && lng instanceof Number) {
+            engine.move(player, ((Number) lat).doubleValue(), ((Number) lng).doubleValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : new TreeMap<String, Object>();
+    }
+}